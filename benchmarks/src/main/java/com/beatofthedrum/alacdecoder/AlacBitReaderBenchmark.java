@@ -0,0 +1,343 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.beatofthedrum.alacdecoder;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.phlo.AirReceiver.SyntheticAlacFrames;
+
+/**
+ * Compares the cached bit reader of {@link AlacDecodeUtils} with the
+ * byte-at-a-time reader it replaced, which re-read up to three bytes of
+ * the input for every read, fetched the unary prefix of each Rice code
+ * one bit at a time and computed leading zeros with a lookup cascade.
+ * <p>
+ * All benchmarks report frames per second. {@link #riceDecode()} and
+ * {@link #legacyRiceDecode()} only decode the Rice-coded residuals of
+ * both channels, {@link #decodeFrame()} decodes complete frames including
+ * prediction. The frames are produced by {@link SyntheticAlacFrames}.
+ * <p>
+ * This class lives in the decoder's package to reach the bit reader.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlacBitReaderBenchmark {
+	/**
+	 * Number of distinct frames the benchmarks cycle through
+	 */
+	private static final int FrameCount = 64;
+
+	private static final int SamplesPerFrame = SyntheticAlacFrames.SamplesPerFrame;
+
+	/**
+	 * Rice parameters, computed from the format options the same way decode_frame does
+	 */
+	private static final int ReadSampleSize = SyntheticAlacFrames.SampleSize + 1;
+	private static final int RiceHistoryMult = SyntheticAlacFrames.RiceModifier * SyntheticAlacFrames.RiceHistoryMult / 4;
+	private static final int RiceKModifierMask = (1 << SyntheticAlacFrames.RiceKModifier) - 1;
+
+	/**
+	 * Frames padded as required by the ALAC decoder
+	 */
+	private byte[][] m_frames;
+
+	private AlacFile m_alacFile;
+	private LegacyBitReader m_legacyReader;
+	private int[] m_residuals;
+	private int[] m_pcmSamples;
+
+	private int m_index = 0;
+
+	@Setup
+	public void setup() {
+		final SyntheticAlacFrames frames = new SyntheticAlacFrames(FrameCount, 0);
+
+		m_frames = new byte[FrameCount][];
+		for(int i=0; i < FrameCount; ++i)
+			m_frames[i] = Arrays.copyOf(frames.getFrame(i), frames.getFrame(i).length + 3);
+
+		m_alacFile = SyntheticAlacFrames.createDecoder();
+		m_legacyReader = new LegacyBitReader();
+		m_residuals = new int[SamplesPerFrame];
+		m_pcmSamples = new int[2 * SamplesPerFrame];
+
+		/* Make sure both readers agree before comparing their speed */
+		final int[] legacyResiduals = new int[SamplesPerFrame];
+		for(int i=0; i < FrameCount; ++i) {
+			startFrame(m_frames[i]);
+			m_legacyReader.start(m_frames[i]);
+			for(int c=0; c < 2; ++c) {
+				AlacDecodeUtils.entropy_rice_decode(m_alacFile, m_residuals, SamplesPerFrame, ReadSampleSize, SyntheticAlacFrames.RiceInitialHistory, SyntheticAlacFrames.RiceKModifier, RiceHistoryMult, RiceKModifierMask);
+				m_legacyReader.entropy_rice_decode(legacyResiduals, SamplesPerFrame, ReadSampleSize, SyntheticAlacFrames.RiceInitialHistory, SyntheticAlacFrames.RiceKModifier, RiceHistoryMult, RiceKModifierMask);
+				if (!Arrays.equals(m_residuals, legacyResiduals))
+					throw new IllegalStateException("Bit readers disagree on frame " + i + ", channel " + c);
+			}
+		}
+	}
+
+	private int nextIndex() {
+		m_index = (m_index + 1) % FrameCount;
+		return m_index;
+	}
+
+	/**
+	 * Positions the decoder's bit reader at the first channel's residuals
+	 */
+	private void startFrame(final byte[] frame) {
+		m_alacFile.input_buffer = frame;
+		m_alacFile.ibIdx = 0;
+		m_alacFile.input_buffer_bitcache = 0;
+		m_alacFile.input_buffer_bitcount = 0;
+		for(int skip = SyntheticAlacFrames.ResidualOffsetBits; skip > 0; skip -= 16)
+			AlacDecodeUtils.readbits(m_alacFile, Math.min(skip, 16));
+	}
+
+	/**
+	 * Decodes the residuals of a frame's channels with the cached bit reader
+	 */
+	@Benchmark
+	public int[] riceDecode() {
+		startFrame(m_frames[nextIndex()]);
+		for(int c=0; c < 2; ++c)
+			AlacDecodeUtils.entropy_rice_decode(m_alacFile, m_residuals, SamplesPerFrame, ReadSampleSize, SyntheticAlacFrames.RiceInitialHistory, SyntheticAlacFrames.RiceKModifier, RiceHistoryMult, RiceKModifierMask);
+		return m_residuals;
+	}
+
+	/**
+	 * Decodes the residuals of a frame's channels with the legacy bit reader
+	 */
+	@Benchmark
+	public int[] legacyRiceDecode() {
+		m_legacyReader.start(m_frames[nextIndex()]);
+		for(int c=0; c < 2; ++c)
+			m_legacyReader.entropy_rice_decode(m_residuals, SamplesPerFrame, ReadSampleSize, SyntheticAlacFrames.RiceInitialHistory, SyntheticAlacFrames.RiceKModifier, RiceHistoryMult, RiceKModifierMask);
+		return m_residuals;
+	}
+
+	/**
+	 * Decodes a complete frame
+	 */
+	@Benchmark
+	public int decodeFrame() {
+		return AlacDecodeUtils.decode_frame(m_alacFile, m_frames[nextIndex()], m_pcmSamples, SamplesPerFrame);
+	}
+
+	/**
+	 * The bit reader and Rice decoder as they were before the bit cache was
+	 * introduced. Only the formatting changed, and the reader
+	 * holds its state itself instead of keeping it in {@link AlacFile}
+	 */
+	private static final class LegacyBitReader {
+		private byte[] input_buffer;
+		private int ibIdx;
+		private int input_buffer_bitaccumulator;
+		private final LeadingZeros lz = new LeadingZeros();
+
+		private static final class LeadingZeros {
+			public int curbyte = 0;
+			public int output = 0;
+		}
+
+		void start(final byte[] frame) {
+			input_buffer = frame;
+			ibIdx = 0;
+			input_buffer_bitaccumulator = 0;
+			for(int skip = SyntheticAlacFrames.ResidualOffsetBits; skip > 0; skip -= 16)
+				readbits(Math.min(skip, 16));
+		}
+
+		int readbits_16(int bits) {
+			int result = ((input_buffer[ibIdx] & 0xff) << 16) | ((input_buffer[ibIdx + 1] & 0xff) << 8) | (input_buffer[ibIdx + 2] & 0xff);
+			result = result << input_buffer_bitaccumulator;
+			result = result & 0x00ffffff;
+			result = result >> (24 - bits);
+
+			int new_accumulator = (input_buffer_bitaccumulator + bits);
+			ibIdx += (new_accumulator >> 3);
+			input_buffer_bitaccumulator = (new_accumulator & 7);
+
+			return result;
+		}
+
+		int readbits(int bits) {
+			int result = 0;
+			if (bits > 16) {
+				bits -= 16;
+				result = readbits_16(16) << bits;
+			}
+			result |= readbits_16(bits);
+			return result;
+		}
+
+		int readbit() {
+			int result = (input_buffer[ibIdx] & 0xff);
+			result = result << input_buffer_bitaccumulator;
+			result = result >> 7 & 1;
+
+			int new_accumulator = (input_buffer_bitaccumulator + 1);
+			ibIdx += new_accumulator / 8;
+			input_buffer_bitaccumulator = (new_accumulator % 8);
+
+			return result;
+		}
+
+		void unreadbits(int bits) {
+			int new_accumulator = (input_buffer_bitaccumulator - bits);
+			ibIdx += (new_accumulator >> 3);
+			input_buffer_bitaccumulator = (new_accumulator & 7);
+			if (input_buffer_bitaccumulator < 0)
+				input_buffer_bitaccumulator *= -1;
+		}
+
+		LeadingZeros count_leading_zeros_extra(int curbyte, int output) {
+			if ((curbyte & 0xf0) == 0)
+				output += 4;
+			else
+				curbyte = curbyte >> 4;
+
+			if ((curbyte & 0x8) != 0) {
+				lz.output = output;
+			}
+			else if ((curbyte & 0x4) != 0) {
+				lz.output = output + 1;
+			}
+			else if ((curbyte & 0x2) != 0) {
+				lz.output = output + 2;
+			}
+			else if ((curbyte & 0x1) != 0) {
+				lz.output = output + 3;
+			}
+			else {
+				lz.output = output + 4;
+			}
+			lz.curbyte = curbyte;
+			return lz;
+		}
+
+		int count_leading_zeros(int input) {
+			int output = 0;
+			int curbyte = input >> 24;
+			if (curbyte != 0) {
+				count_leading_zeros_extra(curbyte, output);
+				return lz.output;
+			}
+			output += 8;
+
+			curbyte = input >> 16;
+			if ((curbyte & 0xFF) != 0) {
+				count_leading_zeros_extra(curbyte, output);
+				return lz.output;
+			}
+			output += 8;
+
+			curbyte = input >> 8;
+			if ((curbyte & 0xFF) != 0) {
+				count_leading_zeros_extra(curbyte, output);
+				return lz.output;
+			}
+			output += 8;
+
+			curbyte = input;
+			if ((curbyte & 0xFF) != 0) {
+				count_leading_zeros_extra(curbyte, output);
+				return lz.output;
+			}
+			output += 8;
+
+			return output;
+		}
+
+		int entropy_decode_value(int readSampleSize, int k, int rice_kmodifier_mask) {
+			int x = 0;
+			while (x <= Defines.RICE_THRESHOLD && readbit() != 0)
+				x++;
+
+			if (x > Defines.RICE_THRESHOLD) {
+				int value = readbits(readSampleSize);
+				value &= ((0xffffffff) >> (32 - readSampleSize));
+				x = value;
+			}
+			else if (k != 1) {
+				int extraBits = readbits(k);
+				x *= (((1 << k) - 1) & rice_kmodifier_mask);
+				if (extraBits > 1)
+					x += extraBits - 1;
+				else
+					unreadbits(1);
+			}
+
+			return x;
+		}
+
+		void entropy_rice_decode(int[] outputBuffer, int outputSize, int readSampleSize, int rice_initialhistory, int rice_kmodifier, int rice_historymult, int rice_kmodifier_mask) {
+			int history = rice_initialhistory;
+			int outputCount = 0;
+			int signModifier = 0;
+
+			while (outputCount < outputSize) {
+				int k = 31 - rice_kmodifier - count_leading_zeros((history >> 9) + 3);
+				if (k < 0)
+					k += rice_kmodifier;
+				else
+					k = rice_kmodifier;
+
+				int decodedValue = entropy_decode_value(readSampleSize, k, 0xFFFFFFFF);
+
+				decodedValue += signModifier;
+				int finalValue = ((decodedValue + 1) / 2);
+				if ((decodedValue & 1) != 0)
+					finalValue *= -1;
+
+				outputBuffer[outputCount] = finalValue;
+
+				signModifier = 0;
+
+				history += (decodedValue * rice_historymult) - ((history * rice_historymult) >> 9);
+
+				if (decodedValue > 0xFFFF)
+					history = 0xFFFF;
+
+				if ((history < 128) && (outputCount + 1 < outputSize)) {
+					signModifier = 1;
+
+					k = count_leading_zeros(history) + ((history + 16) / 64) - 24;
+
+					int blockSize = entropy_decode_value(16, k, rice_kmodifier_mask);
+					if (blockSize > 0) {
+						for (int j = 0; j < blockSize; j++)
+							outputBuffer[outputCount + 1 + j] = 0;
+						outputCount += blockSize;
+					}
+
+					if (blockSize > 0xFFFF)
+						signModifier = 0;
+
+					history = 0;
+				}
+
+				outputCount++;
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the bulk in-place decryption done by {@link RaopRtpAudioDecryptionHandler}
+ * with the per-block loop it used to do, which copied every 16-byte block into
+ * a freshly allocated array and called {@link Cipher#update(byte[])} for it.
+ * <p>
+ * Run with {@code -prof gc} to see the allocation rates as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RaopRtpAudioDecryptionBenchmark {
+	/**
+	 * Payload lengths. 972 bytes are 60 full blocks plus a
+	 * trailing partial block, roughly what iTunes sends per packet
+	 */
+	@Param({"972", "1412"})
+	public int payloadLength;
+
+	private SecretKey m_aesKey;
+	private IvParameterSpec m_aesIv;
+	private RaopRtpAudioDecryptionHandler m_decryptionHandler;
+	private Cipher m_perBlockCipher;
+	private RaopRtpPacket.AudioTransmit m_packet;
+
+	@Setup
+	public void setup() throws Exception {
+		final Random random = new Random(0);
+
+		final byte[] aesKey = new byte[16];
+		random.nextBytes(aesKey);
+		m_aesKey = new SecretKeySpec(aesKey, "AES");
+
+		final byte[] aesIv = new byte[16];
+		random.nextBytes(aesIv);
+		m_aesIv = new IvParameterSpec(aesIv);
+
+		m_decryptionHandler = new RaopRtpAudioDecryptionHandler(m_aesKey, m_aesIv);
+		m_perBlockCipher = AirTunesCrytography.getCipher("AES/CBC/NoPadding");
+
+		/* Decryption happens in-place, so the payload's content changes with
+		 * every invocation. That doesn't matter, AES doesn't care about the data
+		 */
+		m_packet = new RaopRtpPacket.AudioTransmit(payloadLength);
+		final byte[] payload = new byte[payloadLength];
+		random.nextBytes(payload);
+		m_packet.getPayload().setBytes(0, payload);
+	}
+
+	@Benchmark
+	public Object bulk() throws Exception {
+		return m_decryptionHandler.decode(null, null, m_packet);
+	}
+
+	@Benchmark
+	public Object perBlock() throws Exception {
+		final ChannelBuffer audioPayload = m_packet.getPayload();
+
+		m_perBlockCipher.init(Cipher.DECRYPT_MODE, m_aesKey, m_aesIv);
+		for(int i=0; (i + 16) <= audioPayload.capacity(); i += 16) {
+			byte[] block = new byte[16];
+			audioPayload.getBytes(i, block);
+			block = m_perBlockCipher.update(block);
+			audioPayload.setBytes(i, block);
+		}
+
+		return m_packet;
+	}
+}
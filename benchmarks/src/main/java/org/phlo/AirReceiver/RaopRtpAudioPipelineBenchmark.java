@@ -0,0 +1,279 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.*;
+
+import com.beatofthedrum.alacdecoder.*;
+
+/**
+ * Benchmarks the individual steps an audio packet goes through, from
+ * parsing the datagram to handing the PCM samples to the audio line.
+ * All stages work on synthetic ALAC frames, see {@link SyntheticAlacFrames}.
+ * <p>
+ * Each stage is measured in throughput mode (ops/us) and in sample mode,
+ * which reports the latency distribution including the p0.99 percentile.
+ * Run with {@code -prof gc} to get the allocation rate per stage as well.
+ * <p>
+ * The {@link #enqueue(OutputQueueState)} stage plays to /dev/null through a
+ * {@link FileChannelAudioOutputSink}, and thus needs no audio output device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RaopRtpAudioPipelineBenchmark {
+	/**
+	 * Number of distinct frames the benchmarks cycle through
+	 */
+	private static final int FrameCount = 64;
+
+	private SyntheticAlacFrames m_frames;
+
+	/**
+	 * Raw datagrams containing the frames, for the parsing stage
+	 */
+	private ChannelBuffer[] m_datagrams;
+
+	/**
+	 * Parsed and encrypted packets, for the decryption stage
+	 */
+	private RaopRtpPacket.AudioTransmit[] m_encryptedPackets;
+
+	/**
+	 * Encrypted payloads of {@link #m_encryptedPackets}, used to restore the
+	 * packets after they were decrypted in-place
+	 */
+	private byte[][] m_encryptedPayloads;
+
+	/**
+	 * Parsed and decrypted packets, for the ALAC decode handler stage
+	 */
+	private RaopRtpPacket.AudioTransmit[] m_alacPackets;
+
+	/**
+	 * Frames padded as required by the ALAC decoder, for the decode_frame stage
+	 */
+	private byte[][] m_paddedFrames;
+
+	/**
+	 * Unsigned big endian PCM, for the conversion stage
+	 */
+	private byte[] m_pcmBytes;
+
+	private RaopRtpDecodeHandler m_decodeHandler;
+	private RaopRtpAudioDecryptionHandler m_decryptionHandler;
+	private RaopRtpAudioAlacDecodeHandler m_alacDecodeHandler;
+	private AlacFile m_alacFile;
+	private int[] m_pcmSamples;
+
+	private int m_index = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		final Random random = new Random(0);
+
+		m_frames = new SyntheticAlacFrames(FrameCount, 0);
+
+		final byte[] aesKey = new byte[16];
+		random.nextBytes(aesKey);
+		final byte[] aesIv = new byte[16];
+		random.nextBytes(aesIv);
+		final SecretKeySpec aesKeySpec = new SecretKeySpec(aesKey, "AES");
+		final IvParameterSpec aesIvSpec = new IvParameterSpec(aesIv);
+
+		/* Encrypts the payloads the way AirTunes does, i.e. only full blocks
+		 * are encrypted and the trailing partial block is left as it is
+		 */
+		final Cipher aesCipher = Cipher.getInstance("AES/CBC/NoPadding");
+		aesCipher.init(Cipher.ENCRYPT_MODE, aesKeySpec, aesIvSpec);
+
+		m_datagrams = new ChannelBuffer[FrameCount];
+		m_encryptedPackets = new RaopRtpPacket.AudioTransmit[FrameCount];
+		m_encryptedPayloads = new byte[FrameCount][];
+		m_alacPackets = new RaopRtpPacket.AudioTransmit[FrameCount];
+		m_paddedFrames = new byte[FrameCount][];
+		for(int i=0; i < FrameCount; ++i) {
+			final byte[] frame = m_frames.getFrame(i);
+
+			final RaopRtpPacket.AudioTransmit packet = new RaopRtpPacket.AudioTransmit(frame.length);
+			packet.setSequence(i);
+			packet.setTimeStamp(i * SyntheticAlacFrames.SamplesPerFrame);
+			packet.getPayload().setBytes(0, frame);
+
+			m_datagrams[i] = packet.getBuffer();
+			final byte[] encryptedFrame = frame.clone();
+			final int encryptedLength = encryptedFrame.length & ~0xf;
+			aesCipher.doFinal(encryptedFrame, 0, encryptedLength, encryptedFrame, 0);
+			m_encryptedPayloads[i] = encryptedFrame;
+			m_encryptedPackets[i] = (RaopRtpPacket.AudioTransmit)RaopRtpPacket.decode(packet.getBuffer().copy());
+			m_encryptedPackets[i].getPayload().setBytes(0, encryptedFrame);
+			m_alacPackets[i] = (RaopRtpPacket.AudioTransmit)RaopRtpPacket.decode(packet.getBuffer().copy());
+			m_paddedFrames[i] = Arrays.copyOf(frame, frame.length + 3);
+		}
+
+		m_decodeHandler = new RaopRtpDecodeHandler();
+		m_decryptionHandler = new RaopRtpAudioDecryptionHandler(aesKeySpec, aesIvSpec);
+
+		/* Verify that the decryption stage actually recovers the frames */
+		for(int i=0; i < FrameCount; ++i) {
+			final RaopRtpPacket.AudioTransmit packet = m_encryptedPackets[i];
+			m_decryptionHandler.decode(null, null, packet);
+			final byte[] decrypted = new byte[packet.getPayload().capacity()];
+			packet.getPayload().getBytes(0, decrypted);
+			if (!Arrays.equals(decrypted, m_frames.getFrame(i)))
+				throw new IllegalStateException("decryption of frame " + i + " failed");
+			packet.getPayload().setBytes(0, m_encryptedPayloads[i]);
+		}
+		m_alacDecodeHandler = new RaopRtpAudioAlacDecodeHandler(SyntheticAlacFrames.FormatOptions);
+		m_alacFile = SyntheticAlacFrames.createDecoder();
+		m_pcmSamples = new int[2 * SyntheticAlacFrames.SamplesPerFrame];
+
+		m_pcmBytes = new byte[4 * SyntheticAlacFrames.SamplesPerFrame];
+		random.nextBytes(m_pcmBytes);
+	}
+
+	private int nextIndex() {
+		m_index = (m_index + 1) % FrameCount;
+		return m_index;
+	}
+
+	/**
+	 * Parses a datagram into a {@link RaopRtpPacket}
+	 */
+	@Benchmark
+	public Object parse() throws Exception {
+		return m_decodeHandler.decode(null, null, m_datagrams[nextIndex()]);
+	}
+
+	/**
+	 * Decrypts a packet's payload. Decryption happens in-place, so the
+	 * encrypted payload is restored first. That copy is included in the
+	 * measurement, but is small compared to the decryption itself
+	 */
+	@Benchmark
+	public Object decrypt() throws Exception {
+		final int index = nextIndex();
+		final RaopRtpPacket.AudioTransmit packet = m_encryptedPackets[index];
+		/* Via the packet's buffer, since getPayload() would allocate a slice */
+		packet.getBuffer().setBytes(packet.getPayloadOffset(), m_encryptedPayloads[index]);
+		return m_decryptionHandler.decode(null, null, packet);
+	}
+
+	/**
+	 * Decodes an ALAC frame to PCM samples
+	 */
+	@Benchmark
+	public int decodeFrame() {
+		return AlacDecodeUtils.decode_frame(m_alacFile, m_paddedFrames[nextIndex()], m_pcmSamples, SyntheticAlacFrames.SamplesPerFrame);
+	}
+
+	/**
+	 * Decodes an ALAC packet to a PCM packet, i.e. {@link #decodeFrame()} plus
+	 * the conversion to unsigned big endian PCM done by the handler
+	 */
+	@Benchmark
+	public Object alacDecode() throws Exception {
+		return m_alacDecodeHandler.decode(null, null, m_alacPackets[nextIndex()]);
+	}
+
+	/**
+	 * Converts a packet's worth of unsigned PCM samples to signed, as done before
+	 * samples are written to the audio line
+	 */
+	@Benchmark
+	public byte[] convertUnsignedToSigned() {
+		AudioOutputQueue.convertUnsignedToSigned(m_pcmBytes, 0, m_pcmBytes.length);
+		return m_pcmBytes;
+	}
+
+	/**
+	 * State for the {@link #enqueue(OutputQueueState)} stage
+	 */
+	@State(Scope.Thread)
+	public static class OutputQueueState {
+		/**
+		 * How far ahead of the line packets are scheduled, a quarter second
+		 */
+		static final long LeadFrames = 11025;
+
+		/**
+		 * Maximal lead before the frame time is re-anchored, stays well
+		 * below the queue's maximal length
+		 */
+		static final long LeadFramesMax = 8 * 44100;
+
+		AudioOutputQueue queue;
+		byte[] samples;
+		long frameTime;
+
+		@Setup
+		public void setup() throws Exception {
+			queue = new AudioOutputQueue(
+				new RaopRtpAudioAlacDecodeHandler(SyntheticAlacFrames.FormatOptions),
+				new FileChannelAudioOutputSink.Factory(new File("/dev/null"))
+			);
+			samples = new byte[4 * SyntheticAlacFrames.SamplesPerFrame];
+			frameTime = queue.getNextFrameTime() + LeadFrames;
+		}
+
+		/**
+		 * Returns the frame time of the next packet. Successive packets are
+		 * consecutive, like a real stream. Since packets are enqueued much
+		 * faster than they're played, the frame time is re-anchored once it
+		 * runs too far ahead (or falls behind) the line
+		 */
+		long nextFrameTime() {
+			final long nextLineFrameTime = queue.getNextFrameTime();
+			if ((frameTime < nextLineFrameTime + LeadFrames) || (frameTime > nextLineFrameTime + LeadFramesMax))
+				frameTime = nextLineFrameTime + LeadFrames;
+
+			final long packetFrameTime = frameTime;
+			frameTime += SyntheticAlacFrames.SamplesPerFrame;
+			return packetFrameTime;
+		}
+
+		@TearDown
+		public void tearDown() {
+			queue.close();
+		}
+	}
+
+	/**
+	 * Places a packet's worth of PCM samples onto the audio output queue.
+	 * Packets are consecutive and scheduled at least a quarter second into
+	 * the future, i.e. neither too late nor too early to be accepted
+	 */
+	@Benchmark
+	public boolean enqueue(final OutputQueueState state) {
+		return state.queue.enqueue(state.nextFrameTime(), state.samples);
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.beatofthedrum.alacdecoder.*;
+
+/**
+ * Generates synthetic ALAC frames for the benchmarks.
+ * <p>
+ * The frames are stereo, 16-bit and Rice-coded with an adaptive FIR predictor,
+ * i.e. they exercise the same decoder paths as the frames sent by iTunes and iOS.
+ * The encoder simply mirrors what {@link AlacDecodeUtils#decode_frame} does, the
+ * generated frames are verified to decode to the PCM samples they were created
+ * from.
+ */
+public final class SyntheticAlacFrames {
+	/**
+	 * Format options as they appear in the SDP session announcement of iTunes
+	 */
+	public static final String[] FormatOptions = { "352", "0", "16", "40", "10", "14", "2", "255", "0", "0", "44100" };
+
+	public static final int SamplesPerFrame = 352;
+
+	public static final int SampleSize = 16;
+	public static final int RiceHistoryMult = 40;
+	public static final int RiceInitialHistory = 10;
+	public static final int RiceKModifier = 14;
+	private static final int RiceThreshold = 8;
+
+	public static final int RiceModifier = 4;
+	public static final int PredictorCoefNum = 8;
+	private static final int PredictorQuantization = 9;
+
+	/**
+	 * Number of bits preceding the first channel's residuals in each frame,
+	 * i.e. the frame header plus the two channels' predictor descriptions
+	 */
+	public static final int ResidualOffsetBits = 3 + 4 + 12 + 1 + 2 + 1 + 8 + 8 + 2 * (4 + 4 + 3 + 5 + PredictorCoefNum * 16);
+
+	/**
+	 * Encoded frames
+	 */
+	private final byte[][] m_frames;
+
+	/**
+	 * Interleaved signed PCM samples the frames encode
+	 */
+	private final int[][] m_samples;
+
+	/**
+	 * Generates frames containing a mixture of sine waves and noise, with
+	 * every 16th frame being silent
+	 *
+	 * @param frameCount number of frames
+	 * @param seed random seed
+	 */
+	public SyntheticAlacFrames(final int frameCount, final long seed) {
+		final Random random = new Random(seed);
+
+		m_frames = new byte[frameCount][];
+		m_samples = new int[frameCount][];
+
+		int time = 0;
+		for(int f=0; f < frameCount; ++f) {
+			final int[] left = new int[SamplesPerFrame];
+			final int[] right = new int[SamplesPerFrame];
+			if (f % 16 != 15) {
+				for(int i=0; i < SamplesPerFrame; ++i, ++time) {
+					final double t = time / 44100.0;
+					final double a = Math.sin(2.0 * Math.PI * 220.0 * t) + 0.5 * Math.sin(2.0 * Math.PI * 1375.0 * t);
+					final double b = Math.sin(2.0 * Math.PI * 330.0 * t) + 0.3 * Math.sin(2.0 * Math.PI * 2750.0 * t);
+					left[i] = clip((int)Math.round(9000.0 * a + 200.0 * random.nextGaussian()));
+					right[i] = clip((int)Math.round(9000.0 * b + 200.0 * random.nextGaussian()));
+				}
+			}
+			else {
+				time += SamplesPerFrame;
+			}
+
+			m_frames[f] = encode(left, right);
+			m_samples[f] = new int[2 * SamplesPerFrame];
+			for(int i=0; i < SamplesPerFrame; ++i) {
+				m_samples[f][2*i] = left[i];
+				m_samples[f][2*i + 1] = right[i];
+			}
+		}
+
+		verify();
+	}
+
+	public int getFrameCount() {
+		return m_frames.length;
+	}
+
+	/**
+	 * Returns an encoded frame
+	 *
+	 * @param index frame index
+	 * @return ALAC frame
+	 */
+	public byte[] getFrame(final int index) {
+		return m_frames[index];
+	}
+
+	/**
+	 * Returns the interleaved signed PCM samples a frame decodes to
+	 *
+	 * @param index frame index
+	 * @return PCM samples
+	 */
+	public int[] getSamples(final int index) {
+		return m_samples[index];
+	}
+
+	/**
+	 * Creates a decoder configured like {@link RaopRtpAudioAlacDecodeHandler}
+	 * configures it for the {@link #FormatOptions}.
+	 *
+	 * @return decoder state
+	 */
+	public static AlacFile createDecoder() {
+		final AlacFile alacFile = AlacDecodeUtils.create_alac(SampleSize, 2);
+		alacFile.setinfo_max_samples_per_frame = SamplesPerFrame;
+		alacFile.setinfo_7a = 0;
+		alacFile.setinfo_sample_size = SampleSize;
+		alacFile.setinfo_rice_historymult = RiceHistoryMult;
+		alacFile.setinfo_rice_initialhistory = RiceInitialHistory;
+		alacFile.setinfo_rice_kmodifier = RiceKModifier;
+		alacFile.setinfo_7f = 2;
+		alacFile.setinfo_80 = 255;
+		alacFile.setinfo_82 = 0;
+		alacFile.setinfo_86 = 0;
+		alacFile.setinfo_8a_rate = 44100;
+		return alacFile;
+	}
+
+	private void verify() {
+		final AlacFile alacFile = createDecoder();
+		final int[] decoded = new int[2 * SamplesPerFrame];
+		for(int f=0; f < m_frames.length; ++f) {
+			final byte[] input = Arrays.copyOf(m_frames[f], m_frames[f].length + 3);
+			final int bytes = AlacDecodeUtils.decode_frame(alacFile, input, decoded, SamplesPerFrame);
+			if ((bytes != 4 * SamplesPerFrame) || !Arrays.equals(decoded, m_samples[f]))
+				throw new IllegalStateException("Synthetic ALAC frame " + f + " did not decode correctly");
+		}
+	}
+
+	private static int clip(final int sample) {
+		return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+	}
+
+	private static byte[] encode(final int[] left, final int[] right) {
+		final BitWriter writer = new BitWriter();
+
+		/* Frame header. Two channels, no sample count, compressed */
+		writer.write(1, 3);
+		writer.write(0, 4);
+		writer.write(0, 12);
+		writer.write(0, 1);
+		writer.write(0, 2);
+		writer.write(0, 1);
+
+		/* No interlacing, i.e. channels are independent */
+		writer.write(0, 8);
+		writer.write(0, 8);
+
+		/* The decoder adds one bit of head room for stereo frames */
+		final int readSampleSize = SampleSize + 1;
+
+		final int[] coefs = initialCoefs();
+		for(int c=0; c < 2; ++c) {
+			writer.write(0, 4);
+			writer.write(PredictorQuantization, 4);
+			writer.write(RiceModifier, 3);
+			writer.write(PredictorCoefNum, 5);
+			for(int j=0; j < PredictorCoefNum; ++j)
+				writer.write(coefs[j] & 0xffff, 16);
+		}
+
+		final int riceHistoryMult = RiceModifier * (RiceHistoryMult / 4);
+		encodeResiduals(writer, predict(left), readSampleSize, riceHistoryMult);
+		encodeResiduals(writer, predict(right), readSampleSize, riceHistoryMult);
+
+		/* End tag */
+		writer.write(7, 3);
+
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Initial predictor, predicts each sample to equal the previous one
+	 */
+	private static int[] initialCoefs() {
+		final int[] coefs = new int[PredictorCoefNum];
+		coefs[0] = 1 << PredictorQuantization;
+		return coefs;
+	}
+
+	/**
+	 * Computes the prediction errors, mirroring
+	 * the decoder's adaptive FIR predictor
+	 */
+	private static int[] predict(final int[] out) {
+		final int n = out.length;
+		final int num = PredictorCoefNum;
+		final int quant = PredictorQuantization;
+		final int[] coefs = initialCoefs();
+		final int[] error = new int[n];
+
+		error[0] = out[0];
+		for(int i=0; i < num; ++i)
+			error[i+1] = out[i+1] - out[i];
+
+		for(int i=num + 1; i < n; ++i) {
+			final int idx = i - num - 1;
+
+			int sum = 0;
+			for(int j=0; j < num; ++j)
+				sum += (out[idx + num - j] - out[idx]) * coefs[j];
+
+			final int prediction = (((1 << (quant - 1)) + sum) >> quant) + out[idx];
+			error[i] = out[i] - prediction;
+
+			int errorVal = error[i];
+			if (errorVal > 0) {
+				for(int p=num - 1; (p >= 0) && (errorVal > 0); --p) {
+					int val = out[idx] - out[idx + num - p];
+					final int sign = Integer.signum(val);
+					coefs[p] -= sign;
+					val *= sign;
+					errorVal -= (val >> quant) * (num - p);
+				}
+			}
+			else if (errorVal < 0) {
+				for(int p=num - 1; (p >= 0) && (errorVal < 0); --p) {
+					int val = out[idx] - out[idx + num - p];
+					final int sign = -Integer.signum(val);
+					coefs[p] -= sign;
+					val *= sign;
+					errorVal -= (val >> quant) * (num - p);
+				}
+			}
+		}
+
+		return error;
+	}
+
+	/**
+	 * Rice-codes the prediction errors, mirroring the decoder's history tracking
+	 */
+	private static void encodeResiduals(final BitWriter writer, final int[] error, final int readSampleSize, final int riceHistoryMult) {
+		final int n = error.length;
+		final int kModifierMask = (1 << RiceKModifier) - 1;
+
+		int history = RiceInitialHistory;
+		int signModifier = 0;
+		for(int i=0; i < n; ++i) {
+			int k = 31 - RiceKModifier - Integer.numberOfLeadingZeros((history >> 9) + 3);
+			k = (k < 0) ? k + RiceKModifier : RiceKModifier;
+
+			final int value = error[i];
+			final int decodedValue = (value > 0) ? 2 * value : -2 * value - (value < 0 ? 1 : 0);
+			encodeValue(writer, decodedValue - signModifier, readSampleSize, k, 0xffffffff);
+			signModifier = 0;
+
+			history += decodedValue * riceHistoryMult - ((history * riceHistoryMult) >> 9);
+			if (decodedValue > 0xffff)
+				history = 0xffff;
+
+			if ((history < 128) && (i + 1 < n)) {
+				/* Run of zeros */
+				signModifier = 1;
+				k = Integer.numberOfLeadingZeros(history) + ((history + 16) / 64) - 24;
+
+				int blockSize = 0;
+				while ((i + 1 + blockSize < n) && (error[i + 1 + blockSize] == 0) && (blockSize < 0xffff))
+					++blockSize;
+				encodeValue(writer, blockSize, 16, k, kModifierMask);
+				i += blockSize;
+
+				history = 0;
+			}
+		}
+	}
+
+	private static void encodeValue(final BitWriter writer, final int value, final int readSampleSize, final int k, final int kModifierMask) {
+		final int multiplier = ((1 << k) - 1) & kModifierMask;
+		final int quotient = (k != 1) ? value / multiplier : value;
+
+		if (quotient > RiceThreshold) {
+			/* Escape, store the value raw */
+			if ((value >>> readSampleSize) != 0)
+				throw new IllegalStateException("Value " + value + " exceeds sample size " + readSampleSize);
+			for(int i=0; i <= RiceThreshold; ++i)
+				writer.write(1, 1);
+			writer.write(value, readSampleSize);
+			return;
+		}
+
+		for(int i=0; i < quotient; ++i)
+			writer.write(1, 1);
+		writer.write(0, 1);
+
+		if (k != 1) {
+			final int remainder = value - quotient * multiplier;
+			if (remainder == 0)
+				writer.write(0, k - 1);
+			else
+				writer.write(remainder + 1, k);
+		}
+	}
+
+	/**
+	 * Big endian bit writer
+	 */
+	private static final class BitWriter {
+		private byte[] m_bytes = new byte[1024];
+		private int m_bitPosition = 0;
+
+		void write(final int value, final int bits) {
+			for(int b=bits - 1; b >= 0; --b) {
+				if ((m_bitPosition >> 3) >= m_bytes.length)
+					m_bytes = Arrays.copyOf(m_bytes, 2 * m_bytes.length);
+				if (((value >>> b) & 1) != 0)
+					m_bytes[m_bitPosition >> 3] |= 0x80 >>> (m_bitPosition & 7);
+				++m_bitPosition;
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(m_bytes, (m_bitPosition + 7) >> 3);
+		}
+	}
+}
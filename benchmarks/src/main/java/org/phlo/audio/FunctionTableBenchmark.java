@@ -0,0 +1,101 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares evaluating sinc through a {@link FunctionTable} with
+ * {@link Functions#sinc(float)} and {@link Taylor#sinc(double)}, and the
+ * Kaiser window table with {@link Functions#kaiser(double, double)}.
+ * Reports evaluations per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctionTableBenchmark {
+	private static final int Arguments = 1024;
+	private static final double KaiserBeta = 8.0;
+
+	private final FunctionTable m_sincTable = FunctionTable.sinc(16.0 * Math.PI, 256);
+	private final FunctionTable m_kaiserTable = FunctionTable.kaiser(KaiserBeta, 4096);
+
+	/**
+	 * Arguments in (-0.5, 0.5). The Taylor series is only defined
+	 * on (-1, 1), and converges very slowly close to its edges
+	 */
+	private final float[] m_arguments = new float[Arguments];
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(0);
+		for(int i=0; i < Arguments; ++i)
+			m_arguments[i] = 0.5f * (2.0f * random.nextFloat() - 1.0f);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Arguments)
+	public float sincTable() {
+		float sum = 0.0f;
+		for(int i=0; i < Arguments; ++i)
+			sum += m_sincTable.evaluate(m_arguments[i]);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Arguments)
+	public float sincFunctions() {
+		float sum = 0.0f;
+		for(int i=0; i < Arguments; ++i)
+			sum += Functions.sinc(m_arguments[i]);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Arguments)
+	public double sincTaylor() {
+		double sum = 0.0;
+		for(int i=0; i < Arguments; ++i)
+			sum += Taylor.sinc(m_arguments[i]);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Arguments)
+	public float kaiserTable() {
+		float sum = 0.0f;
+		for(int i=0; i < Arguments; ++i)
+			sum += m_kaiserTable.evaluate(m_arguments[i]);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Arguments)
+	public double kaiserFunctions() {
+		double sum = 0.0;
+		for(int i=0; i < Arguments; ++i)
+			sum += Functions.kaiser(m_arguments[i], KaiserBeta);
+		return sum;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the specialized copy loops of {@link SampleBuffer} (see
+ * {@link SampleCopyKernels}) with the generic path which converts every
+ * sample through accessor and indexer objects, for every combination of
+ * buffer layout, byte order and sample format.
+ * <p>
+ * Each benchmark copies one buffer of stereo samples between a byte buffer
+ * and a banded float buffer, and reports samples per second. Since JMH forks
+ * a new VM for every combination, the setup first runs all combinations
+ * through both paths. That way the generic path's call sites are as
+ * megamorphic as they are in a VM which handles several formats.
+ * <p>
+ * This class lives in the audio package to reach the generic path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleBufferCopyBenchmark {
+	private static final int Channels = 2;
+	private static final int Samples = 4096;
+	private static final int TotalSamples = Channels * Samples;
+
+	private static final SampleDimensions Dimensions = new SampleDimensions(Channels, Samples);
+
+	@Param({"Interleaved", "Banded"})
+	public SampleBufferLayout layout;
+
+	@Param({"BIG_ENDIAN", "LITTLE_ENDIAN"})
+	public String byteOrder;
+
+	@Param({"SignedInteger16", "UnsignedInteger16", "Float32"})
+	public SampleByteFormat sampleFormat;
+
+	private SampleByteBufferFormat m_format;
+	private ByteBuffer m_bytes;
+	private SampleBuffer m_samples;
+
+	@Setup
+	public void setup() {
+		polluteProfiles();
+
+		m_format = createFormat(layout, byteOrder, sampleFormat);
+		m_bytes = createBytes(m_format);
+		m_samples = new SampleBuffer(Dimensions);
+	}
+
+	private static SampleByteBufferFormat createFormat(final SampleBufferLayout layout, final String byteOrder, final SampleByteFormat sampleFormat) {
+		return new SampleByteBufferFormat(
+			layout,
+			"BIG_ENDIAN".equals(byteOrder) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN,
+			sampleFormat
+		);
+	}
+
+	private static ByteBuffer createBytes(final SampleByteBufferFormat format) {
+		final ByteBuffer bytes = format.allocateBuffer(Dimensions);
+		final Random random = new Random(0);
+		if (format.sampleFormat == SampleByteFormat.Float32) {
+			for(int i=0; i < TotalSamples; ++i)
+				bytes.putFloat(4 * i, 2.0f * random.nextFloat() - 1.0f);
+		}
+		else {
+			random.nextBytes(bytes.array());
+		}
+		return bytes;
+	}
+
+	/**
+	 * Runs every combination through both paths
+	 */
+	private static void polluteProfiles() {
+		final SampleBuffer samples = new SampleBuffer(Dimensions);
+		for(final SampleBufferLayout layout: SampleBufferLayout.values()) {
+			for(final String byteOrder: new String[] { "BIG_ENDIAN", "LITTLE_ENDIAN" }) {
+				for(final SampleByteFormat sampleFormat: SampleByteFormat.values()) {
+					final SampleByteBufferFormat format = createFormat(layout, byteOrder, sampleFormat);
+					final ByteBuffer bytes = createBytes(format);
+					for(int i=0; i < 100; ++i) {
+						samples.copyFrom(bytes, Dimensions, format);
+						samples.copyFromGeneric(bytes, Dimensions, new SampleRange(Dimensions), format);
+						samples.copyTo(bytes, Dimensions, format);
+						samples.copyToGeneric(bytes, Dimensions, SampleOffset.Zero, format);
+					}
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TotalSamples)
+	public SampleBuffer copyFrom() {
+		m_samples.copyFrom(m_bytes, Dimensions, m_format);
+		return m_samples;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TotalSamples)
+	public SampleBuffer copyFromGeneric() {
+		m_samples.copyFromGeneric(m_bytes, Dimensions, new SampleRange(Dimensions), m_format);
+		return m_samples;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TotalSamples)
+	public ByteBuffer copyTo() {
+		m_samples.copyTo(m_bytes, Dimensions, m_format);
+		return m_bytes;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TotalSamples)
+	public ByteBuffer copyToGeneric() {
+		m_samples.copyToGeneric(m_bytes, Dimensions, SampleOffset.Zero, m_format);
+		return m_bytes;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the bulk conversions of {@link SampleConversions} with
+ * converting sample by sample through {@link Signedness}, and reports
+ * samples per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleConversionBenchmark {
+	private static final int Samples = 4096;
+
+	@Param({"Signed", "Unsigned"})
+	public Signedness signedness;
+
+	private short[] m_shorts;
+	private float[] m_floats;
+	private byte[] m_bytes;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(0);
+		m_shorts = new short[Samples];
+		m_floats = new float[Samples];
+		m_bytes = new byte[2 * Samples];
+		for(int i=0; i < Samples; ++i) {
+			m_shorts[i] = (short)random.nextInt();
+			m_floats[i] = 2.0f * random.nextFloat() - 1.0f;
+		}
+		random.nextBytes(m_bytes);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Samples)
+	public float[] shortsToFloats() {
+		SampleConversions.shortsToNormalizedFloats(m_shorts, 0, m_floats, 0, Samples, signedness);
+		return m_floats;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Samples)
+	public float[] shortsToFloatsScalar() {
+		for(int i=0; i < Samples; ++i)
+			m_floats[i] = signedness.shortToNormalizedFloat(m_shorts[i]);
+		return m_floats;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Samples)
+	public short[] floatsToShorts() {
+		SampleConversions.normalizedFloatsToShorts(m_floats, 0, m_shorts, 0, Samples, signedness);
+		return m_shorts;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Samples)
+	public short[] floatsToShortsScalar() {
+		for(int i=0; i < Samples; ++i)
+			m_shorts[i] = signedness.shortFromNormalizedFloat(m_floats[i]);
+		return m_shorts;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Samples)
+	public byte[] flipSignBit() {
+		SampleConversions.flipSignBit16(m_bytes, 0, m_bytes.length, true);
+		return m_bytes;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Samples)
+	public byte[] flipSignBitStrided() {
+		for(int i=0; i < m_bytes.length; i += 2)
+			m_bytes[i] = (byte)((m_bytes[i] & 0xff) - 0x80);
+		return m_bytes;
+	}
+}
@@ -0,0 +1,362 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.net.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NotYetBoundException;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.DatagramChannel;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+/**
+ * Netty 3 datagram channel backed by a Netty 4 datagram channel, see
+ * {@link Netty4DatagramChannelFactory}.
+ * <p>
+ * Received datagrams are copied from Netty 4's pooled buffers into heap
+ * buffers of exactly the datagram's size, which are then passed up the
+ * channel's Netty 3 pipeline. The pooled buffers are thus returned to
+ * the pool right away, no matter how long the pipeline holds on to the
+ * packets. Upstream events are fired from the Netty 4 I/O threads.
+ */
+public class Netty4DatagramChannel extends AbstractChannel implements DatagramChannel {
+	private final Netty4DatagramChannelConfig m_config = new Netty4DatagramChannelConfig();
+
+	/**
+	 * Underlying Netty 4 channel, set once the channel is bound
+	 */
+	private volatile io.netty.channel.Channel m_channel;
+
+	private volatile InetSocketAddress m_localAddress;
+	private volatile InetSocketAddress m_remoteAddress;
+
+	Netty4DatagramChannel(final ChannelFactory factory, final ChannelPipeline pipeline, final ChannelSink sink) {
+		super(null, factory, pipeline, sink);
+		Channels.fireChannelOpen(this);
+	}
+
+	/**
+	 * Passes datagrams and failures of the Netty 4 channel on to the Netty 3 pipeline
+	 */
+	private class Receiver extends ChannelInboundHandlerAdapter {
+		@Override
+		public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+			if (!(msg instanceof DatagramPacket)) {
+				ReferenceCountUtil.release(msg);
+				return;
+			}
+
+			final DatagramPacket packet = (DatagramPacket)msg;
+			final ChannelBuffer buffer;
+			try {
+				final ByteBuf content = packet.content();
+				final byte[] bytes = new byte[content.readableBytes()];
+				content.getBytes(content.readerIndex(), bytes);
+				buffer = m_config.getBufferFactory().getBuffer(bytes, 0, bytes.length);
+			}
+			finally {
+				packet.release();
+			}
+
+			Channels.fireMessageReceived(Netty4DatagramChannel.this, buffer, packet.sender());
+		}
+
+		@Override
+		public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+			Channels.fireExceptionCaught(Netty4DatagramChannel.this, cause);
+		}
+
+		@Override
+		public void channelInactive(final ChannelHandlerContext ctx) {
+			/* Closes the Netty 3 channel if the Netty 4 channel was closed
+			 * on its own. Does nothing if the close was requested by us
+			 */
+			closeNow(Channels.future(Netty4DatagramChannel.this));
+		}
+	}
+
+	/**
+	 * Binds the channel by creating and binding the underlying Netty 4 channel
+	 *
+	 * @param bootstrap bootstrap for the Netty 4 channel, without handler and options
+	 * @param localAddress local address to bind to
+	 * @param future future to complete once bound
+	 */
+	void bindNow(final Bootstrap bootstrap, final SocketAddress localAddress, final ChannelFuture future) {
+		m_config.applyTo(bootstrap);
+		bootstrap.handler(new Receiver());
+
+		bootstrap.bind(localAddress).addListener(new GenericFutureListener<Future<? super Void>>() {
+			@Override
+			public void operationComplete(final Future<? super Void> nettyFuture) {
+				if (nettyFuture.isSuccess()) {
+					final io.netty.channel.Channel channel = ((io.netty.channel.ChannelFuture)nettyFuture).channel();
+					m_channel = channel;
+
+					/* The channel may have been closed while it was being bound */
+					if (!isOpen()) {
+						channel.close();
+						future.setFailure(new ClosedChannelException());
+						return;
+					}
+
+					m_localAddress = (InetSocketAddress)channel.localAddress();
+					future.setSuccess();
+					Channels.fireChannelBound(Netty4DatagramChannel.this, m_localAddress);
+				}
+				else {
+					future.setFailure(nettyFuture.cause());
+					Channels.fireExceptionCaught(Netty4DatagramChannel.this, nettyFuture.cause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Connects the channel to a remote address
+	 *
+	 * @param remoteAddress remote address
+	 * @param future future to complete once connected
+	 */
+	void connectNow(final SocketAddress remoteAddress, final ChannelFuture future) {
+		final io.netty.channel.Channel channel = m_channel;
+		if (channel == null) {
+			future.setFailure(new NotYetBoundException());
+			return;
+		}
+
+		future.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+		channel.connect(remoteAddress).addListener(new GenericFutureListener<Future<? super Void>>() {
+			@Override
+			public void operationComplete(final Future<? super Void> nettyFuture) {
+				if (nettyFuture.isSuccess()) {
+					m_remoteAddress = (InetSocketAddress)channel.remoteAddress();
+					future.setSuccess();
+					Channels.fireChannelConnected(Netty4DatagramChannel.this, m_remoteAddress);
+				}
+				else {
+					future.setFailure(nettyFuture.cause());
+					Channels.fireExceptionCaught(Netty4DatagramChannel.this, nettyFuture.cause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Disconnects the channel from its remote address
+	 *
+	 * @param future future to complete once disconnected
+	 */
+	void disconnectNow(final ChannelFuture future) {
+		final io.netty.channel.Channel channel = m_channel;
+		if ((channel == null) || (m_remoteAddress == null)) {
+			future.setSuccess();
+			return;
+		}
+
+		channel.disconnect().addListener(new GenericFutureListener<Future<? super Void>>() {
+			@Override
+			public void operationComplete(final Future<? super Void> nettyFuture) {
+				if (nettyFuture.isSuccess()) {
+					m_remoteAddress = null;
+					future.setSuccess();
+					Channels.fireChannelDisconnected(Netty4DatagramChannel.this);
+				}
+				else {
+					future.setFailure(nettyFuture.cause());
+					Channels.fireExceptionCaught(Netty4DatagramChannel.this, nettyFuture.cause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Closes the channel, including the underlying Netty 4 channel
+	 *
+	 * @param future future to complete once closed
+	 */
+	void closeNow(final ChannelFuture future) {
+		final boolean connected = isConnected();
+		final boolean bound = isBound();
+
+		if (!setClosed()) {
+			future.setSuccess();
+			return;
+		}
+
+		/* Read only after the channel was marked closed. A concurrent bind
+		 * either sees that and closes the Netty 4 channel itself, or has
+		 * set it before and it is closed here
+		 */
+		final io.netty.channel.Channel channel = m_channel;
+		if (channel != null)
+			channel.close();
+
+		future.setSuccess();
+		if (connected)
+			Channels.fireChannelDisconnected(this);
+		if (bound)
+			Channels.fireChannelUnbound(this);
+		Channels.fireChannelClosed(this);
+	}
+
+	/**
+	 * Writes a message, either to the given address or, if it is null,
+	 * to the address the channel is connected to
+	 *
+	 * @param event write request
+	 */
+	void writeNow(final MessageEvent event) {
+		final ChannelFuture future = event.getFuture();
+		final io.netty.channel.Channel channel = m_channel;
+		if (channel == null) {
+			future.setFailure(new NotYetBoundException());
+			return;
+		}
+
+		/* Wraps the message's buffer, Netty 3 buffers are never recycled */
+		final ChannelBuffer buffer = (ChannelBuffer)event.getMessage();
+		final int length = buffer.readableBytes();
+		final ByteBuf content = Unpooled.wrappedBuffer(buffer.toByteBuffer());
+
+		final SocketAddress remoteAddress = event.getRemoteAddress();
+		final Object message;
+		if (remoteAddress != null)
+			message = new DatagramPacket(content, (InetSocketAddress)remoteAddress);
+		else
+			message = content;
+
+		channel.writeAndFlush(message).addListener(new GenericFutureListener<Future<? super Void>>() {
+			@Override
+			public void operationComplete(final Future<? super Void> nettyFuture) {
+				if (nettyFuture.isSuccess()) {
+					future.setSuccess();
+					Channels.fireWriteComplete(Netty4DatagramChannel.this, length);
+				}
+				else {
+					future.setFailure(nettyFuture.cause());
+					Channels.fireExceptionCaught(Netty4DatagramChannel.this, nettyFuture.cause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Suspends or resumes reading from the underlying Netty 4 channel
+	 *
+	 * @param interestOps new interest ops
+	 * @param future future to complete once changed
+	 */
+	void setInterestOpsNow(final int interestOps, final ChannelFuture future) {
+		final io.netty.channel.Channel channel = m_channel;
+		if (channel != null)
+			channel.config().setAutoRead((interestOps & OP_READ) != 0);
+
+		super.setInterestOpsNow(interestOps);
+		future.setSuccess();
+		Channels.fireChannelInterestChanged(this);
+	}
+
+	@Override
+	public Netty4DatagramChannelConfig getConfig() {
+		return m_config;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return m_localAddress;
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return m_remoteAddress;
+	}
+
+	@Override
+	public boolean isBound() {
+		return isOpen() && (m_channel != null);
+	}
+
+	@Override
+	public boolean isConnected() {
+		return isOpen() && (m_remoteAddress != null);
+	}
+
+	@Override
+	public ChannelFuture write(final Object message, final SocketAddress remoteAddress) {
+		if ((remoteAddress == null) || remoteAddress.equals(getRemoteAddress()))
+			return super.write(message, null);
+		else
+			return super.write(message, remoteAddress);
+	}
+
+	/**
+	 * Returns the underlying Netty 4 channel of a bound channel
+	 *
+	 * @return underlying Netty 4 channel
+	 */
+	private io.netty.channel.socket.DatagramChannel ensureBound() {
+		final io.netty.channel.Channel channel = m_channel;
+		if (channel == null)
+			throw new IllegalStateException(DatagramChannel.class.getName() + " must be bound to join a group.");
+		return (io.netty.channel.socket.DatagramChannel)channel;
+	}
+
+	/**
+	 * Waits for a multicast group membership change of the underlying
+	 * Netty 4 channel to complete
+	 *
+	 * @param nettyFuture future of the membership change
+	 */
+	private static void awaitMembership(final io.netty.channel.ChannelFuture nettyFuture) {
+		nettyFuture.awaitUninterruptibly();
+		if (!nettyFuture.isSuccess())
+			throw new ChannelException(nettyFuture.cause());
+	}
+
+	@Override
+	public void joinGroup(final InetAddress multicastAddress) {
+		awaitMembership(ensureBound().joinGroup(multicastAddress));
+	}
+
+	@Override
+	public void joinGroup(final InetSocketAddress multicastAddress, final NetworkInterface networkInterface) {
+		awaitMembership(ensureBound().joinGroup(multicastAddress, networkInterface));
+	}
+
+	@Override
+	public void leaveGroup(final InetAddress multicastAddress) {
+		awaitMembership(ensureBound().leaveGroup(multicastAddress));
+	}
+
+	@Override
+	public void leaveGroup(final InetSocketAddress multicastAddress, final NetworkInterface networkInterface) {
+		awaitMembership(ensureBound().leaveGroup(multicastAddress, networkInterface));
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.DatagramChannelConfig;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+
+/**
+ * Configuration of a {@link Netty4DatagramChannel}.
+ * <p>
+ * The socket options are applied to the underlying Netty 4 channel when
+ * the channel is bound. Options changed later on are not applied, which
+ * is fine for RTP channels since their options are set by the bootstrap.
+ */
+public class Netty4DatagramChannelConfig extends DefaultChannelConfig implements DatagramChannelConfig {
+	/**
+	 * Receive buffer size predictor factory used unless one is set, the
+	 * same that Netty 3's datagram channels use
+	 */
+	private static final ReceiveBufferSizePredictorFactory DefaultPredictorFactory = new FixedReceiveBufferSizePredictorFactory(768);
+
+	private volatile int m_sendBufferSize = 0;
+	private volatile int m_receiveBufferSize = 0;
+	private volatile int m_trafficClass = 0;
+	private volatile boolean m_reuseAddress = false;
+	private volatile boolean m_broadcast = false;
+	private volatile boolean m_loopbackModeDisabled = false;
+	private volatile int m_timeToLive = 0;
+	private volatile InetAddress m_interface;
+	private volatile NetworkInterface m_networkInterface;
+	private volatile ReceiveBufferSizePredictorFactory m_predictorFactory = DefaultPredictorFactory;
+	private volatile ReceiveBufferSizePredictor m_predictor;
+
+	@Override
+	public boolean setOption(final String key, final Object value) {
+		if (super.setOption(key, value))
+			return true;
+
+		if ("sendBufferSize".equals(key))
+			setSendBufferSize(((Number)value).intValue());
+		else if ("receiveBufferSize".equals(key))
+			setReceiveBufferSize(((Number)value).intValue());
+		else if ("trafficClass".equals(key))
+			setTrafficClass(((Number)value).intValue());
+		else if ("reuseAddress".equals(key))
+			setReuseAddress((Boolean)value);
+		else if ("broadcast".equals(key))
+			setBroadcast((Boolean)value);
+		else if ("loopbackModeDisabled".equals(key))
+			setLoopbackModeDisabled((Boolean)value);
+		else if ("timeToLive".equals(key))
+			setTimeToLive(((Number)value).intValue());
+		else if ("interface".equals(key))
+			setInterface((InetAddress)value);
+		else if ("networkInterface".equals(key))
+			setNetworkInterface((NetworkInterface)value);
+		else if ("receiveBufferSizePredictor".equals(key))
+			setReceiveBufferSizePredictor((ReceiveBufferSizePredictor)value);
+		else if ("receiveBufferSizePredictorFactory".equals(key))
+			setReceiveBufferSizePredictorFactory((ReceiveBufferSizePredictorFactory)value);
+		else
+			return false;
+
+		return true;
+	}
+
+	/**
+	 * Applies the socket options to a Netty 4 bootstrap. Options which
+	 * were never set are left at the system's defaults
+	 *
+	 * @param bootstrap bootstrap of the underlying Netty 4 channel
+	 */
+	void applyTo(final Bootstrap bootstrap) {
+		if (m_sendBufferSize > 0)
+			bootstrap.option(ChannelOption.SO_SNDBUF, m_sendBufferSize);
+		if (m_receiveBufferSize > 0)
+			bootstrap.option(ChannelOption.SO_RCVBUF, m_receiveBufferSize);
+		if (m_trafficClass != 0)
+			bootstrap.option(ChannelOption.IP_TOS, m_trafficClass);
+		if (m_reuseAddress)
+			bootstrap.option(ChannelOption.SO_REUSEADDR, true);
+		if (m_broadcast)
+			bootstrap.option(ChannelOption.SO_BROADCAST, true);
+		if (m_loopbackModeDisabled)
+			bootstrap.option(ChannelOption.IP_MULTICAST_LOOP_DISABLED, true);
+		if (m_timeToLive > 0)
+			bootstrap.option(ChannelOption.IP_MULTICAST_TTL, m_timeToLive);
+		if (m_interface != null)
+			bootstrap.option(ChannelOption.IP_MULTICAST_ADDR, m_interface);
+		if (m_networkInterface != null)
+			bootstrap.option(ChannelOption.IP_MULTICAST_IF, m_networkInterface);
+	}
+
+	@Override
+	public int getSendBufferSize() {
+		return m_sendBufferSize;
+	}
+
+	@Override
+	public void setSendBufferSize(final int sendBufferSize) {
+		m_sendBufferSize = sendBufferSize;
+	}
+
+	@Override
+	public int getReceiveBufferSize() {
+		return m_receiveBufferSize;
+	}
+
+	@Override
+	public void setReceiveBufferSize(final int receiveBufferSize) {
+		m_receiveBufferSize = receiveBufferSize;
+	}
+
+	@Override
+	public int getTrafficClass() {
+		return m_trafficClass;
+	}
+
+	@Override
+	public void setTrafficClass(final int trafficClass) {
+		m_trafficClass = trafficClass;
+	}
+
+	@Override
+	public boolean isReuseAddress() {
+		return m_reuseAddress;
+	}
+
+	@Override
+	public void setReuseAddress(final boolean reuseAddress) {
+		m_reuseAddress = reuseAddress;
+	}
+
+	@Override
+	public boolean isBroadcast() {
+		return m_broadcast;
+	}
+
+	@Override
+	public void setBroadcast(final boolean broadcast) {
+		m_broadcast = broadcast;
+	}
+
+	@Override
+	public boolean isLoopbackModeDisabled() {
+		return m_loopbackModeDisabled;
+	}
+
+	@Override
+	public void setLoopbackModeDisabled(final boolean loopbackModeDisabled) {
+		m_loopbackModeDisabled = loopbackModeDisabled;
+	}
+
+	@Override
+	public int getTimeToLive() {
+		return m_timeToLive;
+	}
+
+	@Override
+	public void setTimeToLive(final int ttl) {
+		m_timeToLive = ttl;
+	}
+
+	@Override
+	public InetAddress getInterface() {
+		return m_interface;
+	}
+
+	@Override
+	public void setInterface(final InetAddress interfaceAddress) {
+		m_interface = interfaceAddress;
+	}
+
+	@Override
+	public NetworkInterface getNetworkInterface() {
+		return m_networkInterface;
+	}
+
+	@Override
+	public void setNetworkInterface(final NetworkInterface networkInterface) {
+		m_networkInterface = networkInterface;
+	}
+
+	@Override
+	public ReceiveBufferSizePredictor getReceiveBufferSizePredictor() {
+		ReceiveBufferSizePredictor predictor = m_predictor;
+		if (predictor == null) {
+			try {
+				predictor = m_predictorFactory.getPredictor();
+			}
+			catch (final Exception e) {
+				throw new ChannelException("Failed to create a new " + ReceiveBufferSizePredictor.class.getSimpleName(), e);
+			}
+			m_predictor = predictor;
+		}
+		return predictor;
+	}
+
+	@Override
+	public void setReceiveBufferSizePredictor(final ReceiveBufferSizePredictor predictor) {
+		if (predictor == null)
+			throw new NullPointerException("predictor");
+		m_predictor = predictor;
+	}
+
+	@Override
+	public ReceiveBufferSizePredictorFactory getReceiveBufferSizePredictorFactory() {
+		return m_predictorFactory;
+	}
+
+	@Override
+	public void setReceiveBufferSizePredictorFactory(final ReceiveBufferSizePredictorFactory predictorFactory) {
+		if (predictorFactory == null)
+			throw new NullPointerException("predictorFactory");
+		m_predictorFactory = predictorFactory;
+		m_predictor = null;
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Creates Netty 3 datagram channels which are served by Netty 4's I/O threads.
+ * Meant for the RTP channels, select it by starting AirReceiver with
+ * {@code -Dorg.phlo.AirReceiver.rtpChannelFactory=org.phlo.AirReceiver.Netty4DatagramChannelFactory}.
+ * <p>
+ * Receive buffers come from Netty 4's pooled allocator instead of being
+ * allocated for every datagram. On Linux, the native epoll transport is used,
+ * which reads up to {@link #DatagramsPerRead} datagrams with a single
+ * recvmmsg() call. Elsewhere, Netty 4's NIO transport is used.
+ * <p>
+ * This is a transport-only shim, not a port to Netty 4. The channel handlers
+ * are unaffected, they still see Netty 3 channels, events and heap buffers,
+ * so every datagram is copied once. See {@link Netty4DatagramChannel} for how
+ * datagrams are passed on.
+ */
+public class Netty4DatagramChannelFactory implements DatagramChannelFactory {
+	private static final Logger s_logger = Logger.getLogger(Netty4DatagramChannelFactory.class.getName());
+
+	/**
+	 * Maximal number of datagrams read with a single recvmmsg() call
+	 */
+	public static final int DatagramsPerRead = 16;
+
+	private final EventLoopGroup m_eventLoopGroup;
+	private final boolean m_epoll;
+	private final ChannelSink m_sink = new Sink();
+
+	/**
+	 * Creates a factory whose channels are served by the given number of I/O threads
+	 *
+	 * @param ioWorkers number of I/O threads
+	 */
+	public Netty4DatagramChannelFactory(final int ioWorkers) {
+		final DefaultThreadFactory threadFactory = new DefaultThreadFactory("RTP I/O", true);
+
+		m_epoll = Epoll.isAvailable();
+		if (m_epoll)
+			m_eventLoopGroup = new EpollEventLoopGroup(ioWorkers, threadFactory);
+		else
+			m_eventLoopGroup = new NioEventLoopGroup(ioWorkers, threadFactory);
+
+		s_logger.info("Created " + ioWorkers + " Netty 4 RTP I/O threads, " + (m_epoll ? "using epoll" : "using NIO, epoll unavailable: " + Epoll.unavailabilityCause()));
+	}
+
+	/**
+	 * Returns true if the channels use the native epoll transport
+	 *
+	 * @return true if epoll is used, false if NIO is used
+	 */
+	public boolean isEpoll() {
+		return m_epoll;
+	}
+
+	@Override
+	public Netty4DatagramChannel newChannel(final ChannelPipeline pipeline) {
+		return new Netty4DatagramChannel(this, pipeline, m_sink);
+	}
+
+	@Override
+	public void releaseExternalResources() {
+		m_eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).awaitUninterruptibly();
+	}
+
+	/**
+	 * Creates the bootstrap of a channel's underlying Netty 4 channel
+	 *
+	 * @param datagramSize maximal size of a datagram, larger datagrams are truncated
+	 * @return bootstrap, without handler and socket options
+	 */
+	private Bootstrap createBootstrap(final int datagramSize) {
+		final Bootstrap bootstrap = new Bootstrap();
+		bootstrap.group(m_eventLoopGroup);
+		bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+
+		if (m_epoll) {
+			/* Each receive buffer holds DatagramsPerRead datagrams, which
+			 * makes the epoll transport read them with a single recvmmsg()
+			 */
+			bootstrap.channel(EpollDatagramChannel.class);
+			bootstrap.option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, datagramSize);
+			bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(datagramSize * DatagramsPerRead));
+		}
+		else {
+			bootstrap.channel(NioDatagramChannel.class);
+			bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(datagramSize));
+		}
+
+		return bootstrap;
+	}
+
+	/**
+	 * Carries out the downstream events of the channels
+	 */
+	private class Sink extends AbstractChannelSink {
+		@Override
+		public void eventSunk(final ChannelPipeline pipeline, final ChannelEvent e) throws Exception {
+			final Netty4DatagramChannel channel = (Netty4DatagramChannel)e.getChannel();
+			final ChannelFuture future = e.getFuture();
+
+			if (e instanceof ChannelStateEvent) {
+				final ChannelStateEvent stateEvent = (ChannelStateEvent)e;
+				final Object value = stateEvent.getValue();
+				switch (stateEvent.getState()) {
+					case OPEN:
+						if (Boolean.FALSE.equals(value))
+							channel.closeNow(future);
+						break;
+
+					case BOUND:
+						if (value != null) {
+							final int datagramSize = channel.getConfig().getReceiveBufferSizePredictor().nextReceiveBufferSize();
+							channel.bindNow(createBootstrap(datagramSize), (SocketAddress)value, future);
+						}
+						else {
+							channel.closeNow(future);
+						}
+						break;
+
+					case CONNECTED:
+						if (value != null)
+							channel.connectNow((SocketAddress)value, future);
+						else
+							channel.disconnectNow(future);
+						break;
+
+					case INTEREST_OPS:
+						channel.setInterestOpsNow(((Integer)value).intValue(), future);
+						break;
+				}
+			}
+			else if (e instanceof MessageEvent) {
+				channel.writeNow((MessageEvent)e);
+			}
+		}
+	}
+}
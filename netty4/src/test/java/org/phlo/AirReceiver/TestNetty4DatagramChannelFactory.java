@@ -0,0 +1,176 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.buffer.*;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.junit.*;
+
+public class TestNetty4DatagramChannelFactory {
+	/**
+	 * Binds a channel which records received messages and the
+	 * channel's state changes, configured like AirReceiver's RTP channels
+	 */
+	private static Channel bind(final Netty4DatagramChannelFactory factory, final BlockingQueue<Object> received, final BlockingQueue<ChannelState> states) {
+		final ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(factory);
+		bootstrap.setOption("receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory(1500));
+		bootstrap.setOption("receiveBufferSize", 1024*1024);
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			@Override
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(new SimpleChannelUpstreamHandler() {
+					@Override
+					public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent evt) {
+						received.add(evt.getMessage());
+						received.add(evt.getRemoteAddress());
+					}
+
+					@Override
+					public void handleUpstream(final ChannelHandlerContext ctx, final ChannelEvent evt) throws Exception {
+						if (evt instanceof ChannelStateEvent)
+							states.add(((ChannelStateEvent)evt).getState());
+						super.handleUpstream(ctx, evt);
+					}
+				});
+			}
+		});
+		return bootstrap.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	private static java.nio.channels.DatagramChannel openPeer() throws Exception {
+		final java.nio.channels.DatagramChannel peer = java.nio.channels.DatagramChannel.open();
+		peer.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		return peer;
+	}
+
+	private static ByteBuffer bytes(final int length, final int seed) {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		for(int i=0; i < length; ++i)
+			buffer.put((byte)(seed + i));
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	public void testReceive() throws Exception {
+		final Netty4DatagramChannelFactory factory = new Netty4DatagramChannelFactory(1);
+		final java.nio.channels.DatagramChannel peer = openPeer();
+		try {
+			final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+			final BlockingQueue<ChannelState> states = new LinkedBlockingQueue<ChannelState>();
+			final Channel channel = bind(factory, received, states);
+			Assert.assertTrue(channel.isBound());
+			Assert.assertNotNull(channel.getLocalAddress());
+
+			/* Datagrams of different sizes arrive intact and in order */
+			final int[] lengths = { 12, 1400, 1500, 1 };
+			for(int i=0; i < lengths.length; ++i)
+				peer.send(bytes(lengths[i], i), channel.getLocalAddress());
+
+			for(int i=0; i < lengths.length; ++i) {
+				final ChannelBuffer buffer = (ChannelBuffer)received.poll(10, TimeUnit.SECONDS);
+				Assert.assertNotNull(buffer);
+				Assert.assertEquals(ChannelBuffers.wrappedBuffer(bytes(lengths[i], i)), buffer);
+				Assert.assertEquals(peer.socket().getLocalSocketAddress(), received.poll(10, TimeUnit.SECONDS));
+			}
+
+			/* Open and bound, then unbound and closed */
+			channel.close().awaitUninterruptibly();
+			Assert.assertFalse(channel.isOpen());
+			Assert.assertEquals(ChannelState.OPEN, states.poll(10, TimeUnit.SECONDS));
+			Assert.assertEquals(ChannelState.BOUND, states.poll(10, TimeUnit.SECONDS));
+			Assert.assertEquals(ChannelState.BOUND, states.poll(10, TimeUnit.SECONDS));
+			Assert.assertEquals(ChannelState.OPEN, states.poll(10, TimeUnit.SECONDS));
+		}
+		finally {
+			peer.close();
+			factory.releaseExternalResources();
+		}
+	}
+
+	@Test
+	public void testConnectedWrite() throws Exception {
+		final Netty4DatagramChannelFactory factory = new Netty4DatagramChannelFactory(1);
+		final java.nio.channels.DatagramChannel peer = openPeer();
+		try {
+			final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+			final BlockingQueue<ChannelState> states = new LinkedBlockingQueue<ChannelState>();
+			final Channel channel = bind(factory, received, states);
+
+			Assert.assertTrue(channel.connect(peer.socket().getLocalSocketAddress()).awaitUninterruptibly().isSuccess());
+			Assert.assertTrue(channel.isConnected());
+			Assert.assertEquals(peer.socket().getLocalSocketAddress(), channel.getRemoteAddress());
+
+			/* Writes without an address go to the connected peer */
+			Assert.assertTrue(channel.write(ChannelBuffers.wrappedBuffer(bytes(100, 7))).awaitUninterruptibly().isSuccess());
+			final ByteBuffer datagram = ByteBuffer.allocate(1500);
+			Assert.assertEquals(channel.getLocalAddress(), peer.receive(datagram));
+			datagram.flip();
+			Assert.assertEquals(bytes(100, 7), datagram);
+
+			/* And the peer's datagrams are still received */
+			peer.send(bytes(20, 3), channel.getLocalAddress());
+			Assert.assertEquals(ChannelBuffers.wrappedBuffer(bytes(20, 3)), received.poll(10, TimeUnit.SECONDS));
+
+			channel.close().awaitUninterruptibly();
+			Assert.assertFalse(channel.isConnected());
+		}
+		finally {
+			peer.close();
+			factory.releaseExternalResources();
+		}
+	}
+
+	@Test
+	public void testGroupMembership() throws Exception {
+		final Netty4DatagramChannelFactory factory = new Netty4DatagramChannelFactory(1);
+		try {
+			final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+			final BlockingQueue<ChannelState> states = new LinkedBlockingQueue<ChannelState>();
+
+			/* Unbound channels can't join groups */
+			final DatagramChannel unbound = factory.newChannel(Channels.pipeline());
+			try {
+				unbound.joinGroup(InetAddress.getByName("239.255.0.1"));
+				Assert.fail();
+			}
+			catch (final IllegalStateException e) {
+				/* Expected */
+			}
+			unbound.close().awaitUninterruptibly();
+
+			/* Bound channels join and leave groups on the loopback interface */
+			final DatagramChannel channel = (DatagramChannel)bind(factory, received, states);
+			final NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+			final InetSocketAddress group = new InetSocketAddress(InetAddress.getByName("239.255.0.1"), 0);
+			channel.joinGroup(group, loopback);
+			channel.leaveGroup(group, loopback);
+
+			channel.close().awaitUninterruptibly();
+		}
+		finally {
+			factory.releaseExternalResources();
+		}
+	}
+}
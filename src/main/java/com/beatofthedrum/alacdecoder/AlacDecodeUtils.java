@@ -50,203 +50,88 @@ public class AlacDecodeUtils
 
 	/* stream reading */
 
-	/* supports reading 1 to 16 bits, in big endian format */
-	static int readbits_16(AlacFile alac, int bits ) 
-	{
-		int result  = 0;
-		int new_accumulator = 0;
-		int part1 = 0;
-		int part2 = 0;
-		int part3 =0;
-		
-		part1 = (alac.input_buffer[alac.ibIdx] & 0xff);
-		part2 = (alac.input_buffer[alac.ibIdx + 1] & 0xff);
-		part3 = (alac.input_buffer[alac.ibIdx + 2] & 0xff);		
-		
-		result = ((part1 << 16) | (part2 << 8) | part3);
-
-		/* shift left by the number of bits we've already read,
-		 * so that the top 'n' bits of the 24 bits we read will
-		 * be the return bits */
-		result = result << alac.input_buffer_bitaccumulator;
-
-		result = result & 0x00ffffff;
+	/* bits are read from a 64 bit cache which holds the next bits of the
+	 * input left-aligned, i.e. the next bit to read is the cache's most
+	 * significant bit. the unused low bits of the cache are always zero */
 
-		/* and then only want the top 'n' bits from that, where
-		 * n is 'bits' */
-		result = result >> (24 - bits);
-
-		new_accumulator = (alac.input_buffer_bitaccumulator + bits);
-
-		/* increase the buffer pointer if we've read over n bytes. */
-		alac.ibIdx += (new_accumulator >> 3);
-
-		/* and the remainder goes back into the bit accumulator */
-		alac.input_buffer_bitaccumulator = (new_accumulator & 7);
-	
-		return result;
-	}
-
-	/* supports reading 1 to 32 bits, in big endian format */
-	static int readbits(AlacFile alac, int bits ) 
+	/* refills the cache so that it holds at least 32 bits. once the end
+	 * of the input buffer is reached, zeros are shifted in */
+	static void fillbits(AlacFile alac)
 	{
-		int result  = 0;
+		if (alac.input_buffer_bitcount > 32)
+			return;
+
+		byte[] buffer = alac.input_buffer;
+		int idx = alac.ibIdx;
 
-		if (bits > 16)
+		if (idx + 4 <= buffer.length)
 		{
-			bits -= 16;
+			int word = ((buffer[idx] & 0xff) << 24) | ((buffer[idx + 1] & 0xff) << 16) | ((buffer[idx + 2] & 0xff) << 8) | (buffer[idx + 3] & 0xff);
 
-			result = readbits_16(alac, 16) << bits;		
+			alac.input_buffer_bitcache |= (word & 0xffffffffL) << (32 - alac.input_buffer_bitcount);
+			alac.input_buffer_bitcount += 32;
+			alac.ibIdx = idx + 4;
 		}
+		else
+		{
+			while (alac.input_buffer_bitcount <= 56)
+			{
+				int part = (alac.ibIdx < buffer.length) ? (buffer[alac.ibIdx] & 0xff) : 0;
 
-		result |= readbits_16(alac, bits);
-
-		return result;
+				alac.input_buffer_bitcache |= ((long)part) << (56 - alac.input_buffer_bitcount);
+				alac.input_buffer_bitcount += 8;
+				alac.ibIdx++;
+			}
+		}
 	}
 
-	/* reads a single bit */
-	static int readbit(AlacFile alac) 
+	/* returns the next 1 to 32 bits without consuming them */
+	static int peekbits(AlacFile alac, int bits )
 	{
-		int result = 0;
-		int new_accumulator = 0;
-		int part1 = 0;
-		
-		part1 = (alac.input_buffer[alac.ibIdx] & 0xff);
-
-		result = part1;
-
-		result = result << alac.input_buffer_bitaccumulator;
-
-		result = result >> 7 & 1;
-
-		new_accumulator = (alac.input_buffer_bitaccumulator + 1);
-
-		alac.ibIdx += new_accumulator / 8;	
+		if (alac.input_buffer_bitcount < bits)
+			fillbits(alac);
 
-		alac.input_buffer_bitaccumulator = (new_accumulator % 8);
-
-		return result;
+		return (int)(alac.input_buffer_bitcache >>> (64 - bits));
 	}
 
-	static void unreadbits(AlacFile alac, int bits )
+	/* consumes bits, which must have been made available by
+	 * fillbits() or peekbits() before */
+	static void skipbits(AlacFile alac, int bits )
 	{
-		int new_accumulator  = (alac.input_buffer_bitaccumulator - bits);
-
-		alac.ibIdx += (new_accumulator >> 3);
-
-		alac.input_buffer_bitaccumulator = (new_accumulator & 7);
-		if (alac.input_buffer_bitaccumulator < 0)
-			alac.input_buffer_bitaccumulator *= -1;
+		alac.input_buffer_bitcache <<= bits;
+		alac.input_buffer_bitcount -= bits;
 	}
 
-	static LeadingZeros count_leading_zeros_extra(int curbyte, int output, LeadingZeros lz)
-	{
-
-        if ((curbyte & 0xf0)==0)
-		{
-			output += 4;
-		}
-		else
-			curbyte = curbyte >> 4;
-
-		if ((curbyte & 0x8) != 0)
-		{
-			lz.output = output;
-			lz.curbyte = curbyte;
-			return lz;
-		}
-		if ((curbyte & 0x4) != 0)
-		{
-			lz.output = output + 1;
-			lz.curbyte = curbyte;
-			return lz;
-		}
-		if ((curbyte & 0x2) != 0)
-		{
-			lz.output = output + 2;
-			lz.curbyte = curbyte;
-			return lz;
-		}
-		if ((curbyte & 0x1) != 0)
-		{
-			lz.output = output + 3;
-			lz.curbyte = curbyte;
-			return lz;
-		}
-
-		/* shouldn't get here: */
-
-		lz.output = output + 4;
-		lz.curbyte = curbyte;
-		return lz;
-
-	}
-	static int count_leading_zeros(int input, LeadingZeros lz)
+	/* supports reading 0 to 32 bits, in big endian format */
+	static int readbits(AlacFile alac, int bits ) 
 	{
-		int output  = 0;
-		int curbyte  = 0;
-
-        curbyte = input >> 24;
-		if (curbyte != 0)
-		{
-			count_leading_zeros_extra(curbyte, output, lz);
-			output = lz.output;
-			curbyte = lz.curbyte;
-			return output;
-		}
-		output += 8;
-
-		curbyte = input >> 16;
-		if ((curbyte & 0xFF) != 0)
-		{
-			count_leading_zeros_extra(curbyte, output, lz);
-			output = lz.output;
-			curbyte = lz.curbyte;
-
-			return output;
-		}
-		output += 8;
-
-		curbyte = input >> 8;
-		if ((curbyte & 0xFF) != 0)
-		{
-			count_leading_zeros_extra(curbyte, output, lz);
-			output = lz.output;
-			curbyte = lz.curbyte;
-
-			return output;
-		}
-		output += 8;
-
-		curbyte = input;
-		if ((curbyte & 0xFF) != 0)
-		{
-			count_leading_zeros_extra(curbyte, output, lz);
-			output = lz.output;
-			curbyte = lz.curbyte;
+		if (bits == 0)
+			return 0;
 
-			return output;
-		}
-		output += 8;
+		int result = peekbits(alac, bits);
+		skipbits(alac, bits);
 
-		return output;
+		return result;
 	}
 
 	public static int entropy_decode_value(AlacFile alac, int readSampleSize , int k , int rice_kmodifier_mask ) 
 	{
 		int x  = 0; // decoded value
 
-		// read x, number of 1s before 0 represent the rice value.
-		while (x <= Defines.RICE_THRESHOLD && readbit(alac) != 0)
-		{
-			x++;
-		}
+		if (alac.input_buffer_bitcount <= Defines.RICE_THRESHOLD)
+			fillbits(alac);
+
+		// x, the number of 1s before 0, represents the rice value. the
+		// cache holds more than RICE_THRESHOLD bits, so counting the
+		// leading 1s up to the threshold only looks at valid bits
+		x = Long.numberOfLeadingZeros(~alac.input_buffer_bitcache);
 
 		if (x > Defines.RICE_THRESHOLD)
 		{
 			// read the number from the bit stream (raw value)
 			int value  = 0;
 
+			skipbits(alac, Defines.RICE_THRESHOLD + 1);
 			value = readbits(alac, readSampleSize);
 
 			// mask value
@@ -256,16 +141,23 @@ public class AlacDecodeUtils
 		}
 		else
 		{
+			// skip the 1s and the terminating 0
+			skipbits(alac, x + 1);
+
 			if (k != 1)
-			{		
-				int extraBits  = readbits(alac, k);
+			{
+				int extraBits  = peekbits(alac, k);
 
 				x *= (((1 << k) - 1) & rice_kmodifier_mask);
 
+				// a remainder of 0 is stored in k-1 bits
 				if (extraBits > 1)
+				{
 					x += extraBits - 1;
+					skipbits(alac, k);
+				}
 				else
-					unreadbits(alac, 1);
+					skipbits(alac, k - 1);
 			}
 		}
 
@@ -284,7 +176,7 @@ public class AlacDecodeUtils
 			int finalValue  = 0;
 			int k   = 0;
 
-			k = 31 - rice_kmodifier - count_leading_zeros((history >> 9) + 3, alac.lz);
+			k = 31 - rice_kmodifier - Integer.numberOfLeadingZeros((history >> 9) + 3);
 
 			if (k < 0)
 				k += rice_kmodifier;
@@ -316,7 +208,7 @@ public class AlacDecodeUtils
 
 				signModifier = 1;
 
-				k = count_leading_zeros(history, alac.lz) + ((history + 16) / 64) - 24;
+				k = Integer.numberOfLeadingZeros(history) + ((history + 16) / 64) - 24;
 
 				// note: blockSize is always 16bit
 				blockSize = entropy_decode_value(alac, 16, k, rice_kmodifier_mask);
@@ -600,7 +492,8 @@ public class AlacDecodeUtils
 
 		/* setup the stream */
 		alac.input_buffer = inbuffer;
-		alac.input_buffer_bitaccumulator = 0;
+		alac.input_buffer_bitcache = 0;
+		alac.input_buffer_bitcount = 0;
 		alac.ibIdx = 0;
 
 
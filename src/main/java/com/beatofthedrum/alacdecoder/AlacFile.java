@@ -15,16 +15,14 @@ public class AlacFile
 
 	byte input_buffer[];
 	int ibIdx = 0;
-	int input_buffer_bitaccumulator = 0; /* used so we can do arbitary
-						bit reads */
+	long input_buffer_bitcache = 0; /* next bits of the input buffer,
+					   left-aligned */
+	int input_buffer_bitcount = 0; /* number of valid bits in the cache */
 
 	int samplesize = 0;
 	int numchannels = 0;
 	int bytespersample = 0;
 
-    LeadingZeros lz = new LeadingZeros();
-
-
     private int buffer_size = 16384;
     /* buffers */
 	int predicterror_buffer_a[] = new int[buffer_size];
@@ -1,18 +0,0 @@
-/*
-** LeadingZeros.java
-**
-** Copyright (c) 2011 Peter McQuillan
-**
-** All Rights Reserved.
-**                       
-** Distributed under the BSD Software License (see license.txt)  
-**
-*/
-
-package com.beatofthedrum.alacdecoder;
-
-class LeadingZeros
-{
-	public int curbyte = 0;
-	public int output = 0;
-}
\ No newline at end of file
@@ -17,8 +17,11 @@
 
 package org.phlo.AirReceiver;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.net.*;
 import java.util.Arrays;
 import java.util.Collections;
@@ -37,6 +40,7 @@ import javax.jmdns.*;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.channel.group.*;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
 import org.jboss.netty.channel.socket.nio.*;
 import org.jboss.netty.handler.execution.*;
 
@@ -105,6 +109,37 @@ public class AirReceiver {
 	 */
 	public static final ExecutorService ExecutorService = Executors.newCachedThreadPool();
 
+	/**
+	 * Datagram channel factory of the RTP channels of all sessions. The channels
+	 * are distributed over a fixed number of I/O threads, each with its own
+	 * selector, two unless the system property {@code org.phlo.AirReceiver.rtpIoWorkers}
+	 * says otherwise. The I/O threads merely hand the packets over to the
+	 * {@link #DecodeScheduler}, so few are enough for many sessions.
+	 * <p>
+	 * The system property {@code org.phlo.AirReceiver.rtpChannelFactory} selects
+	 * a different implementation, see {@link #createRtpChannelFactory(int)}
+	 */
+	public static final DatagramChannelFactory RtpChannelFactory = createRtpChannelFactory(
+		Integer.getInteger("org.phlo.AirReceiver.rtpIoWorkers", 2)
+	);
+
+	/**
+	 * Scheduler for the periodic tasks of all sessions, i.e. timing requests,
+	 * retransmit requests and idle checks. The tasks share a single thread,
+	 * and must therefore be short and must not block
+	 */
+	public static final ScheduledExecutorService Scheduler = Executors.newSingleThreadScheduledExecutor(
+		new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				thread.setName("Protocol Scheduler");
+				return thread;
+			}
+		}
+	);
+
 	/**
 	 * Channel execution handler. Spreads channel message handling over multiple threads
 	 */
@@ -112,6 +147,29 @@ public class AirReceiver {
 		new OrderedMemoryAwareThreadPoolExecutor(4, 0, 0)
 	);
 
+	/**
+	 * RTP decode scheduler. Binds each RTP session to one of its worker threads.
+	 * There's one worker per processor unless the system property
+	 * {@code org.phlo.AirReceiver.decodeWorkers} says otherwise. The number of
+	 * events a session may have queued is limited by the system property
+	 * {@code org.phlo.AirReceiver.sessionQueueLimit}, 0 meaning unlimited. The
+	 * default of 256 events corresponds to about two seconds of audio.
+	 */
+	public static final RaopRtpDecodeScheduler DecodeScheduler = new RaopRtpDecodeScheduler(
+		Integer.getInteger("org.phlo.AirReceiver.decodeWorkers", Runtime.getRuntime().availableProcessors()),
+		Integer.getInteger("org.phlo.AirReceiver.sessionQueueLimit", 256)
+	);
+
+	/**
+	 * Time from ANNOUNCE to the first audible frame, for all receivers
+	 */
+	public static final ConnectionSetupStatistics SetupStatistics = new ConnectionSetupStatistics();
+
+	/**
+	 * Packet, playback and decoding statistics of all sessions, published as JMX MBeans
+	 */
+	public static final ReceiverStatistics Statistics = new ReceiverStatistics(ManagementFactory.getPlatformMBeanServer());
+
 	/**
 	 * Message dispayed in the "About" dialog
 	 */
@@ -197,6 +255,34 @@ public class AirReceiver {
 			return false;
 	}
 	
+	/**
+	 * Creates the datagram channel factory for the RTP channels. If the system
+	 * property {@code org.phlo.AirReceiver.rtpChannelFactory} names a class, that
+	 * class is used. It must implement {@link DatagramChannelFactory} and have a
+	 * public constructor taking the number of I/O threads. Otherwise, or if the
+	 * class cannot be instantiated, NIO channels are used.
+	 *
+	 * @param ioWorkers number of I/O threads
+	 * @return datagram channel factory
+	 */
+	private static DatagramChannelFactory createRtpChannelFactory(final int ioWorkers) {
+		final String factoryClassName = System.getProperty("org.phlo.AirReceiver.rtpChannelFactory");
+		if (factoryClassName != null) {
+			try {
+				final Class<? extends DatagramChannelFactory> factoryClass =
+					Class.forName(factoryClassName).asSubclass(DatagramChannelFactory.class);
+				final DatagramChannelFactory factory = factoryClass.getConstructor(int.class).newInstance(ioWorkers);
+				s_logger.info("Using " + factoryClassName + " for RTP channels");
+				return factory;
+			}
+			catch (final Exception e) {
+				s_logger.log(Level.WARNING, "Failed to instantiate RTP channel factory " + factoryClassName + ", using NIO", e);
+			}
+		}
+
+		return new NioDatagramChannelFactory(ExecutorService, ioWorkers);
+	}
+
 	/**
 	 * Reads the version from the version.properties file
 	 * @return the version
@@ -311,11 +397,18 @@ public class AirReceiver {
 		/* Wait for all channels to finish closing */
 		allChannelsClosed.awaitUninterruptibly();
 		
-		/* Stop the ExecutorService */
+		/* Stop the ExecutorService and the scheduler */
 		ExecutorService.shutdown();
+		Scheduler.shutdownNow();
 
 		/* Release the OrderedMemoryAwareThreadPoolExecutor */
 		ChannelExecutionHandler.releaseExternalResources();
+
+		/* Release the I/O threads of the RTP channels */
+		RtpChannelFactory.releaseExternalResources();
+
+		/* Stop the RTP decode workers */
+		DecodeScheduler.shutdown();
 	}
 
     public static void main(final String[] args) throws Exception {
@@ -327,92 +420,144 @@ public class AirReceiver {
 			}
     	}));
 
-    	/* Setup GUI. If this throws a HeadlessException, we simply
-    	 * skip the GUI part and continue.
+    	/* Publish the statistics MBeans */
+    	Statistics.register();
+
+    	/* Determine the receivers to host. Usually, that's a single receiver named
+    	 * after the host. In multi-room mode, the receivers are read from the
+    	 * properties file passed as the first argument, see RaopReceiver.
     	 */
-    	try {
-	    	/* Create about dialog */
-	    	final Dialog aboutDialog = new Dialog((Dialog)null);
-	    	final GridBagLayout aboutLayout = new GridBagLayout();
-	    	aboutDialog.setLayout(aboutLayout);
-	    	aboutDialog.setVisible(false);
-	    	aboutDialog.setTitle("About AirReceiver");
-	    	aboutDialog.setResizable(false);
-	    	{
-	    		/* Message */
-	    		final TextArea title = new TextArea(AboutMessage.split("\n").length + 1, 64);
-	    		title.setText(AboutMessage);
-	    		title.setEditable(false);
-		    	final GridBagConstraints titleConstraints = new GridBagConstraints();
-		    	titleConstraints.gridx = 1;
-		    	titleConstraints.gridy = 1;
-		    	titleConstraints.fill = GridBagConstraints.HORIZONTAL;
-		    	titleConstraints.insets = new Insets(0,0,0,0);
-		    	aboutLayout.setConstraints(title, titleConstraints);
-		    	aboutDialog.add(title);
-	    	}
-	    	{
-	    		/* Done button */
-		    	final Button aboutDoneButton = new Button("Done");
-		    	aboutDoneButton.addActionListener(new ActionListener() {
-					@Override public void actionPerformed(final ActionEvent evt) {
-						aboutDialog.setVisible(false);
-					}
-		    	});
-		    	final GridBagConstraints aboutDoneConstraints = new GridBagConstraints();
-		    	aboutDoneConstraints.gridx = 1;
-		    	aboutDoneConstraints.gridy = 2;
-		    	aboutDoneConstraints.anchor = GridBagConstraints.PAGE_END;
-		    	aboutDoneConstraints.fill = GridBagConstraints.NONE;
-		    	aboutDoneConstraints.insets = new Insets(0,0,0,0);
-		    	aboutLayout.setConstraints(aboutDoneButton, aboutDoneConstraints);
-		    	aboutDialog.add(aboutDoneButton);
-	    	}
-	    	aboutDialog.setVisible(false);
-	    	aboutDialog.setLocationByPlatform(true);
-	    	aboutDialog.pack();
+    	final boolean multiRoom = (args.length > 0);
+    	final List<RaopReceiver> receivers;
+    	if (multiRoom) {
+    		final Properties receiverProperties = new Properties();
+    		final InputStream receiverPropertiesStream = new FileInputStream(args[0]);
+    		try {
+    			receiverProperties.load(receiverPropertiesStream);
+    		}
+    		finally {
+    			receiverPropertiesStream.close();
+    		}
+    		receivers = RaopReceiver.fromProperties(receiverProperties, HostName, HardwareAddressBytes);
+    		s_logger.info("Multi-room mode, hosting " + receivers.size() + " receivers configured in " + args[0]);
+    	}
+    	else {
+    		/* The system property org.phlo.AirReceiver.output makes the receiver
+    		 * write raw PCM samples to a file or named pipe instead of playing them
+    		 */
+    		final String output = System.getProperty("org.phlo.AirReceiver.output");
+    		final AudioOutputSinkFactory sinkFactory = (output != null) ? new FileChannelAudioOutputSink.Factory(new File(output)) : null;
+    		receivers = Collections.singletonList(new RaopReceiver(HostName, AirtunesServiceRTSPPort, HardwareAddressBytes, sinkFactory));
+    	}
+
+    	/* Setup GUI, unless in multi-room mode which is always headless. If this
+    	 * throws a HeadlessException, we simply skip the GUI part and continue
+    	 */
+    	if (!multiRoom) {
+    		try {
+    			/* Create about dialog */
+    			final Dialog aboutDialog = new Dialog((Dialog)null);
+    			final GridBagLayout aboutLayout = new GridBagLayout();
+    			aboutDialog.setLayout(aboutLayout);
+    			aboutDialog.setVisible(false);
+    			aboutDialog.setTitle("About AirReceiver");
+    			aboutDialog.setResizable(false);
+    			{
+    				/* Message */
+    				final TextArea title = new TextArea(AboutMessage.split("\n").length + 1, 64);
+    				title.setText(AboutMessage);
+    				title.setEditable(false);
+    				final GridBagConstraints titleConstraints = new GridBagConstraints();
+    				titleConstraints.gridx = 1;
+    				titleConstraints.gridy = 1;
+    				titleConstraints.fill = GridBagConstraints.HORIZONTAL;
+    				titleConstraints.insets = new Insets(0,0,0,0);
+    				aboutLayout.setConstraints(title, titleConstraints);
+    				aboutDialog.add(title);
+    			}
+    			{
+    				/* Done button */
+    				final Button aboutDoneButton = new Button("Done");
+    				aboutDoneButton.addActionListener(new ActionListener() {
+    					@Override public void actionPerformed(final ActionEvent evt) {
+    						aboutDialog.setVisible(false);
+    					}
+    				});
+    				final GridBagConstraints aboutDoneConstraints = new GridBagConstraints();
+    				aboutDoneConstraints.gridx = 1;
+    				aboutDoneConstraints.gridy = 2;
+    				aboutDoneConstraints.anchor = GridBagConstraints.PAGE_END;
+    				aboutDoneConstraints.fill = GridBagConstraints.NONE;
+    				aboutDoneConstraints.insets = new Insets(0,0,0,0);
+    				aboutLayout.setConstraints(aboutDoneButton, aboutDoneConstraints);
+    				aboutDialog.add(aboutDoneButton);
+    			}
+    			aboutDialog.setVisible(false);
+    			aboutDialog.setLocationByPlatform(true);
+    			aboutDialog.pack();
 	
-	    	/* Create tray icon */
-			final URL trayIconUrl = AirReceiver.class.getClassLoader().getResource("icon_32.png");
-			final TrayIcon trayIcon = new TrayIcon((new ImageIcon(trayIconUrl, "AirReceiver").getImage()));
-			trayIcon.setToolTip("AirReceiver");
-			trayIcon.setImageAutoSize(true);
-			final PopupMenu popupMenu = new PopupMenu();
-			final MenuItem aboutMenuItem = new MenuItem("About");
-			aboutMenuItem.addActionListener(new ActionListener() {
-				@Override
-				public void actionPerformed(final ActionEvent evt) {
-			    	aboutDialog.setLocationByPlatform(true);
-			    	aboutDialog.setVisible(true);
-				}
-			});
-			popupMenu.add(aboutMenuItem);
-			final MenuItem exitMenuItem = new MenuItem("Quit");
-			exitMenuItem.addActionListener(new ActionListener() {
-				@Override
-				public void actionPerformed(final ActionEvent evt) {
-					onShutdown();
-					System.exit(0);
-				}
-			});
-			popupMenu.add(exitMenuItem);
-			trayIcon.setPopupMenu(popupMenu);
-			SystemTray.getSystemTray().add(trayIcon);
+    			/* Create tray icon */
+    			final URL trayIconUrl = AirReceiver.class.getClassLoader().getResource("icon_32.png");
+    			final TrayIcon trayIcon = new TrayIcon((new ImageIcon(trayIconUrl, "AirReceiver").getImage()));
+    			trayIcon.setToolTip("AirReceiver");
+    			trayIcon.setImageAutoSize(true);
+    			final PopupMenu popupMenu = new PopupMenu();
+    			final MenuItem aboutMenuItem = new MenuItem("About");
+    			aboutMenuItem.addActionListener(new ActionListener() {
+    				@Override
+    				public void actionPerformed(final ActionEvent evt) {
+    					aboutDialog.setLocationByPlatform(true);
+    					aboutDialog.setVisible(true);
+    				}
+    			});
+    			popupMenu.add(aboutMenuItem);
+    			final MenuItem exitMenuItem = new MenuItem("Quit");
+    			exitMenuItem.addActionListener(new ActionListener() {
+    				@Override
+    				public void actionPerformed(final ActionEvent evt) {
+    					onShutdown();
+    					System.exit(0);
+    				}
+    			});
+    			popupMenu.add(exitMenuItem);
+    			trayIcon.setPopupMenu(popupMenu);
+    			SystemTray.getSystemTray().add(trayIcon);
 			
-    		s_logger.info("Running with GUI, created system tray icon and menu");
-    	}
-    	catch (final HeadlessException e) {
-    		s_logger.info("Running headless");
+    			s_logger.info("Running with GUI, created system tray icon and menu");
+    		}
+    		catch (final HeadlessException e) {
+    			s_logger.info("Running headless");
+    		}
     	}
 
-        /* Create AirTunes RTSP server */
-		final ServerBootstrap airTunesRtspBootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(ExecutorService, ExecutorService));
-		airTunesRtspBootstrap.setPipelineFactory(new RaopRtspPipelineFactory());
-		airTunesRtspBootstrap.setOption("reuseAddress", true);
-		airTunesRtspBootstrap.setOption("child.tcpNoDelay", true);
-		airTunesRtspBootstrap.setOption("child.keepAlive", true);
-		s_allChannels.add(airTunesRtspBootstrap.bind(new InetSocketAddress(Inet4Address.getByName("0.0.0.0"), AirtunesServiceRTSPPort)));
-        s_logger.info("Launched RTSP service on port " + AirtunesServiceRTSPPort);
+    	/* Prepare the ciphers needed during connection setup before accepting connections */
+    	AirTunesCrytography.warmUp();
+
+        /* Create AirTunes RTSP servers. All receivers share the same netty thread pools */
+		final ChannelFactory airTunesRtspChannelFactory = new NioServerSocketChannelFactory(ExecutorService, ExecutorService);
+		for(final RaopReceiver receiver: receivers) {
+			final ServerBootstrap airTunesRtspBootstrap = new ServerBootstrap(airTunesRtspChannelFactory);
+			airTunesRtspBootstrap.setPipelineFactory(new RaopRtspPipelineFactory(receiver));
+			airTunesRtspBootstrap.setOption("reuseAddress", true);
+			airTunesRtspBootstrap.setOption("child.tcpNoDelay", true);
+			airTunesRtspBootstrap.setOption("child.keepAlive", true);
+			s_allChannels.add(airTunesRtspBootstrap.bind(new InetSocketAddress(Inet4Address.getByName("0.0.0.0"), receiver.getPort())));
+			s_logger.info("Launched RTSP service for " + receiver.getName() + " on port " + receiver.getPort());
+		}
+
+		/* Create the metrics HTTP server if the system property org.phlo.AirReceiver.metricsPort
+		 * is set. It shares the netty thread pools with the RTSP servers
+		 */
+		final int metricsPort = Integer.getInteger("org.phlo.AirReceiver.metricsPort", 0);
+		if (metricsPort > 0) {
+			final ServerBootstrap metricsBootstrap = new ServerBootstrap(airTunesRtspChannelFactory);
+			metricsBootstrap.setPipelineFactory(new MetricsPipelineFactory(Statistics, DecodeScheduler));
+			metricsBootstrap.setOption("reuseAddress", true);
+			metricsBootstrap.setOption("child.tcpNoDelay", true);
+			metricsBootstrap.setOption("child.keepAlive", true);
+			s_allChannels.add(metricsBootstrap.bind(new InetSocketAddress(Inet4Address.getByName("0.0.0.0"), metricsPort)));
+			s_logger.info("Launched metrics service on port " + metricsPort + ", serving " + MetricsHttpHandler.MetricsPath);
+		}
 
     	/* Create mDNS responders. */
         synchronized(s_jmDNSInstances) {
@@ -433,16 +578,18 @@ public class AirReceiver {
 				    	final JmDNS jmDNS = JmDNS.create(addr, HostName + "-jmdns");
 				    	s_jmDNSInstances.add(jmDNS);
 
-				        /* Publish RAOP service */
-				        final ServiceInfo airTunesServiceInfo = ServiceInfo.create(
-				    		AirtunesServiceType,
-				    		HardwareAddressString + "@" + HostName + " (" + iface.getName() + ")",
-				    		AirtunesServiceRTSPPort,
-				    		0 /* weight */, 0 /* priority */,
-				    		AirtunesServiceProperties
-				    	);
-				        jmDNS.registerService(airTunesServiceInfo);
-						s_logger.info("Registered AirTunes service '" + airTunesServiceInfo.getName() + "' on " + addr);
+				        /* Publish a RAOP service for every receiver */
+				        for(final RaopReceiver receiver: receivers) {
+					        final ServiceInfo airTunesServiceInfo = ServiceInfo.create(
+					    		AirtunesServiceType,
+					    		receiver.getHardwareAddressString() + "@" + receiver.getName() + " (" + iface.getName() + ")",
+					    		receiver.getPort(),
+					    		0 /* weight */, 0 /* priority */,
+					    		AirtunesServiceProperties
+					    	);
+					        jmDNS.registerService(airTunesServiceInfo);
+							s_logger.info("Registered AirTunes service '" + airTunesServiceInfo.getName() + "' on " + addr);
+				        }
 					}
 					catch (final Throwable e) {
 						s_logger.log(Level.SEVERE, "Failed to publish service on " + addr, e);
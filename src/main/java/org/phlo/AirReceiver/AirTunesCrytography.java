@@ -23,6 +23,8 @@ import java.lang.reflect.Method;
 import java.security.*;
 import java.security.interfaces.*;
 import java.security.spec.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -83,81 +85,79 @@ public final class AirTunesCrytography {
 	 */
 	public static final RSAPrivateKey PrivateKey = rsaPrivateKeyDecode(PrivateKeyData);
 
+	/**
+	 * Number of RTSP connections whose setup can be handled by the cipher pools
+	 * without creating new ciphers
+	 */
+	private static final int PoolCapacity = 4;
+
+	/**
+	 * Pool of RSA ciphers for the {@code Apple-Challenge} response, initialized
+	 * to sign with the AirTunes private key
+	 */
+	public static final CipherPool RsaPkcs1SignPool = new CipherPool("RSA/None/PKCS1Padding", PoolCapacity, Cipher.ENCRYPT_MODE, PrivateKey);
+
+	/**
+	 * Pool of RSA ciphers which decrypt the AES session key announced by
+	 * {@code rsaaeskey}, initialized with the AirTunes private key
+	 */
+	public static final CipherPool RsaOaepDecryptPool = new CipherPool("RSA/None/OAEPWithSHA1AndMGF1Padding", PoolCapacity, Cipher.DECRYPT_MODE, PrivateKey);
+
+	/**
+	 * Ways to create a {@link javax.crypto.CipherSpi} for a transformation,
+	 * indexed by the transformation in upper case
+	 */
+	private static final ConcurrentMap<String, CipherSpiFactory> s_cipherSpiFactories = new ConcurrentHashMap<String, CipherSpiFactory>();
+
+	/**
+	 * Creates {@link javax.crypto.CipherSpi} instances of a particular class,
+	 * setting the mode and padding if the class doesn't imply them
+	 */
+	private static final class CipherSpiFactory {
+		private final Class<? extends CipherSpi> m_cipherSpiClass;
+		private final String m_mode;
+		private final String m_padding;
+
+		CipherSpiFactory(final Class<? extends CipherSpi> cipherSpiClass, final String mode, final String padding) {
+			m_cipherSpiClass = cipherSpiClass;
+			m_mode = mode;
+			m_padding = padding;
+		}
+
+		CipherSpi create() throws Throwable {
+			final CipherSpi cipherSpi = m_cipherSpiClass.newInstance();
+			if (m_mode != null)
+				cipherSpiSetMode(cipherSpi, m_mode);
+			if (m_padding != null)
+				cipherSpiSetPadding(cipherSpi, m_padding);
+			return cipherSpi;
+		}
+	}
+
 	static final Pattern s_transformation_pattern = Pattern.compile("^([A-Za-z0-9_.-]+)(/([A-Za-z0-9_.-]+)/([A-Za-z0-9_.-]+))?");
 	/**
 	 * Replacement for JCA/JCE's {@link javax.crypto.Cipher#getInstance}.
 	 * The original method only accepts JCE providers from signed jars,
 	 * which prevents us from bundling our cryptography provider Bouncy Caster
 	 * with the application.
+	 * <p>
+	 * The implementation is looked up once per transformation, later calls
+	 * only instantiate it.
 	 *
 	 * @param transformation the transformation to find an implementation for
 	 */
 	public static Cipher getCipher(final String transformation) {
 		try {
-			/* Split the transformation into algorithm, mode and padding */
-
-			final Matcher transformation_matcher = s_transformation_pattern.matcher(transformation.toUpperCase());
-			if (!transformation_matcher.matches())
-				throw new RuntimeException("Transformation " + transformation + " is invalid");
-
-			final String algorithm = transformation_matcher.group(1);
-			final String mode = transformation_matcher.group(3);
-			final String padding = transformation_matcher.group(4);
-			final boolean isBareAlgorithm = (mode == null) && (padding == null);
-
-			/* Build the property values we need to search for. */
-
-			final String algorithmModePadding = !isBareAlgorithm ? algorithm + "/" + mode + "/" + padding : null;
-			final String algorithmMode = !isBareAlgorithm ? algorithm + "/" + mode : null;
-			final String algorithmPadding = !isBareAlgorithm ? algorithm + "//" + padding : null;
-
-			/* Search the provider for implementations. We ask for more specific (i.e matching
-			 * the requested mode and or padding) implementation first, then fall back to more
-			 * generals ones which we then must configure for the mode and padding.
-			 */
+			final String transformationUpper = transformation.toUpperCase();
 
-			final CipherSpi cipherSpi;
-
-			if (!isBareAlgorithm && (resolveProperty(Provider, "Cipher", algorithmModePadding) != null)) {
-				@SuppressWarnings("unchecked")
-				final
-				Class<? extends CipherSpi> cipherSpiClass = (Class<? extends CipherSpi>)Class.forName(resolveProperty(Provider, "Cipher", algorithmModePadding));
-				cipherSpi = cipherSpiClass.newInstance();
-			}
-			else if (!isBareAlgorithm && (resolveProperty(Provider, "Cipher", algorithmMode) != null)) {
-				@SuppressWarnings("unchecked")
-				final
-				Class<? extends CipherSpi> cipherSpiClass = (Class<? extends CipherSpi>)Class.forName(resolveProperty(Provider, "Cipher", algorithmMode));
-				cipherSpi = cipherSpiClass.newInstance();
-				if (!isBareAlgorithm)
-					cipherSpiSetPadding(cipherSpi, padding);
-			}
-			else if (!isBareAlgorithm && (resolveProperty(Provider, "Cipher", algorithmPadding) != null)) {
-				@SuppressWarnings("unchecked")
-				final
-				Class<? extends CipherSpi> cipherSpiClass = (Class<? extends CipherSpi>)Class.forName(resolveProperty(Provider, "Cipher", algorithmPadding));
-				cipherSpi = cipherSpiClass.newInstance();
-				if (!isBareAlgorithm)
-					cipherSpiSetMode(cipherSpi, mode);
-			}
-			else if (resolveProperty(Provider, "Cipher", algorithm) != null) {
-				@SuppressWarnings("unchecked")
-				final
-				Class<? extends CipherSpi> cipherSpiClass = (Class<? extends CipherSpi>)Class.forName(resolveProperty(Provider, "Cipher", algorithm));
-				cipherSpi = cipherSpiClass.newInstance();
-				if (!isBareAlgorithm) {
-					cipherSpiSetMode(cipherSpi, mode);
-					cipherSpiSetPadding(cipherSpi, padding);
-				}
-			}
-			else {
-				throw new RuntimeException("Provider " + Provider.getName() + " (" + Provider.getClass() + ") does not implement " + transformation);
+			CipherSpiFactory cipherSpiFactory = s_cipherSpiFactories.get(transformationUpper);
+			if (cipherSpiFactory == null) {
+				cipherSpiFactory = resolveCipherSpiFactory(transformationUpper);
+				s_cipherSpiFactories.putIfAbsent(transformationUpper, cipherSpiFactory);
 			}
 
 			/* Create a {@link javax.crypto.Cipher} instance from the {@link javax.crypto.CipherSpi} the provider gave us */
-
-			s_logger.info("Using SPI " + cipherSpi.getClass() + " for " + transformation);
-			return getCipher(cipherSpi, transformation.toUpperCase());
+			return getCipher(cipherSpiFactory.create(), transformationUpper);
 		}
 		catch (final RuntimeException e) {
 			throw e;
@@ -170,6 +170,117 @@ public final class AirTunesCrytography {
 		}
 	}
 
+	/**
+	 * Finds the provider's implementation of a transformation
+	 *
+	 * @param transformation the transformation, in upper case
+	 * @return factory for the implementation
+	 * @throws ClassNotFoundException if the provider's implementation class is missing
+	 */
+	@SuppressWarnings("unchecked")
+	private static CipherSpiFactory resolveCipherSpiFactory(final String transformation) throws ClassNotFoundException {
+		/* Split the transformation into algorithm, mode and padding */
+
+		final Matcher transformation_matcher = s_transformation_pattern.matcher(transformation);
+		if (!transformation_matcher.matches())
+			throw new RuntimeException("Transformation " + transformation + " is invalid");
+
+		final String algorithm = transformation_matcher.group(1);
+		final String mode = transformation_matcher.group(3);
+		final String padding = transformation_matcher.group(4);
+		final boolean isBareAlgorithm = (mode == null) && (padding == null);
+
+		/* Build the property values we need to search for. */
+
+		final String algorithmModePadding = !isBareAlgorithm ? algorithm + "/" + mode + "/" + padding : null;
+		final String algorithmMode = !isBareAlgorithm ? algorithm + "/" + mode : null;
+		final String algorithmPadding = !isBareAlgorithm ? algorithm + "//" + padding : null;
+
+		/* Search the provider for implementations. We ask for more specific (i.e matching
+		 * the requested mode and or padding) implementation first, then fall back to more
+		 * generals ones which we then must configure for the mode and padding.
+		 */
+
+		final CipherSpiFactory cipherSpiFactory;
+
+		if (!isBareAlgorithm && (resolveProperty(Provider, "Cipher", algorithmModePadding) != null)) {
+			cipherSpiFactory = new CipherSpiFactory(
+				(Class<? extends CipherSpi>)Class.forName(resolveProperty(Provider, "Cipher", algorithmModePadding)),
+				null,
+				null
+			);
+		}
+		else if (!isBareAlgorithm && (resolveProperty(Provider, "Cipher", algorithmMode) != null)) {
+			cipherSpiFactory = new CipherSpiFactory(
+				(Class<? extends CipherSpi>)Class.forName(resolveProperty(Provider, "Cipher", algorithmMode)),
+				null,
+				padding
+			);
+		}
+		else if (!isBareAlgorithm && (resolveProperty(Provider, "Cipher", algorithmPadding) != null)) {
+			cipherSpiFactory = new CipherSpiFactory(
+				(Class<? extends CipherSpi>)Class.forName(resolveProperty(Provider, "Cipher", algorithmPadding)),
+				mode,
+				null
+			);
+		}
+		else if (resolveProperty(Provider, "Cipher", algorithm) != null) {
+			cipherSpiFactory = new CipherSpiFactory(
+				(Class<? extends CipherSpi>)Class.forName(resolveProperty(Provider, "Cipher", algorithm)),
+				mode,
+				padding
+			);
+		}
+		else {
+			throw new RuntimeException("Provider " + Provider.getName() + " (" + Provider.getClass() + ") does not implement " + transformation);
+		}
+
+		s_logger.info("Using SPI " + cipherSpiFactory.m_cipherSpiClass + " for " + transformation);
+		return cipherSpiFactory;
+	}
+
+	/**
+	 * Fills the cipher pools and runs each RSA operation once, so that
+	 * the first client to connect doesn't wait for classes to be loaded
+	 * and the RSA code to be compiled. Meant to be called at startup.
+	 */
+	public static void warmUp() {
+		final long startNanos = System.nanoTime();
+
+		RsaPkcs1SignPool.warmUp(PoolCapacity);
+		RsaOaepDecryptPool.warmUp(PoolCapacity);
+
+		try {
+			/* Sign a dummy challenge */
+			final Cipher signCipher = RsaPkcs1SignPool.acquire();
+			signCipher.doFinal(new byte[16 + 16 + 6]);
+			RsaPkcs1SignPool.release(signCipher);
+
+			/* Decrypt a dummy AES key, encrypted with the public key matching our private key */
+			if (PrivateKey instanceof RSAPrivateCrtKey) {
+				final RSAPrivateCrtKey privateCrtKey = (RSAPrivateCrtKey)PrivateKey;
+				final PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(
+					new RSAPublicKeySpec(privateCrtKey.getModulus(), privateCrtKey.getPublicExponent())
+				);
+				final Cipher encryptCipher = getCipher("RSA/None/OAEPWithSHA1AndMGF1Padding");
+				encryptCipher.init(Cipher.ENCRYPT_MODE, publicKey);
+				final byte[] encryptedKey = encryptCipher.doFinal(new byte[16]);
+
+				final Cipher decryptCipher = RsaOaepDecryptPool.acquire();
+				decryptCipher.doFinal(encryptedKey);
+				RsaOaepDecryptPool.release(decryptCipher);
+			}
+		}
+		catch (final GeneralSecurityException e) {
+			throw new RuntimeException("Cryptography warm-up failed", e);
+		}
+
+		/* Resolve the AES implementation used by the RTP channels */
+		getCipher("AES/CBC/NoPadding");
+
+		s_logger.info("Cryptography warmed up in " + (System.nanoTime() - startNanos) / 1000000 + " ms");
+	}
+
 	/**
 	 * Converts a PEM-encoded PKCS#8 private key into an RSAPrivateKey instance
 	 * useable with JCE
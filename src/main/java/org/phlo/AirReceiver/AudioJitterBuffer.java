@@ -0,0 +1,268 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+/**
+ * Jitter buffer for audio packets, indexed by frame time.
+ * <p>
+ * Packets are stored in a fixed ring of slots. A packet's slot is determined
+ * by dividing its frame time by the packet size, so inserting, looking up and
+ * removing packets takes constant time. Each slot owns an array which the
+ * packet's sample data is copied into, so after every slot was used once
+ * no memory is allocated anymore.
+ * <p>
+ * Packets may be inserted in any order, as long as the distance between the
+ * earliest and the latest queued packet doesn't exceed the buffer's capacity.
+ * If two packets map to the same slot (which only happens if their frame times
+ * are less than one packet apart), the later insertion replaces the earlier one.
+ * <p>
+ * Not thread-safe.
+ */
+public class AudioJitterBuffer {
+	/**
+	 * Number of frames per packet
+	 */
+	private final int m_packetFrames;
+
+	/**
+	 * Maximum number of bytes per packet
+	 */
+	private final int m_packetBytes;
+
+	/**
+	 * Number of slots
+	 */
+	private final int m_capacity;
+
+	/**
+	 * Frame time of the packet in each slot
+	 */
+	private final long[] m_slotFrameTimes;
+
+	/**
+	 * Sample data of the packet in each slot,
+	 * allocated when a slot is first used
+	 */
+	private final byte[][] m_slotSamples;
+
+	/**
+	 * Number of bytes of sample data in each slot, -1 for empty slots
+	 */
+	private final int[] m_slotLengths;
+
+	/**
+	 * Number of occupied slots
+	 */
+	private int m_size = 0;
+
+	/**
+	 * Lower and upper bound of the slot numbers (i.e. frame time divided
+	 * by packet size) of the queued packets. Only valid if the buffer isn't
+	 * empty. The lower bound is tightened lazily by {@link #skipEmptySlots()}
+	 */
+	private long m_firstSlot = 0;
+	private long m_lastSlot = 0;
+
+	/**
+	 * Creates a jitter buffer
+	 *
+	 * @param packetFrames number of frames per packet
+	 * @param bytesPerFrame number of bytes per frame
+	 * @param capacity number of packets the buffer can hold
+	 */
+	public AudioJitterBuffer(final int packetFrames, final int bytesPerFrame, final int capacity) {
+		if (packetFrames <= 0)
+			throw new IllegalArgumentException("Packet size must be positive, but was " + packetFrames);
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive, but was " + capacity);
+
+		m_packetFrames = packetFrames;
+		m_packetBytes = packetFrames * bytesPerFrame;
+		m_capacity = capacity;
+		m_slotFrameTimes = new long[capacity];
+		m_slotSamples = new byte[capacity][];
+		m_slotLengths = new int[capacity];
+		clear();
+	}
+
+	/**
+	 * Returns the maximal number of packets the buffer can hold
+	 *
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return m_capacity;
+	}
+
+	/**
+	 * Returns the maximal number of bytes of sample data per packet
+	 *
+	 * @return bytes per packet
+	 */
+	public int getPacketBytes() {
+		return m_packetBytes;
+	}
+
+	/**
+	 * Returns the number of queued packets
+	 *
+	 * @return number of packets
+	 */
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	/**
+	 * Queues a packet, replacing any packet with the same or
+	 * a nearby frame time.
+	 *
+	 * @param frameTime frame time of the packet's first frame
+	 * @param samples sample data
+	 * @param off offset of the packet's sample data
+	 * @param len length of the packet's sample data
+	 * @return false if the packet was too large or too far away from the other queued packets
+	 */
+	public boolean put(final long frameTime, final byte[] samples, final int off, final int len) {
+		if (len > m_packetBytes)
+			return false;
+
+		final long slot = slotOf(frameTime);
+		if (m_size > 0) {
+			/* The lower bound may be outdated, tighten it before giving up */
+			if (Math.max(m_lastSlot, slot) - Math.min(m_firstSlot, slot) >= m_capacity)
+				skipEmptySlots();
+			if (Math.max(m_lastSlot, slot) - Math.min(m_firstSlot, slot) >= m_capacity)
+				return false;
+
+			m_firstSlot = Math.min(m_firstSlot, slot);
+			m_lastSlot = Math.max(m_lastSlot, slot);
+		}
+		else {
+			m_firstSlot = slot;
+			m_lastSlot = slot;
+		}
+
+		final int index = indexOf(slot);
+		if (m_slotLengths[index] < 0)
+			++m_size;
+		if (m_slotSamples[index] == null)
+			m_slotSamples[index] = new byte[m_packetBytes];
+
+		System.arraycopy(samples, off, m_slotSamples[index], 0, len);
+		m_slotFrameTimes[index] = frameTime;
+		m_slotLengths[index] = len;
+
+		return true;
+	}
+
+	/**
+	 * Returns the frame time of the earliest queued packet.
+	 * The buffer must not be empty.
+	 *
+	 * @return frame time
+	 */
+	public long firstFrameTime() {
+		if (m_size == 0)
+			throw new IllegalStateException("Jitter buffer is empty");
+
+		skipEmptySlots();
+
+		return m_slotFrameTimes[indexOf(m_firstSlot)];
+	}
+
+	/**
+	 * Removes the packet with the given frame time and
+	 * copies its sample data to the provided array.
+	 *
+	 * @param frameTime frame time of the packet
+	 * @param samples array to copy the packet's sample data to, must hold at least {@link #getPacketBytes()} bytes
+	 * @return length of the sample data, or -1 if there's no packet with the given frame time
+	 */
+	public int take(final long frameTime, final byte[] samples) {
+		final int index = indexOf(slotOf(frameTime));
+		final int len = m_slotLengths[index];
+		if ((len < 0) || (m_slotFrameTimes[index] != frameTime))
+			return -1;
+
+		System.arraycopy(m_slotSamples[index], 0, samples, 0, len);
+		m_slotLengths[index] = -1;
+		--m_size;
+
+		return len;
+	}
+
+	/**
+	 * Removes the packet with the given frame time
+	 *
+	 * @param frameTime frame time of the packet
+	 * @return true if there was a packet with the given frame time
+	 */
+	public boolean remove(final long frameTime) {
+		final int index = indexOf(slotOf(frameTime));
+		if ((m_slotLengths[index] < 0) || (m_slotFrameTimes[index] != frameTime))
+			return false;
+
+		m_slotLengths[index] = -1;
+		--m_size;
+
+		return true;
+	}
+
+	/**
+	 * Removes all queued packets
+	 */
+	public void clear() {
+		for(int i=0; i < m_capacity; ++i)
+			m_slotLengths[i] = -1;
+		m_size = 0;
+	}
+
+	/**
+	 * Advances the lower bound of the queued packets' slot numbers to the
+	 * first occupied slot. Each slot is skipped at most once after it was
+	 * emptied, so this takes amortized constant time. The buffer must not
+	 * be empty.
+	 */
+	private void skipEmptySlots() {
+		while (m_slotLengths[indexOf(m_firstSlot)] < 0)
+			++m_firstSlot;
+	}
+
+	/**
+	 * Returns the slot number of a frame time, i.e. the
+	 * frame time divided by the packet size, rounded down
+	 */
+	private long slotOf(final long frameTime) {
+		if (frameTime >= 0)
+			return frameTime / m_packetFrames;
+		else
+			return -((-frameTime - 1) / m_packetFrames) - 1;
+	}
+
+	/**
+	 * Returns the index of the slot with the given slot number
+	 */
+	private int indexOf(final long slot) {
+		final int index = (int)(slot % m_capacity);
+		return (index >= 0) ? index : index + m_capacity;
+	}
+}
@@ -17,13 +17,13 @@
 
 package org.phlo.AirReceiver;
 
-import java.util.Arrays;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.sound.sampled.*;
 
+import org.phlo.audio.*;
+
 /**
  * Audio output queue.
  * 
@@ -37,6 +37,29 @@ public class AudioOutputQueue implements AudioClock {
 	private static final double BufferSizeSeconds = 0.05;
 	private static final double TimingPrecision = 0.001;
 
+	/**
+	 * Timing errors up to this many seconds are absorbed by resampling,
+	 * larger ones by inserting silence or skipping frames
+	 */
+	private static final double ResamplingErrorMaxSeconds = 0.02;
+
+	/**
+	 * Time over which the resampler spreads the correction of a timing error
+	 */
+	private static final double ResamplingCorrectionSeconds = 2.0;
+
+	/**
+	 * Maximal deviation of the resampling ratio from one. Clock drifts are
+	 * usually well below 100 ppm, while the resulting pitch change of 0.1%
+	 * is still inaudible
+	 */
+	private static final double ResamplingRatioDeviationMax = 0.001;
+
+	/**
+	 * Number of frames resampled at once
+	 */
+	private static final int ResamplingChunkFrames = 1024;
+
 	/**
 	 * Signals that the queue is being closed.
 	 * Never transitions from true to false!
@@ -73,9 +96,23 @@ public class AudioOutputQueue implements AudioClock {
 	private final int m_packetSizeFrames;
 
 	/**
-	 * JavaSounds audio output line
+	 * Resampler which absorbs small timing errors, i.e. the drift between
+	 * the sender's clock and the sink's clock. Null if the line's format
+	 * isn't 16-bit PCM, timing errors are then always corrected by inserting
+	 * silence or skipping frames
+	 */
+	private final PolyphaseResampler m_resampler;
+
+	/**
+	 * Set by {@link #flush()} to make the enqueuer thread discard the
+	 * frames held by the resampler
 	 */
-	private final SourceDataLine m_line;
+	private volatile boolean m_resamplerResetRequested = false;
+
+	/**
+	 * Audio output sink, usually a JavaSound line
+	 */
+	private final AudioOutputSink m_sink;
 
 	/**
 	 * The last frame written to the line.
@@ -84,14 +121,15 @@ public class AudioOutputQueue implements AudioClock {
 	private final byte[] m_lineLastFrame;
 
 	/**
-	 * Packet queue, indexed by playback time
+	 * Packet queue, indexed by playback time. Guarded by the
+	 * AudioOutputQueue's monitor
 	 */
-	private final ConcurrentSkipListMap<Long, byte[]> m_queue = new ConcurrentSkipListMap<Long, byte[]>();
+	private final AudioJitterBuffer m_queue;
 
 	/**
 	 * Enqueuer thread
 	 */
-	private final Thread m_queueThread = new Thread(new EnQueuer());
+	private final Thread m_queueThread;
 
 	/**
 	 * Number of frames appended to the line
@@ -118,10 +156,92 @@ public class AudioOutputQueue implements AudioClock {
 	 */
 	private float m_requestedGain = 0.0f;
 
+	/**
+	 * Run once the first packet was written to the sink unmuted,
+	 * cleared afterwards
+	 */
+	private volatile Runnable m_firstAudibleFrameListener = null;
+
+	/**
+	 * Statistics of the session the queue belongs to, may be null
+	 */
+	private volatile RaopSessionStatistics m_statistics = null;
+
+	/**
+	 * Number of {@link #enqueue(long, byte[])} calls and the total
+	 * time they held the queue's monitor
+	 */
+	private long m_enqueueCount = 0;
+	private long m_enqueueLockHoldNanos = 0;
+
 	/**
 	 * Enqueuer thread
 	 */
 	private class EnQueuer implements Runnable {
+		/**
+		 * Sample data of the packet currently being played
+		 */
+		private final byte[] m_playbackSamples = new byte[m_queue.getPacketBytes()];
+
+		/**
+		 * Silence, grown as necessary by {@link #appendSilence(int)}
+		 */
+		private byte[] m_silenceSamples = new byte[0];
+
+		/**
+		 * Signedness and byte order of the line's samples
+		 */
+		private final Signedness m_signedness = AudioFormat.Encoding.PCM_SIGNED.equals(m_format.getEncoding()) ? Signedness.Signed : Signedness.Unsigned;
+		private final boolean m_bigEndian = m_format.isBigEndian();
+
+		/**
+		 * Resampler input and output, as interleaved 16-bit
+		 * samples, as interleaved float samples and as bytes
+		 */
+		private final short[] m_resamplerShorts;
+		private final float[] m_resamplerInput;
+		private final float[] m_resamplerOutput;
+		private final byte[] m_resamplerOutputBytes;
+
+		/**
+		 * The frames written to the line last, as bytes and as float samples.
+		 * They precede the first frame the resampler processes once it's used
+		 */
+		private final byte[] m_lineTailBytes;
+		private final float[] m_lineTail;
+
+		/**
+		 * Whether the line's frames currently pass through the resampler.
+		 * While the ratio is exactly one they bypass it, since it would
+		 * then only delay and filter them
+		 */
+		private boolean m_resampling = false;
+
+		EnQueuer() {
+			if (m_resampler != null) {
+				final int channels = m_format.getChannels();
+				final int tailFrames = m_resampler.getHalfTaps() - 1;
+				m_resamplerShorts = new short[2 * ResamplingChunkFrames * channels];
+				m_resamplerInput = new float[ResamplingChunkFrames * channels];
+				m_resamplerOutput = new float[2 * ResamplingChunkFrames * channels];
+				m_resamplerOutputBytes = new byte[2 * ResamplingChunkFrames * m_bytesPerFrame];
+				m_lineTailBytes = new byte[tailFrames * m_bytesPerFrame];
+				m_lineTail = new float[tailFrames * channels];
+
+				/* The line starts out silent */
+				if (Signedness.Unsigned.equals(m_signedness))
+					SampleConversions.flipSignBit16(m_lineTailBytes, 0, m_lineTailBytes.length, m_bigEndian);
+			}
+			else {
+				m_resamplerShorts = null;
+				m_resamplerInput = null;
+				m_resamplerOutput = null;
+				m_resamplerOutputBytes = null;
+				m_lineTailBytes = null;
+				m_lineTail = null;
+			}
+		}
+
 		/**
 		 * Enqueuer thread main method
 		 */
@@ -132,12 +252,21 @@ public class AudioOutputQueue implements AudioClock {
 				setLineGain(Float.NEGATIVE_INFINITY);
 
 				/* Start the line */
-				m_line.start();
+				m_sink.start();
 
 				boolean lineMuted = true;
 				boolean didWarnGap = false;
 				while (!m_closing) {
-					if (!m_queue.isEmpty()) {
+					/* Get the playback time of the next packet, if any */
+					boolean queueEmpty;
+					long entryFrameTime = 0;
+					synchronized(AudioOutputQueue.this) {
+						queueEmpty = m_queue.isEmpty();
+						if (!queueEmpty)
+							entryFrameTime = m_queue.firstFrameTime();
+					}
+
+					if (!queueEmpty) {
 						/* Queue filled */
 
 						/* If the gap between the next packet and the end of line is
@@ -145,14 +274,16 @@ public class AudioOutputQueue implements AudioClock {
 						 * Otherwise, we fill the line buffer with silence and hope for
 						 * further packets to appear in the queue
 						 */
-						final long entryFrameTime = m_queue.firstKey();
 						final long entryLineTime = convertFrameToLineTime(entryFrameTime);
 						final long gapFrames = entryLineTime - getNextLineTime();
 						if (gapFrames < -m_packetSizeFrames) {
 							/* Too late for playback */
 							s_logger.warning("Audio data was scheduled for playback " + (-gapFrames) + " frames ago, skipping");
+							recordPacketLate(entryFrameTime);
 
-							m_queue.remove(entryFrameTime);
+							synchronized(AudioOutputQueue.this) {
+								m_queue.remove(entryFrameTime);
+							}
 							continue;
 						}
 						else if (gapFrames < m_packetSizeFrames) {
@@ -170,9 +301,15 @@ public class AudioOutputQueue implements AudioClock {
 								applyGain();
 							}
 
-							/* Get sample data and do sanity checks */
-							final byte[] nextPlaybackSamples = m_queue.remove(entryFrameTime);
-							int nextPlaybackSamplesLength = nextPlaybackSamples.length;
+							/* Get sample data and do sanity checks. The packet is gone
+							 * if the queue was flushed in the meantime
+							 */
+							int nextPlaybackSamplesLength;
+							synchronized(AudioOutputQueue.this) {
+								nextPlaybackSamplesLength = m_queue.take(entryFrameTime, m_playbackSamples);
+							}
+							if (nextPlaybackSamplesLength < 0)
+								continue;
 							if (nextPlaybackSamplesLength % m_bytesPerFrame != 0) {
 								s_logger.severe("Audio data contains non-integral number of frames, ignore last " + (nextPlaybackSamplesLength % m_bytesPerFrame) + " bytes");
 
@@ -181,7 +318,16 @@ public class AudioOutputQueue implements AudioClock {
 
 							/* Append packet to line */
 							s_logger.finest("Audio data containing " + nextPlaybackSamplesLength / m_bytesPerFrame + " frames for playback time " + entryFrameTime + " found in queue, appending to the output line");
-							appendFrames(nextPlaybackSamples, 0, nextPlaybackSamplesLength, entryLineTime);
+							final long appendStartNanos = PacketTrace.Enabled ? System.nanoTime() : 0;
+							appendFrames(m_playbackSamples, 0, nextPlaybackSamplesLength, entryLineTime);
+							if (PacketTrace.Enabled)
+								PacketTrace.Instance.record(PacketTrace.Stage.Append, PacketTrace.None, entryFrameTime, appendStartNanos, System.nanoTime() - appendStartNanos);
+
+							final Runnable firstAudibleFrameListener = m_firstAudibleFrameListener;
+							if (firstAudibleFrameListener != null) {
+								m_firstAudibleFrameListener = null;
+								firstAudibleFrameListener.run();
+							}
 							continue;
 						}
 						else {
@@ -189,6 +335,9 @@ public class AudioOutputQueue implements AudioClock {
 
 							if (!didWarnGap) {
 								didWarnGap = true;
+								final RaopSessionStatistics statistics = m_statistics;
+								if (statistics != null)
+									statistics.recordUnderrun();
 								s_logger.warning("Audio data missing for frame time " + getNextLineTime() + " (currently " + gapFrames + " frames), writing " + m_packetSizeFrames + " frames of silence");
 							}
 						}
@@ -199,33 +348,44 @@ public class AudioOutputQueue implements AudioClock {
 						if (!lineMuted) {
 							lineMuted = true;
 							setLineGain(Float.NEGATIVE_INFINITY);
+							final RaopSessionStatistics statistics = m_statistics;
+							if (statistics != null)
+								statistics.recordMutedPeriod();
 							s_logger.fine("Audio data ended at frame time " + getNextLineTime() + ", writing " + m_packetSizeFrames + " frames of silence and muted line");
 						}
 					}
 
-					appendSilence(m_packetSizeFrames);
+					if (PacketTrace.Enabled) {
+						final long silenceFrameTime = getNextFrameTime();
+						final long silenceStartNanos = System.nanoTime();
+						appendSilence(m_packetSizeFrames);
+						PacketTrace.Instance.record(PacketTrace.Stage.Silence, PacketTrace.None, silenceFrameTime, silenceStartNanos, System.nanoTime() - silenceStartNanos);
+					}
+					else {
+						appendSilence(m_packetSizeFrames);
+					}
 				}
 
 				/* Before we exit, we fill the line's buffer with silence. This should prevent
 				 * noise from being output while the line is being stopped
 				 */
-				appendSilence(m_line.available() / m_bytesPerFrame);
+				appendSilence(m_sink.available() / m_bytesPerFrame);
 			}
 			catch (final Throwable e) {
 				s_logger.log(Level.SEVERE, "Audio output thread died unexpectedly", e);
 			}
 			finally {
 				setLineGain(Float.NEGATIVE_INFINITY);
-				m_line.stop();
-				m_line.close();
+				m_sink.close();
 			}
 		}
 
 		/**
 		 * Append the range [off,off+len) from the provided sample data to the line.
-		 * If the requested playback time does not match the line end time, samples are
-		 * skipped or silence is inserted as necessary. If the data is marked as being
-		 * just a filler, some warnings are suppressed.
+		 * If the requested playback time does not match the line end time, the
+		 * resampler's ratio is adjusted to absorb the difference over time. Samples
+		 * are skipped or silence is inserted if the difference is too large for that,
+		 * or if there is no resampler.
 		 *
 		 * @param samples sample data
 		 * @param off sample data offset
@@ -233,18 +393,37 @@ public class AudioOutputQueue implements AudioClock {
 		 * @param time playback time
 		 * @param warnNonContinous warn about non-continous samples
 		 */
-		private void appendFrames(final byte[] samples, int off, final int len, long lineTime) {
+		private void appendFrames(final byte[] samples, int off, int len, long lineTime) {
 			assert off % m_bytesPerFrame == 0;
 			assert len % m_bytesPerFrame == 0;
 
+			/* Discard the frames held by the resampler if the queue was flushed */
+			if ((m_resampler != null) && m_resamplerResetRequested) {
+				m_resamplerResetRequested = false;
+				m_resampler.reset();
+				m_resampling = false;
+			}
+
 			while (true) {
-				/* Fetch line end time only once per iteration */
-				final long endLineTime = getNextLineTime();
+				/* Fetch line end time only once per iteration. Frames still held
+				 * by the resampler will be played before the samples to append
+				 */
+				final long endLineTime = getNextLineTime() + ((m_resampler != null) ? Math.round(m_resampler.getPendingFrames()) : 0);
 
 				final long timingErrorFrames = lineTime - endLineTime;
 				final double timingErrorSeconds = timingErrorFrames / m_sampleRate;
 
-				if (Math.abs(timingErrorSeconds) <= TimingPrecision) {
+				if ((m_resampler != null) && (Math.abs(timingErrorSeconds) <= ResamplingErrorMaxSeconds)) {
+					/* Samples to append scheduled close to the line end. Stretch or compress
+					 * them slightly to make the line end converge to their playback time
+					 */
+					final double ratioDeviation = timingErrorSeconds / ResamplingCorrectionSeconds;
+					m_resampler.setRatio(1.0 + Math.max(-ResamplingRatioDeviationMax, Math.min(ratioDeviation, ResamplingRatioDeviationMax)));
+
+					appendFrames(samples, off, len);
+					break;
+				}
+				else if (Math.abs(timingErrorSeconds) <= TimingPrecision) {
 					/* Samples to append scheduled exactly at line end. Just append them and be done */
 
 					appendFrames(samples, off, len);
@@ -262,7 +441,12 @@ public class AudioOutputQueue implements AudioClock {
 					 */
 					s_logger.warning("Audio output non-continous (overlap of " + (-timingErrorFrames) + "), skipping overlapping frames");
 
-					off += (endLineTime - lineTime) * m_bytesPerFrame;
+					final long skipLength = (endLineTime - lineTime) * m_bytesPerFrame;
+					if (skipLength >= len)
+						break;
+
+					off += (int)skipLength;
+					len -= (int)skipLength;
 					lineTime += endLineTime - lineTime;
 				}
 				else {
@@ -273,14 +457,19 @@ public class AudioOutputQueue implements AudioClock {
 		}
 
 		private void appendSilence(final int frames) {
-			final byte[] silenceFrames = new byte[frames * m_bytesPerFrame];
-			for(int i = 0; i < silenceFrames.length; ++i)
-				silenceFrames[i] = m_lineLastFrame[i % m_bytesPerFrame];
-			appendFrames(silenceFrames, 0, silenceFrames.length);
+			final int silenceLength = frames * m_bytesPerFrame;
+			if (m_silenceSamples.length < silenceLength)
+				m_silenceSamples = new byte[silenceLength];
+
+			/* Copy the last frame before it's updated by appendFrames() */
+			for(int i = 0; i < silenceLength; ++i)
+				m_silenceSamples[i] = m_lineLastFrame[i % m_bytesPerFrame];
+			appendFrames(m_silenceSamples, 0, silenceLength);
 		}
 
 		/**
 		 * Append the range [off,off+len) from the provided sample data to the line.
+		 * The sample data is converted in-place if the line's format requires it.
 		 *
 		 * @param samples sample data
 		 * @param off sample data offset
@@ -296,34 +485,137 @@ public class AudioOutputQueue implements AudioClock {
 			if (len <= 0)
 				return;
 
-			/* Convert samples if necessary */
-			final byte[] samplesConverted = Arrays.copyOfRange(samples, off, off+len);
-			if (m_convertUnsignedToSigned) {
-				/* The line expects signed PCM samples, so we must
-				 * convert the unsigned PCM samples to signed.
-				 * Note that this only affects the high bytes!
-				 */
-				for(int i=0; i < samplesConverted.length; i += 2)
-					samplesConverted[i] = (byte)((samplesConverted[i] & 0xff) - 0x80);
-			}
+			/* Remember the last frame (in the unconverted format) as silence filler */
+			for(int b=0; b < m_bytesPerFrame; ++b)
+				m_lineLastFrame[b] = samples[off + len - (m_bytesPerFrame - b)];
+
+			/* Convert samples if necessary. If the line expects signed PCM
+			 * samples, we must convert the unsigned PCM samples to signed.
+			 */
+			if (m_convertUnsignedToSigned)
+				convertUnsignedToSigned(samples, off, len);
 
 			/* Write samples to line */
-			final int bytesWritten = m_line.write(samplesConverted, 0, samplesConverted.length);
+			if (m_resampler != null)
+				writeResampled(samples, off, len);
+			else
+				write(samples, off, len);
+		}
+
+		/**
+		 * Resamples the range [off,off+len) from the provided sample data
+		 * and writes the result to the line. The samples bypass the
+		 * resampler while its ratio is exactly one
+		 *
+		 * @param samples sample data
+		 * @param off sample data offset
+		 * @param len sample data length
+		 */
+		private void writeResampled(final byte[] samples, final int off, final int len) {
+			final int channels = m_format.getChannels();
+			final boolean resample = (m_resampler.getRatio() != 1.0);
+
+			if (!m_resampling && resample) {
+				/* Continue from the frames played so far, as if they had been resampled */
+				final int tailSamples = m_lineTail.length;
+				SampleConversions.bytesToShorts(m_lineTailBytes, 0, m_resamplerShorts, 0, tailSamples, m_bigEndian);
+				SampleConversions.shortsToNormalizedFloats(m_resamplerShorts, 0, m_lineTail, 0, tailSamples, m_signedness);
+				m_resampler.reset(m_lineTail, 0);
+				m_resampling = true;
+			}
+			else if (m_resampling && !resample) {
+				/* Play the frames held by the resampler, then bypass it */
+				writeFloats(m_resampler.drain(m_resamplerOutput, 0, m_resamplerOutput.length / channels));
+				m_resampling = false;
+			}
+
+			if (!m_resampling) {
+				write(samples, off, len);
+				return;
+			}
+
+			final int endFrame = (off + len) / m_bytesPerFrame;
+			for(int frame = off / m_bytesPerFrame; frame < endFrame; frame += ResamplingChunkFrames) {
+				final int inputFrames = Math.min(ResamplingChunkFrames, endFrame - frame);
+				SampleConversions.bytesToShorts(samples, frame * m_bytesPerFrame, m_resamplerShorts, 0, inputFrames * channels, m_bigEndian);
+				SampleConversions.shortsToNormalizedFloats(m_resamplerShorts, 0, m_resamplerInput, 0, inputFrames * channels, m_signedness);
+
+				writeFloats(m_resampler.process(
+					m_resamplerInput, 0, inputFrames,
+					m_resamplerOutput, 0, m_resamplerOutput.length / channels
+				));
+			}
+		}
+
+		/**
+		 * Writes the first frames of the resampler's output buffer to the line
+		 *
+		 * @param frames number of frames
+		 */
+		private void writeFloats(final int frames) {
+			final int samples = frames * m_format.getChannels();
+			SampleConversions.normalizedFloatsToShorts(m_resamplerOutput, 0, m_resamplerShorts, 0, samples, m_signedness);
+			SampleConversions.shortsToBytes(m_resamplerShorts, 0, m_resamplerOutputBytes, 0, samples, m_bigEndian);
+			write(m_resamplerOutputBytes, 0, frames * m_bytesPerFrame);
+		}
+
+		/**
+		 * Writes the range [off,off+len) from the provided sample data to the line
+		 *
+		 * @param samples sample data
+		 * @param off sample data offset
+		 * @param len sample data length
+		 */
+		private void write(final byte[] samples, final int off, final int len) {
+			final int bytesWritten = m_sink.write(samples, off, len);
 			if (bytesWritten != len)
-				s_logger.warning("Audio output line accepted only " + bytesWritten + " bytes of sample data while trying to write " + samples.length + " bytes");
+				s_logger.warning("Audio output line accepted only " + bytesWritten + " bytes of sample data while trying to write " + len + " bytes");
+
+			/* Remember the last frames in case the resampler is used next */
+			if (m_lineTailBytes != null) {
+				final int tailLength = m_lineTailBytes.length;
+				if (len >= tailLength) {
+					System.arraycopy(samples, off + len - tailLength, m_lineTailBytes, 0, tailLength);
+				}
+				else {
+					System.arraycopy(m_lineTailBytes, len, m_lineTailBytes, 0, tailLength - len);
+					System.arraycopy(samples, off, m_lineTailBytes, tailLength - len, len);
+				}
+			}
 
 			/* Update state */
 			synchronized(AudioOutputQueue.this) {
 				m_lineFramesWritten += bytesWritten / m_bytesPerFrame;
-				for(int b=0; b < m_bytesPerFrame; ++b)
-					m_lineLastFrame[b] = samples[off + len - (m_bytesPerFrame - b)];
 
 				s_logger.finest("Audio output line end is now at " + getNextLineTime() + " after writing " + len / m_bytesPerFrame + " frames");
 			}
 		}
 	}
 
+	/**
+	 * Converts big endian unsigned 16-bit PCM samples to signed samples in-place.
+	 * Note that this only affects the high bytes!
+	 *
+	 * @param samples sample data
+	 * @param off sample data offset
+	 * @param len sample data length
+	 */
+	static void convertUnsignedToSigned(final byte[] samples, final int off, final int len) {
+		SampleConversions.flipSignBit16(samples, off, len, true);
+	}
+
 	AudioOutputQueue(final AudioStreamInformationProvider streamInfoProvider) throws LineUnavailableException {
+		this(streamInfoProvider, new JavaSoundAudioOutputSink.Factory(null));
+	}
+
+	/**
+	 * Creates an output queue playing on a sink obtained from the given factory
+	 *
+	 * @param streamInfoProvider provides the stream's audio format
+	 * @param sinkFactory opens the output sink
+	 * @throws LineUnavailableException if no suitable sink can be obtained
+	 */
+	AudioOutputQueue(final AudioStreamInformationProvider streamInfoProvider, final AudioOutputSinkFactory sinkFactory) throws LineUnavailableException {
 		final AudioFormat audioFormat = streamInfoProvider.getAudioFormat();
 
 		/* OSX does not support unsigned PCM lines. We thust always request
@@ -355,16 +647,26 @@ public class AudioOutputQueue implements AudioClock {
 		for(int b=0; b < m_lineLastFrame.length; ++b)
 			m_lineLastFrame[b] = (b % 2 == 0) ? (byte)-128 : (byte)0;
 
-		/* Compute desired line buffer size and obtain a line */
+		/* Timing errors are absorbed by resampling if the format allows it */
+		if (m_format.getSampleSizeInBits() == 16) {
+			m_resampler = new PolyphaseResampler(m_format.getChannels());
+		}
+		else {
+			m_resampler = null;
+		}
+
+		/* Create the packet queue. It must be able to hold all packets whose
+		 * playback time lies between the line's end and QueueLengthMaxSeconds
+		 * later, plus some slack for late packets
+		 */
+		final int queueCapacity = (int)Math.ceil(QueueLengthMaxSeconds * m_sampleRate / m_packetSizeFrames) + 4;
+		m_queue = new AudioJitterBuffer(m_packetSizeFrames, m_bytesPerFrame, queueCapacity);
+		m_queueThread = new Thread(new EnQueuer());
+
+		/* Compute desired buffer size and open the sink */
 		final int desiredBufferSize = (int)Math.pow(2, Math.ceil(Math.log(BufferSizeSeconds * m_sampleRate * m_bytesPerFrame) / Math.log(2.0)));
-		final DataLine.Info lineInfo = new DataLine.Info(
-			SourceDataLine.class,
-			m_format,
-			desiredBufferSize
-		);
-		m_line = (SourceDataLine)AudioSystem.getLine(lineInfo);
-		m_line.open(m_format, desiredBufferSize);
-		s_logger.info("Audio output line created and openend. Requested buffer of " + desiredBufferSize / m_bytesPerFrame  + " frames, got " + m_line.getBufferSize() / m_bytesPerFrame + " frames");
+		m_sink = sinkFactory.open(m_format, desiredBufferSize);
+		s_logger.info("Audio output sink (" + sinkFactory + ") created and openend. Requested buffer of " + desiredBufferSize / m_bytesPerFrame  + " frames, got " + m_sink.getBufferSize() / m_bytesPerFrame + " frames");
 
 		/* Start enqueuer thread and wait for the line to start.
 		 * The wait guarantees that the AudioClock functions return
@@ -374,7 +676,7 @@ public class AudioOutputQueue implements AudioClock {
 		m_queueThread.setName("Audio Enqueuer");
 		m_queueThread.setPriority(Thread.MAX_PRIORITY);
 		m_queueThread.start();
-		while (m_queueThread.isAlive() && !m_line.isActive())
+		while (m_queueThread.isAlive() && !m_sink.isActive())
 			Thread.yield();
 
 		/* Initialize the seconds time offset now that the line is running. */
@@ -382,34 +684,24 @@ public class AudioOutputQueue implements AudioClock {
 	}
 
 	/**
-	 * Sets the line's MASTER_GAIN control to the provided value,
-	 * or complains to the log of the line does not support a MASTER_GAIN control
+	 * Sets the sink's gain to the provided value,
+	 * or complains to the log of the sink does not support volume control
 	 *
 	 * @param gain gain to set
 	 */
 	private void setLineGain(final float gain) {
-		if (m_line.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
-			/* Bound gain value by min and max declared by the control */
-			final FloatControl gainControl = (FloatControl)m_line.getControl(FloatControl.Type.MASTER_GAIN);
-			if (gain < gainControl.getMinimum())
-				gainControl.setValue(gainControl.getMinimum());
-			else if (gain > gainControl.getMaximum())
-				gainControl.setValue(gainControl.getMaximum());
-			else
-				gainControl.setValue(gain);
-		}
+		if (m_sink.isGainSupported())
+			m_sink.setGain(gain);
 		else
 			s_logger.severe("Audio output line doesn not support volume control");
 	}
 
 	/**
-	 * Returns the line's MASTER_GAIN control's value.
+	 * Returns the sink's gain.
 	 */
 	private float getLineGain() {
-		if (m_line.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
-			/* Bound gain value by min and max declared by the control */
-			final FloatControl gainControl = (FloatControl)m_line.getControl(FloatControl.Type.MASTER_GAIN);
-			return gainControl.getValue();
+		if (m_sink.isGainSupported()) {
+			return m_sink.getGain();
 		}
 		else {
 			s_logger.severe("Audio output line doesn not support volume control");
@@ -439,30 +731,135 @@ public class AudioOutputQueue implements AudioClock {
 		return m_requestedGain;
 	}
 
+	/**
+	 * Sets a listener which is run by the enqueuer thread once the first
+	 * packet was written to the sink with the requested gain
+	 *
+	 * @param listener listener, null for none
+	 */
+	public void setFirstAudibleFrameListener(final Runnable listener) {
+		m_firstAudibleFrameListener = listener;
+	}
+
+	/**
+	 * Sets the statistics which record late packets, underruns
+	 * and muted periods
+	 *
+	 * @param statistics session statistics, or null
+	 */
+	public void setStatistics(final RaopSessionStatistics statistics) {
+		m_statistics = statistics;
+	}
+
+	private void recordPacketLate(final long frameTime) {
+		final RaopSessionStatistics statistics = m_statistics;
+		if (statistics != null)
+			statistics.recordPacketLate();
+		if (PacketTrace.Enabled)
+			PacketTrace.Instance.record(PacketTrace.Stage.Skip, PacketTrace.None, frameTime, System.nanoTime(), 0);
+	}
+
+	/**
+	 * Returns the number of packets waiting to be played
+	 *
+	 * @return number of queued packets
+	 */
+	public synchronized int getQueuedPacketCount() {
+		return m_queue.size();
+	}
+
 	/**
 	 * Stops audio output
 	 */
 	public void close() {
 		m_closing = true;
 		m_queueThread.interrupt();
+
+		synchronized(this) {
+			s_logger.info("Audio output queue closed, " + m_enqueueCount + " enqueue calls held the queue lock for a total of " + (m_enqueueLockHoldNanos / 1000000) + " ms");
+		}
 	}
 
 	/**
 	 * Adds sample data to the queue
 	 *
-	 * @param playbackRemoteStartFrameTime start time of sample data
-	 * @param playbackSamples sample data
+	 * @param frameTime start time of sample data
+	 * @param frames sample data
+	 * @return true if the sample data was added to the queue
+	 */
+	public boolean enqueue(final long frameTime, final byte[] frames) {
+		return enqueue(frameTime, frames, 0, frames.length);
+	}
+
+	/**
+	 * Adds sample data to the queue. The sample data is copied,
+	 * the caller may re-use the array afterwards.
+	 *
+	 * @param frameTime start time of sample data
+	 * @param frames sample data
+	 * @param off offset of the sample data
+	 * @param len length of the sample data
 	 * @return true if the sample data was added to the queue
 	 */
-	public synchronized boolean enqueue(final long frameTime, final byte[] frames) {
+	public synchronized boolean enqueue(final long frameTime, final byte[] frames, final int off, final int len) {
+		final long lockedNanos = System.nanoTime();
+		try {
+			return enqueueLocked(frameTime, frames, off, len, lockedNanos);
+		}
+		finally {
+			++m_enqueueCount;
+			m_enqueueLockHoldNanos += System.nanoTime() - lockedNanos;
+		}
+	}
+
+	/**
+	 * Adds the sample data of several packets to the queue, entering
+	 * the queue's monitor only once. The sample data is copied, the
+	 * caller may re-use the arrays afterwards.
+	 *
+	 * @param frameTimes start times of the packets' sample data
+	 * @param frames sample data of all packets
+	 * @param offs offsets of the packets' sample data
+	 * @param lens lengths of the packets' sample data
+	 * @param count number of packets
+	 * @return number of packets whose sample data was added to the queue
+	 */
+	public synchronized int enqueue(final long[] frameTimes, final byte[] frames, final int[] offs, final int[] lens, final int count) {
+		final long lockedNanos = System.nanoTime();
+		try {
+			int enqueued = 0;
+			for(int i=0; i < count; ++i) {
+				final long startNanos = PacketTrace.Enabled ? System.nanoTime() : lockedNanos;
+				if (enqueueLocked(frameTimes[i], frames, offs[i], lens[i], startNanos))
+					++enqueued;
+			}
+			return enqueued;
+		}
+		finally {
+			++m_enqueueCount;
+			m_enqueueLockHoldNanos += System.nanoTime() - lockedNanos;
+		}
+	}
+
+	/**
+	 * Adds sample data to the queue. Must be called with the queue's monitor held
+	 *
+	 * @param frameTime start time of sample data
+	 * @param frames sample data
+	 * @param off offset of the sample data
+	 * @param len length of the sample data
+	 * @param startNanos time the packet's processing started, see {@link System#nanoTime()}
+	 * @return true if the sample data was added to the queue
+	 */
+	private boolean enqueueLocked(final long frameTime, final byte[] frames, final int off, final int len, final long startNanos) {
 		/* Playback time of packet */
-		final double packetSeconds = (double)frames.length / (double)(m_bytesPerFrame * m_sampleRate);
-		
+		final double packetSeconds = (double)len / (double)(m_bytesPerFrame * m_sampleRate);
+
 		/* Compute playback delay, i.e., the difference between the last sample's
 		 * playback time and the current line time
 		 */
 		final double delay =
-			(convertFrameToLineTime(frameTime) + frames.length / m_bytesPerFrame - getNextLineTime()) /
+			(convertFrameToLineTime(frameTime) + len / m_bytesPerFrame - getNextLineTime()) /
 			m_sampleRate;
 
 		m_latestSeenFrameTime = Math.max(m_latestSeenFrameTime, frameTime);
@@ -470,6 +867,7 @@ public class AudioOutputQueue implements AudioClock {
 		if (delay < -packetSeconds) {
 			/* The whole packet is scheduled to be played in the past */
 			s_logger.warning("Audio data arrived " + -(delay) + " seconds too late, dropping");
+			recordPacketLate(frameTime);
 			return false;
 		}
 		else if (delay > QueueLengthMaxSeconds) {
@@ -480,15 +878,23 @@ public class AudioOutputQueue implements AudioClock {
 			return false;
 		}
 
-		m_queue.put(frameTime, frames);
+		if (!m_queue.put(frameTime, frames, off, len)) {
+			s_logger.warning("Audio data of " + len + " bytes for frame time " + frameTime + " does not fit into the queue, dropping");
+			return false;
+		}
+
+		if (PacketTrace.Enabled)
+			PacketTrace.Instance.record(PacketTrace.Stage.Enqueue, PacketTrace.None, frameTime, startNanos, System.nanoTime() - startNanos);
+
 		return true;
 	}
 
 	/**
 	 * Removes all currently queued sample data
 	 */
-	public void flush() {
+	public synchronized void flush() {
 		m_queue.clear();
+		m_resamplerResetRequested = true;
 	}
 
 	@Override
@@ -532,7 +938,7 @@ public class AudioOutputQueue implements AudioClock {
 	}
 
 	private long getNowLineTime() {
-		return m_line.getLongFramePosition();
+		return m_sink.getFramePosition();
 	}
 
 	private synchronized long convertFrameToLineTime(final long entryFrameTime) {
@@ -0,0 +1,110 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Destination of the samples played by an {@link AudioOutputQueue}.
+ * <p>
+ * A sink behaves like a JavaSound {@link javax.sound.sampled.SourceDataLine}.
+ * It consumes samples at the rate dictated by its audio format, buffers
+ * a limited amount of them, and reports how many frames it has consumed
+ * so far. The output queue uses that frame position as its clock.
+ * <p>
+ * Samples are written by the output queue's enqueuer thread only, but
+ * the frame position is queried by other threads as well.
+ */
+public interface AudioOutputSink {
+	/**
+	 * Returns the audio format the samples are written in
+	 *
+	 * @return audio format
+	 */
+	public AudioFormat getFormat();
+
+	/**
+	 * Returns the size of the sink's buffer
+	 *
+	 * @return buffer size in bytes
+	 */
+	public int getBufferSize();
+
+	/**
+	 * Starts consuming samples
+	 */
+	public void start();
+
+	/**
+	 * Returns true once the sink has started consuming samples
+	 *
+	 * @return true if the sink is active
+	 */
+	public boolean isActive();
+
+	/**
+	 * Returns the number of bytes which can be written without blocking
+	 *
+	 * @return number of bytes
+	 */
+	public int available();
+
+	/**
+	 * Writes samples, blocking until they were all buffered
+	 *
+	 * @param samples sample data
+	 * @param off offset of the sample data
+	 * @param len length of the sample data
+	 * @return number of bytes written
+	 */
+	public int write(byte[] samples, int off, int len);
+
+	/**
+	 * Returns the number of frames consumed since the sink was started
+	 *
+	 * @return frame position
+	 */
+	public long getFramePosition();
+
+	/**
+	 * Returns true if the sink supports {@link #setGain(float)}
+	 *
+	 * @return true if the gain can be changed
+	 */
+	public boolean isGainSupported();
+
+	/**
+	 * Returns the current gain
+	 *
+	 * @return gain in dB
+	 */
+	public float getGain();
+
+	/**
+	 * Sets the gain, bounded by the range the sink supports.
+	 * Negative infinity mutes the sink.
+	 *
+	 * @param gain gain in dB
+	 */
+	public void setGain(float gain);
+
+	/**
+	 * Stops consuming samples and releases the sink's resources
+	 */
+	public void close();
+}
@@ -0,0 +1,36 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import javax.sound.sampled.*;
+
+/**
+ * Creates the {@link AudioOutputSink} an {@link AudioOutputQueue} plays on.
+ * One sink is opened per audio stream.
+ */
+public interface AudioOutputSinkFactory {
+	/**
+	 * Opens a sink
+	 *
+	 * @param format audio format of the samples which will be written
+	 * @param bufferSize desired buffer size in bytes. The sink may choose a different size
+	 * @return open sink, not yet started
+	 * @throws LineUnavailableException if the sink cannot be opened
+	 */
+	public AudioOutputSink open(AudioFormat format, int bufferSize) throws LineUnavailableException;
+}
@@ -0,0 +1,176 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+
+/**
+ * Pool of {@link Cipher} instances for one transformation.
+ * <p>
+ * Creating a cipher through {@link AirTunesCrytography#getCipher(String)}
+ * involves reflection, and the first operation of a cipher is slow since
+ * its code is still being interpreted. The pool therefore keeps ciphers
+ * around between RTSP connections and can be filled by {@link #warmUp(int)}
+ * at startup, so that connecting clients don't pay these costs.
+ * <p>
+ * If the pool was created with a key, the ciphers it hands out are already
+ * initialized with that key. Since {@link Cipher#doFinal} resets a cipher to
+ * its initialized state, such ciphers can be used without calling
+ * {@link Cipher#init} again. Users must not re-initialize them with a
+ * different key or mode before releasing them.
+ * <p>
+ * A cipher whose operation failed must not be released, since the JCE doesn't
+ * guarantee that it is reset afterwards. It is simply dropped instead, and the
+ * pool creates a new cipher once it runs empty.
+ */
+public class CipherPool {
+	private final String m_transformation;
+	private final int m_capacity;
+	private final int m_opmode;
+	private final Key m_key;
+
+	/**
+	 * Idle ciphers and their number
+	 */
+	private final ConcurrentLinkedQueue<Cipher> m_ciphers = new ConcurrentLinkedQueue<Cipher>();
+	private final AtomicInteger m_idleCount = new AtomicInteger(0);
+
+	/**
+	 * Number of ciphers handed out, and how many of those had to be created
+	 */
+	private final AtomicLong m_acquireCount = new AtomicLong(0);
+	private final AtomicLong m_createCount = new AtomicLong(0);
+
+	/**
+	 * Creates a pool of uninitialized ciphers
+	 *
+	 * @param transformation transformation, see {@link AirTunesCrytography#getCipher(String)}
+	 * @param capacity maximal number of idle ciphers kept
+	 */
+	public CipherPool(final String transformation, final int capacity) {
+		this(transformation, capacity, 0, null);
+	}
+
+	/**
+	 * Creates a pool of ciphers initialized with the given mode and key
+	 *
+	 * @param transformation transformation, see {@link AirTunesCrytography#getCipher(String)}
+	 * @param capacity maximal number of idle ciphers kept
+	 * @param opmode operation mode, e.g. {@link Cipher#DECRYPT_MODE}
+	 * @param key the key
+	 */
+	public CipherPool(final String transformation, final int capacity, final int opmode, final Key key) {
+		m_transformation = transformation;
+		m_capacity = capacity;
+		m_opmode = opmode;
+		m_key = key;
+	}
+
+	public String getTransformation() {
+		return m_transformation;
+	}
+
+	/**
+	 * Takes a cipher from the pool, or creates one if the pool is empty.
+	 * The cipher must be returned with {@link #release(Cipher)}.
+	 *
+	 * @return cipher
+	 */
+	public Cipher acquire() {
+		m_acquireCount.incrementAndGet();
+
+		final Cipher cipher = m_ciphers.poll();
+		if (cipher != null) {
+			m_idleCount.decrementAndGet();
+			return cipher;
+		}
+
+		return create();
+	}
+
+	/**
+	 * Returns a cipher to the pool. The cipher is dropped if the pool is full.
+	 * Must only be called if the cipher's last operation succeeded.
+	 *
+	 * @param cipher cipher obtained from {@link #acquire()}
+	 */
+	public void release(final Cipher cipher) {
+		if (m_idleCount.incrementAndGet() <= m_capacity)
+			m_ciphers.offer(cipher);
+		else
+			m_idleCount.decrementAndGet();
+	}
+
+	/**
+	 * Fills the pool with up to the given number of ciphers
+	 *
+	 * @param count number of ciphers
+	 */
+	public void warmUp(final int count) {
+		while (m_idleCount.get() < Math.min(count, m_capacity))
+			release(create());
+	}
+
+	/**
+	 * Returns the number of idle ciphers
+	 *
+	 * @return number of idle ciphers
+	 */
+	public int getIdleCount() {
+		return m_idleCount.get();
+	}
+
+	/**
+	 * Returns the number of ciphers handed out by {@link #acquire()}
+	 *
+	 * @return number of ciphers handed out
+	 */
+	public long getAcquireCount() {
+		return m_acquireCount.get();
+	}
+
+	/**
+	 * Returns the number of ciphers created, including those created by {@link #warmUp(int)}
+	 *
+	 * @return number of ciphers created
+	 */
+	public long getCreateCount() {
+		return m_createCount.get();
+	}
+
+	private Cipher create() {
+		final Cipher cipher = AirTunesCrytography.getCipher(m_transformation);
+		if (m_key != null) {
+			try {
+				cipher.init(m_opmode, m_key);
+			}
+			catch (final GeneralSecurityException e) {
+				throw new RuntimeException("Failed to initialize " + m_transformation + " cipher", e);
+			}
+		}
+
+		m_createCount.incrementAndGet();
+		return cipher;
+	}
+}
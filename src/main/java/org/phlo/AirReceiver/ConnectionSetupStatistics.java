@@ -0,0 +1,92 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+/**
+ * Collects the time streams take to set up, i.e. the time from the
+ * ANNOUNCE request to the first audible frame, and the time spent
+ * handling the ANNOUNCE request itself.
+ * <p>
+ * Thread-safe.
+ */
+public class ConnectionSetupStatistics {
+	private long m_announceCount = 0;
+	private long m_announceNanosTotal = 0;
+	private long m_announceNanosMax = 0;
+
+	private long m_setupCount = 0;
+	private long m_setupNanosTotal = 0;
+	private long m_setupNanosMax = 0;
+	private long m_setupNanosLast = 0;
+
+	/**
+	 * Records the time spent handling an ANNOUNCE request
+	 *
+	 * @param nanos time in nanoseconds
+	 */
+	public synchronized void recordAnnounce(final long nanos) {
+		++m_announceCount;
+		m_announceNanosTotal += nanos;
+		m_announceNanosMax = Math.max(m_announceNanosMax, nanos);
+	}
+
+	/**
+	 * Records the time from an ANNOUNCE request to the stream's first audible frame
+	 *
+	 * @param nanos time in nanoseconds
+	 */
+	public synchronized void recordFirstAudibleFrame(final long nanos) {
+		++m_setupCount;
+		m_setupNanosTotal += nanos;
+		m_setupNanosMax = Math.max(m_setupNanosMax, nanos);
+		m_setupNanosLast = nanos;
+	}
+
+	public synchronized long getAnnounceCount() {
+		return m_announceCount;
+	}
+
+	public synchronized double getAnnounceMillisAverage() {
+		return (m_announceCount > 0) ? m_announceNanosTotal * 1e-6 / m_announceCount : 0.0;
+	}
+
+	public synchronized double getAnnounceMillisMax() {
+		return m_announceNanosMax * 1e-6;
+	}
+
+	/**
+	 * Returns the number of streams which played at least one audible frame
+	 *
+	 * @return number of streams
+	 */
+	public synchronized long getSetupCount() {
+		return m_setupCount;
+	}
+
+	public synchronized double getSetupMillisAverage() {
+		return (m_setupCount > 0) ? m_setupNanosTotal * 1e-6 / m_setupCount : 0.0;
+	}
+
+	public synchronized double getSetupMillisMax() {
+		return m_setupNanosMax * 1e-6;
+	}
+
+	public synchronized double getSetupMillisLast() {
+		return m_setupNanosLast * 1e-6;
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.*;
+
+/**
+ * Writes raw PCM samples to a {@link WritableByteChannel}, usually
+ * the {@link FileChannel} of a file or a named pipe.
+ * <p>
+ * Every write copies the samples once, into a direct buffer, since the
+ * channel would otherwise copy them into a temporary direct buffer of its
+ * own. The gain is applied during that copy, the output is therefore the
+ * raw PCM stream in the queue's format (16-bit signed big endian for
+ * AirTunes streams) with the volume set by the sender applied. The gain
+ * can only be changed for 16-bit signed samples, other formats are
+ * always written unchanged.
+ * <p>
+ * Since files and pipes have no clock of their own, the sink emulates a
+ * device playing at the format's sample rate. It consumes samples at that
+ * rate, measured by {@link System#nanoTime()}, and blocks writers until
+ * the time their samples fit into its buffer. If the channel fails, e.g. because the pipe's reader
+ * went away, the failure is logged once and further samples are discarded
+ * at the same rate.
+ */
+public class FileChannelAudioOutputSink implements AudioOutputSink {
+	private static Logger s_logger = Logger.getLogger(FileChannelAudioOutputSink.class.getName());
+
+	/**
+	 * Opens a file or named pipe for every stream
+	 */
+	public static class Factory implements AudioOutputSinkFactory {
+		private final File m_file;
+
+		/**
+		 * Creates a factory writing to the given file or named pipe. Opening
+		 * a named pipe blocks until the pipe's reader has opened it as well.
+		 *
+		 * @param file file or named pipe
+		 */
+		public Factory(final File file) {
+			m_file = file;
+		}
+
+		public File getFile() {
+			return m_file;
+		}
+
+		@Override
+		public AudioOutputSink open(final AudioFormat format, final int bufferSize) throws LineUnavailableException {
+			final FileChannel channel;
+			try {
+				channel = new FileOutputStream(m_file).getChannel();
+			}
+			catch (final IOException e) {
+				final LineUnavailableException lineUnavailable = new LineUnavailableException("Cannot open " + m_file + ": " + e.getMessage());
+				lineUnavailable.initCause(e);
+				throw lineUnavailable;
+			}
+
+			s_logger.info("Writing audio to " + m_file);
+			return new FileChannelAudioOutputSink(channel, format, bufferSize);
+		}
+
+		@Override
+		public String toString() {
+			return "file " + m_file;
+		}
+	}
+
+	/**
+	 * Time source of the sink
+	 */
+	interface Clock {
+		/**
+		 * Returns the current time, see {@link System#nanoTime()}
+		 *
+		 * @return time in nanoseconds
+		 */
+		long nanoTime();
+
+		/**
+		 * Blocks the calling thread for up to the given time, or until it is interrupted
+		 *
+		 * @param nanos time in nanoseconds
+		 */
+		void parkNanos(long nanos);
+	}
+
+	/**
+	 * The system's clock
+	 */
+	static final Clock SystemClock = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+
+		@Override
+		public void parkNanos(final long nanos) {
+			LockSupport.parkNanos(nanos);
+		}
+	};
+
+	/**
+	 * Minimal time a writer waits for room in the buffer, to prevent
+	 * spinning if the computed time was rounded down
+	 */
+	private static final long WaitNanosMin = 10000;
+
+	private final WritableByteChannel m_channel;
+	private final Clock m_clock;
+	private final AudioFormat m_format;
+	private final int m_bytesPerFrame;
+	private final double m_sampleRate;
+
+	/**
+	 * Direct buffer the samples are copied to before they're written
+	 */
+	private final ByteBuffer m_buffer;
+
+	/**
+	 * Zero bytes, copied to the buffer while the sink is muted
+	 */
+	private final byte[] m_zeros;
+
+	/**
+	 * Number of frames which may be buffered, i.e. written but not yet consumed
+	 */
+	private final int m_bufferFrames;
+
+	/**
+	 * Time at which the sink would have consumed its first frame had it
+	 * never run dry. Guarded by the sink's monitor
+	 */
+	private long m_startNanos = 0;
+
+	/**
+	 * Number of frames written. Guarded by the sink's monitor
+	 */
+	private long m_framesWritten = 0;
+
+	private volatile boolean m_active = false;
+	private volatile boolean m_closed = false;
+
+	/**
+	 * Set once writing to the channel failed
+	 */
+	private boolean m_failed = false;
+
+	/**
+	 * Gain in dB and the corresponding factor the samples are scaled by
+	 */
+	private volatile float m_gain = 0.0f;
+	private volatile float m_gainFactor = 1.0f;
+
+	/**
+	 * Creates a sink writing to a channel
+	 *
+	 * @param channel channel to write to
+	 * @param format audio format of the samples
+	 * @param bufferSize buffer size in bytes
+	 */
+	public FileChannelAudioOutputSink(final WritableByteChannel channel, final AudioFormat format, final int bufferSize) {
+		this(channel, format, bufferSize, SystemClock);
+	}
+
+	/**
+	 * Creates a sink writing to a channel, consuming samples according to the given clock
+	 *
+	 * @param channel channel to write to
+	 * @param format audio format of the samples
+	 * @param bufferSize buffer size in bytes
+	 * @param clock time source
+	 */
+	FileChannelAudioOutputSink(final WritableByteChannel channel, final AudioFormat format, final int bufferSize, final Clock clock) {
+		m_channel = channel;
+		m_clock = clock;
+		m_format = format;
+		m_bytesPerFrame = format.getFrameSize();
+		m_sampleRate = format.getSampleRate();
+		m_bufferFrames = Math.max(1, bufferSize / m_bytesPerFrame);
+		m_buffer = ByteBuffer.allocateDirect(m_bufferFrames * m_bytesPerFrame);
+		m_buffer.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		m_zeros = new byte[m_buffer.capacity()];
+	}
+
+	@Override
+	public AudioFormat getFormat() {
+		return m_format;
+	}
+
+	@Override
+	public int getBufferSize() {
+		return m_buffer.capacity();
+	}
+
+	@Override
+	public synchronized void start() {
+		if (m_active)
+			return;
+
+		m_startNanos = m_clock.nanoTime();
+		m_active = true;
+	}
+
+	@Override
+	public boolean isActive() {
+		return m_active;
+	}
+
+	@Override
+	public synchronized int available() {
+		return (int)(m_bufferFrames - (m_framesWritten - getFramePosition())) * m_bytesPerFrame;
+	}
+
+	@Override
+	public int write(final byte[] samples, final int off, final int len) {
+		int written = 0;
+		while (len - written >= m_bytesPerFrame) {
+			/* Wait until the sink consumed enough frames to make room for one more */
+			int room;
+			while ((room = available()) < m_bytesPerFrame) {
+				if (m_closed || !m_active || Thread.currentThread().isInterrupted())
+					return written;
+
+				m_clock.parkNanos(getNanosUntilRoom());
+			}
+
+			final int chunk = Math.min(len - written, room) / m_bytesPerFrame * m_bytesPerFrame;
+			copyToBuffer(samples, off + written, chunk);
+			writeBuffer();
+
+			synchronized(this) {
+				m_framesWritten += chunk / m_bytesPerFrame;
+			}
+			written += chunk;
+		}
+
+		return written;
+	}
+
+	/**
+	 * Returns the time until the sink will have consumed enough frames
+	 * to make room for one more frame in its buffer
+	 *
+	 * @return time in nanoseconds
+	 */
+	private synchronized long getNanosUntilRoom() {
+		final long frame = m_framesWritten - m_bufferFrames + 1;
+		final long roomNanos = m_startNanos + (long)Math.ceil(frame * 1e9 / m_sampleRate);
+		return Math.max(roomNanos - m_clock.nanoTime(), WaitNanosMin);
+	}
+
+	/**
+	 * Copies samples to the direct buffer, applying the gain. The gain is
+	 * only ever changed for 16-bit signed samples, see {@link #setGain(float)}
+	 */
+	private void copyToBuffer(final byte[] samples, final int off, final int len) {
+		final float gainFactor = m_gainFactor;
+
+		m_buffer.clear();
+		if (gainFactor == 1.0f) {
+			m_buffer.put(samples, off, len);
+		}
+		else if (gainFactor == 0.0f) {
+			m_buffer.put(m_zeros, 0, len);
+		}
+		else {
+			final boolean bigEndian = m_format.isBigEndian();
+			for(int i=off; i < off + len; i += 2) {
+				final int sample = bigEndian
+					? (samples[i] << 8) | (samples[i + 1] & 0xff)
+					: (samples[i + 1] << 8) | (samples[i] & 0xff);
+				m_buffer.putShort((short)Math.round(sample * gainFactor));
+			}
+		}
+		m_buffer.flip();
+	}
+
+	/**
+	 * Writes the direct buffer to the channel
+	 */
+	private void writeBuffer() {
+		if (m_failed)
+			return;
+
+		try {
+			while (m_buffer.hasRemaining())
+				m_channel.write(m_buffer);
+		}
+		catch (final ClosedByInterruptException e) {
+			/* Interruptible channels are closed if the writer is interrupted,
+			 * which is how the output queue stops its thread
+			 */
+			m_failed = true;
+			s_logger.fine("Audio output channel closed by interrupt");
+		}
+		catch (final IOException e) {
+			m_failed = true;
+			s_logger.log(Level.WARNING, "Writing audio failed, discarding further audio data", e);
+		}
+	}
+
+	@Override
+	public synchronized long getFramePosition() {
+		if (!m_active)
+			return 0;
+
+		/* If the sink ran dry, it stopped consuming frames
+		 * at the time the last written frame was consumed
+		 */
+		final long now = m_clock.nanoTime();
+		long position = (long)((now - m_startNanos) * 1e-9 * m_sampleRate);
+		if (position > m_framesWritten) {
+			position = m_framesWritten;
+			m_startNanos = now - (long)(m_framesWritten * 1e9 / m_sampleRate);
+		}
+
+		return position;
+	}
+
+	/**
+	 * The gain is applied in software, which is supported for 16-bit signed samples
+	 */
+	@Override
+	public boolean isGainSupported() {
+		return
+			(m_format.getSampleSizeInBits() == 16) &&
+			AudioFormat.Encoding.PCM_SIGNED.equals(m_format.getEncoding());
+	}
+
+	@Override
+	public float getGain() {
+		return m_gain;
+	}
+
+	/**
+	 * Sets the gain, which is bounded by 0 dB to prevent clipping.
+	 * Ignored unless the gain is supported by the sink's format
+	 */
+	@Override
+	public void setGain(final float gain) {
+		if (!isGainSupported())
+			return;
+
+		final float boundedGain = Math.min(gain, 0.0f);
+		m_gainFactor = (boundedGain == Float.NEGATIVE_INFINITY) ? 0.0f : (float)Math.pow(10.0, boundedGain / 20.0);
+		m_gain = boundedGain;
+	}
+
+	@Override
+	public void close() {
+		m_closed = true;
+		m_active = false;
+		try {
+			m_channel.close();
+		}
+		catch (final IOException e) {
+			s_logger.log(Level.WARNING, "Failed to close audio output channel", e);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import javax.sound.sampled.*;
+
+/**
+ * Plays samples on a JavaSound {@link SourceDataLine}
+ */
+public class JavaSoundAudioOutputSink implements AudioOutputSink {
+	/**
+	 * Opens lines on a particular mixer, or on the default mixer
+	 */
+	public static class Factory implements AudioOutputSinkFactory {
+		private final Mixer.Info m_mixerInfo;
+
+		/**
+		 * Creates a factory for lines on the given mixer
+		 *
+		 * @param mixerInfo mixer to play on, null for the default mixer
+		 */
+		public Factory(final Mixer.Info mixerInfo) {
+			m_mixerInfo = mixerInfo;
+		}
+
+		/**
+		 * Returns the mixer the lines are opened on
+		 *
+		 * @return mixer, or null for the default mixer
+		 */
+		public Mixer.Info getMixerInfo() {
+			return m_mixerInfo;
+		}
+
+		@Override
+		public AudioOutputSink open(final AudioFormat format, final int bufferSize) throws LineUnavailableException {
+			final DataLine.Info lineInfo = new DataLine.Info(
+				SourceDataLine.class,
+				format,
+				bufferSize
+			);
+
+			final SourceDataLine line;
+			if (m_mixerInfo != null)
+				line = (SourceDataLine)AudioSystem.getMixer(m_mixerInfo).getLine(lineInfo);
+			else
+				line = (SourceDataLine)AudioSystem.getLine(lineInfo);
+			line.open(format, bufferSize);
+
+			return new JavaSoundAudioOutputSink(line);
+		}
+
+		@Override
+		public String toString() {
+			return "JavaSound mixer " + ((m_mixerInfo != null) ? m_mixerInfo.getName() : "(default)");
+		}
+	}
+
+	/**
+	 * The open line
+	 */
+	private final SourceDataLine m_line;
+
+	/**
+	 * The line's MASTER_GAIN control, null if unsupported
+	 */
+	private final FloatControl m_gainControl;
+
+	/**
+	 * Creates a sink playing on an open line
+	 *
+	 * @param line open line
+	 */
+	public JavaSoundAudioOutputSink(final SourceDataLine line) {
+		m_line = line;
+		if (line.isControlSupported(FloatControl.Type.MASTER_GAIN))
+			m_gainControl = (FloatControl)line.getControl(FloatControl.Type.MASTER_GAIN);
+		else
+			m_gainControl = null;
+	}
+
+	@Override
+	public AudioFormat getFormat() {
+		return m_line.getFormat();
+	}
+
+	@Override
+	public int getBufferSize() {
+		return m_line.getBufferSize();
+	}
+
+	@Override
+	public void start() {
+		m_line.start();
+	}
+
+	@Override
+	public boolean isActive() {
+		return m_line.isActive();
+	}
+
+	@Override
+	public int available() {
+		return m_line.available();
+	}
+
+	@Override
+	public int write(final byte[] samples, final int off, final int len) {
+		return m_line.write(samples, off, len);
+	}
+
+	@Override
+	public long getFramePosition() {
+		return m_line.getLongFramePosition();
+	}
+
+	@Override
+	public boolean isGainSupported() {
+		return m_gainControl != null;
+	}
+
+	@Override
+	public float getGain() {
+		return (m_gainControl != null) ? m_gainControl.getValue() : 0.0f;
+	}
+
+	@Override
+	public void setGain(final float gain) {
+		if (m_gainControl == null)
+			return;
+
+		/* Bound gain value by min and max declared by the control */
+		if (gain < m_gainControl.getMinimum())
+			m_gainControl.setValue(m_gainControl.getMinimum());
+		else if (gain > m_gainControl.getMaximum())
+			m_gainControl.setValue(m_gainControl.getMaximum());
+		else
+			m_gainControl.setValue(gain);
+	}
+
+	@Override
+	public void close() {
+		m_line.stop();
+		m_line.close();
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds, with logarithmic buckets.
+ * <p>
+ * Bucket 0 counts durations of zero (or less), bucket {@code i > 0} counts
+ * durations in {@code [2^(i-1), 2^i)} nanoseconds. The last bucket also
+ * counts all longer durations. Percentiles are therefore reported as the
+ * upper bound of the bucket they fall into, i.e. at most twice the true
+ * value. Like {@link StripedCounter}, the buckets are striped, so that
+ * recording a duration is a single uncontended atomic addition.
+ * <p>
+ * Thread-safe and lock-free.
+ */
+public class LatencyHistogram {
+	/**
+	 * Number of buckets. The last one starts at about 9 minutes
+	 */
+	public static final int Buckets = 40;
+
+	/**
+	 * Number of longs per stripe, a multiple of the cache line size which
+	 * has room for the buckets and the sum of all durations
+	 */
+	private static final int StripeLongs = (Buckets + 1 + 7) & ~7;
+
+	/**
+	 * Index of the sum of all durations within a stripe
+	 */
+	private static final int SumIndex = Buckets;
+
+	private final AtomicLongArray m_stripes = new AtomicLongArray(StripedCounter.Stripes * StripeLongs);
+
+	/**
+	 * Returns the bucket a duration falls into
+	 *
+	 * @param nanos duration in nanoseconds
+	 * @return bucket index
+	 */
+	static int bucketOf(final long nanos) {
+		if (nanos <= 0)
+			return 0;
+		return Math.min(64 - Long.numberOfLeadingZeros(nanos), Buckets - 1);
+	}
+
+	/**
+	 * Returns the smallest duration which doesn't fall into the given
+	 * bucket or one before it
+	 *
+	 * @param bucket bucket index
+	 * @return exclusive upper bound in nanoseconds
+	 */
+	static long bucketLimit(final int bucket) {
+		return 1L << bucket;
+	}
+
+	/**
+	 * Records a duration
+	 *
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(final long nanos) {
+		final int stripe = StripedCounter.currentStripe() * StripeLongs;
+		m_stripes.getAndIncrement(stripe + bucketOf(nanos));
+		m_stripes.getAndAdd(stripe + SumIndex, Math.max(nanos, 0));
+	}
+
+	/**
+	 * Adds the counts of another histogram to this one
+	 *
+	 * @param other histogram to add
+	 */
+	public void add(final LatencyHistogram other) {
+		final long[] counts = other.getCounts();
+		final int stripe = StripedCounter.currentStripe() * StripeLongs;
+		for(int b=0; b < Buckets; ++b) {
+			if (counts[b] != 0)
+				m_stripes.getAndAdd(stripe + b, counts[b]);
+		}
+		m_stripes.getAndAdd(stripe + SumIndex, other.getSumNanos());
+	}
+
+	/**
+	 * Returns the number of recorded durations per bucket
+	 *
+	 * @return array of {@link #Buckets} counts
+	 */
+	public long[] getCounts() {
+		final long[] counts = new long[Buckets];
+		addCountsTo(counts);
+		return counts;
+	}
+
+	/**
+	 * Adds the number of recorded durations per bucket to the given
+	 * counts. Unlike {@link #getCounts()}, this doesn't allocate, which
+	 * allows the counts of many histograms to be summed up cheaply
+	 *
+	 * @param counts array of at least {@link #Buckets} counts
+	 */
+	public void addCountsTo(final long[] counts) {
+		for(int s=0; s < StripedCounter.Stripes; ++s) {
+			for(int b=0; b < Buckets; ++b)
+				counts[b] += m_stripes.get(s * StripeLongs + b);
+		}
+	}
+
+	/**
+	 * Returns the number of recorded durations
+	 *
+	 * @return count
+	 */
+	public long getCount() {
+		long count = 0;
+		for(final long bucketCount: getCounts())
+			count += bucketCount;
+		return count;
+	}
+
+	/**
+	 * Returns the sum of the recorded durations
+	 *
+	 * @return sum in nanoseconds
+	 */
+	public long getSumNanos() {
+		long sum = 0;
+		for(int s=0; s < StripedCounter.Stripes; ++s)
+			sum += m_stripes.get(s * StripeLongs + SumIndex);
+		return sum;
+	}
+
+	/**
+	 * Returns the mean of the recorded durations
+	 *
+	 * @return mean in nanoseconds, or 0 if nothing was recorded
+	 */
+	public double getMeanNanos() {
+		final long count = getCount();
+		return (count > 0) ? (double)getSumNanos() / count : 0.0;
+	}
+
+	/**
+	 * Returns an upper bound of the given percentile of the recorded durations
+	 *
+	 * @param percentile percentile between 0 and 100
+	 * @return upper bound in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getPercentileNanos(final double percentile) {
+		final long[] counts = getCounts();
+		long count = 0;
+		for(final long bucketCount: counts)
+			count += bucketCount;
+		if (count == 0)
+			return 0;
+
+		/* Find the first bucket at which the cumulative count reaches the rank */
+		final long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+		long cumulative = 0;
+		for(int b=0; b < Buckets; ++b) {
+			cumulative += counts[b];
+			if (cumulative >= rank)
+				return bucketLimit(b);
+		}
+		return bucketLimit(Buckets - 1);
+	}
+}
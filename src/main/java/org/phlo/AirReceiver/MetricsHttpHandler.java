@@ -0,0 +1,108 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.phlo.AirReceiver;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.handler.codec.http.*;
+
+/**
+ * Answers HTTP requests for {@code /metrics} with the receiver's
+ * statistics rendered by a {@link MetricsRenderer}, and all other
+ * requests with NOT FOUND.
+ * <p>
+ * Connections are kept alive if the client asks for it, which
+ * Prometheus does, so a scraper's renderer and buffers are reused.
+ */
+public class MetricsHttpHandler extends SimpleChannelUpstreamHandler {
+	/**
+	 * Path the metrics are served at
+	 */
+	public static final String MetricsPath = "/metrics";
+
+	private final MetricsRenderer m_renderer;
+
+	public MetricsHttpHandler(final MetricsRenderer renderer) {
+		m_renderer = renderer;
+	}
+
+	@Override
+	public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent evt) throws Exception {
+		final HttpRequest req = (HttpRequest)evt.getMessage();
+
+		final HttpResponse response;
+		if (!MetricsPath.equals(getPath(req.getUri()))) {
+			response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+			HttpHeaders.setContentLength(response, 0);
+		}
+		else if (!HttpMethod.GET.equals(req.getMethod()) && !HttpMethod.HEAD.equals(req.getMethod())) {
+			response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED);
+			HttpHeaders.setContentLength(response, 0);
+		}
+		else {
+			final CharSequence text = m_renderer.render();
+			response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+			response.setHeader(HttpHeaders.Names.CONTENT_TYPE, MetricsRenderer.ContentType);
+			HttpHeaders.setContentLength(response, text.length());
+			if (HttpMethod.GET.equals(req.getMethod()))
+				response.setContent(toAscii(text));
+		}
+
+		final boolean keepAlive = HttpHeaders.isKeepAlive(req);
+		if (!keepAlive)
+			response.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+
+		final ChannelFuture future = ctx.getChannel().write(response);
+		if (!keepAlive)
+			future.addListener(ChannelFutureListener.CLOSE);
+	}
+
+	@Override
+	public void exceptionCaught(final ChannelHandlerContext ctx, final ExceptionEvent evt) throws Exception {
+		/* Metrics clients simply reconnect */
+		ctx.getChannel().close();
+	}
+
+	/**
+	 * Strips the query from a request URI
+	 *
+	 * @param uri request URI
+	 * @return path
+	 */
+	static String getPath(final String uri) {
+		final int query = uri.indexOf('?');
+		return (query >= 0) ? uri.substring(0, query) : uri;
+	}
+
+	/**
+	 * Copies text consisting of ASCII characters only into a buffer,
+	 * without creating an intermediate string or byte array
+	 *
+	 * @param text ASCII text
+	 * @return buffer
+	 */
+	private static ChannelBuffer toAscii(final CharSequence text) {
+		final int length = text.length();
+		final ChannelBuffer buffer = ChannelBuffers.buffer(length);
+		for(int i=0; i < length; ++i)
+			buffer.writeByte(text.charAt(i));
+		return buffer;
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.phlo.AirReceiver;
+
+import org.jboss.netty.channel.*;
+import org.jboss.netty.handler.codec.http.*;
+
+/**
+ * Factory for the pipelines of the HTTP channels which serve the
+ * receiver's statistics to Prometheus, see {@link MetricsHttpHandler}.
+ * <p>
+ * Rendering only reads lock-free counters and is cheap, so requests
+ * are handled on the I/O thread, without an execution handler.
+ */
+public class MetricsPipelineFactory implements ChannelPipelineFactory {
+	/**
+	 * Upper bound of a request's initial line, headers and chunks
+	 */
+	private static final int MaxRequestPartLength = 8192;
+
+	private final ReceiverStatistics m_statistics;
+	private final RaopRtpDecodeScheduler m_decodeScheduler;
+
+	/**
+	 * Creates the pipeline factory
+	 *
+	 * @param statistics receiver statistics to serve
+	 * @param decodeScheduler scheduler whose workers to serve, or null
+	 */
+	public MetricsPipelineFactory(final ReceiverStatistics statistics, final RaopRtpDecodeScheduler decodeScheduler) {
+		m_statistics = statistics;
+		m_decodeScheduler = decodeScheduler;
+	}
+
+	@Override
+	public ChannelPipeline getPipeline() throws Exception {
+		final ChannelPipeline pipeline = Channels.pipeline();
+
+		pipeline.addLast("closeOnShutdownHandler", AirReceiver.CloseChannelOnShutdownHandler);
+		pipeline.addLast("decoder", new HttpRequestDecoder(MaxRequestPartLength, MaxRequestPartLength, MaxRequestPartLength));
+		pipeline.addLast("encoder", new HttpResponseEncoder());
+		pipeline.addLast("metrics", new MetricsHttpHandler(new MetricsRenderer(m_statistics, m_decodeScheduler)));
+
+		return pipeline;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.phlo.AirReceiver;
+
+import java.util.Arrays;
+
+/**
+ * Renders the receiver's statistics in the Prometheus text exposition
+ * format, version 0.0.4.
+ * <p>
+ * Published are the number of sessions, the packet, retransmit and
+ * playback counters, the number of packets queued for playback, the
+ * decryption and decoding time histograms, and the queue depth of the
+ * RTP decode workers. Counters are totals over all sessions, including
+ * those which already ended, so rates can be computed from them.
+ * <p>
+ * Scrapes run concurrently with the audio threads, so rendering only
+ * reads the statistics' lock-free counters and doesn't allocate on its
+ * own: the text is built in a buffer which is reused by every call to
+ * {@link #render()}, histograms are summed up into a reused array, and
+ * numbers are appended digit by digit.
+ * <p>
+ * Not thread-safe. Every channel of the metrics listener has its own renderer.
+ */
+public class MetricsRenderer {
+	/**
+	 * Content type of the rendered text
+	 */
+	public static final String ContentType = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Prefix of all metric names
+	 */
+	private static final String Prefix = "airreceiver_";
+
+	private static final long NanosPerSecond = 1000000000L;
+
+	private final ReceiverStatistics m_statistics;
+
+	/**
+	 * The decode scheduler, may be null
+	 */
+	private final RaopRtpDecodeScheduler m_decodeScheduler;
+
+	/**
+	 * Rendered text, reused by every call to {@link #render()}
+	 */
+	private final StringBuilder m_text = new StringBuilder(16384);
+
+	/**
+	 * Histogram counts, reused for every histogram
+	 */
+	private final long[] m_counts = new long[LatencyHistogram.Buckets];
+
+	/**
+	 * Creates a renderer
+	 *
+	 * @param statistics receiver statistics to render
+	 * @param decodeScheduler scheduler whose workers to render, or null
+	 */
+	public MetricsRenderer(final ReceiverStatistics statistics, final RaopRtpDecodeScheduler decodeScheduler) {
+		m_statistics = statistics;
+		m_decodeScheduler = decodeScheduler;
+	}
+
+	/**
+	 * Renders the current statistics. The returned text is only valid
+	 * until the next call
+	 *
+	 * @return metrics in text exposition format
+	 */
+	public CharSequence render() {
+		m_text.setLength(0);
+
+		appendHeader("sessions_active", "gauge", "Number of active audio sessions");
+		appendSample("sessions_active", m_statistics.getActiveSessions());
+		appendHeader("sessions_total", "counter", "Number of audio sessions started");
+		appendSample("sessions_total", m_statistics.getSessions());
+
+		appendHeader("packets_received_total", "counter", "Audio packets received as originally transmitted");
+		appendSample("packets_received_total", m_statistics.getPacketsReceived());
+		appendHeader("packets_retransmitted_total", "counter", "Audio packets received in response to a retransmit request");
+		appendSample("packets_retransmitted_total", m_statistics.getPacketsRetransmitted());
+		appendHeader("packets_lost_total", "counter", "Missing audio packets which were given up on");
+		appendSample("packets_lost_total", m_statistics.getPacketsLost());
+		appendHeader("packets_late_total", "counter", "Audio packets which arrived too late to be played");
+		appendSample("packets_late_total", m_statistics.getPacketsLate());
+		appendHeader("retransmit_requests_total", "counter", "Retransmit requests sent");
+		appendSample("retransmit_requests_total", m_statistics.getRetransmitRequests());
+		appendHeader("underruns_total", "counter", "Times the audio output ran out of audio data while playing");
+		appendSample("underruns_total", m_statistics.getUnderruns());
+		appendHeader("muted_periods_total", "counter", "Times the audio output was muted because a stream ended");
+		appendSample("muted_periods_total", m_statistics.getMutedPeriods());
+
+		appendHeader("queued_packets", "gauge", "Audio packets queued for playback, summed over all sessions");
+		appendSample("queued_packets", m_statistics.getQueueDepth());
+
+		Arrays.fill(m_counts, 0);
+		appendHistogram("decrypt_seconds", "Time spent decrypting an audio packet", m_statistics.addDecryptCountsTo(m_counts));
+		Arrays.fill(m_counts, 0);
+		appendHistogram("decode_seconds", "Time spent decoding an audio packet", m_statistics.addDecodeCountsTo(m_counts));
+
+		if (m_decodeScheduler != null) {
+			appendHeader("decode_worker_queue_depth", "gauge", "Events waiting to be processed by an RTP decode worker");
+			for(final RaopRtpDecodeScheduler.Worker worker: m_decodeScheduler.getWorkers())
+				appendWorkerSample("decode_worker_queue_depth", worker, worker.getQueueDepth());
+			appendHeader("decode_worker_sessions", "gauge", "Sessions bound to an RTP decode worker");
+			for(final RaopRtpDecodeScheduler.Worker worker: m_decodeScheduler.getWorkers())
+				appendWorkerSample("decode_worker_sessions", worker, worker.getSessionCount());
+			appendHeader("decode_worker_blocked_total", "counter", "Times an RTP decode worker blocked to enter a monitor");
+			for(final RaopRtpDecodeScheduler.Worker worker: m_decodeScheduler.getWorkers()) {
+				/* Workers which haven't started yet report -1 */
+				final long blockedCount = worker.getBlockedCount();
+				if (blockedCount >= 0)
+					appendWorkerSample("decode_worker_blocked_total", worker, blockedCount);
+			}
+		}
+
+		return m_text;
+	}
+
+	private void appendHeader(final String name, final String type, final String help) {
+		m_text.append("# HELP ").append(Prefix).append(name).append(' ').append(help).append('\n');
+		m_text.append("# TYPE ").append(Prefix).append(name).append(' ').append(type).append('\n');
+	}
+
+	private void appendSample(final String name, final long value) {
+		m_text.append(Prefix).append(name).append(' ').append(value).append('\n');
+	}
+
+	private void appendWorkerSample(final String name, final RaopRtpDecodeScheduler.Worker worker, final long value) {
+		m_text.append(Prefix).append(name).append("{worker=\"").append(worker.getIndex()).append("\"} ").append(value).append('\n');
+	}
+
+	/**
+	 * Appends a histogram whose counts per {@link LatencyHistogram} bucket
+	 * are in {@link #m_counts}. The last bucket, which also counts all
+	 * longer durations, becomes the {@code +Inf} bucket
+	 *
+	 * @param name metric name, without prefix
+	 * @param help help text
+	 * @param sumNanos sum of the durations in nanoseconds
+	 */
+	private void appendHistogram(final String name, final String help, final long sumNanos) {
+		appendHeader(name, "histogram", help);
+
+		long cumulative = 0;
+		for(int b=0; b < LatencyHistogram.Buckets - 1; ++b) {
+			cumulative += m_counts[b];
+			m_text.append(Prefix).append(name).append("_bucket{le=\"");
+			appendSeconds(LatencyHistogram.bucketLimit(b));
+			m_text.append("\"} ").append(cumulative).append('\n');
+		}
+		cumulative += m_counts[LatencyHistogram.Buckets - 1];
+		m_text.append(Prefix).append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+
+		m_text.append(Prefix).append(name).append("_sum ");
+		appendSeconds(sumNanos);
+		m_text.append('\n');
+		m_text.append(Prefix).append(name).append("_count ").append(cumulative).append('\n');
+	}
+
+	/**
+	 * Appends a non-negative duration as an exact decimal number of seconds
+	 *
+	 * @param nanos duration in nanoseconds
+	 */
+	private void appendSeconds(final long nanos) {
+		m_text.append(nanos / NanosPerSecond).append('.');
+		final long fraction = nanos % NanosPerSecond;
+		for(long digit = NanosPerSecond / 10; digit > fraction && digit > 1; digit /= 10)
+			m_text.append('0');
+		m_text.append(fraction);
+	}
+}
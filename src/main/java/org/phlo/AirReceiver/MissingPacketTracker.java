@@ -0,0 +1,443 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.Arrays;
+
+/**
+ * Tracks missing RTP packets and the times at which they're due.
+ * <p>
+ * Packets are stored in a fixed ring of slots indexed by the lower bits of their
+ * 16-bit sequence number, so marking a packet as missing, unmarking it once it
+ * arrived and looking up its state take constant time. If a packet is marked
+ * whose slot is still occupied by a packet a multiple of the capacity older,
+ * the older packet is evicted. The capacity thus also limits the number of
+ * tracked packets.
+ * <p>
+ * Each packet has a time at which it is expected to arrive. Packets are kept
+ * in a hashed timing wheel of lists, one list per tick, ordered by that time.
+ * {@link #nextDue(double)} advances the wheel to the current time, moving
+ * every packet whose time passed onto a list of due packets, and returns them
+ * one by one. Since every tick of the wheel is visited only once per round,
+ * the cost is constant per packet and tick.
+ * <p>
+ * Times are in seconds, using the same time base as {@link AudioClock}.
+ * <p>
+ * Not thread-safe.
+ */
+public class MissingPacketTracker {
+	/**
+	 * Marks empty slots in {@link #m_slotSequences}, and the end of lists
+	 */
+	private static final int None = -1;
+
+	/**
+	 * Mask which maps sequence numbers to slots
+	 */
+	private final int m_slotMask;
+
+	/**
+	 * Sequence number of the packet in each slot, {@link #None} for empty slots
+	 */
+	private final int[] m_slotSequences;
+
+	/**
+	 * Time until which the packet in each slot is required
+	 */
+	private final double[] m_slotRequiredUntil;
+
+	/**
+	 * Time until which the packet in each slot is expected to arrive
+	 */
+	private final double[] m_slotExpectedUntil;
+
+	/**
+	 * Number of retransmit requests sent for the packet in each slot
+	 */
+	private final int[] m_slotRequestCounts;
+
+	/**
+	 * {@link System#nanoTime()} at which the latest retransmit
+	 * request was sent for the packet in each slot
+	 */
+	private final long[] m_slotRequestNanos;
+
+	/**
+	 * List each slot is linked into, {@link #None} if it's on no list.
+	 * Lists are doubly-linked through {@link #m_slotPrevious} and {@link #m_slotNext}
+	 */
+	private final int[] m_slotLists;
+	private final int[] m_slotPrevious;
+	private final int[] m_slotNext;
+
+	/**
+	 * First and last slot on each list. The lists with indices below
+	 * the wheel's size belong to the wheel's ticks, the last list holds
+	 * the due packets
+	 */
+	private final int[] m_listFirst;
+	private final int[] m_listLast;
+
+	/**
+	 * Index of the list holding the due packets
+	 */
+	private final int m_dueList;
+
+	/**
+	 * Length of a tick in seconds
+	 */
+	private final double m_tickSeconds;
+
+	/**
+	 * Mask which maps ticks to the wheel's lists
+	 */
+	private final int m_wheelMask;
+
+	/**
+	 * The earliest tick which may still contain packets which are not due.
+	 * {@link Long#MIN_VALUE} until the wheel was first advanced
+	 */
+	private long m_wheelTick = Long.MIN_VALUE;
+
+	/**
+	 * Number of tracked packets
+	 */
+	private int m_size = 0;
+
+	/**
+	 * Creates a tracker
+	 *
+	 * @param capacity maximal number of tracked packets, must be a power of two no larger than 65536
+	 * @param tickSeconds length of a tick of the timing wheel, usually the interval in which {@link #nextDue(double)} is called
+	 * @param wheelTicks number of ticks of the timing wheel, must be a power of two
+	 */
+	public MissingPacketTracker(final int capacity, final double tickSeconds, final int wheelTicks) {
+		if ((capacity <= 0) || (capacity > 0x10000) || (Integer.bitCount(capacity) != 1))
+			throw new IllegalArgumentException("Capacity must be a power of two between 1 and 65536, was " + capacity);
+		if ((wheelTicks <= 0) || (Integer.bitCount(wheelTicks) != 1))
+			throw new IllegalArgumentException("Number of ticks must be a positive power of two, was " + wheelTicks);
+		if (!(tickSeconds > 0.0))
+			throw new IllegalArgumentException("Tick length must be positive, was " + tickSeconds);
+
+		m_slotMask = capacity - 1;
+		m_slotSequences = new int[capacity];
+		m_slotRequiredUntil = new double[capacity];
+		m_slotExpectedUntil = new double[capacity];
+		m_slotRequestCounts = new int[capacity];
+		m_slotRequestNanos = new long[capacity];
+		m_slotLists = new int[capacity];
+		m_slotPrevious = new int[capacity];
+		m_slotNext = new int[capacity];
+		Arrays.fill(m_slotSequences, None);
+		Arrays.fill(m_slotLists, None);
+
+		m_tickSeconds = tickSeconds;
+		m_wheelMask = wheelTicks - 1;
+		m_dueList = wheelTicks;
+		m_listFirst = new int[wheelTicks + 1];
+		m_listLast = new int[wheelTicks + 1];
+		Arrays.fill(m_listFirst, None);
+		Arrays.fill(m_listLast, None);
+	}
+
+	/**
+	 * Returns the maximal number of tracked packets
+	 *
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return m_slotMask + 1;
+	}
+
+	/**
+	 * Returns the number of tracked packets
+	 *
+	 * @return number of tracked packets
+	 */
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	/**
+	 * Checks whether a packet is tracked
+	 *
+	 * @param sequence sequence number
+	 * @return true if the packet is tracked
+	 */
+	public boolean contains(final int sequence) {
+		return slotOf(sequence) != None;
+	}
+
+	/**
+	 * Marks a packet as missing. If the packet is already tracked, its state is reset.
+	 *
+	 * @param sequence sequence number
+	 * @param requiredUntil time until which the packet is required
+	 * @param expectedUntil time until which the packet is expected to arrive
+	 * @return sequence number of the packet evicted to make room, or -1 if none was
+	 */
+	public int mark(final int sequence, final double requiredUntil, final double expectedUntil) {
+		assert (sequence & 0xffff) == sequence;
+
+		final int slot = sequence & m_slotMask;
+		final int evicted = m_slotSequences[slot];
+		if (evicted != None)
+			remove(slot);
+
+		m_slotSequences[slot] = sequence;
+		m_slotRequiredUntil[slot] = requiredUntil;
+		m_slotExpectedUntil[slot] = expectedUntil;
+		m_slotRequestCounts[slot] = 0;
+		++m_size;
+		schedule(slot);
+
+		return (evicted != sequence) ? evicted : None;
+	}
+
+	/**
+	 * Stops tracking a packet, usually because it arrived
+	 *
+	 * @param sequence sequence number
+	 * @return true if the packet was tracked
+	 */
+	public boolean unmark(final int sequence) {
+		final int slot = slotOf(sequence);
+		if (slot == None)
+			return false;
+
+		remove(slot);
+		return true;
+	}
+
+	/**
+	 * Records that a retransmit request was sent for a packet,
+	 * and sets the time at which it's due again
+	 *
+	 * @param sequence sequence number of a tracked packet
+	 * @param requestNanos {@link System#nanoTime()} at which the request was sent
+	 * @param expectedUntil time until which the packet is expected to arrive
+	 */
+	public void requested(final int sequence, final long requestNanos, final double expectedUntil) {
+		final int slot = trackedSlotOf(sequence);
+
+		++m_slotRequestCounts[slot];
+		m_slotRequestNanos[slot] = requestNanos;
+		reschedule(slot, expectedUntil);
+	}
+
+	/**
+	 * Sets the time at which a packet is due again without
+	 * recording a retransmit request, e.g. to postpone a request
+	 *
+	 * @param sequence sequence number of a tracked packet
+	 * @param expectedUntil time until which the packet is expected to arrive
+	 */
+	public void postpone(final int sequence, final double expectedUntil) {
+		reschedule(trackedSlotOf(sequence), expectedUntil);
+	}
+
+	/**
+	 * Returns the time until which a packet is required
+	 *
+	 * @param sequence sequence number
+	 * @return time, or NaN if the packet isn't tracked
+	 */
+	public double getRequiredUntil(final int sequence) {
+		final int slot = slotOf(sequence);
+		return (slot != None) ? m_slotRequiredUntil[slot] : Double.NaN;
+	}
+
+	/**
+	 * Returns the time until which a packet is expected to arrive
+	 *
+	 * @param sequence sequence number
+	 * @return time, or NaN if the packet isn't tracked
+	 */
+	public double getExpectedUntil(final int sequence) {
+		final int slot = slotOf(sequence);
+		return (slot != None) ? m_slotExpectedUntil[slot] : Double.NaN;
+	}
+
+	/**
+	 * Returns the number of retransmit requests sent for a packet
+	 *
+	 * @param sequence sequence number
+	 * @return number of requests, or -1 if the packet isn't tracked
+	 */
+	public int getRequestCount(final int sequence) {
+		final int slot = slotOf(sequence);
+		return (slot != None) ? m_slotRequestCounts[slot] : -1;
+	}
+
+	/**
+	 * Returns the time at which the latest retransmit request for a packet was sent
+	 *
+	 * @param sequence sequence number
+	 * @return {@link System#nanoTime()} of the request, undefined if no request was sent
+	 */
+	public long getRequestNanos(final int sequence) {
+		final int slot = slotOf(sequence);
+		return (slot != None) ? m_slotRequestNanos[slot] : 0;
+	}
+
+	/**
+	 * Returns a packet whose expected arrival time is no later than the given
+	 * time. Due packets are returned in the order of the ticks they were due in.
+	 * <p>
+	 * The returned packet stays tracked, but isn't returned again until it was
+	 * re-scheduled by {@link #requested(int, long, double)}, {@link #postpone(int, double)}
+	 * or re-marked. Callers therefore usually either call one of those methods
+	 * or {@link #unmark(int)} for every packet returned.
+	 *
+	 * @param now current time
+	 * @return sequence number of a due packet, or -1 if no packet is due
+	 */
+	public int nextDue(final double now) {
+		advance(now);
+
+		final int slot = m_listFirst[m_dueList];
+		if (slot == None)
+			return None;
+
+		unlink(slot);
+		return m_slotSequences[slot];
+	}
+
+	/**
+	 * Stops tracking all packets
+	 */
+	public void clear() {
+		for(int slot=0; slot <= m_slotMask; ++slot) {
+			m_slotSequences[slot] = None;
+			m_slotLists[slot] = None;
+		}
+		Arrays.fill(m_listFirst, None);
+		Arrays.fill(m_listLast, None);
+		m_size = 0;
+	}
+
+	/**
+	 * Moves packets whose time passed onto the list of due packets.
+	 * Visits the ticks from the earliest tick which may still contain
+	 * packets which aren't due up to the tick containing the given time,
+	 * but every tick at most once.
+	 */
+	private void advance(final double now) {
+		final long nowTick = tickOf(now);
+
+		final long ticks;
+		if (m_wheelTick == Long.MIN_VALUE)
+			ticks = m_wheelMask + 1;
+		else if (nowTick < m_wheelTick)
+			ticks = 0;
+		else
+			ticks = Math.min(nowTick - m_wheelTick, m_wheelMask) + 1;
+
+		for(long t=ticks - 1; t >= 0; --t) {
+			final int list = (int)((nowTick - t) & m_wheelMask);
+			int slot = m_listFirst[list];
+			while (slot != None) {
+				final int next = m_slotNext[slot];
+				if (m_slotExpectedUntil[slot] <= now) {
+					unlink(slot);
+					link(slot, m_dueList);
+				}
+				slot = next;
+			}
+		}
+
+		/* The current tick is visited again next time, since packets
+		 * in it which are due later than now may become due
+		 */
+		if (nowTick > m_wheelTick)
+			m_wheelTick = nowTick;
+	}
+
+	/**
+	 * Links a slot into the list corresponding to its expected arrival time
+	 */
+	private void schedule(final int slot) {
+		final long tick = tickOf(m_slotExpectedUntil[slot]);
+		if (tick < m_wheelTick)
+			link(slot, m_dueList);
+		else
+			link(slot, (int)(tick & m_wheelMask));
+	}
+
+	private void reschedule(final int slot, final double expectedUntil) {
+		unlink(slot);
+		m_slotExpectedUntil[slot] = expectedUntil;
+		schedule(slot);
+	}
+
+	private void remove(final int slot) {
+		unlink(slot);
+		m_slotSequences[slot] = None;
+		--m_size;
+	}
+
+	private void link(final int slot, final int list) {
+		final int last = m_listLast[list];
+		m_slotLists[slot] = list;
+		m_slotPrevious[slot] = last;
+		m_slotNext[slot] = None;
+		if (last != None)
+			m_slotNext[last] = slot;
+		else
+			m_listFirst[list] = slot;
+		m_listLast[list] = slot;
+	}
+
+	private void unlink(final int slot) {
+		final int list = m_slotLists[slot];
+		if (list == None)
+			return;
+
+		final int previous = m_slotPrevious[slot];
+		final int next = m_slotNext[slot];
+		if (previous != None)
+			m_slotNext[previous] = next;
+		else
+			m_listFirst[list] = next;
+		if (next != None)
+			m_slotPrevious[next] = previous;
+		else
+			m_listLast[list] = previous;
+		m_slotLists[slot] = None;
+	}
+
+	private int slotOf(final int sequence) {
+		final int slot = sequence & m_slotMask;
+		return ((sequence != None) && (m_slotSequences[slot] == sequence)) ? slot : None;
+	}
+
+	private int trackedSlotOf(final int sequence) {
+		final int slot = slotOf(sequence);
+		if (slot == None)
+			throw new IllegalArgumentException("Packet " + sequence + " is not tracked");
+		return slot;
+	}
+
+	private long tickOf(final double seconds) {
+		return (long)Math.floor(seconds / m_tickSeconds);
+	}
+}
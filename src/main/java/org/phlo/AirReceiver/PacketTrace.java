@@ -0,0 +1,294 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.phlo.AirReceiver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Flight recorder of the packet lifecycle. Records an event for every
+ * stage an RTP packet passes through, from decoding the datagram to
+ * appending the audio data to the output line, and for the timing and
+ * retransmit traffic which determines when the audio is played.
+ * <p>
+ * Events are kept in a ring buffer holding the most recent events of
+ * all sessions, so the trace can be recorded continuously and dumped
+ * after a glitch, see {@link #dump(StringBuilder)}. Each event carries
+ * its stage, the packet's sequence number, the frame time and the time
+ * the stage started and took. Events of the {@link AudioOutputQueue}
+ * have no sequence number, since the queue only knows frame times.
+ * <p>
+ * The process-wide trace {@link #Instance} holds the number of events set by
+ * the system property {@code org.phlo.AirReceiver.packetTraceSize},
+ * rounded up to a power of two. 0 disables it, in which case {@link #Enabled}
+ * is false and call sites, which check it first, cost nothing.
+ * <p>
+ * Thread-safe and lock-free. Recording an event claims a slot with a single
+ * atomic increment and then writes the slot. The dump skips slots which are
+ * being overwritten while it reads them. Only a thread which is suspended
+ * while recording until the ring buffer wrapped around may garble an event.
+ */
+public final class PacketTrace {
+	/**
+	 * Stages of the packet lifecycle
+	 */
+	public static enum Stage {
+		/**
+		 * RTP datagram decoded into a packet, see {@link RaopRtpDecodeHandler}
+		 */
+		RtpDecode,
+
+		/**
+		 * Audio packet decrypted, see {@link RaopRtpAudioDecryptionHandler}
+		 */
+		Decrypt,
+
+		/**
+		 * Audio packet decoded from ALAC to PCM, see {@link RaopRtpAudioAlacDecodeHandler}
+		 */
+		AlacDecode,
+
+		/**
+		 * Audio data added to the {@link AudioOutputQueue}
+		 */
+		Enqueue,
+
+		/**
+		 * Audio data appended to the output line
+		 */
+		Append,
+
+		/**
+		 * Audio data dropped because it was due for playback already,
+		 * either when it was enqueued or when it was about to be appended
+		 */
+		Skip,
+
+		/**
+		 * Silence appended to the output line for lack of audio data
+		 */
+		Silence,
+
+		/**
+		 * Timing response received, see {@link RaopRtpTimingHandler}
+		 */
+		TimingResponse,
+
+		/**
+		 * Sync packet received, see {@link RaopRtpTimingHandler}
+		 */
+		Sync,
+
+		/**
+		 * Retransmit request sent, see {@link RaopRtpRetransmitRequestHandler}.
+		 * The sequence number is that of the first packet requested
+		 */
+		RetransmitRequest
+	}
+
+	/**
+	 * Process-wide trace
+	 */
+	public static final PacketTrace Instance = new PacketTrace(Integer.getInteger("org.phlo.AirReceiver.packetTraceSize", 32768));
+
+	/**
+	 * True if the process-wide trace records events
+	 */
+	public static final boolean Enabled = Instance.isEnabled();
+
+	/**
+	 * Value of an event's sequence number or frame time if it has none
+	 */
+	public static final int None = -1;
+
+	private static final Stage[] Stages = Stage.values();
+
+	/**
+	 * Layout of an event. The first long holds the index of the
+	 * event, or {@link #Writing} while the event is being written
+	 */
+	private static final int EventLongs = 5;
+	private static final int IndexOffset = 0;
+	private static final int StageSequenceOffset = 1;
+	private static final int FrameTimeOffset = 2;
+	private static final int StartNanosOffset = 3;
+	private static final int DurationNanosOffset = 4;
+	private static final long Writing = -1;
+
+	private final int m_capacity;
+	private final int m_mask;
+
+	/**
+	 * The events, null if disabled. Initially, every event's
+	 * index is {@link #Writing}, i.e. the slots are invalid
+	 */
+	private final AtomicLongArray m_events;
+
+	/**
+	 * Index of the next event to be recorded
+	 */
+	private final AtomicLong m_nextIndex = new AtomicLong(0);
+
+	/**
+	 * Creates a trace
+	 *
+	 * @param capacity number of events to keep, rounded up to a power of two. 0 disables the trace
+	 */
+	public PacketTrace(final int capacity) {
+		if ((capacity < 0) || (capacity > (1 << 24)))
+			throw new IllegalArgumentException("Packet trace capacity " + capacity + " is out of range");
+
+		if (capacity > 0) {
+			int roundedCapacity = 1;
+			while (roundedCapacity < capacity)
+				roundedCapacity <<= 1;
+
+			m_capacity = roundedCapacity;
+			m_mask = m_capacity - 1;
+			m_events = new AtomicLongArray(m_capacity * EventLongs);
+			for(int i=0; i < m_capacity; ++i)
+				m_events.set(i * EventLongs + IndexOffset, Writing);
+		}
+		else {
+			m_capacity = 0;
+			m_mask = 0;
+			m_events = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return m_events != null;
+	}
+
+	/**
+	 * Returns the number of events kept
+	 *
+	 * @return capacity, 0 if disabled
+	 */
+	public int getCapacity() {
+		return m_capacity;
+	}
+
+	/**
+	 * Returns the number of events recorded so far, including those
+	 * which were overwritten
+	 *
+	 * @return number of events
+	 */
+	public long getRecordedCount() {
+		return m_nextIndex.get();
+	}
+
+	/**
+	 * Records an event
+	 *
+	 * @param stage stage of the event
+	 * @param sequence the packet's sequence number, or {@link #None}
+	 * @param frameTime the packet's frame time, or {@link #None}
+	 * @param startNanos start of the stage, as returned by {@link System#nanoTime()}
+	 * @param durationNanos time the stage took, 0 for decisions
+	 */
+	public void record(final Stage stage, final int sequence, final long frameTime, final long startNanos, final long durationNanos) {
+		if (m_events == null)
+			return;
+
+		final long index = m_nextIndex.getAndIncrement();
+		final int base = (int)(index & m_mask) * EventLongs;
+
+		/* Invalidate the slot before overwriting it, and publish it only after
+		 * it was written. Lazy sets are ordered after the preceding stores
+		 */
+		m_events.set(base + IndexOffset, Writing);
+		m_events.lazySet(base + StageSequenceOffset, ((long)stage.ordinal() << 32) | (sequence & 0xffffffffL));
+		m_events.lazySet(base + FrameTimeOffset, frameTime);
+		m_events.lazySet(base + StartNanosOffset, startNanos);
+		m_events.lazySet(base + DurationNanosOffset, durationNanos);
+		m_events.lazySet(base + IndexOffset, index);
+	}
+
+	/**
+	 * Records an event of a packet, taking the sequence number
+	 * and, for audio and sync packets, the frame time from the packet
+	 *
+	 * @param stage stage of the event
+	 * @param packet the packet
+	 * @param startNanos start of the stage, as returned by {@link System#nanoTime()}
+	 * @param durationNanos time the stage took
+	 */
+	public void record(final Stage stage, final RaopRtpPacket packet, final long startNanos, final long durationNanos) {
+		final long frameTime;
+		if (packet instanceof RaopRtpPacket.Audio)
+			frameTime = ((RaopRtpPacket.Audio)packet).getTimeStamp();
+		else if (packet instanceof RaopRtpPacket.Sync)
+			frameTime = ((RaopRtpPacket.Sync)packet).getTimeStamp();
+		else
+			frameTime = None;
+
+		record(stage, packet.getSequence(), frameTime, startNanos, durationNanos);
+	}
+
+	/**
+	 * Appends the kept events to a string builder, oldest first, one
+	 * line per event. A line contains the start time in nanoseconds,
+	 * the stage, and the sequence number, frame time and duration in
+	 * nanoseconds, e.g.
+	 * {@code 1234567890 Decrypt seq=17 frame=88200 duration=2345}.
+	 * Events which are recorded while the trace is dumped may be missing
+	 *
+	 * @param out string builder to append to
+	 * @return number of events appended
+	 */
+	public int dump(final StringBuilder out) {
+		if (m_events == null)
+			return 0;
+
+		final long end = m_nextIndex.get();
+		int count = 0;
+		for(long index = Math.max(0, end - m_capacity); index < end; ++index) {
+			final int base = (int)(index & m_mask) * EventLongs;
+
+			if (m_events.get(base + IndexOffset) != index)
+				continue;
+			final long stageSequence = m_events.get(base + StageSequenceOffset);
+			final long frameTime = m_events.get(base + FrameTimeOffset);
+			final long startNanos = m_events.get(base + StartNanosOffset);
+			final long durationNanos = m_events.get(base + DurationNanosOffset);
+			if (m_events.get(base + IndexOffset) != index)
+				continue;
+
+			out.append(startNanos).append(' ').append(Stages[(int)(stageSequence >>> 32)].name());
+			out.append(" seq=").append((int)stageSequence);
+			out.append(" frame=").append(frameTime);
+			out.append(" duration=").append(durationNanos).append('\n');
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Forgets all events
+	 */
+	public void clear() {
+		if (m_events == null)
+			return;
+
+		for(int i=0; i < m_capacity; ++i)
+			m_events.set(i * EventLongs + IndexOffset, Writing);
+	}
+}
@@ -20,7 +20,7 @@ package org.phlo.AirReceiver;
 import java.net.*;
 import java.nio.charset.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.*;
@@ -29,10 +29,11 @@ import javax.crypto.*;
 import javax.crypto.spec.*;
 
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.channel.group.*;
-import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
 import org.jboss.netty.handler.codec.http.*;
 import org.jboss.netty.handler.codec.rtsp.*;
 
@@ -50,6 +51,30 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 	private static final String HeaderTransport = "Transport";
 	private static final String HeaderSession = "Session";
 
+	/**
+	 * Number of seconds without any RTP packet after which the RTSP connection
+	 * is closed, assuming the client is gone. Since the timing handler keeps
+	 * requesting timing responses, a connected client sends packets even while
+	 * paused. Set by the system property {@code org.phlo.AirReceiver.rtpIdleTimeout},
+	 * 0 disables the check
+	 */
+	private static final int RtpIdleTimeoutSeconds = Integer.getInteger("org.phlo.AirReceiver.rtpIdleTimeout", 60);
+
+	/**
+	 * Records the arrival time of incoming packets on
+	 * all RTP channels for the idle check
+	 */
+	private class RaopRtpActivityUpstreamHandler extends SimpleChannelUpstreamHandler {
+		@Override
+		public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent evt)
+			throws Exception
+		{
+			m_rtpActivityNanos = System.nanoTime();
+
+			super.messageReceived(ctx, evt);
+		}
+	}
+
 	/**
 	 * Routes incoming packets from the control and timing channel to
 	 * the audio channel
@@ -59,18 +84,23 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 		public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent evt)
 			throws Exception
 		{
-			/* Get audio channel from the enclosing RaopAudioHandler */
-			Channel audioChannel = null;
-			synchronized(RaopAudioHandler.this) {
-				audioChannel = m_audioChannel;
-			}
-
-			if ((m_audioChannel != null) && m_audioChannel.isOpen() && m_audioChannel.isReadable()) {
-				audioChannel.getPipeline().sendUpstream(new UpstreamMessageEvent(
-					audioChannel,
-					evt.getMessage(),
-					evt.getRemoteAddress())
-				);
+			/* Get audio channel from the enclosing RaopAudioHandler. All RTP channels
+			 * are bound to the same worker, i.e. to the current thread. The re-routed
+			 * packet therefore enters the audio channel's pipeline right after its
+			 * execution handler, and is handled before this method returns. This
+			 * is required since the decoder re-uses its packet objects
+			 */
+			final Channel audioChannel = m_audioChannel;
+
+			if ((audioChannel != null) && audioChannel.isOpen() && audioChannel.isReadable()) {
+				final ChannelHandlerContext audioExecutionContext = audioChannel.getPipeline().getContext("executionHandler");
+				if (audioExecutionContext != null) {
+					audioExecutionContext.sendUpstream(new UpstreamMessageEvent(
+						audioChannel,
+						evt.getMessage(),
+						evt.getRemoteAddress())
+					);
+				}
 			}
 		}
 	}
@@ -87,12 +117,8 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 			final RaopRtpPacket packet = (RaopRtpPacket)evt.getMessage();
 
 			/* Get control and timing channel from the enclosing RaopAudioHandler */
-			Channel controlChannel = null;
-			Channel timingChannel = null;
-			synchronized(RaopAudioHandler.this) {
-				controlChannel = m_controlChannel;
-				timingChannel = m_timingChannel;
-			}
+			final Channel controlChannel = m_controlChannel;
+			final Channel timingChannel = m_timingChannel;
 
 			if (packet instanceof RaopRtpPacket.RetransmitRequest) {
 				if ((controlChannel != null) && controlChannel.isOpen() && controlChannel.isWritable())
@@ -109,10 +135,44 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 	}
 
 	/**
-	 * Places incoming audio data on the audio output queue
-	 *
+	 * Places incoming audio data on the audio output queue.
+	 * <p>
+	 * While more of the decode session's events are queued, the samples
+	 * are collected and added to the queue at the end of the batch, so
+	 * that the queue's monitor is entered once per batch instead of once
+	 * per packet. The handler is confined to the session's worker thread.
 	 */
 	public class RaopRtpAudioEnqueueHandler extends SimpleChannelUpstreamHandler {
+		/**
+		 * Session whose events this handler processes
+		 */
+		private final RaopRtpDecodeScheduler.Session m_session;
+
+		/**
+		 * Scratch array for payloads not backed by an array
+		 */
+		private byte[] m_samples = new byte[0];
+
+		/**
+		 * Samples of the current batch not yet added to the queue, back to back
+		 */
+		private byte[] m_batchSamples = new byte[0];
+		private final long[] m_batchFrameTimes = new long[RaopRtpDecodeScheduler.BatchEventsMax];
+		private final int[] m_batchOffsets = new int[RaopRtpDecodeScheduler.BatchEventsMax];
+		private final int[] m_batchLengths = new int[RaopRtpDecodeScheduler.BatchEventsMax];
+		private int m_batchCount = 0;
+		private int m_batchSamplesLength = 0;
+
+		public RaopRtpAudioEnqueueHandler(final RaopRtpDecodeScheduler.Session session) {
+			m_session = session;
+			session.addBatchListener(new Runnable() {
+				@Override
+				public void run() {
+					flushBatch();
+				}
+			});
+		}
+
 		@Override
 		public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent evt)
 			throws Exception
@@ -125,15 +185,44 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 			final RaopRtpPacket.Audio audioPacket = (RaopRtpPacket.Audio)evt.getMessage();
 
 			/* Get audio output queue from the enclosing RaopAudioHandler */
-			AudioOutputQueue audioOutputQueue;
-			synchronized(RaopAudioHandler.this) {
-				audioOutputQueue = m_audioOutputQueue;
-			}
+			final AudioOutputQueue audioOutputQueue = m_audioOutputQueue;
 
 			if (audioOutputQueue != null) {
-				final byte[] samples = new byte[audioPacket.getPayload().capacity()];
-				audioPacket.getPayload().getBytes(0, samples);
-				m_audioOutputQueue.enqueue(audioPacket.getTimeStamp(), samples);
+				/* The payload is accessed via the packet's buffer, without creating a slice */
+				final ChannelBuffer buffer = audioPacket.getBuffer();
+				final int payloadOffset = audioPacket.getPayloadOffset();
+				final int payloadLength = audioPacket.getPayloadLength();
+				final boolean batchContinues = (m_session.getQueueDepth() > 0);
+
+				if ((m_batchCount == 0) && !batchContinues) {
+					/* A lone packet. The queue copies the samples, so we pass the packet's
+					 * backing array directly if possible. Otherwise, we copy the payload
+					 * to a scratch array first
+					 */
+					if (buffer.hasArray()) {
+						audioOutputQueue.enqueue(audioPacket.getTimeStamp(), buffer.array(), buffer.arrayOffset() + payloadOffset, payloadLength);
+					}
+					else {
+						if (m_samples.length < payloadLength)
+							m_samples = new byte[payloadLength];
+						buffer.getBytes(payloadOffset, m_samples, 0, payloadLength);
+						audioOutputQueue.enqueue(audioPacket.getTimeStamp(), m_samples, 0, payloadLength);
+					}
+				}
+				else {
+					/* The packet's buffer is re-used for the next packet, so the samples are copied */
+					if (m_batchSamples.length < m_batchSamplesLength + payloadLength)
+						m_batchSamples = Arrays.copyOf(m_batchSamples, Math.max(2 * m_batchSamples.length, m_batchSamplesLength + payloadLength));
+					buffer.getBytes(payloadOffset, m_batchSamples, m_batchSamplesLength, payloadLength);
+					m_batchFrameTimes[m_batchCount] = audioPacket.getTimeStamp();
+					m_batchOffsets[m_batchCount] = m_batchSamplesLength;
+					m_batchLengths[m_batchCount] = payloadLength;
+					m_batchSamplesLength += payloadLength;
+					++m_batchCount;
+
+					if (!batchContinues || (m_batchCount == m_batchFrameTimes.length))
+						flushBatch();
+				}
 				if (s_logger.isLoggable(Level.FINEST))
 					s_logger.finest("Packet with sequence " + audioPacket.getSequence() + " for playback at " + audioPacket.getTimeStamp() + " submitted to audio output queue");
 			}
@@ -143,48 +232,125 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 
 			super.messageReceived(ctx, evt);
 		}
+
+		/**
+		 * Adds the samples of the current batch to the queue
+		 */
+		private void flushBatch() {
+			if (m_batchCount == 0)
+				return;
+
+			final AudioOutputQueue audioOutputQueue = m_audioOutputQueue;
+			if (audioOutputQueue != null)
+				audioOutputQueue.enqueue(m_batchFrameTimes, m_batchSamples, m_batchOffsets, m_batchLengths, m_batchCount);
+			else
+				s_logger.warning("No audio queue available, dropping " + m_batchCount + " packets");
+
+			m_batchCount = 0;
+			m_batchSamplesLength = 0;
+		}
 	}
 
 	/**
-	 *  RSA cipher used to decrypt the AES session key
+	 * Factory of the RTP channels, shared by all sessions
 	 */
-	private final Cipher m_rsaPkCS1OaepCipher = AirTunesCrytography.getCipher("RSA/None/OAEPWithSHA1AndMGF1Padding");
+	private final DatagramChannelFactory m_rtpChannelFactory;
 
 	/**
-	 * Executor service used for the RTP channels
+	 * Scheduler for periodic tasks
 	 */
-	private final ExecutorService m_rtpExecutorService;
+	private final ScheduledExecutorService m_scheduler;
 
+	private final ChannelHandler m_activityHandler = new RaopRtpActivityUpstreamHandler();
 	private final ChannelHandler m_exceptionLoggingHandler = new ExceptionLoggingHandler();
-	private final ChannelHandler m_decodeHandler = new RaopRtpDecodeHandler();
 	private final ChannelHandler m_encodeHandler = new RtpEncodeHandler();
 	private final ChannelHandler m_packetLoggingHandler = new RtpLoggingHandler();
 	private final ChannelHandler m_inputToAudioRouterDownstreamHandler = new RaopRtpInputToAudioRouterUpstreamHandler();
 	private final ChannelHandler m_audioToOutputRouterUpstreamHandler = new RaopRtpAudioToOutputRouterDownstreamHandler();
+	private ChannelHandler m_decodeHandler;
 	private ChannelHandler m_decryptionHandler;
 	private ChannelHandler m_audioDecodeHandler;
 	private ChannelHandler m_resendRequestHandler;
 	private ChannelHandler m_timingHandler;
-	private final ChannelHandler m_audioEnqueueHandler = new RaopRtpAudioEnqueueHandler();
+	private ChannelHandler m_audioEnqueueHandler;
 
 	private AudioStreamInformationProvider m_audioStreamInformationProvider;
-	private AudioOutputQueue m_audioOutputQueue;
+
+	/**
+	 * The fields below are read without locking by the RTP channel handlers,
+	 * and are therefore volatile. They are only written while holding the
+	 * RaopAudioHandler's monitor
+	 */
+	private volatile AudioOutputQueue m_audioOutputQueue;
+
+	/**
+	 * Opens the audio output sink
+	 */
+	private final AudioOutputSinkFactory m_sinkFactory;
+
+	/**
+	 * Collects the time from ANNOUNCE to the first audible frame
+	 */
+	private final ConnectionSetupStatistics m_setupStatistics;
+
+	/**
+	 * Registry of the sessions' statistics
+	 */
+	private final ReceiverStatistics m_receiverStatistics;
+
+	/**
+	 * Statistics of the current stream
+	 */
+	private RaopSessionStatistics m_sessionStatistics;
+
+	/**
+	 * Scheduler which assigns the RTP sessions to worker threads
+	 */
+	private final RaopRtpDecodeScheduler m_decodeScheduler;
+
+	/**
+	 * The session's binding to the worker thread which handles
+	 * all events of the session's RTP channels
+	 */
+	private RaopRtpDecodeScheduler.Session m_decodeSession;
 
 	/**
 	 * All RTP channels belonging to this RTSP connection
 	 */
 	private final ChannelGroup m_rtpChannels = new DefaultChannelGroup();
 
-	private Channel m_audioChannel;
-	private Channel m_controlChannel;
-	private Channel m_timingChannel;
+	private volatile Channel m_audioChannel;
+	private volatile Channel m_controlChannel;
+	private volatile Channel m_timingChannel;
 
 	/**
-	 * Creates an instance, using the ExecutorService for the RTP channel's datagram socket factory
-	 * @param rtpExecutorService
+	 * Time the last RTP packet arrived, see {@link System#nanoTime()}
 	 */
-	public RaopAudioHandler(final ExecutorService rtpExecutorService) {
-		m_rtpExecutorService = rtpExecutorService;
+	private volatile long m_rtpActivityNanos;
+
+	/**
+	 * The scheduled idle check, if the RTP channels are set up
+	 */
+	private ScheduledFuture<?> m_idleCheck;
+
+	/**
+	 * Creates an instance, using the shared datagram channel factory for the RTP channels
+	 * and the RaopRtpDecodeScheduler to process the RTP channels' packets. Periodic tasks are
+	 * run by the scheduler. Audio is played on sinks opened by the given factory
+	 * @param rtpChannelFactory creates the RTP channels, shared by all sessions
+	 * @param scheduler runs the periodic tasks of the session
+	 * @param decodeScheduler
+	 * @param sinkFactory opens the audio output sink
+	 * @param setupStatistics collects the stream setup times
+	 * @param receiverStatistics registers the statistics of each stream
+	 */
+	public RaopAudioHandler(final DatagramChannelFactory rtpChannelFactory, final ScheduledExecutorService scheduler, final RaopRtpDecodeScheduler decodeScheduler, final AudioOutputSinkFactory sinkFactory, final ConnectionSetupStatistics setupStatistics, final ReceiverStatistics receiverStatistics) {
+		m_rtpChannelFactory = rtpChannelFactory;
+		m_scheduler = scheduler;
+		m_decodeScheduler = decodeScheduler;
+		m_sinkFactory = sinkFactory;
+		m_setupStatistics = setupStatistics;
+		m_receiverStatistics = receiverStatistics;
 		reset();
 	}
 
@@ -192,15 +358,29 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 	 * Resets stream-related data (i.e. undoes the effect of ANNOUNCE, SETUP and RECORD
 	 */
 	private void reset() {
+		if (m_idleCheck != null)
+			m_idleCheck.cancel(false);
+		m_idleCheck = null;
+
 		if (m_audioOutputQueue != null)
 			m_audioOutputQueue.close();
 
-		m_rtpChannels.close();
+		m_rtpChannels.close().awaitUninterruptibly();
 
+		if (m_decodeSession != null)
+			m_decodeSession.close();
+		m_decodeSession = null;
+
+		if (m_sessionStatistics != null)
+			m_receiverStatistics.endSession(m_sessionStatistics);
+		m_sessionStatistics = null;
+
+		m_decodeHandler = null;
 		m_decryptionHandler = null;
 		m_audioDecodeHandler = null;
 		m_resendRequestHandler = null;
 		m_timingHandler = null;
+		m_audioEnqueueHandler = null;
 
 		m_audioStreamInformationProvider = null;
 		m_audioOutputQueue = null;
@@ -323,6 +503,8 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 	public synchronized void announceReceived(final ChannelHandlerContext ctx, final HttpRequest req)
 		throws Exception
 	{
+		final long announceNanos = System.nanoTime();
+
 		/* ANNOUNCE must contain stream information in SDP format */
 		if (!req.containsHeader("Content-Type"))
 			throw new ProtocolException("No Content-Type header");
@@ -392,8 +574,13 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 						 */
 						byte[] aesKeyRaw;
 
-						m_rsaPkCS1OaepCipher.init(Cipher.DECRYPT_MODE, AirTunesCrytography.PrivateKey);
-						aesKeyRaw = m_rsaPkCS1OaepCipher.doFinal(Base64.decodeUnpadded(value));
+						/* The pooled cipher is already initialized with the AirTunes private key.
+						 * It is only returned to the pool if decrypting the client's key succeeded,
+						 * since a failed operation may leave it in an undefined state
+						 */
+						final Cipher rsaPkCS1OaepCipher = AirTunesCrytography.RsaOaepDecryptPool.acquire();
+						aesKeyRaw = rsaPkCS1OaepCipher.doFinal(Base64.decodeUnpadded(value));
+						AirTunesCrytography.RsaOaepDecryptPool.release(rsaPkCS1OaepCipher);
 
 						aesKey = new SecretKeySpec(aesKeyRaw, "AES");
 					}
@@ -423,23 +610,60 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 		if (formatOptions == null)
 			throw new ProtocolException("Auido format " + audioFormatIndex + " incomplete, format options not set");
 
+		/* Collect the stream's statistics */
+		final RaopSessionStatistics statistics = m_receiverStatistics.startSession(String.valueOf(ctx.getChannel().getRemoteAddress()));
+		m_sessionStatistics = statistics;
+
 		/* Create decryption handler if an AES key and IV was specified */
-		if ((aesKey != null) && (aesIv != null))
-			m_decryptionHandler = new RaopRtpAudioDecryptionHandler(aesKey, aesIv);
+		if ((aesKey != null) && (aesIv != null)) {
+			final RaopRtpAudioDecryptionHandler decryptionHandler = new RaopRtpAudioDecryptionHandler(aesKey, aesIv);
+			decryptionHandler.setStatistics(statistics);
+			m_decryptionHandler = decryptionHandler;
+		}
 
 		/* Create an ALAC decoder. The ALAC decoder is our stream information provider */
 		final RaopRtpAudioAlacDecodeHandler handler = new RaopRtpAudioAlacDecodeHandler(formatOptions);
+		handler.setStatistics(statistics);
 		m_audioStreamInformationProvider = handler;
 		m_audioDecodeHandler = handler;
 
 		/* Create audio output queue with the format information provided by the ALAC decoder */
-		m_audioOutputQueue = new AudioOutputQueue(m_audioStreamInformationProvider);
+		m_audioOutputQueue = new AudioOutputQueue(m_audioStreamInformationProvider, m_sinkFactory);
+		m_audioOutputQueue.setStatistics(statistics);
 
 		/* Create timing handle, using the AudioOutputQueue as time source */
-		m_timingHandler = new RaopRtpTimingHandler(m_audioOutputQueue);
+		final RaopRtpTimingHandler timingHandler = new RaopRtpTimingHandler(m_audioOutputQueue, m_scheduler);
+		m_timingHandler = timingHandler;
 
 		/* Create retransmit request handler using the audio output queue as time source */
-		m_resendRequestHandler = new RaopRtpRetransmitRequestHandler(m_audioStreamInformationProvider, m_audioOutputQueue);
+		final RaopRtpRetransmitRequestHandler resendRequestHandler = new RaopRtpRetransmitRequestHandler(m_audioStreamInformationProvider, m_audioOutputQueue, m_scheduler);
+		resendRequestHandler.setStatistics(statistics);
+		m_resendRequestHandler = resendRequestHandler;
+
+		statistics.setSources(m_audioOutputQueue, timingHandler, resendRequestHandler);
+
+		/* Bind the session to the worker which will process the packets of all RTP channels */
+		m_decodeSession = m_decodeScheduler.createSession();
+
+		/* The decoder re-uses its packets, so it must be confined to the session's worker. Events of
+		 * a previous session may still be processed by another worker, so it can't be shared with that
+		 */
+		m_decodeHandler = new RaopRtpDecodeHandler();
+
+		/* Account for and enqueue received packets once per batch of the session's events */
+		resendRequestHandler.setDecodeSession(m_decodeSession);
+		m_audioEnqueueHandler = new RaopRtpAudioEnqueueHandler(m_decodeSession);
+
+		/* Measure the time until the stream becomes audible */
+		m_audioOutputQueue.setFirstAudibleFrameListener(new Runnable() {
+			@Override
+			public void run() {
+				final long setupNanos = System.nanoTime() - announceNanos;
+				m_setupStatistics.recordFirstAudibleFrame(setupNanos);
+				s_logger.info("First audio frame played " + setupNanos / 1000000 + " ms after ANNOUNCE");
+			}
+		});
+		m_setupStatistics.recordAnnounce(System.nanoTime() - announceNanos);
 
 		final HttpResponse response = new DefaultHttpResponse(RtspVersions.RTSP_1_0,  RtspResponseStatuses.OK);
 		ctx.getChannel().write(response);
@@ -464,6 +688,10 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 	public synchronized void setupReceived(final ChannelHandlerContext ctx, final HttpRequest req)
 		throws ProtocolException
 	{
+		/* The RTP channels' handlers are created by ANNOUNCE */
+		if (m_decodeSession == null)
+			throw new ProtocolException("Audio stream not configured, cannot setup RTP channels");
+
 		/* Request must contain a Transport header */
 		if (!req.containsHeader(HeaderTransport))
 			throw new ProtocolException("No Transport header");
@@ -536,6 +764,9 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 		s_logger.info("Launched RTP audio service on " + m_audioChannel.getLocalAddress());
 		responseOptions.add("server_port=" + ((InetSocketAddress)m_audioChannel.getLocalAddress()).getPort());
 
+		/* Close the RTSP connection once the client stops sending RTP packets */
+		scheduleIdleCheck(ctx.getChannel());
+
 		/* Build response options string */
 		final StringBuilder transportResponseBuilder = new StringBuilder();
 		for(final String responseOption: responseOptions) {
@@ -551,6 +782,33 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 		ctx.getChannel().write(response);
 	}
 
+	/**
+	 * Schedules a periodic check which closes the RTSP connection if
+	 * no RTP packet arrived for {@link #RtpIdleTimeoutSeconds}
+	 *
+	 * @param rtspChannel the RTSP connection
+	 */
+	private void scheduleIdleCheck(final Channel rtspChannel) {
+		if (m_idleCheck != null)
+			m_idleCheck.cancel(false);
+		m_idleCheck = null;
+
+		if (RtpIdleTimeoutSeconds <= 0)
+			return;
+
+		m_rtpActivityNanos = System.nanoTime();
+		m_idleCheck = m_scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				final long idleNanos = System.nanoTime() - m_rtpActivityNanos;
+				if (idleNanos > RtpIdleTimeoutSeconds * 1000000000L) {
+					s_logger.warning("No RTP packets received for " + idleNanos / 1000000000L + " seconds, closing RTSP connection");
+					rtspChannel.close();
+				}
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+	}
+
 	/**
 	 * Handles RECORD request. We did all the work during ANNOUNCE and SETUP, so there's nothing
 	 * more to do.
@@ -677,8 +935,13 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 	 */
 	private Channel createRtpChannel(final SocketAddress local, final SocketAddress remote, final RaopRtpChannelType channelType)
 	{
-		/* Create bootstrap helper for a data-gram socket using NIO */
-		final ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(new NioDatagramChannelFactory(m_rtpExecutorService));
+		/* All RTP channels of the session are handled by the session's worker */
+		final ChannelHandler executionHandler = m_decodeSession.getExecutionHandler();
+
+		/* Create bootstrap helper for a data-gram socket. The channel factory, and
+		 * thus its I/O threads and selectors, are shared by all sessions
+		 */
+		final ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(m_rtpChannelFactory);
 		
 		/* Set the buffer size predictor to 1500 bytes to ensure that
 		 * received packets will fit into the buffer. Packets are
@@ -695,7 +958,9 @@ public class RaopAudioHandler extends SimpleChannelUpstreamHandler {
 			public ChannelPipeline getPipeline() throws Exception {
 				final ChannelPipeline pipeline = Channels.pipeline();
 
-				pipeline.addLast("executionHandler", AirReceiver.ChannelExecutionHandler);
+				/* Runs on the I/O thread, before packets are queued for the session's worker */
+				pipeline.addLast("activity", m_activityHandler);
+				pipeline.addLast("executionHandler", executionHandler);
 				pipeline.addLast("exceptionLogger", m_exceptionLoggingHandler);
 				pipeline.addLast("decoder", m_decodeHandler);
 				pipeline.addLast("encoder", m_encodeHandler);
@@ -0,0 +1,222 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.io.File;
+import java.util.*;
+
+import javax.sound.sampled.*;
+
+/**
+ * A virtual AirPort Express, i.e. one RAOP/AirTunes receiver.
+ * <p>
+ * Each receiver has its own RTSP port, service name, hardware address
+ * and audio output. All receivers hosted by one AirReceiver process
+ * share the netty thread pools, the RTP decode workers and the
+ * cryptography providers.
+ * <p>
+ * Usually, AirReceiver hosts a single receiver. In multi-room mode,
+ * the receivers are read from a properties file of the form
+ * <pre>
+ * receivers = kitchen, bedroom
+ * receiver.kitchen.name = Kitchen
+ * receiver.kitchen.port = 5000
+ * receiver.kitchen.hardwareAddress = 02DEADBEEF01
+ * receiver.kitchen.mixer = USB Audio
+ * receiver.bedroom.name = Bedroom
+ * receiver.bedroom.output = /tmp/bedroom.pcm
+ * </pre>
+ * All settings except the list of receivers are optional. The name defaults
+ * to the host name followed by the receiver's id, the port to 5000 plus the
+ * receiver's position in the list, and the hardware address to one derived
+ * from the machine's hardware address. Receivers without a mixer play on
+ * the default mixer, the mixer is otherwise selected by its name as
+ * reported by JavaSound. Receivers with an output instead write raw PCM
+ * samples to the given file or named pipe, see {@link FileChannelAudioOutputSink}.
+ */
+public class RaopReceiver {
+	/**
+	 * The port of the first receiver unless set explicitly
+	 */
+	public static final int BasePort = 5000;
+
+	private final String m_name;
+	private final int m_port;
+	private final byte[] m_hardwareAddress;
+	private final AudioOutputSinkFactory m_sinkFactory;
+
+	/**
+	 * Creates a receiver
+	 *
+	 * @param name receiver name, shown by iTunes and iOS
+	 * @param port RTSP port
+	 * @param hardwareAddress hardware (MAC) address, 6 bytes
+	 * @param sinkFactory opens the audio output sinks, null for the default mixer
+	 */
+	public RaopReceiver(final String name, final int port, final byte[] hardwareAddress, final AudioOutputSinkFactory sinkFactory) {
+		if (hardwareAddress.length != 6)
+			throw new IllegalArgumentException("Hardware address must have 6 bytes, but has " + hardwareAddress.length);
+		if ((port <= 0) || (port > 0xffff))
+			throw new IllegalArgumentException("Port " + port + " is invalid");
+
+		m_name = name;
+		m_port = port;
+		m_hardwareAddress = hardwareAddress.clone();
+		m_sinkFactory = (sinkFactory != null) ? sinkFactory : new JavaSoundAudioOutputSink.Factory(null);
+	}
+
+	public String getName() {
+		return m_name;
+	}
+
+	public int getPort() {
+		return m_port;
+	}
+
+	/**
+	 * Returns the receiver's hardware (MAC) address
+	 *
+	 * @return 6 bytes
+	 */
+	public byte[] getHardwareAddress() {
+		return m_hardwareAddress.clone();
+	}
+
+	/**
+	 * Returns the receiver's hardware (MAC) address as a hexadecimal string
+	 *
+	 * @return hexadecimal string
+	 */
+	public String getHardwareAddressString() {
+		final StringBuilder s = new StringBuilder();
+		for(final byte b: m_hardwareAddress)
+			s.append(String.format("%02X", b & 0xff));
+		return s.toString();
+	}
+
+	/**
+	 * Returns the factory which opens the receiver's audio output sinks
+	 *
+	 * @return sink factory
+	 */
+	public AudioOutputSinkFactory getSinkFactory() {
+		return m_sinkFactory;
+	}
+
+	@Override
+	public String toString() {
+		return getHardwareAddressString() + "@" + m_name + " (port " + m_port + ")";
+	}
+
+	/**
+	 * Reads the receivers from a properties file, see {@link RaopReceiver}
+	 * for its format.
+	 *
+	 * @param properties receiver configuration
+	 * @param hostName host name, used to derive default names
+	 * @param hardwareAddress hardware address of the machine, used to derive default hardware addresses
+	 * @return receivers
+	 * @throws IllegalArgumentException if the configuration is invalid
+	 */
+	public static List<RaopReceiver> fromProperties(final Properties properties, final String hostName, final byte[] hardwareAddress) {
+		final String ids = properties.getProperty("receivers");
+		if ((ids == null) || ids.trim().isEmpty())
+			throw new IllegalArgumentException("No receivers configured");
+
+		final List<RaopReceiver> receivers = new ArrayList<RaopReceiver>();
+		final Set<Integer> ports = new HashSet<Integer>();
+		for(final String id: ids.trim().split("\\s*,\\s*")) {
+			final int index = receivers.size();
+			final String prefix = "receiver." + id + ".";
+
+			final String name = properties.getProperty(prefix + "name", hostName + " " + id).trim();
+
+			final int port;
+			try {
+				port = Integer.parseInt(properties.getProperty(prefix + "port", String.valueOf(BasePort + index)).trim());
+			}
+			catch (final NumberFormatException e) {
+				throw new IllegalArgumentException("Port of receiver " + id + " is not a number", e);
+			}
+			if (!ports.add(port))
+				throw new IllegalArgumentException("Port " + port + " of receiver " + id + " is already used by another receiver");
+
+			final String hardwareAddressString = properties.getProperty(prefix + "hardwareAddress");
+			final byte[] receiverHardwareAddress;
+			if (hardwareAddressString != null)
+				receiverHardwareAddress = parseHardwareAddress(hardwareAddressString.trim());
+			else
+				receiverHardwareAddress = deriveHardwareAddress(hardwareAddress, index);
+
+			final String mixerName = properties.getProperty(prefix + "mixer");
+			final String output = properties.getProperty(prefix + "output");
+			final AudioOutputSinkFactory sinkFactory;
+			if ((mixerName != null) && (output != null))
+				throw new IllegalArgumentException("Receiver " + id + " must not have both a mixer and an output");
+			else if (output != null)
+				sinkFactory = new FileChannelAudioOutputSink.Factory(new File(output.trim()));
+			else if (mixerName != null)
+				sinkFactory = new JavaSoundAudioOutputSink.Factory(findMixer(mixerName.trim()));
+			else
+				sinkFactory = null;
+
+			receivers.add(new RaopReceiver(name, port, receiverHardwareAddress, sinkFactory));
+		}
+
+		return receivers;
+	}
+
+	/**
+	 * Derives a hardware address for a virtual receiver from the machine's
+	 * hardware address. The derived address is marked as locally administered
+	 * and differs from the other receivers' addresses in its last two bytes.
+	 *
+	 * @param hardwareAddress hardware address of the machine
+	 * @param index the receiver's index
+	 * @return hardware address of the receiver
+	 */
+	static byte[] deriveHardwareAddress(final byte[] hardwareAddress, final int index) {
+		final byte[] address = hardwareAddress.clone();
+		address[0] |= 0x02;
+
+		final int suffix = (((address[4] & 0xff) << 8) | (address[5] & 0xff)) + index + 1;
+		address[4] = (byte)(suffix >> 8);
+		address[5] = (byte)suffix;
+
+		return address;
+	}
+
+	private static byte[] parseHardwareAddress(final String string) {
+		final String hex = string.replaceAll("[:-]", "");
+		if (!hex.matches("[0-9A-Fa-f]{12}"))
+			throw new IllegalArgumentException("Hardware address " + string + " must consist of 6 hexadecimal bytes");
+
+		final byte[] address = new byte[6];
+		for(int i=0; i < 6; ++i)
+			address[i] = (byte)Integer.parseInt(hex.substring(2*i, 2*i + 2), 16);
+		return address;
+	}
+
+	private static Mixer.Info findMixer(final String name) {
+		for(final Mixer.Info mixerInfo: AudioSystem.getMixerInfo()) {
+			if (mixerInfo.getName().equals(name))
+				return mixerInfo;
+		}
+		throw new IllegalArgumentException("No audio mixer named " + name);
+	}
+}
@@ -22,6 +22,7 @@ import java.util.logging.*;
 
 import javax.sound.sampled.AudioFormat;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 
@@ -33,6 +34,13 @@ import com.beatofthedrum.alacdecoder.*;
  * 
  * This class assumes that ALAC requires no inter-packet state - it doesn't make
  * any effort to feed the packets to ALAC in the correct order.
+ *
+ * Once the first packet was decoded, decoding allocates no memory. The input
+ * and output buffers as well as the emitted packets are re-used, handlers
+ * further up the pipeline must therefore not hold on to the emitted packets.
+ *
+ * Not thread-safe, all packets must be processed by the session's
+ * worker, see {@link RaopRtpDecodeScheduler}.
  */
 public class RaopRtpAudioAlacDecodeHandler extends OneToOneDecoder implements AudioStreamInformationProvider {
 	private static Logger s_logger = Logger.getLogger(RaopRtpAudioAlacDecodeHandler.class.getName());
@@ -76,6 +84,44 @@ public class RaopRtpAudioAlacDecodeHandler extends OneToOneDecoder implements Au
 	 */
 	private final AlacFile m_alacFile;
 
+	/**
+	 * ALAC input buffer, re-used for every packet and grown on demand.
+	 * Always has at least {@link #AlacInputSpareBytes} bytes more than
+	 * the largest payload seen so far.
+	 */
+	private byte[] m_alacBytes = new byte[0];
+
+	/**
+	 * Decoded PCM samples as integers, re-used for every packet
+	 */
+	private final int[] m_pcmSamples;
+
+	/**
+	 * Decoded PCM samples as big endian unsigned bytes, re-used for every packet
+	 */
+	private final byte[] m_pcmBytes;
+
+	/**
+	 * Output packets, re-used for every packet. The handlers following
+	 * the decoder in the RTP pipeline consume the packets synchronously
+	 * (the enqueue handler copies the payload into the audio output
+	 * queue), so one instance per packet type suffices.
+	 */
+	private final RaopRtpPacket.AudioTransmit m_pcmTransmitPacket;
+	private final RaopRtpPacket.AudioRetransmit m_pcmRetransmitPacket;
+
+	/**
+	 * The ALAC decode sometimes reads beyond the input's bounds
+	 * (but later discards the data). To alleviate, we allocate
+	 * 3 spare bytes at input buffer's end.
+	 */
+	private static final int AlacInputSpareBytes = 3;
+
+	/**
+	 * Statistics of the session, may be null
+	 */
+	private volatile RaopSessionStatistics m_statistics;
+
 	/**
 	 * Creates an ALAC decoder instance from a list of format options as
 	 * they appear in the SDP session announcement.
@@ -111,11 +157,25 @@ public class RaopRtpAudioAlacDecodeHandler extends OneToOneDecoder implements Au
 		m_alacFile.setinfo_86 = Integer.valueOf(formatOptions[FormatOption86]);
 		m_alacFile.setinfo_8a_rate = sampleRate;
 
+		m_pcmSamples = new int[m_samplesPerFrame * 2];
+		m_pcmBytes = new byte[m_samplesPerFrame * 4];
+		m_pcmTransmitPacket = new RaopRtpPacket.AudioTransmit(m_pcmBytes.length);
+		m_pcmRetransmitPacket = new RaopRtpPacket.AudioRetransmit(m_pcmBytes.length);
+
 		s_logger.info("Created ALAC decode for options " + Arrays.toString(formatOptions));
 	}
 
+	/**
+	 * Sets the statistics which record the decoding times
+	 *
+	 * @param statistics session statistics, or null
+	 */
+	public void setStatistics(final RaopSessionStatistics statistics) {
+		m_statistics = statistics;
+	}
+
 	@Override
-	protected synchronized Object decode(final ChannelHandlerContext ctx, final Channel channel, final Object msg)
+	protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final Object msg)
 		throws Exception
 	{
 		if (!(msg instanceof RaopRtpPacket.Audio))
@@ -123,22 +183,45 @@ public class RaopRtpAudioAlacDecodeHandler extends OneToOneDecoder implements Au
 
 		final RaopRtpPacket.Audio alacPacket = (RaopRtpPacket.Audio)msg;
 
-		/* The ALAC decode sometimes reads beyond the input's bounds
-		 * (but later discards the data). To alleviate, we allocate
-		 * 3 spare bytes at input buffer's end.
+		/* Determine the PCM packet to emit and the header length. Reading the ALAC
+		 * payload and writing the PCM payload via the packets' underlying buffers
+		 * instead of getPayload() avoids creating buffer slices.
+		 */
+		RaopRtpPacket.Audio pcmPacket;
+		int headerLength;
+		if (alacPacket instanceof RaopRtpPacket.AudioTransmit) {
+			pcmPacket = m_pcmTransmitPacket;
+			headerLength = RaopRtpPacket.AudioTransmit.Length;
+		}
+		else if (alacPacket instanceof RaopRtpPacket.AudioRetransmit) {
+			pcmPacket = m_pcmRetransmitPacket;
+			headerLength = RaopRtpPacket.AudioRetransmit.Length;
+		}
+		else
+			throw new ProtocolException("Packet type " + alacPacket.getClass() + " is not supported by the ALAC decoder");
+
+		final ChannelBuffer alacBuffer = alacPacket.getBuffer();
+		final int alacLength = alacPacket.getLength() - headerLength;
+
+		final RaopSessionStatistics statistics = m_statistics;
+		final boolean timed = (statistics != null) || PacketTrace.Enabled;
+		final long startNanos = timed ? System.nanoTime() : 0;
+
+		/* Copy the ALAC data into the input buffer, growing it if it's too small
+		 * to hold the payload plus the spare bytes the decoder may read past its end
 		 */
-		final byte[] alacBytes = new byte[alacPacket.getPayload().capacity() + 3];
-		alacPacket.getPayload().getBytes(0, alacBytes, 0, alacPacket.getPayload().capacity());
+		if (m_alacBytes.length < alacLength + AlacInputSpareBytes)
+			m_alacBytes = new byte[alacLength + AlacInputSpareBytes];
+		alacBuffer.getBytes(headerLength, m_alacBytes, 0, alacLength);
 
 		/* Decode ALAC to PCM */
-		final int[] pcmSamples = new int[m_samplesPerFrame * 2];
-		final int pcmSamplesBytes = AlacDecodeUtils.decode_frame(m_alacFile, alacBytes, pcmSamples, m_samplesPerFrame);
+		final int pcmSamplesBytes = AlacDecodeUtils.decode_frame(m_alacFile, m_alacBytes, m_pcmSamples, m_samplesPerFrame);
 
 		/* decode_frame() returns the number of *bytes*, not samples! */
 		final int pcmSamplesLength = pcmSamplesBytes / 4;
 		final Level level = Level.FINEST;
 		if (s_logger.isLoggable(level))
-			s_logger.log(level, "Decoded " + alacBytes.length + " bytes of ALAC audio data to " + pcmSamplesLength + " PCM samples");
+			s_logger.log(level, "Decoded " + alacLength + " bytes of ALAC audio data to " + pcmSamplesLength + " PCM samples");
 
 		/* Complain if the sender doesn't honour it's commitment */
 		if (pcmSamplesLength != m_samplesPerFrame)
@@ -146,27 +229,28 @@ public class RaopRtpAudioAlacDecodeHandler extends OneToOneDecoder implements Au
 
 		/* Assemble PCM audio packet from original packet header and decoded data.
 		 * The ALAC decode emits signed PCM samples as integers. We store them as
-		 * as unsigned big endian integers in the packet.
+		 * as unsigned big endian integers in the packet, converting them into a
+		 * byte array first and then copying that into the packet in one go.
 		 */
-		
-		RaopRtpPacket.Audio pcmPacket;
-		if (alacPacket instanceof RaopRtpPacket.AudioTransmit) {
-			pcmPacket = new RaopRtpPacket.AudioTransmit(pcmSamplesLength * 4);
-			alacPacket.getBuffer().getBytes(0, pcmPacket.getBuffer(), 0, RaopRtpPacket.AudioTransmit.Length);
-		}
-		else if (alacPacket instanceof RaopRtpPacket.AudioRetransmit) {
-			pcmPacket = new RaopRtpPacket.AudioRetransmit(pcmSamplesLength * 4);
-			alacPacket.getBuffer().getBytes(0, pcmPacket.getBuffer(), 0, RaopRtpPacket.AudioRetransmit.Length);
-		}
-		else
-			throw new ProtocolException("Packet type " + alacPacket.getClass() + " is not supported by the ALAC decoder");
+		pcmPacket.setHeader(alacPacket);
 
-		for(int i=0; i < pcmSamples.length; ++i) {
+		final int[] pcmSamples = m_pcmSamples;
+		final byte[] pcmBytes = m_pcmBytes;
+		for(int i=0, j=0; i < pcmSamples.length; ++i, j += 2) {
 			/* Convert sample to big endian unsigned integer PCM */
 			final int pcmSampleUnsigned = pcmSamples[i] + 0x8000;
 
-			pcmPacket.getPayload().setByte(2*i, (pcmSampleUnsigned & 0xff00) >> 8);
-			pcmPacket.getPayload().setByte(2*i + 1, pcmSampleUnsigned & 0x00ff);
+			pcmBytes[j] = (byte)(pcmSampleUnsigned >> 8);
+			pcmBytes[j + 1] = (byte)pcmSampleUnsigned;
+		}
+		pcmPacket.getBuffer().setBytes(headerLength, pcmBytes, 0, pcmBytes.length);
+
+		if (timed) {
+			final long durationNanos = System.nanoTime() - startNanos;
+			if (statistics != null)
+				statistics.recordDecode(durationNanos);
+			if (PacketTrace.Enabled)
+				PacketTrace.Instance.record(PacketTrace.Stage.AlacDecode, alacPacket, startNanos, durationNanos);
 		}
 
 		return pcmPacket;
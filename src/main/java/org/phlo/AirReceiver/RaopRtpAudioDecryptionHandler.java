@@ -17,6 +17,8 @@
 
 package org.phlo.AirReceiver;
 
+import java.security.GeneralSecurityException;
+
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
@@ -27,11 +29,19 @@ import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 
 /**
  * De-crypt AES encoded audio data
+ * <p>
+ * Not thread-safe, all packets must be processed by the
+ * session's worker, see {@link RaopRtpDecodeScheduler}.
  */
 public class RaopRtpAudioDecryptionHandler extends OneToOneDecoder {
 	/**
 	 *  The AES cipher. We request no padding because RAOP/AirTunes only encrypts full
-	 * block anyway and leaves the trailing byte unencrypted
+	 * block anyway and leaves the trailing byte unencrypted.
+	 * <p>
+	 * The cipher is initialized once, since doFinal() resets it to the state
+	 * after initialization, i.e. restarts it with the initial IV. Initializing
+	 * it for every packet would expand the AES key every time, which made up
+	 * more than a quarter of the bytes allocated per received packet
 	 */
 	private final Cipher m_aesCipher = AirTunesCrytography.getCipher("AES/CBC/NoPadding");
 	
@@ -44,28 +54,84 @@ public class RaopRtpAudioDecryptionHandler extends OneToOneDecoder {
 	 */
 	private final IvParameterSpec m_aesIv;
 
-	public RaopRtpAudioDecryptionHandler(final SecretKey aesKey, final IvParameterSpec aesIv) {
+	/**
+	 * Scratch buffer for payloads not backed by an array, grown on demand
+	 */
+	private byte[] m_scratch = new byte[0];
+
+	/**
+	 * Statistics of the session, may be null
+	 */
+	private volatile RaopSessionStatistics m_statistics;
+
+	public RaopRtpAudioDecryptionHandler(final SecretKey aesKey, final IvParameterSpec aesIv)
+		throws GeneralSecurityException
+	{
 		m_aesKey = aesKey;
 		m_aesIv = aesIv;
+		m_aesCipher.init(Cipher.DECRYPT_MODE, m_aesKey, m_aesIv);
+	}
+
+	/**
+	 * Sets the statistics which record the decryption times
+	 *
+	 * @param statistics session statistics, or null
+	 */
+	public void setStatistics(final RaopSessionStatistics statistics) {
+		m_statistics = statistics;
 	}
 
 	@Override
-	protected synchronized Object decode(final ChannelHandlerContext ctx, final Channel channel, final Object msg)
+	protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final Object msg)
 		throws Exception
 	{
 		if (msg instanceof RaopRtpPacket.Audio) {
 			final RaopRtpPacket.Audio audioPacket = (RaopRtpPacket.Audio)msg;
-			final ChannelBuffer audioPayload = audioPacket.getPayload();
+			/* The payload is accessed via the packet's buffer, which avoids creating a slice */
+			final ChannelBuffer audioBuffer = audioPacket.getBuffer();
+			final int payloadOffset = audioPacket.getPayloadOffset();
+
+			/* Only full blocks are encrypted, the trailing partial block is left as it is */
+			final int encryptedLength = audioPacket.getPayloadLength() & ~0xf;
+			if (encryptedLength == 0)
+				return msg;
 
-			/* Cipher is restarted for every packet. We simply overwrite the
-			 * encrypted data with the corresponding plain text
+			/* Cipher is restarted for every packet, which doFinal() takes care
+			 * of. We simply overwrite the encrypted data with the corresponding
+			 * plain text, decrypting all blocks in one call. Cipher guarantees
+			 * that this works even if input and output share the same memory.
 			 */
-			m_aesCipher.init(Cipher.DECRYPT_MODE, m_aesKey, m_aesIv);
-			for(int i=0; (i + 16) <= audioPayload.capacity(); i += 16) {
-				byte[] block = new byte[16];
-				audioPayload.getBytes(i, block);
-				block = m_aesCipher.update(block);
-				audioPayload.setBytes(i, block);
+			final RaopSessionStatistics statistics = m_statistics;
+			final boolean timed = (statistics != null) || PacketTrace.Enabled;
+			final long startNanos = timed ? System.nanoTime() : 0;
+
+			try {
+				if (audioBuffer.hasArray()) {
+					final byte[] array = audioBuffer.array();
+					final int offset = audioBuffer.arrayOffset() + payloadOffset;
+					m_aesCipher.doFinal(array, offset, encryptedLength, array, offset);
+				}
+				else {
+					/* Not backed by an array, decrypt via a scratch buffer */
+					if (m_scratch.length < encryptedLength)
+						m_scratch = new byte[encryptedLength];
+					audioBuffer.getBytes(payloadOffset, m_scratch, 0, encryptedLength);
+					m_aesCipher.doFinal(m_scratch, 0, encryptedLength, m_scratch, 0);
+					audioBuffer.setBytes(payloadOffset, m_scratch, 0, encryptedLength);
+				}
+			}
+			catch (final GeneralSecurityException e) {
+				/* A failed doFinal() may leave the cipher mid-stream, re-initialize it */
+				m_aesCipher.init(Cipher.DECRYPT_MODE, m_aesKey, m_aesIv);
+				throw e;
+			}
+
+			if (timed) {
+				final long durationNanos = System.nanoTime() - startNanos;
+				if (statistics != null)
+					statistics.recordDecrypt(durationNanos);
+				if (PacketTrace.Enabled)
+					PacketTrace.Instance.record(PacketTrace.Stage.Decrypt, audioPacket, startNanos, durationNanos);
 			}
 		}
 
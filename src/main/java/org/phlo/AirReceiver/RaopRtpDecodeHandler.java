@@ -25,10 +25,23 @@ import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 
 /**
  * Decodes incoming packets, emitting instances of {@link RaopRtpPacket}
+ * <p>
+ * The emitted packets are re-used, see {@link RaopRtpPacket.Decoder}. A packet
+ * is therefore only valid until the next packet is decoded, and all handlers
+ * after this one must be done with a packet once they passed it on. That holds
+ * since all of a session's packets are processed by the session's worker, one
+ * after the other, and packets are re-routed to the audio channel synchronously,
+ * see {@link RaopAudioHandler}. Handlers which need a packet later must copy it.
+ * <p>
+ * Not thread-safe, every {@link RaopRtpDecodeScheduler.Session} must have its own
+ * instance. {@link RaopAudioHandler} creates one per ANNOUNCE, since the events of
+ * the previous session may still be processed by that session's worker.
  */
 public class RaopRtpDecodeHandler extends OneToOneDecoder {
 	private static final Logger s_logger = Logger.getLogger(RaopRtpDecodeHandler.class.getName());
 
+	private final RaopRtpPacket.Decoder m_decoder = new RaopRtpPacket.Decoder();
+
 	@Override
 	protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final Object msg)
 		throws Exception
@@ -37,7 +50,13 @@ public class RaopRtpDecodeHandler extends OneToOneDecoder {
 			final ChannelBuffer buffer = (ChannelBuffer)msg;
 
 			try {
-				return RaopRtpPacket.decode(buffer);
+				if (!PacketTrace.Enabled)
+					return m_decoder.decode(buffer);
+
+				final long startNanos = System.nanoTime();
+				final RaopRtpPacket packet = m_decoder.decode(buffer);
+				PacketTrace.Instance.record(PacketTrace.Stage.RtpDecode, packet, startNanos, System.nanoTime() - startNanos);
+				return packet;
 			}
 			catch (final InvalidPacketException e1) {
 				s_logger.warning(e1.getMessage());
@@ -0,0 +1,470 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.handler.execution.*;
+
+/**
+ * Schedules the processing (decryption, decoding, enqueuing) of the
+ * RTP sessions' packets onto a fixed set of worker threads.
+ * <p>
+ * Each session is bound to a single worker for its whole lifetime, so
+ * all events of the session's audio, control and timing channels are
+ * handled by the same thread, in order. The per-session handlers are
+ * thus confined to that thread and need not synchronize. New sessions
+ * are bound to the worker serving the fewest sessions, so that
+ * concurrent streams are spread over all workers instead of blocking
+ * each other.
+ * <p>
+ * The events of a session are queued per session, and the worker
+ * drains them in batches of up to {@link #BatchEventsMax} events, so
+ * the hand-off to the worker is paid once per burst of packets rather
+ * than once per packet. Handlers which can amortize work over several
+ * packets (e.g. taking a lock only once) may register a batch listener,
+ * which the worker runs after each batch. A handler can tell whether
+ * more events of its batch are going to follow from the session's
+ * queue depth. Once a batch is done, the worker serves its other
+ * sessions before continuing with the next batch of the same session.
+ * <p>
+ * Each session may have a limited number of queued events. Messages
+ * arriving while the limit is reached are dropped. For RTP that is the
+ * only sensible form of backpressure, the sender can't be slowed down,
+ * but dropped audio packets will be re-requested like lost ones. Channel
+ * state events are never dropped, since handlers rely on them to start
+ * and cancel their periodic tasks.
+ * <p>
+ * To see which sessions saturate their worker, the scheduler exposes
+ * the queue depth of each worker and each session, and reports how
+ * often and for how long the workers were blocked on monitors.
+ */
+public class RaopRtpDecodeScheduler {
+	private static Logger s_logger = Logger.getLogger(RaopRtpDecodeScheduler.class.getName());
+
+	/**
+	 * Maximal number of events a worker processes for one session before
+	 * it serves its other sessions
+	 */
+	public static final int BatchEventsMax = 64;
+
+	private static final ThreadMXBean s_threadMXBean = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Whether to enable the JVM-wide thread contention monitoring, which
+	 * has a runtime cost but is required for ThreadInfo.getBlockedTime()
+	 * to report anything
+	 */
+	private static final boolean ContentionMonitoring = Boolean.getBoolean("org.phlo.AirReceiver.threadContentionMonitoring");
+
+	static {
+		if (ContentionMonitoring && s_threadMXBean.isThreadContentionMonitoringSupported() && !s_threadMXBean.isThreadContentionMonitoringEnabled())
+			s_threadMXBean.setThreadContentionMonitoringEnabled(true);
+	}
+
+	/**
+	 * A worker thread, shared by one or more sessions
+	 */
+	public final class Worker {
+		private final int m_index;
+
+		/**
+		 * The worker thread, set by the thread factory
+		 */
+		private volatile Thread m_thread;
+
+		/**
+		 * Single-threaded executor. Events which arrive after the
+		 * scheduler was shut down are silently discarded
+		 */
+		private final ThreadPoolExecutor m_executor;
+
+		/**
+		 * Number of sessions bound to this worker. Guarded by the scheduler's monitor
+		 */
+		private int m_sessionCount = 0;
+
+		/**
+		 * Number of queued events, summed over all sessions
+		 */
+		private final AtomicInteger m_queueDepth = new AtomicInteger(0);
+
+		private Worker(final int index) {
+			m_index = index;
+			m_executor = new ThreadPoolExecutor(
+				1, 1, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable);
+						thread.setDaemon(true);
+						thread.setName("RTP Decode Worker " + m_index);
+						m_thread = thread;
+						return thread;
+					}
+				},
+				new ThreadPoolExecutor.DiscardPolicy()
+			);
+		}
+
+		public int getIndex() {
+			return m_index;
+		}
+
+		/**
+		 * Returns the number of sessions bound to this worker
+		 *
+		 * @return number of sessions
+		 */
+		public int getSessionCount() {
+			synchronized(RaopRtpDecodeScheduler.this) {
+				return m_sessionCount;
+			}
+		}
+
+		/**
+		 * Returns the number of events waiting to be processed
+		 * by this worker, summed over all its sessions
+		 *
+		 * @return queue depth
+		 */
+		public int getQueueDepth() {
+			return m_queueDepth.get();
+		}
+
+		/**
+		 * Returns the number of times the worker blocked to enter a monitor
+		 *
+		 * @return number of blocks, or -1 if the worker hasn't started yet
+		 */
+		public long getBlockedCount() {
+			final ThreadInfo info = getThreadInfo();
+			return (info != null) ? info.getBlockedCount() : -1;
+		}
+
+		/**
+		 * Returns the total time the worker was blocked trying to enter a monitor.
+		 * Only known if thread contention monitoring is enabled
+		 *
+		 * @return time in milliseconds, or -1 if unknown
+		 */
+		public long getBlockedTimeMillis() {
+			final ThreadInfo info = getThreadInfo();
+			return (info != null) ? info.getBlockedTime() : -1;
+		}
+
+		private ThreadInfo getThreadInfo() {
+			final Thread thread = m_thread;
+			if (thread == null)
+				return null;
+
+			return s_threadMXBean.getThreadInfo(thread.getId());
+		}
+	}
+
+	/**
+	 * A session's binding to its worker. Hands the session's events over
+	 * to the worker, enforcing the per-session queue limit
+	 */
+	public final class Session implements Executor {
+		private final Worker m_worker;
+
+		/**
+		 * Execution handler which hands events over to the worker
+		 */
+		private final ExecutionHandler m_executionHandler = new ExecutionHandler(this);
+
+		/**
+		 * Number of queued events, maximal number of queued
+		 * events seen so far and number of dropped events
+		 */
+		private final AtomicInteger m_queueDepth = new AtomicInteger(0);
+		private volatile int m_peakQueueDepth = 0;
+		private final AtomicLong m_droppedCount = new AtomicLong(0);
+
+		/**
+		 * Queued events, and whether a task draining them is
+		 * submitted to or running on the worker
+		 */
+		private final Queue<Runnable> m_events = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicBoolean m_drainScheduled = new AtomicBoolean(false);
+
+		/**
+		 * Drains up to {@link #BatchEventsMax} events
+		 */
+		private final Runnable m_drainTask = new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+
+		/**
+		 * Listeners run by the worker after each batch
+		 */
+		private final List<Runnable> m_batchListeners = new CopyOnWriteArrayList<Runnable>();
+
+		private volatile boolean m_closed = false;
+
+		private Session(final Worker worker) {
+			m_worker = worker;
+		}
+
+		/**
+		 * Returns the execution handler which must come first in the
+		 * pipelines of all the session's RTP channels
+		 *
+		 * @return execution handler
+		 */
+		public ExecutionHandler getExecutionHandler() {
+			return m_executionHandler;
+		}
+
+		/**
+		 * Returns the worker the session is bound to
+		 *
+		 * @return worker
+		 */
+		public Worker getWorker() {
+			return m_worker;
+		}
+
+		/**
+		 * Returns the number of the session's events waiting to be processed
+		 *
+		 * @return queue depth
+		 */
+		public int getQueueDepth() {
+			return m_queueDepth.get();
+		}
+
+		/**
+		 * Returns the maximal number of the session's events which
+		 * were waiting to be processed at the same time
+		 *
+		 * @return peak queue depth
+		 */
+		public int getPeakQueueDepth() {
+			return m_peakQueueDepth;
+		}
+
+		/**
+		 * Returns the number of events dropped because the
+		 * session's queue limit was reached
+		 *
+		 * @return number of dropped events
+		 */
+		public long getDroppedCount() {
+			return m_droppedCount.get();
+		}
+
+		/**
+		 * Adds a listener which the worker runs after each batch of
+		 * the session's events, before it serves other sessions
+		 *
+		 * @param listener batch listener
+		 */
+		public void addBatchListener(final Runnable listener) {
+			m_batchListeners.add(listener);
+		}
+
+		public void removeBatchListener(final Runnable listener) {
+			m_batchListeners.remove(listener);
+		}
+
+		@Override
+		public void execute(final Runnable runnable) {
+			final boolean droppable = isDroppable(runnable);
+			if (m_closed && droppable)
+				return;
+
+			final int queueDepth = m_queueDepth.incrementAndGet();
+			if (droppable && (m_sessionQueueLimit > 0) && (queueDepth > m_sessionQueueLimit)) {
+				m_queueDepth.decrementAndGet();
+				if (m_droppedCount.getAndIncrement() == 0)
+					s_logger.warning("RTP session on worker " + m_worker.getIndex() + " reached its limit of " + m_sessionQueueLimit + " queued events, dropping events");
+				return;
+			}
+			/* Racing I/O threads of the session's channels may lose an update here, which is harmless */
+			if (queueDepth > m_peakQueueDepth)
+				m_peakQueueDepth = queueDepth;
+
+			m_worker.m_queueDepth.incrementAndGet();
+			m_events.add(runnable);
+
+			/* Submit a drain task unless one is already pending */
+			if (m_drainScheduled.compareAndSet(false, true))
+				m_worker.m_executor.execute(m_drainTask);
+		}
+
+		/**
+		 * Returns whether an event may be dropped, i.e. whether it is anything
+		 * but a channel state event, like channelOpen or channelClosed
+		 *
+		 * @param runnable event
+		 * @return true unless the event is a channel state event
+		 */
+		private boolean isDroppable(final Runnable runnable) {
+			if (!(runnable instanceof ChannelEventRunnable))
+				return true;
+
+			return !(((ChannelEventRunnable)runnable).getEvent() instanceof ChannelStateEvent);
+		}
+
+		/**
+		 * Processes a batch of queued events on the worker, runs
+		 * the batch listeners, and re-submits itself if more events
+		 * are queued
+		 */
+		private void drain() {
+			for(int i=0; i < BatchEventsMax; ++i) {
+				final Runnable event = m_events.poll();
+				if (event == null)
+					break;
+
+				/* Decremented first, so that a zero queue depth tells handlers that the batch ends */
+				m_queueDepth.decrementAndGet();
+				m_worker.m_queueDepth.decrementAndGet();
+				try {
+					event.run();
+				}
+				catch (final RuntimeException e) {
+					s_logger.log(Level.WARNING, "RTP session event failed on worker " + m_worker.getIndex(), e);
+				}
+			}
+
+			for(final Runnable listener: m_batchListeners) {
+				try {
+					listener.run();
+				}
+				catch (final RuntimeException e) {
+					s_logger.log(Level.WARNING, "RTP session batch listener failed on worker " + m_worker.getIndex(), e);
+				}
+			}
+
+			/* Events added after the last poll but before the flag is reset would
+			 * otherwise remain queued until the next event arrives
+			 */
+			m_drainScheduled.set(false);
+			if (!m_events.isEmpty() && m_drainScheduled.compareAndSet(false, true))
+				m_worker.m_executor.execute(m_drainTask);
+		}
+
+		/**
+		 * Unbinds the session from its worker. Already queued events
+		 * are still processed, later events except channel state
+		 * events are discarded
+		 */
+		public void close() {
+			synchronized(RaopRtpDecodeScheduler.this) {
+				if (m_closed)
+					return;
+				m_closed = true;
+				m_worker.m_sessionCount -= 1;
+			}
+
+			s_logger.info("RTP session on worker " + m_worker.getIndex() + " closed, peak queue depth was " + m_peakQueueDepth + " events, " + m_droppedCount.get() + " events were dropped. Worker blocked " + m_worker.getBlockedCount() + " times on monitors for a total of " + m_worker.getBlockedTimeMillis() + " ms");
+		}
+	}
+
+	/**
+	 * The workers
+	 */
+	private final List<Worker> m_workers;
+
+	/**
+	 * Maximal number of queued events per session, 0 for unlimited
+	 */
+	private final int m_sessionQueueLimit;
+
+	/**
+	 * Creates a scheduler with one worker per available processor
+	 *
+	 * @param sessionQueueLimit maximal number of queued events per session, 0 for unlimited
+	 */
+	public RaopRtpDecodeScheduler(final int sessionQueueLimit) {
+		this(Runtime.getRuntime().availableProcessors(), sessionQueueLimit);
+	}
+
+	/**
+	 * Creates a scheduler
+	 *
+	 * @param workerCount number of worker threads
+	 * @param sessionQueueLimit maximal number of queued events per session, 0 for unlimited
+	 */
+	public RaopRtpDecodeScheduler(final int workerCount, final int sessionQueueLimit) {
+		if (workerCount <= 0)
+			throw new IllegalArgumentException("Worker count must be positive, but was " + workerCount);
+		if (sessionQueueLimit < 0)
+			throw new IllegalArgumentException("Session queue limit must not be negative, but was " + sessionQueueLimit);
+
+		final List<Worker> workers = new ArrayList<Worker>(workerCount);
+		for(int i=0; i < workerCount; ++i)
+			workers.add(new Worker(i));
+		m_workers = Collections.unmodifiableList(workers);
+		m_sessionQueueLimit = sessionQueueLimit;
+
+		s_logger.info("Created " + workerCount + " RTP decode workers, queue limit per session is " + ((sessionQueueLimit > 0) ? sessionQueueLimit + " events" : "unlimited"));
+	}
+
+	/**
+	 * Returns the workers
+	 *
+	 * @return unmodifiable list of workers
+	 */
+	public List<Worker> getWorkers() {
+		return m_workers;
+	}
+
+	public int getSessionQueueLimit() {
+		return m_sessionQueueLimit;
+	}
+
+	/**
+	 * Binds a new session to the worker serving the fewest sessions
+	 *
+	 * @return session
+	 */
+	public synchronized Session createSession() {
+		Worker worker = m_workers.get(0);
+		for(final Worker candidate: m_workers) {
+			if (candidate.m_sessionCount < worker.m_sessionCount)
+				worker = candidate;
+		}
+		worker.m_sessionCount += 1;
+
+		s_logger.fine("RTP session bound to worker " + worker.getIndex() + ", which now serves " + worker.m_sessionCount + " sessions");
+
+		return new Session(worker);
+	}
+
+	/**
+	 * Shuts all workers down. Already queued events are
+	 * still processed, later events are discarded
+	 */
+	public void shutdown() {
+		for(final Worker worker: m_workers)
+			worker.m_executor.shutdown();
+	}
+}
@@ -378,25 +378,61 @@ public abstract class RaopRtpPacket extends RtpPacket {
 	 * Base class for {@link AudioTransmit} and {@link AudioRetransmit}.
 	 */
 	public static abstract class Audio extends RaopRtpPacket {
+		/**
+		 * The RTP time stamp, read from the buffer once when the buffer
+		 * is set, and kept in sync by {@link #setTimeStamp(long)}
+		 */
+		private long m_timeStamp;
+
 		public Audio(final int length) {
 			super(length);
 		}
 
 		protected Audio(final ChannelBuffer buffer, final int minimumSize) throws ProtocolException {
 			super(buffer, minimumSize);
+			m_timeStamp = getBeUInt(buffer, getTimeStampOffset());
 		}
 
+		@Override
+		protected void headerChanged() {
+			super.headerChanged();
+			m_timeStamp = getBeUInt(getBuffer(), getTimeStampOffset());
+		}
+
+		/**
+		 * Index of the RTP time stamp in the packet's buffer
+		 * @return offset of the time stamp
+		 */
+		abstract protected int getTimeStampOffset();
+
 		/**
 		 * Gets the packet's RTP time stamp (frame time)
 		 * @return RTP timestamp in frames
 		 */
-		abstract public long getTimeStamp();
+		public long getTimeStamp() {
+			return m_timeStamp;
+		}
 		
 		/**
 		 * Gets the packet's RTP time stamp (frame time)
 		 * @param timeStamp RTP timestamp in frames
 		 */
-		abstract public void setTimeStamp(long timeStamp);
+		public void setTimeStamp(final long timeStamp) {
+			setBeUInt(getBuffer(), getTimeStampOffset(), timeStamp);
+			m_timeStamp = timeStamp;
+		}
+
+		/**
+		 * Copies the header of another packet of the same type into this packet
+		 * @param other packet whose header to copy
+		 * @throws IllegalArgumentException if the other packet is of a different type
+		 */
+		public void setHeader(final Audio other) {
+			if (!getClass().equals(other.getClass()))
+				throw new IllegalArgumentException("Cannot copy the header of a " + other.getClass().getSimpleName() + " into a " + getClass().getSimpleName());
+			other.getBuffer().getBytes(0, getBuffer(), 0, getPayloadOffset());
+			headerChanged();
+		}
 		
 		/**
 		 * Unknown, seems to be always zero
@@ -412,7 +448,25 @@ public abstract class RaopRtpPacket extends RtpPacket {
 		 * ChannelBuffer containing the audio data
 		 * @return channel buffer containing audio data
 		 */
-		abstract public ChannelBuffer getPayload();
+		public ChannelBuffer getPayload() {
+			return getBuffer().slice(getPayloadOffset(), getPayloadLength());
+		}
+
+		/**
+		 * Index of the audio data in the packet's buffer. Together with
+		 * {@link #getPayloadLength()}, allows the audio data to be accessed
+		 * via {@link #getBuffer()}, without creating a slice
+		 * @return offset of the audio data
+		 */
+		abstract public int getPayloadOffset();
+
+		/**
+		 * Length of the audio data
+		 * @return length in bytes
+		 */
+		public int getPayloadLength() {
+			return getLength() - getPayloadOffset();
+		}
 	}
 
 	/**
@@ -436,13 +490,8 @@ public abstract class RaopRtpPacket extends RtpPacket {
 		}
 
 		@Override
-		public long getTimeStamp() {
-			return getBeUInt(getBuffer(), RaopRtpPacket.Length);
-		}
-
-		@Override
-		public void setTimeStamp(final long timeStamp) {
-			setBeUInt(getBuffer(), RaopRtpPacket.Length, timeStamp);
+		protected int getTimeStampOffset() {
+			return RaopRtpPacket.Length;
 		}
 
 		@Override
@@ -456,8 +505,8 @@ public abstract class RaopRtpPacket extends RtpPacket {
 		}
 
 		@Override
-		public ChannelBuffer getPayload() {
-			return getBuffer().slice(Length, getLength() - Length);
+		public int getPayloadOffset() {
+			return Length;
 		}
 
 		@Override
@@ -527,13 +576,8 @@ public abstract class RaopRtpPacket extends RtpPacket {
 		}
 
 		@Override
-		public long getTimeStamp() {
-			return getBeUInt(getBuffer(), RaopRtpPacket.Length + 4);
-		}
-
-		@Override
-		public void setTimeStamp(final long timeStamp) {
-			setBeUInt(getBuffer(), RaopRtpPacket.Length + 4, timeStamp);
+		protected int getTimeStampOffset() {
+			return RaopRtpPacket.Length + 4;
 		}
 
 		@Override
@@ -547,8 +591,8 @@ public abstract class RaopRtpPacket extends RtpPacket {
 		}
 
 		@Override
-		public ChannelBuffer getPayload() {
-			return getBuffer().slice(Length, getLength() - Length);
+		public int getPayloadOffset() {
+			return Length;
 		}
 
 		@Override
@@ -578,16 +622,72 @@ public abstract class RaopRtpPacket extends RtpPacket {
 	public static RaopRtpPacket decode(final ChannelBuffer buffer)
 		throws ProtocolException
 	{
-		final RtpPacket rtpPacket = new RtpPacket(buffer, Length);
-
-		switch (rtpPacket.getPayloadType()) {
+		final byte payloadType = getPayloadType(buffer);
+		switch (payloadType) {
 			case TimingRequest.PayloadType: return new TimingRequest(buffer);
 			case TimingResponse.PayloadType: return new TimingResponse(buffer);
 			case Sync.PayloadType: return new Sync(buffer);
 			case RetransmitRequest.PayloadType: return new RetransmitRequest(buffer);
 			case AudioRetransmit.PayloadType: return new AudioRetransmit(buffer);
 			case AudioTransmit.PayloadType: return new AudioTransmit(buffer);
-			default: throw new ProtocolException("Invalid PayloadType " + rtpPacket.getPayloadType());
+			default: throw new ProtocolException("Invalid PayloadType " + payloadType);
+		}
+	}
+
+	/**
+	 * Reads the payload type of the packet contained in a {@link ChannelBuffer},
+	 * without creating an intermediate RtpPacket
+	 *
+	 * @param buffer ChannelBuffer containing the packet
+	 * @return payload type
+	 * @throws ProtocolException if the packet is too short to have one
+	 */
+	private static byte getPayloadType(final ChannelBuffer buffer) throws ProtocolException {
+		if (buffer.capacity() < Length)
+			throw new InvalidPacketException("Packet had invalid size " + buffer.capacity() + " instead of at least " + Length);
+		return (byte)(buffer.getByte(1) & 0x7f);
+	}
+
+	/**
+	 * Decodes packets into re-used packet objects (flyweights), one per
+	 * sub-class of {@link RaopRtpPacket}. Unlike {@link RaopRtpPacket#decode},
+	 * decoding a packet therefore allocates nothing, but the returned packet
+	 * is only valid until the next packet of the same type is decoded.
+	 * <p>
+	 * Not thread-safe.
+	 */
+	public static final class Decoder {
+		private final TimingRequest m_timingRequest = new TimingRequest();
+		private final TimingResponse m_timingResponse = new TimingResponse();
+		private final Sync m_sync = new Sync();
+		private final RetransmitRequest m_retransmitRequest = new RetransmitRequest();
+		private final AudioRetransmit m_audioRetransmit = new AudioRetransmit(0);
+		private final AudioTransmit m_audioTransmit = new AudioTransmit(0);
+
+		/**
+		 * Decodes a packet
+		 *
+		 * @param buffer ChannelBuffer containing the packet
+		 * @return re-used instance of one of the sub-classes of {@link RaopRtpPacket}
+		 * @throws ProtocolException if the packet is invalid.
+		 */
+		public RaopRtpPacket decode(final ChannelBuffer buffer) throws ProtocolException {
+			final byte payloadType = getPayloadType(buffer);
+
+			final RaopRtpPacket packet;
+			final int minimumSize;
+			switch (payloadType) {
+				case TimingRequest.PayloadType: packet = m_timingRequest; minimumSize = TimingRequest.Length; break;
+				case TimingResponse.PayloadType: packet = m_timingResponse; minimumSize = TimingResponse.Length; break;
+				case Sync.PayloadType: packet = m_sync; minimumSize = Sync.Length; break;
+				case RetransmitRequest.PayloadType: packet = m_retransmitRequest; minimumSize = RetransmitRequest.Length; break;
+				case AudioRetransmit.PayloadType: packet = m_audioRetransmit; minimumSize = AudioRetransmit.Length; break;
+				case AudioTransmit.PayloadType: packet = m_audioTransmit; minimumSize = AudioTransmit.Length; break;
+				default: throw new ProtocolException("Invalid PayloadType " + payloadType);
+			}
+
+			packet.wrap(buffer, minimumSize);
+			return packet;
 		}
 	}
 
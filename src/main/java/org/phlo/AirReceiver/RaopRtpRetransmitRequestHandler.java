@@ -17,11 +17,14 @@
 
 package org.phlo.AirReceiver;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 
@@ -30,85 +33,71 @@ import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
  * <p>
  * Sends {@link RaopRtpPacket.RetransmitRequest} packet in response to missing packets,
  * and resends those requests after a timeout period until the packet arrives.
+ * The timeout is derived from the measured round-trip time of retransmit requests.
  * <p>
  * Uses an {@link AudioClock} as it's time source, any thus only re-requests packets
  * which can reasonably be expected to arrive before their play back time.
- *
+ * <p>
+ * Overdue packets are looked for periodically by the scheduler, from the time
+ * the channel opens until it closes.
+ * <p>
+ * If the handler is bound to a {@link RaopRtpDecodeScheduler.Session}, received
+ * packets are noted while more of the session's events are queued, and accounted
+ * for at the end of the batch, entering the monitor and reading the clock only once.
  */
 public class RaopRtpRetransmitRequestHandler extends SimpleChannelUpstreamHandler {
 	private static Logger s_logger = Logger.getLogger(RaopRtpRetransmitRequestHandler.class.getName());
 
 	/**
-	 * Maximal number of in-flight (i.e. not yet fulfilled) retransmit requests
+	 * Maximal number of in-flight (i.e. not yet fulfilled) retransmit requests.
+	 * Must be a power of two, see {@link MissingPacketTracker}
 	 */
-	private static final double RetransmitInFlightLimit = 128;
+	private static final int RetransmitInFlightLimit = 512;
 	
 	/**
-	 * Maximum number of retransmit requests sent per packet
+	 * Maximum number of retransmit requests sent per packet. Usually, packets
+	 * are given up on earlier because a response couldn't arrive in time
 	 */
-	private static final int RetransmitAttempts = 2;
+	private static final int RetransmitAttemptsMax = 8;
 
 	/**
-	 * Represents a missing packet
+	 * Number of seconds to wait for a missing packet before requesting it,
+	 * since it might merely have been reordered
 	 */
-	private class MissingPacket {
-		/**
-		 *  Packet's sequence number
-		 */
-		public final int sequence;
-		
-		/**
-		 * Packet must be placed on the audio output queue no later than this frame time
-		 */
-		public final long requiredUntilFrameTime;
-		
-		/**
-		 * Packet must be placed on the audio output queue no later than this seconds time
-		 */
-		public final double requiredUntilSecondsTime;
-		
-		/**
-		 * Number of retransmit requests already sent for the packet
-		 */
-		public int retransmitRequestCount = 0;
-		
-		/**
-		 * Packet expected to arrive until this seconds time. If not, a retransmit request
-		 * is sent.
-		 */
-		public double expectedUntilSecondsTime;
-
-		/**
-		 * Creates a MissingPacket instance for a given sequence, using the provided
-		 * time to compute the times at which the packet is expected.
-		 * 
-		 * @param _sequence sequence number
-		 * @param nextSecondsTime next possible play back time
-		 */
-		public MissingPacket(final int _sequence, final double nextSecondsTime) {
-			sequence = _sequence;
-			requiredUntilFrameTime = convertSequenceToFrameTime(_sequence);
-			requiredUntilSecondsTime = m_audioClock.convertFrameToSecondsTime(requiredUntilFrameTime);
-			computeExpectedUntil(nextSecondsTime);
-		}
+	private static final double RetransmitReorderDelay = 0.02;
 
-		/**
-		 * Updates the state after a retransmit request has been sent.
-		 * @param nextSecondsTime next possible play back time
-		 */
-		public void sentRetransmitRequest(final double nextSecondsTime) {
-			++retransmitRequestCount;
-			computeExpectedUntil(nextSecondsTime);
-		}
+	/**
+	 * Initial, minimal and maximal number of seconds to wait for the
+	 * response to a retransmit request before requesting again. In between,
+	 * the timeout is derived from the measured round-trip time
+	 */
+	private static final double RetransmitTimeoutInitial = 0.1;
+	private static final double RetransmitTimeoutMin = 0.02;
+	private static final double RetransmitTimeoutMax = 1.0;
 
-		/**
-		 * Updates the time until which we expect the packet to arrive.
-		 * @param nextSecondsTime next possible play back time
-		 */
-		private void computeExpectedUntil(final double nextSecondsTimee) {
-			expectedUntilSecondsTime = 0.5 * nextSecondsTimee + 0.5 * m_audioClock.convertFrameToSecondsTime(requiredUntilFrameTime);
-		}
-	}
+	/**
+	 * Number of seconds between checks for overdue packets,
+	 * roughly the duration of one packet
+	 */
+	private static final double RetransmitCheckInterval = 0.01;
+
+	/**
+	 * Number of check intervals after which the timing wheel of
+	 * the missing packet tracker wraps around
+	 */
+	private static final int RetransmitCheckWheelTicks = 256;
+
+	/**
+	 * Maximal number of retransmit requests sent per check. Further
+	 * requests are postponed until the next check
+	 */
+	private static final int RetransmitRequestsPerCheck = 4;
+
+	/**
+	 * Maximal number of packets which were already received but are requested
+	 * again per check, to cover multiple gaps with a single retransmit request
+	 */
+	private static final int RetransmitBridgeBudget = 8;
 
 	/**
 	 * Time source
@@ -133,200 +122,475 @@ public class RaopRtpRetransmitRequestHandler extends SimpleChannelUpstreamHandle
 	private long m_latestReceivedSequenceFrameTime;
 	
 	/**
-	 * List of in-flight retransmit requests
+	 * In-flight retransmit requests
+	 */
+	private final MissingPacketTracker m_missingPackets = new MissingPacketTracker(RetransmitInFlightLimit, RetransmitCheckInterval, RetransmitCheckWheelTicks);
+
+	/**
+	 * Round-trip time of retransmit requests
+	 */
+	private final RoundTripTimeEstimator m_roundTripTime = new RoundTripTimeEstimator(RetransmitTimeoutInitial, RetransmitTimeoutMin, RetransmitTimeoutMax, RetransmitCheckInterval);
+
+	/**
+	 * Overdue packets found by a check, as sequence deltas relative to the
+	 * latest received sequence, and the ranges they're coalesced into
 	 */
-	private static final List<MissingPacket> m_missingPackets = new java.util.LinkedList<MissingPacket>();
+	private final long[] m_duePositions = new long[RetransmitInFlightLimit];
+	private final long[] m_rangeFirst = new long[RetransmitInFlightLimit];
+	private final int[] m_rangeLength = new int[RetransmitInFlightLimit];
+
+	/**
+	 * Scratch space for the gaps between the ranges, in order and sorted
+	 */
+	private final long[] m_gaps = new long[RetransmitInFlightLimit];
+	private final long[] m_sortedGaps = new long[RetransmitInFlightLimit];
+
+	/**
+	 * Audio packets of the current batch which were not yet accounted for. Only
+	 * accessed by the thread processing the session's events
+	 */
+	private final int[] m_batchSequences = new int[RaopRtpDecodeScheduler.BatchEventsMax];
+	private final long[] m_batchTimeStamps = new long[RaopRtpDecodeScheduler.BatchEventsMax];
+	private final boolean[] m_batchRetransmits = new boolean[RaopRtpDecodeScheduler.BatchEventsMax];
+	private int m_batchCount = 0;
+
+	/**
+	 * Session whose batches the received packets are accounted for in, may be null
+	 */
+	private volatile RaopRtpDecodeScheduler.Session m_decodeSession;
+
+	/**
+	 * Statistics of the session, may be null
+	 */
+	private volatile RaopSessionStatistics m_statistics;
 
 	/**
 	 * Header sequence number for retransmit requests
 	 */
 	private int m_retransmitRequestSequence = 0;
 
-	public RaopRtpRetransmitRequestHandler(final AudioStreamInformationProvider streamInfoProvider, final AudioClock audioClock) {
+	/**
+	 * Scheduler which runs the checks for overdue packets
+	 */
+	private final ScheduledExecutorService m_scheduler;
+
+	/**
+	 * The scheduled check for overdue packets. Guarded by the handler's monitor
+	 */
+	private ScheduledFuture<?> m_retransmitCheck;
+
+	public RaopRtpRetransmitRequestHandler(final AudioStreamInformationProvider streamInfoProvider, final AudioClock audioClock, final ScheduledExecutorService scheduler) {
 		m_framesPerPacket = streamInfoProvider.getFramesPerPacket();
 		m_audioClock = audioClock;
+		m_scheduler = scheduler;
+	}
+
+	@Override
+	public void channelOpen(final ChannelHandlerContext ctx, final ChannelStateEvent evt)
+		throws Exception
+	{
+		final Channel channel = ctx.getChannel();
+		final long intervalMicros = Math.round(RetransmitCheckInterval * 1e6);
+
+		synchronized(this) {
+			cancelRetransmitCheck();
+			m_retransmitCheck = m_scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						requestRetransmits(channel, m_audioClock.getNextSecondsTime());
+					}
+					catch (final Throwable e) {
+						/* An exception would cancel further executions */
+						s_logger.log(Level.WARNING, "Failed to request retransmits", e);
+					}
+				}
+			}, intervalMicros, intervalMicros, TimeUnit.MICROSECONDS);
+		}
+
+		super.channelOpen(ctx, evt);
+	}
+
+	@Override
+	public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent evt)
+		throws Exception
+	{
+		synchronized(this) {
+			cancelRetransmitCheck();
+		}
+
+		super.channelClosed(ctx, evt);
 	}
 
 	/**
-	 * Mark the packet as retransmitted, i.e. remove it from the list of
-	 * in-flight retransmit requests.
+	 * Sets the statistics which record received, retransmitted and
+	 * lost packets, and the retransmit requests sent
+	 *
+	 * @param statistics session statistics, or null
+	 */
+	public void setStatistics(final RaopSessionStatistics statistics) {
+		m_statistics = statistics;
+	}
+
+	/**
+	 * Binds the handler to the session which processes the audio channel's
+	 * events, so that received packets are accounted for once per batch.
+	 * Must be called before the audio channel receives any packets
+	 *
+	 * @param decodeSession decode session
+	 */
+	public void setDecodeSession(final RaopRtpDecodeScheduler.Session decodeSession) {
+		m_decodeSession = decodeSession;
+		decodeSession.addBatchListener(new Runnable() {
+			@Override
+			public void run() {
+				flushBatch();
+			}
+		});
+	}
+
+	/**
+	 * Returns the smoothed round-trip time of retransmit requests
+	 *
+	 * @return round-trip time in seconds, zero if not yet measured
+	 */
+	public synchronized double getRoundTripTime() {
+		return m_roundTripTime.getRoundTripTime();
+	}
+
+	private void cancelRetransmitCheck() {
+		if (m_retransmitCheck != null) {
+			m_retransmitCheck.cancel(false);
+			m_retransmitCheck = null;
+		}
+	}
+
+	/**
+	 * Mark the packet as retransmitted, i.e. remove it from the
+	 * in-flight retransmit requests. If it's the response to a single
+	 * retransmit request, the round-trip time is updated
 	 * 
 	 * @param sequence sequence number of packet
 	 * @param nextSecondsTime next possible play back time
+	 * @param retransmit true if the packet was received as the response to a retransmit request
 	 */
-	private void markRetransmitted(final int sequence, final double nextSecondsTimee) {
-		final Iterator<MissingPacket> i = m_missingPackets.iterator();
-		while (i.hasNext()) {
-			final MissingPacket missingPacket = i.next();
-			if (missingPacket.sequence == sequence) {
-				s_logger.fine("Packet " + sequence + " arrived " + (missingPacket.expectedUntilSecondsTime - nextSecondsTimee) + " seconds before it was due");
-				i.remove();
-			}
-		}
+	private void markRetransmitted(final int sequence, final double nextSecondsTime, final boolean retransmit) {
+		if (!m_missingPackets.contains(sequence))
+			return;
+
+		if (retransmit && (m_missingPackets.getRequestCount(sequence) == 1))
+			m_roundTripTime.addSample((System.nanoTime() - m_missingPackets.getRequestNanos(sequence)) * 1e-9);
+
+		s_logger.fine("Packet " + sequence + " arrived " + (m_missingPackets.getExpectedUntil(sequence) - nextSecondsTime) + " seconds before it was due");
+		m_missingPackets.unmark(sequence);
 	}
 
 	/**
-	 * Mark the packet is missing, i.e. add an entry to the list of
+	 * Mark the packet is missing, i.e. add an entry to the
 	 * in-flight retransmit requests.
 	 * 
 	 * @param sequence sequence number of packet
 	 * @param nextSecondsTime next possible play back time
 	 */
 	private void markMissing(final int sequence, final double nextSecondsTime) {
-		/* Add packet to list of in-flight retransmit requests */
-		final MissingPacket missingPacket = new MissingPacket(sequence, nextSecondsTime);
-		if (missingPacket.requiredUntilSecondsTime > nextSecondsTime) {
-			s_logger.fine("Packet " + sequence + " expected to arive in " + (missingPacket.expectedUntilSecondsTime - nextSecondsTime) + " seconds");
+		final double requiredUntilSecondsTime = m_audioClock.convertFrameToSecondsTime(convertSequenceToFrameTime(sequence));
 
-			m_missingPackets.add(missingPacket);
-		}
-		else {
-			s_logger.warning("Packet " + sequence + " was required " + (nextSecondsTime - missingPacket.expectedUntilSecondsTime ) + " seconds ago, not requesting retransmit");
+		if (requiredUntilSecondsTime <= nextSecondsTime) {
+			s_logger.warning("Packet " + sequence + " was required " + (nextSecondsTime - requiredUntilSecondsTime) + " seconds ago, not requesting retransmit");
+			recordPacketLost();
+			return;
 		}
 
-		/* Forget about old missing packets if we exceeded the number
-		 * of in-flight retransmit requests
+		/* Give a reordered packet a chance to arrive before requesting it,
+		 * but leave time for the retransmit
 		 */
-		while (m_missingPackets.size() > RetransmitInFlightLimit) {
-			final MissingPacket m = m_missingPackets.get(0);
-			m_missingPackets.remove(0);
+		final double expectedUntilSecondsTime = nextSecondsTime + Math.min(RetransmitReorderDelay, 0.5 * (requiredUntilSecondsTime - nextSecondsTime));
+		s_logger.fine("Packet " + sequence + " expected to arive in " + (expectedUntilSecondsTime - nextSecondsTime) + " seconds");
 
-			s_logger.warning("Packet " + sequence + " overflowed in-flight retransmit count, giving up on old packet " + m.sequence);
+		/* Old missing packets are forgotten if we exceed the number
+		 * of in-flight retransmit requests
+		 */
+		final int evictedSequence = m_missingPackets.mark(sequence, requiredUntilSecondsTime, expectedUntilSecondsTime);
+		if (evictedSequence >= 0) {
+			s_logger.warning("Packet " + sequence + " overflowed in-flight retransmit count, giving up on old packet " + evictedSequence);
+			recordPacketLost();
 		}
 	}
 
 	/**
-	 * Scan the list of in-flight retransmit requests and send
-	 * {@link RetransmitRequest} packets if it's past the time
-	 * at which we expected the packet to arrive
+	 * Send {@link RetransmitRequest} packets for the in-flight retransmit
+	 * requests which are past the time at which we expected the packet
+	 * to arrive.
+	 * <p>
+	 * Overdue packets are coalesced into as few requests as possible, see
+	 * {@link #coalesceRanges(long[], int, int, long[], int[], long[], long[])}. At most
+	 * {@link #RetransmitRequestsPerCheck} requests are sent, the remaining
+	 * packets are requested by the next check. Requested packets are expected
+	 * to arrive within the retransmit timeout, which doubles with every attempt,
+	 * and are given up on once a response couldn't arrive before they're required.
 	 * 
 	 * @param channel channel used to send retransmit requests
 	 * @param nextSecondsTime
 	 */
 	private synchronized void requestRetransmits(final Channel channel, final double nextSecondsTime) {
-		/* The retransmit request we're currently building */
-		RaopRtpPacket.RetransmitRequest retransmitRequest = null;
-
-		/* Run through open retransmit requests */
-		final Iterator<MissingPacket> missingPacketIterator = m_missingPackets.iterator();
-		while (missingPacketIterator.hasNext()) {
-			final MissingPacket missingPacket = missingPacketIterator.next();
-
-			/* If it's past the time at which the packet would have needed to be queued,
+		/* Collect overdue packets which can still arrive in time */
+		int dueCount = 0;
+		int sequence;
+		while ((sequence = m_missingPackets.nextDue(nextSecondsTime)) >= 0) {
+			final double requiredUntilSecondsTime = m_missingPackets.getRequiredUntil(sequence);
+			final int retransmitRequestCount = m_missingPackets.getRequestCount(sequence);
+
+			/* If a response couldn't arrive before the packet needs to be queued,
 			 * warn and forget about it
 			 */
-			if (missingPacket.requiredUntilSecondsTime <= nextSecondsTime) {
-				s_logger.warning("Packet " + missingPacket.sequence + " was required " + (nextSecondsTime - missingPacket.requiredUntilSecondsTime) + " secons ago, giving up");
+			if (requiredUntilSecondsTime <= nextSecondsTime + m_roundTripTime.getRoundTripTime()) {
+				s_logger.warning("Packet " + sequence + " is required in " + (requiredUntilSecondsTime - nextSecondsTime) + " seconds, less than the round-trip time of " + m_roundTripTime.getRoundTripTime() + " seconds, giving up");
 
-				missingPacketIterator.remove();
+				m_missingPackets.unmark(sequence);
+				recordPacketLost();
 				continue;
 			}
 
-			/* If the packet isn't expected until later,
-			 * skip it for now */
-			if (missingPacket.expectedUntilSecondsTime > nextSecondsTime)
-				continue;
+			/* If the packet was already requests too often,
+			 * warn and forget about it */
+			if (retransmitRequestCount >= RetransmitAttemptsMax) {
+				s_logger.warning("Packet " + sequence + " overdue after " + retransmitRequestCount + " retransmit requests, giving up");
 
-			/* Ok, the packet is overdue */
-			
-			if (missingPacket.retransmitRequestCount >= RetransmitAttempts) {
-				/* If the packet was already requests too often,
-				 * warn and forget about it */
-				s_logger.warning("Packet " + missingPacket.sequence + " overdue " + (nextSecondsTime - missingPacket.expectedUntilSecondsTime) + " seconds after " + missingPacket.retransmitRequestCount + " retransmit requests, giving up");
+				m_missingPackets.unmark(sequence);
+				recordPacketLost();
+				continue;
+			}
 
-				missingPacketIterator.remove();
+			m_duePositions[dueCount++] = sequenceDelta(m_latestReceivedSequence, sequence);
+		}
+		if (dueCount == 0)
+			return;
+
+		Arrays.sort(m_duePositions, 0, dueCount);
+		final int rangeCount = coalesceRanges(m_duePositions, dueCount, RetransmitBridgeBudget, m_rangeFirst, m_rangeLength, m_gaps, m_sortedGaps);
+
+		final long nowNanos = System.nanoTime();
+		final double timeout = m_roundTripTime.getTimeout();
+		for(int r=0; r < rangeCount; ++r) {
+			final int sequenceFirst = sequenceAdd(m_latestReceivedSequence, m_rangeFirst[r]);
+			final int sequenceCount = m_rangeLength[r];
+
+			if (r >= RetransmitRequestsPerCheck) {
+				/* Over budget, request the range's packets during the next check */
+				for(int i=0; i < sequenceCount; ++i) {
+					final int s = sequenceAdd(sequenceFirst, i);
+					if (m_missingPackets.contains(s))
+						m_missingPackets.postpone(s, nextSecondsTime);
+				}
 				continue;
 			}
-			else {
-				/* Log that we're about to request retransmission */
-				final int retransmitRequestCountPrevious = missingPacket.retransmitRequestCount;
-				final double expectedUntilSecondsTimePrevious = missingPacket.expectedUntilSecondsTime;
-				missingPacket.sentRetransmitRequest(nextSecondsTime);
 
-				s_logger.fine("Packet " + missingPacket.sequence + " overdue " + (nextSecondsTime - expectedUntilSecondsTimePrevious) + " seconds after " + retransmitRequestCountPrevious + " retransmit requests, requesting again expecting response in " + (missingPacket.expectedUntilSecondsTime - nextSecondsTime) + " seconds");
+			/* Update the state of the requested packets. Tracked packets
+			 * inside the range which weren't due yet are requested as well
+			 */
+			for(int i=0; i < sequenceCount; ++i) {
+				final int s = sequenceAdd(sequenceFirst, i);
+				if (!m_missingPackets.contains(s))
+					continue;
+
+				final int attempt = m_missingPackets.getRequestCount(s);
+				final double expectedUntilSecondsTime = Math.min(
+					nextSecondsTime + timeout * (1 << attempt),
+					m_missingPackets.getRequiredUntil(s)
+				);
+				m_missingPackets.requested(s, nowNanos, expectedUntilSecondsTime);
 			}
 
-			/* Ok, really request re-transmission */
-			
-			if (
-				(retransmitRequest != null) &&
-				(sequenceAdd(retransmitRequest.getSequenceFirst(), retransmitRequest.getSequenceCount()) != missingPacket.sequence)
-			) {
-				/* There is a current retransmit request, but the sequence cannot be appended.
-				 * We transmit the current request and start building a new one
-				 */
-				if (channel.isOpen() && channel.isWritable())
-					channel.write(retransmitRequest);
-				retransmitRequest = null;
+			s_logger.fine("Requesting retransmit of " + sequenceCount + " packet(s) starting with " + sequenceFirst + ", expecting response within " + timeout + " seconds");
+
+			m_retransmitRequestSequence = sequenceSuccessor(m_retransmitRequestSequence);
+			final RaopRtpPacket.RetransmitRequest retransmitRequest = new RaopRtpPacket.RetransmitRequest();
+			retransmitRequest.setSequence(m_retransmitRequestSequence);
+			retransmitRequest.setSequenceFirst(sequenceFirst);
+			retransmitRequest.setSequenceCount(sequenceCount);
+			if (channel.isOpen() && channel.isWritable()) {
+				channel.write(retransmitRequest);
+
+				final RaopSessionStatistics statistics = m_statistics;
+				if (statistics != null)
+					statistics.recordRetransmitRequest();
+				if (PacketTrace.Enabled)
+					PacketTrace.Instance.record(PacketTrace.Stage.RetransmitRequest, sequenceFirst, PacketTrace.None, nowNanos, 0);
 			}
-			
-			/* If there still is a current retransmit request, the sequence can be appended */
-
-			if (retransmitRequest == null) {
-				/* Create new retransmit request */
-				m_retransmitRequestSequence = sequenceSuccessor(m_retransmitRequestSequence);
-				retransmitRequest = new RaopRtpPacket.RetransmitRequest();
-				retransmitRequest.setSequence(m_retransmitRequestSequence);
-				retransmitRequest.setSequenceFirst(missingPacket.sequence);
-				retransmitRequest.setSequenceCount(1);
+		}
+
+		if (rangeCount > RetransmitRequestsPerCheck)
+			s_logger.fine("Postponed " + (rangeCount - RetransmitRequestsPerCheck) + " retransmit request(s) to the next check");
+	}
+
+	/**
+	 * Coalesces sorted sequence positions into ranges, each of which can
+	 * be requested by a single {@link RetransmitRequest}.
+	 * <p>
+	 * Consecutive positions form a range. Ranges separated by gaps of
+	 * positions which needn't be requested are merged as long as the total
+	 * number of positions in those gaps doesn't exceed the bridge budget.
+	 * The smallest gaps are merged first, which yields the fewest ranges
+	 * possible within the budget. If the budget suffices for some but not
+	 * all gaps of the same size, the earlier ones are merged.
+	 * 
+	 * @param positions sorted positions, duplicates are allowed
+	 * @param count number of positions
+	 * @param bridgeBudget maximal number of positions not in {@code positions} covered by the ranges
+	 * @param rangeFirst receives the first position of each range
+	 * @param rangeLength receives the number of positions of each range
+	 * @param gaps scratch space, at least {@code count} long
+	 * @param sortedGaps scratch space, at least {@code count} long
+	 * @return number of ranges
+	 */
+	static int coalesceRanges(final long[] positions, final int count, final int bridgeBudget, final long[] rangeFirst, final int[] rangeLength, final long[] gaps, final long[] sortedGaps) {
+		/* Split into runs of consecutive positions */
+		int runs = 0;
+		for(int i=0; i < count; ++i) {
+			if ((runs > 0) && (positions[i] <= rangeFirst[runs - 1] + rangeLength[runs - 1])) {
+				rangeLength[runs - 1] = (int)Math.max(rangeLength[runs - 1], positions[i] - rangeFirst[runs - 1] + 1);
 			}
 			else {
-				/* Append sequnce to current retransmit request */
-				retransmitRequest.setSequenceCount(retransmitRequest.getSequenceCount() + 1);
+				rangeFirst[runs] = positions[i];
+				rangeLength[runs] = 1;
+				++runs;
 			}
 		}
-		if (retransmitRequest != null) {
-			/* Send the retransmit request we were building when the loop ended */
-			if (channel.isOpen() && channel.isWritable())
-				channel.write(retransmitRequest);
+		if ((runs <= 1) || (bridgeBudget <= 0))
+			return runs;
+
+		/* Find the largest gap which can be bridged, and how many
+		 * gaps of exactly that size can be bridged
+		 */
+		final int gapCount = runs - 1;
+		for(int r=0; r < gapCount; ++r)
+			gaps[r] = rangeFirst[r + 1] - (rangeFirst[r] + rangeLength[r]);
+
+		System.arraycopy(gaps, 0, sortedGaps, 0, gapCount);
+		Arrays.sort(sortedGaps, 0, gapCount);
+		long budget = bridgeBudget;
+		int merges = 0;
+		while ((merges < gapCount) && (sortedGaps[merges] <= budget))
+			budget -= sortedGaps[merges++];
+		if (merges == 0)
+			return runs;
+
+		final long gapMax = sortedGaps[merges - 1];
+		int gapMaxMerges = merges;
+		for(int g=0; (g < merges) && (sortedGaps[g] < gapMax); ++g)
+			--gapMaxMerges;
+
+		/* Merge runs in place */
+		int ranges = 1;
+		for(int r=1; r < runs; ++r) {
+			final long gap = gaps[r - 1];
+			if ((gap < gapMax) || ((gap == gapMax) && (gapMaxMerges-- > 0))) {
+				rangeLength[ranges - 1] = (int)(rangeFirst[r] + rangeLength[r] - rangeFirst[ranges - 1]);
+			}
+			else {
+				rangeFirst[ranges] = rangeFirst[r];
+				rangeLength[ranges] = rangeLength[r];
+				++ranges;
+			}
 		}
+
+		return ranges;
 	}
 
 	@Override
 	public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent evt)
 		throws Exception
 	{
-		if (evt.getMessage() instanceof RaopRtpPacket.AudioTransmit)
-			audioTransmitReceived(ctx, (RaopRtpPacket.AudioTransmit)evt.getMessage());
-		else if (evt.getMessage() instanceof RaopRtpPacket.AudioRetransmit)
-			audioRetransmitReceived(ctx, (RaopRtpPacket.AudioRetransmit)evt.getMessage());
+		if (evt.getMessage() instanceof RaopRtpPacket.AudioTransmit) {
+			final RaopRtpPacket.AudioTransmit audioPacket = (RaopRtpPacket.AudioTransmit)evt.getMessage();
+			batchPacket(audioPacket.getSequence(), audioPacket.getTimeStamp(), false);
+		}
+		else if (evt.getMessage() instanceof RaopRtpPacket.AudioRetransmit) {
+			final RaopRtpPacket.AudioRetransmit audioPacket = (RaopRtpPacket.AudioRetransmit)evt.getMessage();
+			batchPacket(audioPacket.getOriginalSequence(), 0, true);
+		}
 
 		super.messageReceived(ctx, evt);
+	}
+
+	/**
+	 * Notes a received packet, and accounts for the batch's packets
+	 * unless more of the session's events are going to follow
+	 *
+	 * @param sequence sequence of the packet, the original sequence for retransmissions
+	 * @param timeStamp RTP time stamp of the packet, unused for retransmissions
+	 * @param retransmit whether the packet is a retransmission
+	 */
+	private void batchPacket(final int sequence, final long timeStamp, final boolean retransmit) {
+		m_batchSequences[m_batchCount] = sequence;
+		m_batchTimeStamps[m_batchCount] = timeStamp;
+		m_batchRetransmits[m_batchCount] = retransmit;
+		++m_batchCount;
+
+		final RaopRtpDecodeScheduler.Session decodeSession = m_decodeSession;
+		if ((decodeSession == null) || (decodeSession.getQueueDepth() == 0) || (m_batchCount == m_batchSequences.length))
+			flushBatch();
+	}
 
-		/* Request retransmits if necessary */
-		requestRetransmits(ctx.getChannel(), m_audioClock.getNextSecondsTime());
+	/**
+	 * Accounts for the packets of the current batch
+	 */
+	private void flushBatch() {
+		if (m_batchCount == 0)
+			return;
+
+		synchronized(this) {
+			final double nextSecondsTime = m_audioClock.getNextSecondsTime();
+			for(int i=0; i < m_batchCount; ++i) {
+				if (m_batchRetransmits[i])
+					audioRetransmitReceived(m_batchSequences[i], nextSecondsTime);
+				else
+					audioTransmitReceived(m_batchSequences[i], m_batchTimeStamps[i], nextSecondsTime);
+			}
+		}
+		m_batchCount = 0;
 	}
 
-	private synchronized void audioRetransmitReceived(final ChannelHandlerContext ctx, final RaopRtpPacket.AudioRetransmit audioPacket) {
-		final double nextSecondsTime = m_audioClock.getNextSecondsTime();
+	/**
+	 * Accounts for a retransmitted packet. Must be called with the handler's monitor held
+	 */
+	private void audioRetransmitReceived(final int originalSequence, final double nextSecondsTime) {
+		final RaopSessionStatistics statistics = m_statistics;
+		if (statistics != null)
+			statistics.recordPacketRetransmitted();
 
 		/* Mark packet as retransmitted */
-		markRetransmitted(audioPacket.getOriginalSequence(), nextSecondsTime);
+		markRetransmitted(originalSequence, nextSecondsTime, true);
 	}
 
-	private synchronized void audioTransmitReceived(final ChannelHandlerContext ctx, final RaopRtpPacket.AudioTransmit audioPacket) {
-		final double nextSecondsTime = m_audioClock.getNextSecondsTime();
+	/**
+	 * Accounts for a transmitted packet. Must be called with the handler's monitor held
+	 */
+	private void audioTransmitReceived(final int sequence, final long timeStamp, final double nextSecondsTime) {
+		final RaopSessionStatistics statistics = m_statistics;
+		if (statistics != null)
+			statistics.recordPacketReceived();
 
 		/* Mark packet as retransmitted.
 		 * Doing this here prevents sending out further retransmit requests for packets
 		 * which simply were delayed
 		 */
-		markRetransmitted(audioPacket.getSequence(), nextSecondsTime);
+		markRetransmitted(sequence, nextSecondsTime, false);
 
 		/* Compute delta between the last and the current Sequence */
 		final long delta;
 		if (m_latestReceivedSequence < 0)
 			delta = 1;
 		else
-			delta = sequenceDelta(m_latestReceivedSequence, audioPacket.getSequence());
+			delta = sequenceDelta(m_latestReceivedSequence, sequence);
 
 		/* Remember the sequence we expected, then update the latest received sequence
 		 * and it's frame time iff the new sequence is larger than the old one
 		 */
 		final int expectedSequence = sequenceSuccessor(m_latestReceivedSequence);
 		if (delta > 0) {
-			m_latestReceivedSequence = audioPacket.getSequence();
-			m_latestReceivedSequenceFrameTime = audioPacket.getTimeStamp();
+			m_latestReceivedSequence = sequence;
+			m_latestReceivedSequenceFrameTime = timeStamp;
 		}
 
 		if (delta == 1) {
@@ -336,7 +600,7 @@ public class RaopRtpRetransmitRequestHandler extends SimpleChannelUpstreamHandle
 			/* Previous packet reordered/delayed or missing */
 			s_logger.fine("Packet sequence number increased by " + delta + ", " + (delta-1) + " packet(s) missing,");
 
-			for(int s = expectedSequence; s != audioPacket.getSequence(); s = sequenceSuccessor(s))
+			for(int s = expectedSequence; s != sequence; s = sequenceSuccessor(s))
 				markMissing(s, nextSecondsTime);
 		}
 		else if (delta < 0) {
@@ -345,12 +609,18 @@ public class RaopRtpRetransmitRequestHandler extends SimpleChannelUpstreamHandle
 		}
 		else {
 			/* Unsynchronized sequences */
-			s_logger.warning("Packet sequence number jumped to " + audioPacket.getSequence() + ", assuming sequences number are out of sync");
+			s_logger.warning("Packet sequence number jumped to " + sequence + ", assuming sequences number are out of sync");
 
 			m_missingPackets.clear();
 		}
 	}
 
+	private void recordPacketLost() {
+		final RaopSessionStatistics statistics = m_statistics;
+		if (statistics != null)
+			statistics.recordPacketLost();
+	}
+
 	/**
 	 * Interpolate RTP frame time of missing packet
 	 * @param sequence sequence of missing packet
@@ -17,6 +17,8 @@
 
 package org.phlo.AirReceiver;
 
+import java.util.concurrent.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jboss.netty.channel.*;
@@ -37,7 +39,8 @@ public class RaopRtpTimingHandler extends SimpleChannelHandler {
 	public static final double TimeRequestInterval = 0.2;
 
 	/**
-	 * Thread which sends out {@link TimingRequests}s.
+	 * Task which sends out a {@link TimingRequests}. Run
+	 * periodically by the scheduler
 	 */
 	private class TimingRequester implements Runnable {
 		private final Channel m_channel;
@@ -48,19 +51,17 @@ public class RaopRtpTimingHandler extends SimpleChannelHandler {
 
 		@Override
 		public void run() {
-			while (!Thread.currentThread().isInterrupted()) {
+			try {
 				final RaopRtpPacket.TimingRequest timingRequestPacket = new RaopRtpPacket.TimingRequest();
 				timingRequestPacket.getReceivedTime().setDouble(0); /* Set by the source */
 				timingRequestPacket.getReferenceTime().setDouble(0); /* Set by the source */
 				timingRequestPacket.getSendTime().setDouble(m_audioClock.getNowSecondsTime());
 
 				m_channel.write(timingRequestPacket);
-				try {
-					Thread.sleep(Math.round(TimeRequestInterval * 1000));
-				}
-				catch (final InterruptedException e) {
-					Thread.currentThread().interrupt();
-				}
+			}
+			catch (final Throwable e) {
+				/* An exception would cancel further executions */
+				s_logger.log(Level.WARNING, "Failed to send timing request", e);
 			}
 		}
 	}
@@ -76,26 +77,30 @@ public class RaopRtpTimingHandler extends SimpleChannelHandler {
 	private final RunningExponentialAverage m_remoteSecondsOffset = new RunningExponentialAverage();
 	
 	/**
-	 * The {@link TimingRequester} thread.
+	 * Scheduler which runs the {@link TimingRequester}
+	 */
+	private final ScheduledExecutorService m_scheduler;
+
+	/**
+	 * The scheduled {@link TimingRequester}. Guarded by the handler's monitor
 	 */
-	private Thread m_synchronizationThread;
+	private ScheduledFuture<?> m_timingRequester;
 
-	public RaopRtpTimingHandler(final AudioClock audioClock) {
+	public RaopRtpTimingHandler(final AudioClock audioClock, final ScheduledExecutorService scheduler) {
 		m_audioClock = audioClock;
+		m_scheduler = scheduler;
 	}
 
 	@Override
 	public void channelOpen(final ChannelHandlerContext ctx, final ChannelStateEvent evt)
 		throws Exception
 	{
-		channelClosed(ctx, evt);
-
-		/* Start synchronization thread if it isn't already running */
-		if (m_synchronizationThread == null) {
-			m_synchronizationThread = new Thread(new TimingRequester(ctx.getChannel()));
-			m_synchronizationThread.setDaemon(true);
-			m_synchronizationThread.setName("Time Synchronizer");
-			m_synchronizationThread.start();
+		/* Start sending timing requests, replacing a previous requester if there was one */
+		synchronized(this) {
+			cancelTimingRequester();
+
+			final long intervalMillis = Math.round(TimeRequestInterval * 1000);
+			m_timingRequester = m_scheduler.scheduleWithFixedDelay(new TimingRequester(ctx.getChannel()), 0, intervalMillis, TimeUnit.MILLISECONDS);
 			s_logger.fine("Time synchronizer started");
 		}
 
@@ -107,8 +112,17 @@ public class RaopRtpTimingHandler extends SimpleChannelHandler {
 		throws Exception
 	{
 		synchronized(this) {
-			if (m_synchronizationThread != null)
-				m_synchronizationThread.interrupt();
+			cancelTimingRequester();
+		}
+
+		super.channelClosed(ctx, evt);
+	}
+
+	private void cancelTimingRequester() {
+		if (m_timingRequester != null) {
+			m_timingRequester.cancel(false);
+			m_timingRequester = null;
+			s_logger.fine("Time synchronizer stopped");
 		}
 	}
 
@@ -116,10 +130,17 @@ public class RaopRtpTimingHandler extends SimpleChannelHandler {
 	public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent evt)
 		throws Exception
 	{
-		if (evt.getMessage() instanceof RaopRtpPacket.Sync)
+		final long startNanos = PacketTrace.Enabled ? System.nanoTime() : 0;
+		if (evt.getMessage() instanceof RaopRtpPacket.Sync) {
 			syncReceived((RaopRtpPacket.Sync)evt.getMessage());
-		else if (evt.getMessage() instanceof RaopRtpPacket.TimingResponse)
+			if (PacketTrace.Enabled)
+				PacketTrace.Instance.record(PacketTrace.Stage.Sync, (RaopRtpPacket)evt.getMessage(), startNanos, System.nanoTime() - startNanos);
+		}
+		else if (evt.getMessage() instanceof RaopRtpPacket.TimingResponse) {
 			timingResponseReceived((RaopRtpPacket.TimingResponse)evt.getMessage());
+			if (PacketTrace.Enabled)
+				PacketTrace.Instance.record(PacketTrace.Stage.TimingResponse, (RaopRtpPacket)evt.getMessage(), startNanos, System.nanoTime() - startNanos);
+		}
 
 		super.messageReceived(ctx, evt);
 	}
@@ -191,6 +212,15 @@ public class RaopRtpTimingHandler extends SimpleChannelHandler {
 		}
 	}
 
+	/**
+	 * Returns the averaged offset between the remote and the local NTP time
+	 *
+	 * @return offset in seconds, or NaN if no timing response arrived yet
+	 */
+	public synchronized double getRemoteSecondsOffset() {
+		return m_remoteSecondsOffset.get();
+	}
+
 	/**
 	 * Convert remote NTP time (in seconds) to local NTP time (in seconds),
 	 * using the offset obtain from the TimingRequest/TimingResponse packets.
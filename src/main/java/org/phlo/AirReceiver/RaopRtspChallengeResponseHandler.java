@@ -35,7 +35,6 @@ public class RaopRtspChallengeResponseHandler extends SimpleChannelHandler
 	private static final String HeaderSignature = "Apple-Response";
 
 	private final byte[] m_hwAddress;
-	private final Cipher m_rsaPkCS1PaddingCipher = AirTunesCrytography.getCipher("RSA/None/PKCS1Padding");
 
 	private byte[] m_challenge;
 	private InetAddress m_localAddress;
@@ -113,12 +112,20 @@ public class RaopRtspChallengeResponseHandler extends SimpleChannelHandler
 		while (sigData.hasRemaining())
 			sigData.put((byte)0);
 
+		/* The pooled cipher is already initialized with the AirTunes private key.
+		 * It is only returned to the pool if signing succeeded, since a failed
+		 * operation may leave it in an undefined state
+		 */
+		final Cipher rsaPkCS1PaddingCipher = AirTunesCrytography.RsaPkcs1SignPool.acquire();
+		final byte[] signature;
 		try {
-			m_rsaPkCS1PaddingCipher.init(Cipher.ENCRYPT_MODE, AirTunesCrytography.PrivateKey);
-			return m_rsaPkCS1PaddingCipher.doFinal(sigData.array());
+			signature = rsaPkCS1PaddingCipher.doFinal(sigData.array());
 		}
 		catch (final Exception e) {
 			throw new RuntimeException("Unable to sign response", e);
 		}
+		AirTunesCrytography.RsaPkcs1SignPool.release(rsaPkCS1PaddingCipher);
+
+		return signature;
 	}
 }
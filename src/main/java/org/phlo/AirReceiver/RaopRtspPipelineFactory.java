@@ -24,6 +24,15 @@ import org.jboss.netty.handler.codec.rtsp.*;
  * Factory for AirTunes/RAOP RTSP channels
  */
 public class RaopRtspPipelineFactory implements ChannelPipelineFactory {
+	/**
+	 * The receiver whose RTSP channels are created
+	 */
+	private final RaopReceiver m_receiver;
+
+	public RaopRtspPipelineFactory(final RaopReceiver receiver) {
+		m_receiver = receiver;
+	}
+
 	@Override
 	public ChannelPipeline getPipeline() throws Exception {
 		final ChannelPipeline pipeline = Channels.pipeline();
@@ -35,10 +44,10 @@ public class RaopRtspPipelineFactory implements ChannelPipelineFactory {
 		pipeline.addLast("encoder", new RtspResponseEncoder());
 		pipeline.addLast("logger", new RtspLoggingHandler());
 		pipeline.addLast("errorResponse", new RtspErrorResponseHandler());
-		pipeline.addLast("challengeResponse", new RaopRtspChallengeResponseHandler(AirReceiver.HardwareAddressBytes));
+		pipeline.addLast("challengeResponse", new RaopRtspChallengeResponseHandler(m_receiver.getHardwareAddress()));
 		pipeline.addLast("header", new RaopRtspHeaderHandler());
 		pipeline.addLast("options", new RaopRtspOptionsHandler());
-		pipeline.addLast("audio", new RaopAudioHandler(AirReceiver.ExecutorService));
+		pipeline.addLast("audio", new RaopAudioHandler(AirReceiver.RtpChannelFactory, AirReceiver.Scheduler, AirReceiver.DecodeScheduler, m_receiver.getSinkFactory(), AirReceiver.SetupStatistics, AirReceiver.Statistics));
 		pipeline.addLast("unsupportedResponse", new RtspUnsupportedResponseHandler());
 
 		return pipeline;
@@ -0,0 +1,275 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+/**
+ * Counters and latency histograms of a single audio stream, from
+ * ANNOUNCE until the stream is torn down.
+ * <p>
+ * The counters are updated on the packet path, by the session's worker,
+ * the scheduler and the audio output thread. They are therefore
+ * {@link StripedCounter}s and {@link LatencyHistogram}s, which are
+ * updated without locks. Gauges like the queue depth are read from
+ * the session's components when queried.
+ * <p>
+ * Registered as a JMX MBean by {@link ReceiverStatistics}.
+ * <p>
+ * Thread-safe.
+ */
+public class RaopSessionStatistics implements RaopSessionStatisticsMBean {
+	private final String m_name;
+
+	private final StripedCounter m_packetsReceived = new StripedCounter();
+	private final StripedCounter m_packetsRetransmitted = new StripedCounter();
+	private final StripedCounter m_packetsLost = new StripedCounter();
+	private final StripedCounter m_packetsLate = new StripedCounter();
+	private final StripedCounter m_retransmitRequests = new StripedCounter();
+	private final StripedCounter m_underruns = new StripedCounter();
+	private final StripedCounter m_mutedPeriods = new StripedCounter();
+	private final LatencyHistogram m_decryptNanos = new LatencyHistogram();
+	private final LatencyHistogram m_decodeNanos = new LatencyHistogram();
+
+	/**
+	 * Components the gauges are read from, set once the session's
+	 * components were created
+	 */
+	private volatile AudioOutputQueue m_audioOutputQueue;
+	private volatile RaopRtpTimingHandler m_timingHandler;
+	private volatile RaopRtpRetransmitRequestHandler m_retransmitRequestHandler;
+
+	/**
+	 * Creates the statistics of a session
+	 *
+	 * @param name name of the session, used as the MBean's name
+	 */
+	public RaopSessionStatistics(final String name) {
+		m_name = name;
+	}
+
+	public String getName() {
+		return m_name;
+	}
+
+	/**
+	 * Sets the components the gauges are read from. Any of them may be null
+	 *
+	 * @param audioOutputQueue source of the queue depth
+	 * @param timingHandler source of the clock offset
+	 * @param retransmitRequestHandler source of the retransmit round-trip time
+	 */
+	public void setSources(final AudioOutputQueue audioOutputQueue, final RaopRtpTimingHandler timingHandler, final RaopRtpRetransmitRequestHandler retransmitRequestHandler) {
+		m_audioOutputQueue = audioOutputQueue;
+		m_timingHandler = timingHandler;
+		m_retransmitRequestHandler = retransmitRequestHandler;
+	}
+
+	/**
+	 * Records an audio packet received as originally transmitted
+	 */
+	public void recordPacketReceived() {
+		m_packetsReceived.increment();
+	}
+
+	/**
+	 * Records an audio packet received in response to a retransmit request
+	 */
+	public void recordPacketRetransmitted() {
+		m_packetsRetransmitted.increment();
+	}
+
+	/**
+	 * Records a missing audio packet which was given up on
+	 */
+	public void recordPacketLost() {
+		m_packetsLost.increment();
+	}
+
+	/**
+	 * Records an audio packet which arrived too late to be played
+	 */
+	public void recordPacketLate() {
+		m_packetsLate.increment();
+	}
+
+	/**
+	 * Records a retransmit request which was sent
+	 */
+	public void recordRetransmitRequest() {
+		m_retransmitRequests.increment();
+	}
+
+	/**
+	 * Records that the audio output ran out of audio data while playing
+	 */
+	public void recordUnderrun() {
+		m_underruns.increment();
+	}
+
+	/**
+	 * Records that the audio output was muted because the stream ended
+	 */
+	public void recordMutedPeriod() {
+		m_mutedPeriods.increment();
+	}
+
+	/**
+	 * Records the time spent decrypting a packet
+	 *
+	 * @param nanos duration in nanoseconds
+	 */
+	public void recordDecrypt(final long nanos) {
+		m_decryptNanos.record(nanos);
+	}
+
+	/**
+	 * Records the time spent decoding a packet
+	 *
+	 * @param nanos duration in nanoseconds
+	 */
+	public void recordDecode(final long nanos) {
+		m_decodeNanos.record(nanos);
+	}
+
+	/**
+	 * Adds the counters and histograms of another session to this one
+	 *
+	 * @param other session statistics to add
+	 */
+	void add(final RaopSessionStatistics other) {
+		m_packetsReceived.add(other.getPacketsReceived());
+		m_packetsRetransmitted.add(other.getPacketsRetransmitted());
+		m_packetsLost.add(other.getPacketsLost());
+		m_packetsLate.add(other.getPacketsLate());
+		m_retransmitRequests.add(other.getRetransmitRequests());
+		m_underruns.add(other.getUnderruns());
+		m_mutedPeriods.add(other.getMutedPeriods());
+		m_decryptNanos.add(other.m_decryptNanos);
+		m_decodeNanos.add(other.m_decodeNanos);
+	}
+
+	LatencyHistogram getDecryptNanos() {
+		return m_decryptNanos;
+	}
+
+	LatencyHistogram getDecodeNanos() {
+		return m_decodeNanos;
+	}
+
+	@Override
+	public long getPacketsReceived() {
+		return m_packetsReceived.get();
+	}
+
+	@Override
+	public long getPacketsRetransmitted() {
+		return m_packetsRetransmitted.get();
+	}
+
+	@Override
+	public long getPacketsLost() {
+		return m_packetsLost.get();
+	}
+
+	@Override
+	public long getPacketsLate() {
+		return m_packetsLate.get();
+	}
+
+	@Override
+	public long getRetransmitRequests() {
+		return m_retransmitRequests.get();
+	}
+
+	@Override
+	public long getUnderruns() {
+		return m_underruns.get();
+	}
+
+	@Override
+	public long getMutedPeriods() {
+		return m_mutedPeriods.get();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		final AudioOutputQueue audioOutputQueue = m_audioOutputQueue;
+		return (audioOutputQueue != null) ? audioOutputQueue.getQueuedPacketCount() : 0;
+	}
+
+	@Override
+	public double getClockOffsetMillis() {
+		final RaopRtpTimingHandler timingHandler = m_timingHandler;
+		return (timingHandler != null) ? timingHandler.getRemoteSecondsOffset() * 1e3 : Double.NaN;
+	}
+
+	@Override
+	public double getRetransmitRoundTripMillis() {
+		final RaopRtpRetransmitRequestHandler retransmitRequestHandler = m_retransmitRequestHandler;
+		return (retransmitRequestHandler != null) ? retransmitRequestHandler.getRoundTripTime() * 1e3 : 0.0;
+	}
+
+	@Override
+	public long getDecryptCount() {
+		return m_decryptNanos.getCount();
+	}
+
+	@Override
+	public double getDecryptMicrosMean() {
+		return m_decryptNanos.getMeanNanos() * 1e-3;
+	}
+
+	@Override
+	public double getDecryptMicrosP50() {
+		return m_decryptNanos.getPercentileNanos(50) * 1e-3;
+	}
+
+	@Override
+	public double getDecryptMicrosP99() {
+		return m_decryptNanos.getPercentileNanos(99) * 1e-3;
+	}
+
+	@Override
+	public long[] getDecryptHistogram() {
+		return m_decryptNanos.getCounts();
+	}
+
+	@Override
+	public long getDecodeCount() {
+		return m_decodeNanos.getCount();
+	}
+
+	@Override
+	public double getDecodeMicrosMean() {
+		return m_decodeNanos.getMeanNanos() * 1e-3;
+	}
+
+	@Override
+	public double getDecodeMicrosP50() {
+		return m_decodeNanos.getPercentileNanos(50) * 1e-3;
+	}
+
+	@Override
+	public double getDecodeMicrosP99() {
+		return m_decodeNanos.getPercentileNanos(99) * 1e-3;
+	}
+
+	@Override
+	public long[] getDecodeHistogram() {
+		return m_decodeNanos.getCounts();
+	}
+}
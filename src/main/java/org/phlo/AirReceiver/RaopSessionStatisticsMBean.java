@@ -0,0 +1,94 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+/**
+ * JMX management interface of {@link RaopSessionStatistics}
+ */
+public interface RaopSessionStatisticsMBean {
+	/**
+	 * Returns the number of audio packets received as originally transmitted
+	 */
+	long getPacketsReceived();
+
+	/**
+	 * Returns the number of audio packets received in response to retransmit requests
+	 */
+	long getPacketsRetransmitted();
+
+	/**
+	 * Returns the number of missing audio packets which were given up on
+	 */
+	long getPacketsLost();
+
+	/**
+	 * Returns the number of audio packets which arrived too late to be played
+	 */
+	long getPacketsLate();
+
+	/**
+	 * Returns the number of retransmit requests sent
+	 */
+	long getRetransmitRequests();
+
+	/**
+	 * Returns the number of times the audio output ran out of audio data while playing
+	 */
+	long getUnderruns();
+
+	/**
+	 * Returns the number of times the audio output was muted because the stream ended
+	 */
+	long getMutedPeriods();
+
+	/**
+	 * Returns the number of packets waiting to be played
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Returns the offset between the sender's clock and the local clock
+	 * in milliseconds, or NaN if not yet known
+	 */
+	double getClockOffsetMillis();
+
+	/**
+	 * Returns the smoothed round-trip time of retransmit requests in milliseconds
+	 */
+	double getRetransmitRoundTripMillis();
+
+	long getDecryptCount();
+	double getDecryptMicrosMean();
+	double getDecryptMicrosP50();
+	double getDecryptMicrosP99();
+
+	/**
+	 * Returns the number of decrypted packets per bucket, see {@link LatencyHistogram}
+	 */
+	long[] getDecryptHistogram();
+
+	long getDecodeCount();
+	double getDecodeMicrosMean();
+	double getDecodeMicrosP50();
+	double getDecodeMicrosP99();
+
+	/**
+	 * Returns the number of decoded packets per bucket, see {@link LatencyHistogram}
+	 */
+	long[] getDecodeHistogram();
+}
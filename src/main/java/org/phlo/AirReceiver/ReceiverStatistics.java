@@ -0,0 +1,333 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.*;
+
+/**
+ * Statistics of all sessions of the receivers, and the registry of
+ * the sessions' statistics.
+ * <p>
+ * The totals are computed when queried, by adding the statistics of
+ * the active sessions to those of the sessions which already ended.
+ * Recording a value therefore only touches the session's own counters.
+ * <p>
+ * If an {@link MBeanServer} is provided, the receiver's statistics are
+ * registered as {@code org.phlo.AirReceiver:type=Receiver} by
+ * {@link #register()}, and those of every active session as
+ * {@code org.phlo.AirReceiver:type=Session,name=<name>}.
+ * <p>
+ * Thread-safe.
+ */
+public class ReceiverStatistics implements ReceiverStatisticsMBean {
+	private static Logger s_logger = Logger.getLogger(ReceiverStatistics.class.getName());
+
+	public static final String Domain = "org.phlo.AirReceiver";
+
+	/**
+	 * The MBean server, null if the statistics aren't published
+	 */
+	private final MBeanServer m_mbeanServer;
+
+	/**
+	 * Active sessions
+	 */
+	private final Set<RaopSessionStatistics> m_sessions = Collections.newSetFromMap(new ConcurrentHashMap<RaopSessionStatistics, Boolean>());
+
+	/**
+	 * Totals of the sessions which ended
+	 */
+	private final RaopSessionStatistics m_endedSessions = new RaopSessionStatistics("ended");
+
+	/**
+	 * Number of sessions started
+	 */
+	private final AtomicLong m_sessionCount = new AtomicLong(0);
+
+	/**
+	 * Creates receiver statistics
+	 *
+	 * @param mbeanServer server to register the MBeans with, or null
+	 */
+	public ReceiverStatistics(final MBeanServer mbeanServer) {
+		m_mbeanServer = mbeanServer;
+	}
+
+	/**
+	 * Registers the receiver's MBean
+	 */
+	public void register() {
+		if (m_mbeanServer == null)
+			return;
+
+		try {
+			m_mbeanServer.registerMBean(this, new ObjectName(Domain + ":type=Receiver"));
+		}
+		catch (final JMException e) {
+			s_logger.log(Level.WARNING, "Failed to register receiver statistics MBean", e);
+		}
+	}
+
+	/**
+	 * Creates the statistics of a new session and registers its MBean.
+	 * The session must be ended by {@link #endSession(RaopSessionStatistics)}
+	 *
+	 * @param description description of the session, e.g. the client's address
+	 * @return session statistics
+	 */
+	public RaopSessionStatistics startSession(final String description) {
+		final RaopSessionStatistics session = new RaopSessionStatistics(m_sessionCount.incrementAndGet() + " " + description);
+		m_sessions.add(session);
+
+		if (m_mbeanServer != null) {
+			try {
+				m_mbeanServer.registerMBean(session, getObjectName(session));
+			}
+			catch (final JMException e) {
+				s_logger.log(Level.WARNING, "Failed to register statistics MBean of session " + session.getName(), e);
+			}
+		}
+
+		return session;
+	}
+
+	/**
+	 * Unregisters a session's MBean and adds its statistics to the totals
+	 *
+	 * @param session statistics returned by {@link #startSession(String)}
+	 */
+	public void endSession(final RaopSessionStatistics session) {
+		if (!m_sessions.contains(session))
+			return;
+
+		if (m_mbeanServer != null) {
+			try {
+				final ObjectName name = getObjectName(session);
+				if (m_mbeanServer.isRegistered(name))
+					m_mbeanServer.unregisterMBean(name);
+			}
+			catch (final JMException e) {
+				s_logger.log(Level.WARNING, "Failed to unregister statistics MBean of session " + session.getName(), e);
+			}
+		}
+
+		/* The session is added to the totals before it's removed from the
+		 * active sessions, so a query meanwhile may count it twice but never
+		 * misses it. Since its components are gone, it isn't updated anymore
+		 */
+		m_endedSessions.add(session);
+		m_sessions.remove(session);
+	}
+
+	/**
+	 * Returns the name of a session's MBean
+	 *
+	 * @param session session statistics
+	 * @return object name
+	 */
+	public static ObjectName getObjectName(final RaopSessionStatistics session) throws MalformedObjectNameException {
+		return new ObjectName(Domain + ":type=Session,name=" + ObjectName.quote(session.getName()));
+	}
+
+	@Override
+	public int getActiveSessions() {
+		return m_sessions.size();
+	}
+
+	@Override
+	public long getSessions() {
+		return m_sessionCount.get();
+	}
+
+	@Override
+	public long getPacketsReceived() {
+		long total = m_endedSessions.getPacketsReceived();
+		for(final RaopSessionStatistics session: m_sessions)
+			total += session.getPacketsReceived();
+		return total;
+	}
+
+	@Override
+	public long getPacketsRetransmitted() {
+		long total = m_endedSessions.getPacketsRetransmitted();
+		for(final RaopSessionStatistics session: m_sessions)
+			total += session.getPacketsRetransmitted();
+		return total;
+	}
+
+	@Override
+	public long getPacketsLost() {
+		long total = m_endedSessions.getPacketsLost();
+		for(final RaopSessionStatistics session: m_sessions)
+			total += session.getPacketsLost();
+		return total;
+	}
+
+	@Override
+	public long getPacketsLate() {
+		long total = m_endedSessions.getPacketsLate();
+		for(final RaopSessionStatistics session: m_sessions)
+			total += session.getPacketsLate();
+		return total;
+	}
+
+	@Override
+	public long getRetransmitRequests() {
+		long total = m_endedSessions.getRetransmitRequests();
+		for(final RaopSessionStatistics session: m_sessions)
+			total += session.getRetransmitRequests();
+		return total;
+	}
+
+	@Override
+	public long getUnderruns() {
+		long total = m_endedSessions.getUnderruns();
+		for(final RaopSessionStatistics session: m_sessions)
+			total += session.getUnderruns();
+		return total;
+	}
+
+	@Override
+	public long getMutedPeriods() {
+		long total = m_endedSessions.getMutedPeriods();
+		for(final RaopSessionStatistics session: m_sessions)
+			total += session.getMutedPeriods();
+		return total;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		int total = 0;
+		for(final RaopSessionStatistics session: m_sessions)
+			total += session.getQueueDepth();
+		return total;
+	}
+
+	private LatencyHistogram getDecryptNanos() {
+		final LatencyHistogram total = new LatencyHistogram();
+		total.add(m_endedSessions.getDecryptNanos());
+		for(final RaopSessionStatistics session: m_sessions)
+			total.add(session.getDecryptNanos());
+		return total;
+	}
+
+	private LatencyHistogram getDecodeNanos() {
+		final LatencyHistogram total = new LatencyHistogram();
+		total.add(m_endedSessions.getDecodeNanos());
+		for(final RaopSessionStatistics session: m_sessions)
+			total.add(session.getDecodeNanos());
+		return total;
+	}
+
+	/**
+	 * Adds the decryption time histogram of all sessions to the given
+	 * counts, without allocating a histogram
+	 *
+	 * @param counts array of at least {@link LatencyHistogram#Buckets} counts
+	 * @return sum of the decryption times in nanoseconds
+	 */
+	long addDecryptCountsTo(final long[] counts) {
+		long sum = addCountsTo(m_endedSessions.getDecryptNanos(), counts);
+		for(final RaopSessionStatistics session: m_sessions)
+			sum += addCountsTo(session.getDecryptNanos(), counts);
+		return sum;
+	}
+
+	/**
+	 * Adds the decoding time histogram of all sessions to the given
+	 * counts, without allocating a histogram
+	 *
+	 * @param counts array of at least {@link LatencyHistogram#Buckets} counts
+	 * @return sum of the decoding times in nanoseconds
+	 */
+	long addDecodeCountsTo(final long[] counts) {
+		long sum = addCountsTo(m_endedSessions.getDecodeNanos(), counts);
+		for(final RaopSessionStatistics session: m_sessions)
+			sum += addCountsTo(session.getDecodeNanos(), counts);
+		return sum;
+	}
+
+	private static long addCountsTo(final LatencyHistogram histogram, final long[] counts) {
+		histogram.addCountsTo(counts);
+		return histogram.getSumNanos();
+	}
+
+	@Override
+	public long getDecryptCount() {
+		return getDecryptNanos().getCount();
+	}
+
+	@Override
+	public double getDecryptMicrosMean() {
+		return getDecryptNanos().getMeanNanos() * 1e-3;
+	}
+
+	@Override
+	public double getDecryptMicrosP50() {
+		return getDecryptNanos().getPercentileNanos(50) * 1e-3;
+	}
+
+	@Override
+	public double getDecryptMicrosP99() {
+		return getDecryptNanos().getPercentileNanos(99) * 1e-3;
+	}
+
+	@Override
+	public long[] getDecryptHistogram() {
+		return getDecryptNanos().getCounts();
+	}
+
+	@Override
+	public long getDecodeCount() {
+		return getDecodeNanos().getCount();
+	}
+
+	@Override
+	public double getDecodeMicrosMean() {
+		return getDecodeNanos().getMeanNanos() * 1e-3;
+	}
+
+	@Override
+	public double getDecodeMicrosP50() {
+		return getDecodeNanos().getPercentileNanos(50) * 1e-3;
+	}
+
+	@Override
+	public double getDecodeMicrosP99() {
+		return getDecodeNanos().getPercentileNanos(99) * 1e-3;
+	}
+
+	@Override
+	public long[] getDecodeHistogram() {
+		return getDecodeNanos().getCounts();
+	}
+
+	@Override
+	public String dumpPacketTrace() {
+		final StringBuilder trace = new StringBuilder();
+		PacketTrace.Instance.dump(trace);
+		return trace.toString();
+	}
+}
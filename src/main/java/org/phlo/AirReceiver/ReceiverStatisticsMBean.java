@@ -0,0 +1,66 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+/**
+ * JMX management interface of {@link ReceiverStatistics}. The counters
+ * and histograms are the totals of all sessions, past and present. See
+ * {@link RaopSessionStatisticsMBean} for their meaning
+ */
+public interface ReceiverStatisticsMBean {
+	/**
+	 * Returns the number of sessions currently streaming
+	 */
+	int getActiveSessions();
+
+	/**
+	 * Returns the number of sessions started so far
+	 */
+	long getSessions();
+
+	long getPacketsReceived();
+	long getPacketsRetransmitted();
+	long getPacketsLost();
+	long getPacketsLate();
+	long getRetransmitRequests();
+	long getUnderruns();
+	long getMutedPeriods();
+
+	/**
+	 * Returns the number of packets waiting to be played, summed over all active sessions
+	 */
+	int getQueueDepth();
+
+	long getDecryptCount();
+	double getDecryptMicrosMean();
+	double getDecryptMicrosP50();
+	double getDecryptMicrosP99();
+	long[] getDecryptHistogram();
+
+	long getDecodeCount();
+	double getDecodeMicrosMean();
+	double getDecodeMicrosP50();
+	double getDecodeMicrosP99();
+	long[] getDecodeHistogram();
+
+	/**
+	 * Returns the most recent events of the packet lifecycle of all
+	 * sessions, one per line, see {@link PacketTrace#dump(StringBuilder)}
+	 */
+	String dumpPacketTrace();
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+/**
+ * Estimates a round-trip time and the timeout after which a request
+ * should be considered lost, from measured round-trip times.
+ * <p>
+ * Uses the smoothed round-trip time and round-trip time variation of
+ * RFC 6298. The timeout is the smoothed round-trip time plus four times
+ * its variation, but at least the smoothed round-trip time plus the
+ * timer granularity, and bounded by the given minimum and maximum.
+ * Until the first sample arrives, the timeout is the initial timeout
+ * and the round-trip time is unknown, i.e. zero.
+ * <p>
+ * Samples must only be taken from unambiguous responses, i.e. responses
+ * to requests which were sent exactly once (Karn's algorithm).
+ * <p>
+ * Not thread-safe.
+ */
+public class RoundTripTimeEstimator {
+	/**
+	 * Gains of the smoothed round-trip time and of the variation
+	 */
+	private static final double Alpha = 1.0 / 8.0;
+	private static final double Beta = 1.0 / 4.0;
+
+	private final double m_initialTimeout;
+	private final double m_minimumTimeout;
+	private final double m_maximumTimeout;
+	private final double m_granularity;
+
+	private double m_smoothed = 0.0;
+	private double m_variation = 0.0;
+	private long m_sampleCount = 0;
+
+	/**
+	 * Creates an estimator. All times are in seconds.
+	 *
+	 * @param initialTimeout timeout used until the first sample arrives
+	 * @param minimumTimeout lower bound of the timeout
+	 * @param maximumTimeout upper bound of the timeout
+	 * @param granularity granularity of the timer which checks for timeouts
+	 */
+	public RoundTripTimeEstimator(final double initialTimeout, final double minimumTimeout, final double maximumTimeout, final double granularity) {
+		if (!(minimumTimeout <= maximumTimeout))
+			throw new IllegalArgumentException("Minimum timeout " + minimumTimeout + " exceeds maximum timeout " + maximumTimeout);
+
+		m_initialTimeout = initialTimeout;
+		m_minimumTimeout = minimumTimeout;
+		m_maximumTimeout = maximumTimeout;
+		m_granularity = granularity;
+	}
+
+	/**
+	 * Adds a measured round-trip time. Negative samples, which
+	 * a non-monotonic time source might produce, are ignored.
+	 *
+	 * @param seconds round-trip time in seconds
+	 */
+	public void addSample(final double seconds) {
+		if (!(seconds >= 0.0))
+			return;
+
+		if (m_sampleCount == 0) {
+			m_smoothed = seconds;
+			m_variation = 0.5 * seconds;
+		}
+		else {
+			m_variation = (1.0 - Beta) * m_variation + Beta * Math.abs(m_smoothed - seconds);
+			m_smoothed = (1.0 - Alpha) * m_smoothed + Alpha * seconds;
+		}
+		++m_sampleCount;
+	}
+
+	/**
+	 * Returns the number of samples added so far
+	 *
+	 * @return number of samples
+	 */
+	public long getSampleCount() {
+		return m_sampleCount;
+	}
+
+	/**
+	 * Returns the smoothed round-trip time, or zero if no sample arrived yet
+	 *
+	 * @return round-trip time in seconds
+	 */
+	public double getRoundTripTime() {
+		return m_smoothed;
+	}
+
+	/**
+	 * Returns the round-trip time variation
+	 *
+	 * @return variation in seconds
+	 */
+	public double getVariation() {
+		return m_variation;
+	}
+
+	/**
+	 * Returns the time after which a request should be considered lost
+	 *
+	 * @return timeout in seconds
+	 */
+	public double getTimeout() {
+		final double timeout;
+		if (m_sampleCount == 0)
+			timeout = m_initialTimeout;
+		else
+			timeout = m_smoothed + Math.max(m_granularity, 4.0 * m_variation);
+
+		return Math.min(Math.max(timeout, m_minimumTimeout), m_maximumTimeout);
+	}
+
+	/**
+	 * Forgets all samples
+	 */
+	public void reset() {
+		m_smoothed = 0.0;
+		m_variation = 0.0;
+		m_sampleCount = 0;
+	}
+}
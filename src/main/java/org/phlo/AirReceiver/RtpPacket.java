@@ -25,7 +25,13 @@ import org.jboss.netty.buffer.*;
 public class RtpPacket {
 	public static final int Length = 4;
 
-	final private ChannelBuffer m_buffer;
+	private ChannelBuffer m_buffer;
+
+	/**
+	 * The sequence number, read from the buffer once when the buffer
+	 * is set, and kept in sync by {@link #setSequence(int)}
+	 */
+	private int m_sequence;
 
 	protected RtpPacket(final int size) {
 		assert size >= Length;
@@ -36,14 +42,49 @@ public class RtpPacket {
 
 	public RtpPacket(final ChannelBuffer buffer) throws ProtocolException {
 		m_buffer = buffer;
+		m_sequence = (buffer.capacity() >= Length) ? readSequence(buffer) : 0;
 	}
 
 	public RtpPacket(final ChannelBuffer buffer, final int minimumSize) throws ProtocolException {
 		this(buffer);
+		checkSize(buffer, minimumSize);
+	}
+
+	private static void checkSize(final ChannelBuffer buffer, final int minimumSize) throws InvalidPacketException {
 		if (buffer.capacity() < minimumSize)
 			throw new InvalidPacketException("Packet had invalid size " + buffer.capacity() + " instead of at least " + minimumSize);
 	}
 
+	private static int readSequence(final ChannelBuffer buffer) {
+		return (
+			((buffer.getByte(2) & 0xff) << 8) |
+			((buffer.getByte(3) & 0xff) << 0)
+		);
+	}
+
+	/**
+	 * Makes the packet represent the packet contained in another buffer,
+	 * which allows a packet object to be re-used for many packets
+	 *
+	 * @param buffer ChannelBuffer containing the packet
+	 * @param minimumSize minimum size of the packet
+	 * @throws ProtocolException if the packet is too short. The packet object is left unchanged
+	 */
+	protected void wrap(final ChannelBuffer buffer, final int minimumSize) throws ProtocolException {
+		checkSize(buffer, Math.max(minimumSize, Length));
+		m_buffer = buffer;
+		headerChanged();
+	}
+
+	/**
+	 * Re-reads the header fields which are kept in member variables.
+	 * Must be called after the header was modified other than by
+	 * the packet's setters, and is called by {@link #wrap(ChannelBuffer, int)}
+	 */
+	protected void headerChanged() {
+		m_sequence = readSequence(m_buffer);
+	}
+
 	public ChannelBuffer getBuffer() {
 		return m_buffer;
 	}
@@ -161,10 +202,7 @@ public class RtpPacket {
 	 * @return packet's sequence number
 	 */
 	public int getSequence() {
-		return (
-			((m_buffer.getByte(2) & 0xff) << 8) |
-			((m_buffer.getByte(3) & 0xff) << 0)
-		);
+		return m_sequence;
 	}
 
 	/**
@@ -175,6 +213,7 @@ public class RtpPacket {
 		assert (sequence & ~0xffff) == 0;
 		m_buffer.setByte(2, (sequence & 0xff00) >> 8);
 		m_buffer.setByte(3, (sequence & 0x00ff) >> 0);
+		m_sequence = sequence;
 	}
 
 	@Override
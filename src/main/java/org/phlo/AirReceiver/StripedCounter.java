@@ -0,0 +1,79 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which can be incremented concurrently by many threads
+ * without contention.
+ * <p>
+ * The count is split into a number of stripes, each on its own cache line.
+ * Threads add to the stripe selected by their thread id, so threads running
+ * on different processors usually don't touch the same cache line. Reading
+ * the count sums up all stripes, and is therefore slower than updating it.
+ * Concurrent updates may or may not be reflected by a sum computed
+ * meanwhile.
+ * <p>
+ * Thread-safe and lock-free.
+ */
+public class StripedCounter {
+	/**
+	 * Number of longs per stripe, so that stripes don't share cache lines
+	 */
+	private static final int StripeLongs = 8;
+
+	/**
+	 * Number of stripes, the smallest power of two no smaller than
+	 * twice the number of processors, but at most 64
+	 */
+	static final int Stripes = Math.min(64, Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+	private final AtomicLongArray m_stripes = new AtomicLongArray(Stripes * StripeLongs);
+
+	/**
+	 * Returns the stripe used by the current thread
+	 *
+	 * @return stripe index between 0 and {@link #Stripes}
+	 */
+	static int currentStripe() {
+		/* Fibonacci hashing spreads consecutive thread ids across the stripes */
+		final long id = Thread.currentThread().getId();
+		return (int)((id * 0x9E3779B97F4A7C15L) >>> 32) & (Stripes - 1);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(final long delta) {
+		m_stripes.getAndAdd(currentStripe() * StripeLongs, delta);
+	}
+
+	/**
+	 * Returns the sum of all increments
+	 *
+	 * @return count
+	 */
+	public long get() {
+		long sum = 0;
+		for(int s=0; s < Stripes; ++s)
+			sum += m_stripes.get(s * StripeLongs);
+		return sum;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+/**
+ * Precomputed table of an even function, evaluated by linear interpolation.
+ * <p>
+ * Meant for functions which are too expensive to evaluate per tap of an
+ * interpolation filter, like {@link Functions#sinc(double)} or the Kaiser
+ * window. Evaluating the table costs a few arithmetic operations and two
+ * array accesses, independent of the function.
+ * <p>
+ * The table covers the range [-range, range], the function is assumed to be
+ * zero outside. Its resolution is the number of entries per unit of x, the
+ * error thus shrinks quadratically with the resolution. Each table provides
+ * a bound for its error, see {@link #getErrorBound()}.
+ * <p>
+ * Tables are immutable and thus thread-safe.
+ */
+public final class FunctionTable {
+	/**
+	 * A function of one argument
+	 */
+	public interface Function {
+		public double evaluate(double x);
+	}
+
+	/**
+	 * Oversampling factor of the grid used to estimate
+	 * the magnitude of the function's second derivative
+	 */
+	private static final int CurvatureOversampling = 4;
+
+	private final double m_range;
+	private final int m_resolution;
+
+	/**
+	 * Function values at x = i / m_resolution, up to the first x at or beyond
+	 * m_range, followed by a copy of the last so that the last entry can be
+	 * interpolated
+	 */
+	private final float[] m_values;
+
+	/**
+	 * Table index corresponding to m_range
+	 */
+	private final double m_indexMax;
+
+	private final double m_errorBound;
+
+	/**
+	 * Creates a table of sin(x)/x, see {@link Functions#sinc(double)}
+	 *
+	 * @param range largest x covered by the table
+	 * @param resolution table entries per unit of x
+	 * @return table
+	 */
+	public static FunctionTable sinc(final double range, final int resolution) {
+		return new FunctionTable(new Function() {
+			@Override
+			public double evaluate(final double x) {
+				return (x != 0.0) ? Functions.sinc(x) : 1.0;
+			}
+		}, range, resolution);
+	}
+
+	/**
+	 * Creates a table of the Kaiser window on [-1, 1],
+	 * see {@link Functions#kaiser(double, double)}
+	 *
+	 * @param beta shape parameter
+	 * @param resolution table entries per unit of x
+	 * @return table
+	 */
+	public static FunctionTable kaiser(final double beta, final int resolution) {
+		/* The window is evaluated just inside its support at x = 1, it would
+		 * drop to zero right at the edge otherwise
+		 */
+		return new FunctionTable(new Function() {
+			@Override
+			public double evaluate(final double x) {
+				return Functions.kaiser(Math.min(x, 1.0 - Math.ulp(1.0)), beta);
+			}
+		}, 1.0, resolution);
+	}
+
+	/**
+	 * Creates a table of an even function
+	 *
+	 * @param function function to tabulate, must be even and twice
+	 *        differentiable on [0, range + 1/resolution]
+	 * @param range largest x covered by the table
+	 * @param resolution table entries per unit of x
+	 */
+	public FunctionTable(final Function function, final double range, final int resolution) {
+		if (!(range > 0.0))
+			throw new IllegalArgumentException("range must be greater than zero");
+		if (resolution <= 0)
+			throw new IllegalArgumentException("resolution must be greater than zero");
+
+		m_range = range;
+		m_resolution = resolution;
+
+		final int intervals = (int)Math.ceil(range * resolution);
+		m_values = new float[intervals + 2];
+		double valueMax = 0.0;
+		for(int i=0; i <= intervals; ++i) {
+			final double value = function.evaluate((double)i / (double)resolution);
+			m_values[i] = (float)value;
+			valueMax = Math.max(valueMax, Math.abs(value));
+		}
+		m_values[intervals + 1] = m_values[intervals];
+		m_indexMax = range * resolution;
+
+		/* The error of linear interpolation is bounded by h^2/8 * max|f''|,
+		 * where h is the table's step. Storing the values as floats adds up
+		 * to half an ulp, and so does rounding the interpolated value
+		 */
+		final double step = 1.0 / resolution;
+		final double curvatureMax = estimateCurvatureMax(function, range, step / CurvatureOversampling);
+		m_errorBound = step * step / 8.0 * curvatureMax + Math.ulp((float)valueMax);
+	}
+
+	/**
+	 * Estimates max|f''| on [0, range] from second differences on a grid with the given step
+	 */
+	private static double estimateCurvatureMax(final Function function, final double range, final double step) {
+		final int points = (int)Math.floor(range / step);
+
+		double curvatureMax = 0.0;
+		double previous = function.evaluate(step);
+		double current = function.evaluate(0.0);
+		for(int i=0; i < points; ++i) {
+			/* The function is even, f(-step) thus equals f(step) */
+			final double next = function.evaluate((i + 1) * step);
+			curvatureMax = Math.max(curvatureMax, Math.abs(previous - 2.0 * current + next) / (step * step));
+			previous = current;
+			current = next;
+		}
+
+		return curvatureMax;
+	}
+
+	public double getRange() {
+		return m_range;
+	}
+
+	public int getResolution() {
+		return m_resolution;
+	}
+
+	/**
+	 * Returns the largest difference between the function
+	 * and {@link #evaluate(float)} within the table's range
+	 *
+	 * @return error bound
+	 */
+	public double getErrorBound() {
+		return m_errorBound;
+	}
+
+	/**
+	 * Evaluates the tabulated function, which is zero outside [-range, range]
+	 *
+	 * @param x argument
+	 * @return function value
+	 */
+	public float evaluate(final float x) {
+		/* The index is computed with double precision, since a float's
+		 * precision limits the accuracy of the weight for large x
+		 */
+		final double index = Math.abs((double)x) * m_resolution;
+		if (!(index <= m_indexMax))
+			return 0.0f;
+
+		final int i = (int)index;
+		final double lower = m_values[i];
+		return (float)(lower + (index - i) * (m_values[i + 1] - lower));
+	}
+}
@@ -8,4 +8,37 @@ public final class Functions {
 	public static float sinc(float x) {
 		return (float)Math.sin(x) / x;
 	}
+
+	/**
+	 * Evaluates the zeroth-order modified bessel function of the first kind
+	 *
+	 * @param x argument
+	 * @return I0(x)
+	 */
+	public static double besselI0(double x) {
+		final double xHalfSquared = 0.25 * x * x;
+
+		double result = 1.0;
+		double term = 1.0;
+		for(int k=1; term > result * 1e-17; ++k) {
+			term *= xHalfSquared / ((double)k * (double)k);
+			result += term;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Evaluates the Kaiser window, which is non-zero on (-1, 1)
+	 *
+	 * @param x position
+	 * @param beta shape parameter
+	 * @return window at x
+	 */
+	public static double kaiser(double x, double beta) {
+		if (!(Math.abs(x) < 1.0))
+			return 0.0;
+
+		return besselI0(beta * Math.sqrt(1.0 - x * x)) / besselI0(beta);
+	}
 }
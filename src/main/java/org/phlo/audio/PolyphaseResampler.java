@@ -0,0 +1,374 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.util.Arrays;
+
+/**
+ * Windowed-sinc resampler with a continuously adjustable ratio.
+ * <p>
+ * The interpolation kernel is a sinc function with the given cutoff
+ * frequency, limited to {@code 2 * halfTaps} taps by a Kaiser window.
+ * It is precomputed for {@code phases + 1} equidistant fractional positions
+ * between two input frames. Output frames at positions in between two of
+ * those phases use a linear interpolation of the two neighbouring kernels.
+ * Computing an output frame therefore costs one pass over the taps to
+ * interpolate the kernel, plus one pass per channel to apply it.
+ * <p>
+ * The ratio can be changed at any time, which makes the resampler suitable
+ * for absorbing the drift between two clocks with nominally identical rates.
+ * Changing the ratio never causes discontinuities, since it only affects
+ * the distance between the positions of subsequent output frames.
+ * <p>
+ * Samples are interleaved float samples, offsets and lengths are in frames.
+ * Not thread-safe.
+ */
+public final class PolyphaseResampler {
+	/**
+	 * Default number of taps on each side of the kernel's center
+	 */
+	public static final int DefaultHalfTaps = 16;
+
+	/**
+	 * Default number of precomputed phases
+	 */
+	public static final int DefaultPhases = 128;
+
+	/**
+	 * Default cutoff frequency, relative to the input's nyquist frequency
+	 */
+	public static final double DefaultCutoff = 0.95;
+
+	/**
+	 * Default Kaiser window shape parameter. Yields a stop-band
+	 * attenuation of about 80 dB
+	 */
+	public static final double DefaultKaiserBeta = 8.0;
+
+	private final int m_channels;
+	private final int m_halfTaps;
+	private final int m_taps;
+	private final int m_phases;
+
+	/**
+	 * Precomputed kernels, {@code m_taps} coefficients for
+	 * each of the {@code m_phases + 1} phases
+	 */
+	private final float[] m_filter;
+
+	/**
+	 * Kernel for the current output frame, interpolated from
+	 * the precomputed kernels
+	 */
+	private final float[] m_kernel;
+
+	/**
+	 * Input frames which are still required to compute
+	 * future output frames, interleaved
+	 */
+	private float[] m_history;
+
+	/**
+	 * Number of frames in {@link #m_history}
+	 */
+	private int m_historyFrames;
+
+	/**
+	 * Position of the next output frame in {@link #m_history}, split into
+	 * the preceding input frame and the fractional distance from it. Keeping
+	 * the fraction separate makes its precision independent of the position,
+	 * and thereby the output independent of how the input is split up
+	 */
+	private int m_positionIndex;
+	private double m_positionFraction;
+
+	/**
+	 * Ratio between output and input rate, and the
+	 * corresponding distance between output frames
+	 */
+	private double m_ratio = 1.0;
+	private double m_step = 1.0;
+
+	/**
+	 * Creates a resampler with the default kernel, which is suitable
+	 * for ratios close to one
+	 *
+	 * @param channels number of channels
+	 */
+	public PolyphaseResampler(final int channels) {
+		this(channels, DefaultHalfTaps, DefaultPhases, DefaultCutoff, DefaultKaiserBeta);
+	}
+
+	/**
+	 * Creates a resampler. To avoid aliasing, the cutoff frequency must not
+	 * be larger than the smallest ratio the resampler is used with.
+	 *
+	 * @param channels number of channels
+	 * @param halfTaps number of taps on each side of the kernel's center
+	 * @param phases number of precomputed phases
+	 * @param cutoff cutoff frequency relative to the input's nyquist frequency
+	 * @param kaiserBeta Kaiser window shape parameter
+	 */
+	public PolyphaseResampler(final int channels, final int halfTaps, final int phases, final double cutoff, final double kaiserBeta) {
+		if (channels <= 0)
+			throw new IllegalArgumentException("channels must be greater than zero");
+		if (halfTaps <= 0)
+			throw new IllegalArgumentException("halfTaps must be greater than zero");
+		if (phases <= 0)
+			throw new IllegalArgumentException("phases must be greater than zero");
+		if ((cutoff <= 0.0) || (cutoff > 1.0))
+			throw new IllegalArgumentException("cutoff must be greater than zero and at most one");
+
+		m_channels = channels;
+		m_halfTaps = halfTaps;
+		m_taps = 2 * halfTaps;
+		m_phases = phases;
+		m_filter = computeFilter(halfTaps, phases, cutoff, kaiserBeta);
+		m_kernel = new float[m_taps];
+		m_history = new float[4 * m_taps * channels];
+
+		reset();
+	}
+
+	/**
+	 * Computes the kernels for all phases. The kernel of phase p is
+	 * evaluated at the distances {@code p/phases + halfTaps - 1 - k} for
+	 * {@code k = 0 ... 2*halfTaps-1}, and is normalized to unity gain at
+	 * zero frequency.
+	 */
+	private static float[] computeFilter(final int halfTaps, final int phases, final double cutoff, final double kaiserBeta) {
+		final int taps = 2 * halfTaps;
+		final float[] filter = new float[(phases + 1) * taps];
+
+		for(int p=0; p <= phases; ++p) {
+			final double[] kernel = new double[taps];
+			double sum = 0.0;
+			for(int k=0; k < taps; ++k) {
+				final double distance = (double)p / (double)phases + (double)(halfTaps - 1 - k);
+				final double window = Functions.kaiser(distance / (double)halfTaps, kaiserBeta);
+				final double sinc = (distance != 0.0)
+					? Functions.sinc(Math.PI * cutoff * distance)
+					: 1.0;
+
+				kernel[k] = cutoff * sinc * window;
+				sum += kernel[k];
+			}
+
+			for(int k=0; k < taps; ++k)
+				filter[p * taps + k] = (float)(kernel[k] / sum);
+		}
+
+		return filter;
+	}
+
+	public int getChannels() {
+		return m_channels;
+	}
+
+	public int getHalfTaps() {
+		return m_halfTaps;
+	}
+
+	/**
+	 * Returns the ratio between output and input rate
+	 *
+	 * @return ratio
+	 */
+	public double getRatio() {
+		return m_ratio;
+	}
+
+	/**
+	 * Sets the ratio between output and input rate. A ratio larger than one
+	 * produces more output frames than there are input frames.
+	 *
+	 * @param ratio ratio
+	 */
+	public void setRatio(final double ratio) {
+		if (!(ratio > 0.0))
+			throw new IllegalArgumentException("ratio must be greater than zero");
+
+		m_ratio = ratio;
+		m_step = 1.0 / ratio;
+	}
+
+	/**
+	 * Returns the number of input frames the resampler holds which no output
+	 * frame was computed for yet. At least {@code halfTaps} frames are held
+	 * back since the kernel needs them, the resampler's delay is therefore
+	 * about {@code halfTaps} frames.
+	 *
+	 * @return number of pending input frames
+	 */
+	public double getPendingFrames() {
+		return m_historyFrames - m_positionIndex - m_positionFraction;
+	}
+
+	/**
+	 * Returns the maximal number of output frames {@link #process} produces
+	 * for the given number of input frames
+	 *
+	 * @param inputFrames number of input frames
+	 * @return maximal number of output frames
+	 */
+	public int getMaxOutputFrames(final int inputFrames) {
+		return (int)Math.ceil((getPendingFrames() + inputFrames) * m_ratio) + 1;
+	}
+
+	/**
+	 * Discards all input frames and resets the
+	 * resampler to the state after its construction
+	 */
+	public void reset() {
+		/* The first input frame will be the kernel's center,
+		 * the frames before it are assumed to be zero
+		 */
+		Arrays.fill(m_history, 0.0f);
+		m_historyFrames = m_halfTaps - 1;
+		m_positionIndex = m_halfTaps - 1;
+		m_positionFraction = 0.0;
+	}
+
+	/**
+	 * Discards all input frames and resets the resampler, using the given
+	 * {@code halfTaps - 1} frames instead of zeros as the frames preceding
+	 * the next input frame. That allows the resampler to continue without
+	 * a discontinuity from frames which were played without it.
+	 *
+	 * @param src preceding samples
+	 * @param srcOff offset of the first of the {@code halfTaps - 1} preceding frames
+	 */
+	public void reset(final float[] src, final int srcOff) {
+		reset();
+		System.arraycopy(src, srcOff * m_channels, m_history, 0, (m_halfTaps - 1) * m_channels);
+	}
+
+	/**
+	 * Stores the input frames no output frame was computed for yet in the
+	 * destination without resampling them, and resets the resampler. The
+	 * position of the next output frame is rounded to the nearest input
+	 * frame, so the output is shifted by at most half a frame.
+	 *
+	 * @param dst destination samples
+	 * @param dstOff offset of the first destination frame
+	 * @param dstFrames space for destination frames, must be at least
+	 *        the rounded number of pending frames
+	 * @return number of frames stored
+	 */
+	public int drain(final float[] dst, final int dstOff, final int dstFrames) {
+		final int first = m_positionIndex + ((m_positionFraction >= 0.5) ? 1 : 0);
+		final int frames = Math.max(m_historyFrames - first, 0);
+		if (dstFrames < frames)
+			throw new IllegalArgumentException("destination holds " + dstFrames + " frames but " + frames + " are pending");
+
+		System.arraycopy(m_history, first * m_channels, dst, dstOff * m_channels, frames * m_channels);
+		reset();
+
+		return frames;
+	}
+
+	/**
+	 * Resamples the range [srcOff, srcOff+srcFrames) of the source frames, and
+	 * stores the output frames at dstOff in the destination. All input frames
+	 * are consumed, but output frames which require input frames beyond the
+	 * source's end are computed by subsequent calls.
+	 *
+	 * @param src source samples
+	 * @param srcOff offset of the first source frame
+	 * @param srcFrames number of source frames
+	 * @param dst destination samples
+	 * @param dstOff offset of the first destination frame
+	 * @param dstFrames space for destination frames,
+	 *        must be at least {@link #getMaxOutputFrames(int)}
+	 * @return number of output frames produced
+	 */
+	public int process(final float[] src, final int srcOff, final int srcFrames, final float[] dst, final int dstOff, final int dstFrames) {
+		if (dstFrames < getMaxOutputFrames(srcFrames))
+			throw new IllegalArgumentException("destination holds " + dstFrames + " frames but up to " + getMaxOutputFrames(srcFrames) + " may be produced");
+
+		append(src, srcOff, srcFrames);
+
+		final int channels = m_channels;
+		final int taps = m_taps;
+		final float[] history = m_history;
+		final float[] filter = m_filter;
+		final float[] kernel = m_kernel;
+
+		int produced = 0;
+		while (true) {
+			/* The kernel covers the input frames index-halfTaps+1 ... index+halfTaps */
+			final int index = m_positionIndex;
+			if (index + m_halfTaps >= m_historyFrames)
+				break;
+
+			/* Interpolate the kernel between the two nearest phases */
+			final double phase = m_positionFraction * m_phases;
+			final int phaseIndex = (int)phase;
+			final float phaseWeight = (float)(phase - phaseIndex);
+			final int phaseBase = phaseIndex * taps;
+			for(int k=0; k < taps; ++k) {
+				final float lower = filter[phaseBase + k];
+				kernel[k] = lower + phaseWeight * (filter[phaseBase + taps + k] - lower);
+			}
+
+			/* Apply it to every channel */
+			final int historyBase = (index - m_halfTaps + 1) * channels;
+			final int dstBase = (dstOff + produced) * channels;
+			for(int c=0; c < channels; ++c) {
+				float sample = 0.0f;
+				for(int k=0; k < taps; ++k)
+					sample += kernel[k] * history[historyBase + k * channels + c];
+				dst[dstBase + c] = sample;
+			}
+
+			++produced;
+			m_positionFraction += m_step;
+			final int positionAdvance = (int)m_positionFraction;
+			m_positionIndex += positionAdvance;
+			m_positionFraction -= positionAdvance;
+		}
+
+		return produced;
+	}
+
+	/**
+	 * Appends input frames to the history, after dropping those
+	 * frames no future output frame requires
+	 */
+	private void append(final float[] src, final int srcOff, final int srcFrames) {
+		final int obsoleteFrames = Math.min(m_positionIndex - m_halfTaps + 1, m_historyFrames);
+		if (obsoleteFrames > 0) {
+			System.arraycopy(
+				m_history, obsoleteFrames * m_channels,
+				m_history, 0,
+				(m_historyFrames - obsoleteFrames) * m_channels
+			);
+			m_historyFrames -= obsoleteFrames;
+			m_positionIndex -= obsoleteFrames;
+		}
+
+		if ((m_historyFrames + srcFrames) * m_channels > m_history.length) {
+			final float[] history = new float[(m_historyFrames + srcFrames) * m_channels * 2];
+			System.arraycopy(m_history, 0, history, 0, m_historyFrames * m_channels);
+			m_history = history;
+		}
+
+		System.arraycopy(src, srcOff * m_channels, m_history, m_historyFrames * m_channels, srcFrames * m_channels);
+		m_historyFrames += srcFrames;
+	}
+}
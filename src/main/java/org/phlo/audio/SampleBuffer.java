@@ -68,7 +68,28 @@ public final class SampleBuffer implements SampleIndexedAccessor {
 	public void copyFrom(final ByteBuffer src, final SampleDimensions srcDims, final SampleRange srcRange, final SampleByteBufferFormat srcByteFormat) {
 		srcDims.assertContains(srcRange);
 		m_samplesIndexer.getDimensions().assertContains(srcRange.size);
-		
+
+		/* Use a specialized copy loop if there's one for the source format */
+		if (
+			(m_samplesIndexer instanceof StridedSampleIndexer) &&
+			SampleCopyKernels.copyFrom(
+				src, srcByteFormat.layout.getIndexer(srcDims, srcRange), srcByteFormat,
+				m_buffer, (StridedSampleIndexer)m_samplesIndexer,
+				srcRange.size
+			)
+		) {
+			return;
+		}
+
+		copyFromGeneric(src, srcDims, srcRange, srcByteFormat);
+	}
+
+	/**
+	 * Copies samples from a byte buffer, converting each one through
+	 * the format's {@link SampleIndexedAccessor}. Used if no specialized
+	 * copy loop applies, see {@link SampleCopyKernels}.
+	 */
+	void copyFromGeneric(final ByteBuffer src, final SampleDimensions srcDims, final SampleRange srcRange, final SampleByteBufferFormat srcByteFormat) {
 		final SampleIndexedAccessor srcAccessor = srcByteFormat.getAccessor(src, srcDims, srcRange);
 		for(int c=0; c < srcRange.size.channels; ++c) {
 			for(int s=0; s < srcRange.size.samples; ++s) {
@@ -100,7 +121,28 @@ public final class SampleBuffer implements SampleIndexedAccessor {
 
 	public void copyTo(final ByteBuffer dst, final SampleDimensions dstDims, final SampleOffset dstOffset, final SampleByteBufferFormat dstByteFormat) {
 		dstDims.assertContains(new SampleRange(dstOffset, m_samplesIndexer.getDimensions()));
-		
+
+		/* Use a specialized copy loop if there's one for the destination format */
+		if (
+			(m_samplesIndexer instanceof StridedSampleIndexer) &&
+			SampleCopyKernels.copyTo(
+				m_buffer, (StridedSampleIndexer)m_samplesIndexer,
+				dst, dstByteFormat.layout.getIndexer(dstDims, new SampleRange(dstOffset, m_samplesIndexer.getDimensions())), dstByteFormat,
+				m_samplesIndexer.getDimensions()
+			)
+		) {
+			return;
+		}
+
+		copyToGeneric(dst, dstDims, dstOffset, dstByteFormat);
+	}
+
+	/**
+	 * Copies samples to a byte buffer, converting each one through
+	 * the format's {@link SampleIndexedAccessor}. Used if no specialized
+	 * copy loop applies, see {@link SampleCopyKernels}.
+	 */
+	void copyToGeneric(final ByteBuffer dst, final SampleDimensions dstDims, final SampleOffset dstOffset, final SampleByteBufferFormat dstByteFormat) {
 		final SampleIndexedAccessor dstAccessor = dstByteFormat.getAccessor(dst, dstDims, dstOffset);
 		for(int c=0; c < m_samplesIndexer.getDimensions().channels; ++c) {
 			for(int s=0; s < m_samplesIndexer.getDimensions().samples; ++s) {
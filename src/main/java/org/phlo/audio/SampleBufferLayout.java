@@ -27,53 +27,25 @@ package org.phlo.audio;
 public enum SampleBufferLayout {
 	Interleaved {
 		@Override
-		public final SampleIndexer getIndexer(final SampleDimensions bufferDimensions, final SampleRange indexedRange) {
-			return new SampleIndexer() {
-				@Override public int getSampleIndex(final int channel, final int sample) {
-					return (indexedRange.offset.sample + sample) * bufferDimensions.channels + indexedRange.offset.channel + channel;
-				}
-
-				@Override
-				public SampleDimensions getDimensions() {
-					return indexedRange.size;
-				}
-
-				@Override
-				public SampleIndexer slice(SampleOffset offset, SampleDimensions dimensions) {
-					return getIndexer(bufferDimensions, indexedRange.slice(offset, dimensions));
-				}
-
-				@Override
-				public SampleIndexer slice(SampleRange range) {
-					return getIndexer(bufferDimensions, indexedRange.slice(range));
-				}
-			};
+		public final StridedSampleIndexer getIndexer(final SampleDimensions bufferDimensions, final SampleRange indexedRange) {
+			return new StridedSampleIndexer(
+				indexedRange.offset.sample * bufferDimensions.channels + indexedRange.offset.channel,
+				1,
+				bufferDimensions.channels,
+				indexedRange.size
+			);
 		}
 	},
 
 	Banded {
 		@Override
-		public final SampleIndexer getIndexer(final SampleDimensions bufferDimensions, final SampleRange indexedRange) {
-			return new SampleIndexer() {
-				@Override public int getSampleIndex(final int channel, final int sample) {
-					return (indexedRange.offset.channel + channel) * bufferDimensions.samples + indexedRange.offset.sample + sample;
-				}
-
-				@Override
-				public SampleDimensions getDimensions() {
-					return indexedRange.size;
-				}
-
-				@Override
-				public SampleIndexer slice(SampleOffset offset, SampleDimensions dimensions) {
-					return getIndexer(bufferDimensions, indexedRange.slice(offset, dimensions));
-				}
-
-				@Override
-				public SampleIndexer slice(SampleRange range) {
-					return getIndexer(bufferDimensions, indexedRange.slice(range));
-				}
-			};
+		public final StridedSampleIndexer getIndexer(final SampleDimensions bufferDimensions, final SampleRange indexedRange) {
+			return new StridedSampleIndexer(
+				indexedRange.offset.channel * bufferDimensions.samples + indexedRange.offset.sample,
+				bufferDimensions.samples,
+				1,
+				indexedRange.size
+			);
 		}
 	};
 
@@ -86,7 +58,7 @@ public enum SampleBufferLayout {
 	 * @param indexedRange The range to index
 	 * @return Instance of {@link SampleIndexer}
 	 */
-	public abstract SampleIndexer getIndexer(SampleDimensions bufferDimensions, SampleRange indexedRange);
+	public abstract StridedSampleIndexer getIndexer(SampleDimensions bufferDimensions, SampleRange indexedRange);
 
 	/**
 	 * Returns a {@link SampleIndexer} which indices the sample inside a
@@ -95,7 +67,7 @@ public enum SampleBufferLayout {
 	 * @param bufferDimensions The buffer's dimensions
 	 * @return Instance of {@link SampleIndexer}
 	 */
-	public final SampleIndexer getIndexer(final SampleDimensions dims) {
+	public final StridedSampleIndexer getIndexer(final SampleDimensions dims) {
 		return getIndexer(dims, new SampleRange(SampleOffset.Zero, dims));
 	}
 
@@ -108,7 +80,7 @@ public enum SampleBufferLayout {
 	 * @param offset The offset at which the indices start
 	 * @return Instance of {@link SampleIndexer}
 	 */
-	public final SampleIndexer getIndexer(final SampleDimensions dims, final SampleOffset offset) {
+	public final StridedSampleIndexer getIndexer(final SampleDimensions dims, final SampleOffset offset) {
 		dims.assertContains(offset);
 		return getIndexer(dims, new SampleRange(offset, dims.reduce(offset.channel, offset.sample)));
 	}
@@ -0,0 +1,154 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+/**
+ * Bulk sample conversions on arrays.
+ * <p>
+ * Each conversion between integer and float samples produces exactly the
+ * same values as calling the corresponding {@link Signedness} method for
+ * every element. The loops are however kept free of calls, branches and
+ * non-unit strides, which allows the JIT to compile them to SIMD instructions
+ * on VMs which support that (HotSpot's server compiler does for int, float
+ * and byte arrays). On other VMs they simply run as ordinary loops. Only
+ * the loops on byte arrays of 16-bit samples access them with a stride of
+ * two.
+ */
+public final class SampleConversions {
+	/**
+	 * Class is not meant to be instantiated
+	 */
+	private SampleConversions() {
+		throw new RuntimeException();
+	}
+
+	/**
+	 * Converts 16-bit samples to normalized floats,
+	 * see {@link Signedness#shortToNormalizedFloat(short)}
+	 *
+	 * @param src source samples
+	 * @param srcOff offset of the first source sample
+	 * @param dst destination samples
+	 * @param dstOff offset of the first destination sample
+	 * @param len number of samples
+	 * @param signedness signedness of the source samples
+	 */
+	public static void shortsToNormalizedFloats(final short[] src, final int srcOff, final float[] dst, final int dstOff, final int len, final Signedness signedness) {
+		final float bias = signedness.ShortBias;
+		final float range = signedness.ShortRange;
+
+		/* Unsigned samples are stored with their sign bit flipped,
+		 * so their value is the signed value plus 2^15
+		 */
+		if (Signedness.Signed.equals(signedness)) {
+			for(int i=0; i < len; ++i)
+				dst[dstOff + i] = ((float)src[srcOff + i] - bias) * 2.0f / range;
+		}
+		else {
+			for(int i=0; i < len; ++i)
+				dst[dstOff + i] = ((float)(src[srcOff + i] & 0xffff) - bias) * 2.0f / range;
+		}
+	}
+
+	/**
+	 * Converts normalized floats to 16-bit samples, clamping values
+	 * outside [-1, 1], see {@link Signedness#shortFromNormalizedFloat(float)}
+	 *
+	 * @param src source samples
+	 * @param srcOff offset of the first source sample
+	 * @param dst destination samples
+	 * @param dstOff offset of the first destination sample
+	 * @param len number of samples
+	 * @param signedness signedness of the destination samples
+	 */
+	public static void normalizedFloatsToShorts(final float[] src, final int srcOff, final short[] dst, final int dstOff, final int len, final Signedness signedness) {
+		final float bias = signedness.ShortBias;
+		final float range = signedness.ShortRange;
+
+		if (Signedness.Signed.equals(signedness)) {
+			for(int i=0; i < len; ++i) {
+				final int v = (int)((src[srcOff + i] * range / 2.0f) + bias);
+				dst[dstOff + i] = (short)Math.max(Short.MIN_VALUE, Math.min(v, Short.MAX_VALUE));
+			}
+		}
+		else {
+			/* Clamp in the signed domain, then flip the sign bit */
+			for(int i=0; i < len; ++i) {
+				final int v = (int)(((src[srcOff + i] * range / 2.0f) + bias) + (float)Short.MIN_VALUE);
+				dst[dstOff + i] = (short)(Math.max(Short.MIN_VALUE, Math.min(v, Short.MAX_VALUE)) ^ 0x8000);
+			}
+		}
+	}
+
+	/**
+	 * Assembles 16-bit samples from pairs of bytes
+	 *
+	 * @param src source bytes
+	 * @param srcOff offset of the first source byte
+	 * @param dst destination samples
+	 * @param dstOff offset of the first destination sample
+	 * @param len number of samples
+	 * @param bigEndian true if the samples are big endian
+	 */
+	public static void bytesToShorts(final byte[] src, final int srcOff, final short[] dst, final int dstOff, final int len, final boolean bigEndian) {
+		final int high = bigEndian ? 0 : 1;
+		final int low = 1 - high;
+		for(int i=0; i < len; ++i)
+			dst[dstOff + i] = (short)((src[srcOff + 2 * i + high] << 8) | (src[srcOff + 2 * i + low] & 0xff));
+	}
+
+	/**
+	 * Splits 16-bit samples into pairs of bytes
+	 *
+	 * @param src source samples
+	 * @param srcOff offset of the first source sample
+	 * @param dst destination bytes
+	 * @param dstOff offset of the first destination byte
+	 * @param len number of samples
+	 * @param bigEndian true if the samples are to be stored big endian
+	 */
+	public static void shortsToBytes(final short[] src, final int srcOff, final byte[] dst, final int dstOff, final int len, final boolean bigEndian) {
+		final int high = bigEndian ? 0 : 1;
+		final int low = 1 - high;
+		for(int i=0; i < len; ++i) {
+			final short v = src[srcOff + i];
+			dst[dstOff + 2 * i + high] = (byte)(v >> 8);
+			dst[dstOff + 2 * i + low] = (byte)v;
+		}
+	}
+
+	/**
+	 * Flips the sign bit of 16-bit samples in-place, i.e. converts unsigned
+	 * samples to signed ones and vice versa.
+	 * <p>
+	 * Only the high byte of every sample is touched. XORing all bytes with
+	 * a mask instead keeps the stride at one, but measured almost four times
+	 * slower, since HotSpot doesn't vectorize loops over two arrays accessed
+	 * at different offsets which might overlap.
+	 *
+	 * @param samples sample data
+	 * @param off sample data offset, must be even
+	 * @param len sample data length, must be even
+	 * @param bigEndian true if the samples are big endian
+	 */
+	public static void flipSignBit16(final byte[] samples, final int off, final int len, final boolean bigEndian) {
+		final int high = off + (bigEndian ? 0 : 1);
+		for(int i=0; i < len; i += 2)
+			samples[high + i] ^= (byte)0x80;
+	}
+}
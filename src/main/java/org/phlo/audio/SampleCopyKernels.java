@@ -0,0 +1,260 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Copy loops between byte buffers and float sample arrays, one per
+ * sample format and byte order.
+ * <p>
+ * The generic copy path in {@link SampleBuffer} converts every sample through
+ * a {@link SampleIndexedAccessor}, a {@link SampleAccessor}, {@link Signedness}
+ * and a {@link SampleIndexer}. These calls become megamorphic once more than
+ * one format is in use, which prevents the JIT from inlining them. The loops
+ * here are selected once per copy and contain no virtual calls. The buffer
+ * layout doesn't need loops of its own, since both layouts reduce to strides,
+ * see {@link StridedSampleIndexer}.
+ * <p>
+ * The loops produce exactly the same results as the generic path. They
+ * require byte buffers backed by an accessible array, the copy methods
+ * return false for other buffers to make the caller fall back to the
+ * generic path.
+ */
+final class SampleCopyKernels {
+	/**
+	 * Class is not meant to be instantiated
+	 */
+	private SampleCopyKernels() {
+		throw new RuntimeException();
+	}
+
+	private static final float SignedBias = Signedness.Signed.ShortBias;
+	private static final float SignedRange = Signedness.Signed.ShortRange;
+	private static final float UnsignedBias = Signedness.Unsigned.ShortBias;
+	private static final float UnsignedRange = Signedness.Unsigned.ShortRange;
+
+	/**
+	 * Copies and converts samples from a byte buffer into a float array.
+	 *
+	 * @param src source buffer
+	 * @param srcIndexer indexes the source samples, in units of samples
+	 * @param srcFormat format of the source buffer
+	 * @param dst destination array
+	 * @param dstIndexer indexes the destination samples
+	 * @param dims number of channels and samples to copy
+	 * @return false if no kernel applies and nothing was copied
+	 */
+	static boolean copyFrom(
+		final ByteBuffer src, final StridedSampleIndexer srcIndexer, final SampleByteBufferFormat srcFormat,
+		final float[] dst, final StridedSampleIndexer dstIndexer,
+		final SampleDimensions dims
+	) {
+		if (!src.hasArray())
+			return false;
+
+		final boolean bigEndian = ByteOrder.BIG_ENDIAN.equals(srcFormat.byteOrder);
+		final byte[] a = src.array();
+		final int off = src.arrayOffset();
+		final int bytes = srcFormat.sampleFormat.BytesPerSample;
+		for(int c=0; c < dims.channels; ++c) {
+			final int b = off + bytes * (srcIndexer.base + c * srcIndexer.channelStride);
+			final int bStride = bytes * srcIndexer.sampleStride;
+			final int d = dstIndexer.base + c * dstIndexer.channelStride;
+			final int dStride = dstIndexer.sampleStride;
+
+			switch (srcFormat.sampleFormat) {
+				case SignedInteger16:
+					if (bigEndian)
+						fromS16BE(a, b, bStride, dst, d, dStride, dims.samples);
+					else
+						fromS16LE(a, b, bStride, dst, d, dStride, dims.samples);
+					break;
+				case UnsignedInteger16:
+					if (bigEndian)
+						fromU16BE(a, b, bStride, dst, d, dStride, dims.samples);
+					else
+						fromU16LE(a, b, bStride, dst, d, dStride, dims.samples);
+					break;
+				case Float32:
+					if (bigEndian)
+						fromF32BE(a, b, bStride, dst, d, dStride, dims.samples);
+					else
+						fromF32LE(a, b, bStride, dst, d, dStride, dims.samples);
+					break;
+				default:
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Converts and copies samples from a float array into a byte buffer.
+	 *
+	 * @param src source array
+	 * @param srcIndexer indexes the source samples
+	 * @param dst destination buffer
+	 * @param dstIndexer indexes the destination samples, in units of samples
+	 * @param dstFormat format of the destination buffer
+	 * @param dims number of channels and samples to copy
+	 * @return false if no kernel applies and nothing was copied
+	 */
+	static boolean copyTo(
+		final float[] src, final StridedSampleIndexer srcIndexer,
+		final ByteBuffer dst, final StridedSampleIndexer dstIndexer, final SampleByteBufferFormat dstFormat,
+		final SampleDimensions dims
+	) {
+		if (!dst.hasArray())
+			return false;
+
+		final boolean bigEndian = ByteOrder.BIG_ENDIAN.equals(dstFormat.byteOrder);
+		final byte[] a = dst.array();
+		final int off = dst.arrayOffset();
+		final int bytes = dstFormat.sampleFormat.BytesPerSample;
+		for(int c=0; c < dims.channels; ++c) {
+			final int s = srcIndexer.base + c * srcIndexer.channelStride;
+			final int sStride = srcIndexer.sampleStride;
+			final int b = off + bytes * (dstIndexer.base + c * dstIndexer.channelStride);
+			final int bStride = bytes * dstIndexer.sampleStride;
+
+			switch (dstFormat.sampleFormat) {
+				case SignedInteger16:
+					if (bigEndian)
+						toS16BE(src, s, sStride, a, b, bStride, dims.samples);
+					else
+						toS16LE(src, s, sStride, a, b, bStride, dims.samples);
+					break;
+				case UnsignedInteger16:
+					if (bigEndian)
+						toU16BE(src, s, sStride, a, b, bStride, dims.samples);
+					else
+						toU16LE(src, s, sStride, a, b, bStride, dims.samples);
+					break;
+				case Float32:
+					if (bigEndian)
+						toF32BE(src, s, sStride, a, b, bStride, dims.samples);
+					else
+						toF32LE(src, s, sStride, a, b, bStride, dims.samples);
+					break;
+				default:
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	/* Byte to float loops. The arithmetic matches Signedness.shortToNormalizedFloat */
+
+	private static void fromS16BE(final byte[] a, int b, final int bStride, final float[] dst, int d, final int dStride, final int samples) {
+		for(int i=0; i < samples; ++i, b += bStride, d += dStride)
+			dst[d] = ((float)(short)((a[b] << 8) | (a[b + 1] & 0xff)) - SignedBias) * 2.0f / SignedRange;
+	}
+
+	private static void fromS16LE(final byte[] a, int b, final int bStride, final float[] dst, int d, final int dStride, final int samples) {
+		for(int i=0; i < samples; ++i, b += bStride, d += dStride)
+			dst[d] = ((float)(short)((a[b + 1] << 8) | (a[b] & 0xff)) - SignedBias) * 2.0f / SignedRange;
+	}
+
+	private static void fromU16BE(final byte[] a, int b, final int bStride, final float[] dst, int d, final int dStride, final int samples) {
+		for(int i=0; i < samples; ++i, b += bStride, d += dStride)
+			dst[d] = ((float)(((a[b] & 0xff) << 8) | (a[b + 1] & 0xff)) - UnsignedBias) * 2.0f / UnsignedRange;
+	}
+
+	private static void fromU16LE(final byte[] a, int b, final int bStride, final float[] dst, int d, final int dStride, final int samples) {
+		for(int i=0; i < samples; ++i, b += bStride, d += dStride)
+			dst[d] = ((float)(((a[b + 1] & 0xff) << 8) | (a[b] & 0xff)) - UnsignedBias) * 2.0f / UnsignedRange;
+	}
+
+	private static void fromF32BE(final byte[] a, int b, final int bStride, final float[] dst, int d, final int dStride, final int samples) {
+		for(int i=0; i < samples; ++i, b += bStride, d += dStride)
+			dst[d] = Float.intBitsToFloat((a[b] << 24) | ((a[b + 1] & 0xff) << 16) | ((a[b + 2] & 0xff) << 8) | (a[b + 3] & 0xff));
+	}
+
+	private static void fromF32LE(final byte[] a, int b, final int bStride, final float[] dst, int d, final int dStride, final int samples) {
+		for(int i=0; i < samples; ++i, b += bStride, d += dStride)
+			dst[d] = Float.intBitsToFloat((a[b + 3] << 24) | ((a[b + 2] & 0xff) << 16) | ((a[b + 1] & 0xff) << 8) | (a[b] & 0xff));
+	}
+
+	/* Float to byte loops. The arithmetic matches Signedness.shortFromNormalizedFloat */
+
+	private static int toSigned(final float v) {
+		final int i = (int)((v * SignedRange / 2.0f) + SignedBias);
+		return (i < Short.MIN_VALUE) ? Short.MIN_VALUE : ((i > Short.MAX_VALUE) ? Short.MAX_VALUE : i);
+	}
+
+	private static int toUnsigned(final float v) {
+		final int i = (int)(((v * UnsignedRange / 2.0f) + UnsignedBias) + (float)Short.MIN_VALUE);
+		return ((i < Short.MIN_VALUE) ? Short.MIN_VALUE : ((i > Short.MAX_VALUE) ? Short.MAX_VALUE : i)) - Short.MIN_VALUE;
+	}
+
+	private static void toS16BE(final float[] src, int s, final int sStride, final byte[] a, int b, final int bStride, final int samples) {
+		for(int i=0; i < samples; ++i, s += sStride, b += bStride) {
+			final int v = toSigned(src[s]);
+			a[b] = (byte)(v >> 8);
+			a[b + 1] = (byte)v;
+		}
+	}
+
+	private static void toS16LE(final float[] src, int s, final int sStride, final byte[] a, int b, final int bStride, final int samples) {
+		for(int i=0; i < samples; ++i, s += sStride, b += bStride) {
+			final int v = toSigned(src[s]);
+			a[b] = (byte)v;
+			a[b + 1] = (byte)(v >> 8);
+		}
+	}
+
+	private static void toU16BE(final float[] src, int s, final int sStride, final byte[] a, int b, final int bStride, final int samples) {
+		for(int i=0; i < samples; ++i, s += sStride, b += bStride) {
+			final int v = toUnsigned(src[s]);
+			a[b] = (byte)(v >> 8);
+			a[b + 1] = (byte)v;
+		}
+	}
+
+	private static void toU16LE(final float[] src, int s, final int sStride, final byte[] a, int b, final int bStride, final int samples) {
+		for(int i=0; i < samples; ++i, s += sStride, b += bStride) {
+			final int v = toUnsigned(src[s]);
+			a[b] = (byte)v;
+			a[b + 1] = (byte)(v >> 8);
+		}
+	}
+
+	private static void toF32BE(final float[] src, int s, final int sStride, final byte[] a, int b, final int bStride, final int samples) {
+		for(int i=0; i < samples; ++i, s += sStride, b += bStride) {
+			final int v = Float.floatToRawIntBits(src[s]);
+			a[b] = (byte)(v >> 24);
+			a[b + 1] = (byte)(v >> 16);
+			a[b + 2] = (byte)(v >> 8);
+			a[b + 3] = (byte)v;
+		}
+	}
+
+	private static void toF32LE(final float[] src, int s, final int sStride, final byte[] a, int b, final int bStride, final int samples) {
+		for(int i=0; i < samples; ++i, s += sStride, b += bStride) {
+			final int v = Float.floatToRawIntBits(src[s]);
+			a[b] = (byte)v;
+			a[b + 1] = (byte)(v >> 8);
+			a[b + 2] = (byte)(v >> 16);
+			a[b + 3] = (byte)(v >> 24);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+/**
+ * Indexes samples of a buffer whose combined sample index is an affine
+ * function of the channel and sample index, i.e.
+ * {@code base + channel * channelStride + sample * sampleStride}.
+ * <p>
+ * Both {@link SampleBufferLayout}s produce indexers of this kind. Exposing the
+ * strides allows copy loops to compute indices directly instead of
+ * calling {@link #getSampleIndex(int, int)} for every sample.
+ */
+public final class StridedSampleIndexer implements SampleIndexer {
+	/**
+	 * Index of sample 0 of channel 0
+	 */
+	public final int base;
+
+	/**
+	 * Index distance between two adjacent channels
+	 */
+	public final int channelStride;
+
+	/**
+	 * Index distance between two adjacent samples
+	 */
+	public final int sampleStride;
+
+	private final SampleDimensions m_dimensions;
+
+	public StridedSampleIndexer(final int _base, final int _channelStride, final int _sampleStride, final SampleDimensions dimensions) {
+		base = _base;
+		channelStride = _channelStride;
+		sampleStride = _sampleStride;
+		m_dimensions = dimensions;
+	}
+
+	@Override
+	public SampleDimensions getDimensions() {
+		return m_dimensions;
+	}
+
+	@Override
+	public StridedSampleIndexer slice(final SampleOffset offset, final SampleDimensions dimensions) {
+		final SampleRange range = new SampleRange(m_dimensions).slice(offset, dimensions);
+		return new StridedSampleIndexer(
+			getSampleIndex(range.offset.channel, range.offset.sample),
+			channelStride,
+			sampleStride,
+			range.size
+		);
+	}
+
+	@Override
+	public StridedSampleIndexer slice(final SampleRange range) {
+		return slice(range.offset, range.size);
+	}
+
+	@Override
+	public int getSampleIndex(final int channel, final int sample) {
+		return base + channel * channelStride + sample * sampleStride;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.beatofthedrum.alacdecoder;
+
+import java.util.Arrays;
+
+import org.junit.*;
+
+public class TestAlacDecodeUtils {
+	/**
+	 * Stereo 16-bit frame with an explicit sample count of 32, using the
+	 * adaptive FIR predictor with 8 coefficients. The large jumps of the left
+	 * channel and the full-scale samples of the right channel are stored as
+	 * Rice escape codes, the silent parts as runs of zeros. Decoded to
+	 * {@link #Left} and {@link #Right} by the decoder before the bit reader
+	 * was rewritten to use a 64-bit cache
+	 */
+	private static final String Frame =
+		"2000100000004000001310040000000000000000000000000000001310040000" +
+		"000000000000000000000000000fbfdd7fc0043ff000effc01e1ff00967fc025" +
+		"9ff73a07ffaa6fffe6797fc0ebbff6906c2bac8911404912403a91102f805804" +
+		"80100000000000000000033fe3569ff301ff1567f81232f6cd7f016f705ffca8" +
+		"d7ffff1cffbba8753b59ae4049e13317e5f5be8a01bbe4f8";
+
+	private static final int[] Left = {
+		0, 3, 7, 12, -5, -20, 100, 250, 400, 30000, -30000, 29000, 28000, 1000, -1000, 500,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	private static final int[] Right = {
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 6837, 2553, -2932, -7038,
+		-7833, -4945, 269, 5357, -32768, 32767, 2425, -3057, -7101, -7805, -4839, 403, 5456, 7942, 6693, 2296
+	};
+
+	/**
+	 * Byte offset of the right channel's residuals within {@link #Frame}
+	 */
+	private static final int RightResidualsOffset = 852 / 8;
+
+	/**
+	 * Creates a decoder configured like RaopRtpAudioAlacDecodeHandler
+	 * configures it for the format options 96 352 0 16 40 10 14 2 255 0 0 44100
+	 */
+	private static AlacFile createDecoder() {
+		final AlacFile alacFile = AlacDecodeUtils.create_alac(16, 2);
+		alacFile.setinfo_max_samples_per_frame = 352;
+		alacFile.setinfo_7a = 0;
+		alacFile.setinfo_sample_size = 16;
+		alacFile.setinfo_rice_historymult = 40;
+		alacFile.setinfo_rice_initialhistory = 10;
+		alacFile.setinfo_rice_kmodifier = 14;
+		alacFile.setinfo_7f = 2;
+		alacFile.setinfo_80 = 255;
+		alacFile.setinfo_82 = 0;
+		alacFile.setinfo_86 = 0;
+		alacFile.setinfo_8a_rate = 44100;
+		return alacFile;
+	}
+
+	/**
+	 * Creates a decoder positioned at the start of the given input
+	 */
+	private static AlacFile createReader(final byte[] input) {
+		final AlacFile alacFile = createDecoder();
+		alacFile.input_buffer = input;
+		alacFile.input_buffer_bitcache = 0;
+		alacFile.input_buffer_bitcount = 0;
+		alacFile.ibIdx = 0;
+		return alacFile;
+	}
+
+	private static byte[] hex(final String hex) {
+		final byte[] bytes = new byte[hex.length() / 2];
+		for(int i=0; i < bytes.length; ++i)
+			bytes[i] = (byte)Integer.parseInt(hex.substring(2*i, 2*i + 2), 16);
+		return bytes;
+	}
+
+	/**
+	 * Converts a string of 0s and 1s into bytes, ignoring spaces
+	 * and padding the last byte with 0s
+	 */
+	private static byte[] bits(final String bits) {
+		final String stripped = bits.replace(" ", "");
+		final byte[] bytes = new byte[(stripped.length() + 7) / 8];
+		for(int i=0; i < stripped.length(); ++i) {
+			if (stripped.charAt(i) == '1')
+				bytes[i / 8] |= 0x80 >>> (i % 8);
+		}
+		return bytes;
+	}
+
+	private static String zeros(final int count) {
+		final char[] zeros = new char[count];
+		Arrays.fill(zeros, '0');
+		return new String(zeros);
+	}
+
+	/**
+	 * Reads bits one by one, returning zeros past the end of the input
+	 */
+	private static int referenceBits(final byte[] input, final int position, final int bits) {
+		int result = 0;
+		for(int p=position; p < position + bits; ++p) {
+			final int bit = ((p / 8) < input.length) ? (input[p / 8] >>> (7 - (p % 8))) & 1 : 0;
+			result = (result << 1) | bit;
+		}
+		return result;
+	}
+
+	private static int[] interleave(final int[] left, final int[] right) {
+		final int[] samples = new int[left.length + right.length];
+		for(int i=0; i < left.length; ++i) {
+			samples[2*i] = left[i];
+			samples[2*i + 1] = right[i];
+		}
+		return samples;
+	}
+
+	@Test
+	public void testReadBits() {
+		final byte[] input = new byte[23];
+		for(int i=0; i < input.length; ++i)
+			input[i] = (byte)(i * 37 + 11);
+
+		/* The reads start at every offset within the cache, cross the 32-bit
+		 * boundaries at 33 to 65 and 113 to 145 and the 64-bit boundary at
+		 * 64, reach the end of the input at 184 and continue past it
+		 */
+		final int[] widths = { 3, 29, 1, 32, 31, 17, 32, 32, 7, 16, 32, 5, 32, 32 };
+		final AlacFile alacFile = createReader(input);
+		int position = 0;
+		for(final int width: widths) {
+			final int expected = referenceBits(input, position, width);
+			Assert.assertEquals("peek of " + width + " bits at " + position, expected, AlacDecodeUtils.peekbits(alacFile, width));
+			Assert.assertEquals("read of " + width + " bits at " + position, expected, AlacDecodeUtils.readbits(alacFile, width));
+			position += width;
+		}
+
+		/* Past the end of the input, only zeros are read */
+		Assert.assertEquals(0, AlacDecodeUtils.readbits(alacFile, 32));
+		Assert.assertEquals(0, AlacDecodeUtils.readbits(alacFile, 0));
+	}
+
+	@Test
+	public void testEntropyDecodeValue() {
+		final AlacFile alacFile = createReader(bits(
+			zeros(50) +
+			/* Escape code, the raw 17-bit value crosses the 64-bit boundary */
+			"111111111 11010010110100101" +
+			/* Quotient 2 and remainder 4 for k = 4 */
+			"110 0101" +
+			/* Quotient 0 and remainder 0, which is stored in k - 1 bits */
+			"0 000" +
+			"10110011"
+		));
+
+		Assert.assertEquals(0, AlacDecodeUtils.readbits(alacFile, 25));
+		Assert.assertEquals(0, AlacDecodeUtils.readbits(alacFile, 25));
+		Assert.assertEquals(0x1a5a5, AlacDecodeUtils.entropy_decode_value(alacFile, 17, 4, 0xffffffff));
+		Assert.assertEquals(2 * 15 + 4, AlacDecodeUtils.entropy_decode_value(alacFile, 17, 4, 0xffffffff));
+		Assert.assertEquals(0, AlacDecodeUtils.entropy_decode_value(alacFile, 17, 4, 0xffffffff));
+		Assert.assertEquals(0xb3, AlacDecodeUtils.readbits(alacFile, 8));
+	}
+
+	@Test
+	public void testDecodeFrame() {
+		final byte[] frame = hex(Frame);
+		final int[] expected = interleave(Left, Right);
+		final AlacFile alacFile = createDecoder();
+		final int[] pcm = new int[2 * 352];
+
+		/* With the spare bytes RaopRtpAudioAlacDecodeHandler appends */
+		Assert.assertEquals(4 * Left.length, AlacDecodeUtils.decode_frame(alacFile, Arrays.copyOf(frame, frame.length + 3), pcm, 352));
+		Assert.assertArrayEquals(expected, Arrays.copyOf(pcm, expected.length));
+
+		/* Without spare bytes, the final bits are read byte by byte */
+		Arrays.fill(pcm, 0);
+		Assert.assertEquals(4 * Left.length, AlacDecodeUtils.decode_frame(alacFile, frame, pcm, 352));
+		Assert.assertArrayEquals(expected, Arrays.copyOf(pcm, expected.length));
+	}
+
+	@Test
+	public void testDecodeTruncatedFrame() {
+		final byte[] frame = hex(Frame);
+		final AlacFile alacFile = createDecoder();
+		final int[] pcm = new int[2 * 352];
+
+		/* Truncated within the right channel's residuals. The missing bits
+		 * read as zeros, so the left channel and the first samples of the
+		 * right channel are still intact
+		 */
+		final byte[] truncated = Arrays.copyOf(frame, RightResidualsOffset + 14);
+		Assert.assertEquals(4 * Left.length, AlacDecodeUtils.decode_frame(alacFile, truncated, pcm, 352));
+		for(int i=0; i < Left.length; ++i)
+			Assert.assertEquals("left sample " + i, Left[i], pcm[2*i]);
+		for(int i=0; i < 17; ++i)
+			Assert.assertEquals("right sample " + i, Right[i], pcm[2*i + 1]);
+
+		/* Truncated within the sample count, which then reads as zero */
+		Arrays.fill(pcm, 1);
+		Assert.assertEquals(0, AlacDecodeUtils.decode_frame(alacFile, Arrays.copyOf(frame, 3), pcm, 352));
+		Assert.assertEquals(1, pcm[0]);
+
+		/* The decoder recovers with the next complete frame */
+		Assert.assertEquals(4 * Left.length, AlacDecodeUtils.decode_frame(alacFile, frame, pcm, 352));
+		Assert.assertArrayEquals(interleave(Left, Right), Arrays.copyOf(pcm, 2 * Left.length));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import org.junit.*;
+
+public class TestAudioJitterBuffer {
+	private static final int PacketFrames = 352;
+	private static final int BytesPerFrame = 4;
+
+	private static byte[] packet(final int value) {
+		final byte[] samples = new byte[PacketFrames * BytesPerFrame];
+		for(int i=0; i < samples.length; ++i)
+			samples[i] = (byte)value;
+		return samples;
+	}
+
+	@Test
+	public void testOutOfOrder() {
+		final AudioJitterBuffer buffer = new AudioJitterBuffer(PacketFrames, BytesPerFrame, 16);
+		final long start = 1000000;
+
+		/* Insert packets 3, 1, 0, 2 */
+		Assert.assertTrue(buffer.put(start + 3 * PacketFrames, packet(3), 0, PacketFrames * BytesPerFrame));
+		Assert.assertTrue(buffer.put(start + 1 * PacketFrames, packet(1), 0, PacketFrames * BytesPerFrame));
+		Assert.assertTrue(buffer.put(start + 0 * PacketFrames, packet(0), 0, PacketFrames * BytesPerFrame));
+		Assert.assertTrue(buffer.put(start + 2 * PacketFrames, packet(2), 0, PacketFrames * BytesPerFrame));
+		Assert.assertEquals(4, buffer.size());
+
+		/* Packets come out in playback order */
+		final byte[] samples = new byte[buffer.getPacketBytes()];
+		for(int p=0; p < 4; ++p) {
+			final long frameTime = buffer.firstFrameTime();
+			Assert.assertEquals(start + p * PacketFrames, frameTime);
+			Assert.assertEquals(PacketFrames * BytesPerFrame, buffer.take(frameTime, samples));
+			Assert.assertEquals((byte)p, samples[0]);
+		}
+		Assert.assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void testRetransmit() {
+		final AudioJitterBuffer buffer = new AudioJitterBuffer(PacketFrames, BytesPerFrame, 16);
+		final byte[] samples = new byte[buffer.getPacketBytes()];
+
+		/* Packet 1 is missing initially */
+		buffer.put(0 * PacketFrames, packet(0), 0, PacketFrames * BytesPerFrame);
+		buffer.put(2 * PacketFrames, packet(2), 0, PacketFrames * BytesPerFrame);
+		Assert.assertEquals(0, buffer.take(buffer.firstFrameTime(), samples) - PacketFrames * BytesPerFrame);
+		Assert.assertEquals(2 * PacketFrames, buffer.firstFrameTime());
+
+		/* Retransmitted packet 1 arrives and is played before packet 2 */
+		buffer.put(1 * PacketFrames, packet(1), 0, PacketFrames * BytesPerFrame);
+		Assert.assertEquals(1 * PacketFrames, buffer.firstFrameTime());
+
+		/* Duplicate retransmit replaces the original */
+		buffer.put(1 * PacketFrames, packet(5), 0, PacketFrames * BytesPerFrame);
+		Assert.assertEquals(2, buffer.size());
+		buffer.take(1 * PacketFrames, samples);
+		Assert.assertEquals((byte)5, samples[0]);
+
+		/* Removing a packet which isn't there fails */
+		Assert.assertFalse(buffer.remove(1 * PacketFrames));
+		Assert.assertEquals(-1, buffer.take(1 * PacketFrames, samples));
+		Assert.assertTrue(buffer.remove(2 * PacketFrames));
+		Assert.assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void testCapacity() {
+		final AudioJitterBuffer buffer = new AudioJitterBuffer(PacketFrames, BytesPerFrame, 4);
+
+		/* Packets more than the capacity apart are rejected */
+		Assert.assertTrue(buffer.put(0 * PacketFrames, packet(0), 0, PacketFrames * BytesPerFrame));
+		Assert.assertTrue(buffer.put(3 * PacketFrames, packet(3), 0, PacketFrames * BytesPerFrame));
+		Assert.assertFalse(buffer.put(4 * PacketFrames, packet(4), 0, PacketFrames * BytesPerFrame));
+
+		/* Packets larger than a slot are rejected */
+		Assert.assertFalse(buffer.put(1 * PacketFrames, new byte[PacketFrames * BytesPerFrame + 1], 0, PacketFrames * BytesPerFrame + 1));
+
+		/* Once the earliest packet is gone, the ring wraps around */
+		Assert.assertTrue(buffer.remove(0));
+		Assert.assertTrue(buffer.put(4 * PacketFrames, packet(4), 0, PacketFrames * BytesPerFrame));
+		Assert.assertEquals(3 * PacketFrames, buffer.firstFrameTime());
+
+		/* Clearing empties the buffer */
+		buffer.clear();
+		Assert.assertTrue(buffer.isEmpty());
+		Assert.assertTrue(buffer.put(100 * PacketFrames, packet(0), 0, PacketFrames * BytesPerFrame));
+		Assert.assertEquals(100 * PacketFrames, buffer.firstFrameTime());
+	}
+}
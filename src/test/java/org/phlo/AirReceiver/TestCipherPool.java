@@ -0,0 +1,78 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.*;
+
+import org.junit.*;
+
+public class TestCipherPool {
+	@Test
+	public void testReuse() {
+		final CipherPool pool = new CipherPool("AES/CBC/NoPadding", 2);
+		pool.warmUp(2);
+		Assert.assertEquals(2, pool.getIdleCount());
+		Assert.assertEquals(2, pool.getCreateCount());
+
+		final Cipher cipher1 = pool.acquire();
+		final Cipher cipher2 = pool.acquire();
+		final Cipher cipher3 = pool.acquire();
+		Assert.assertEquals(0, pool.getIdleCount());
+		Assert.assertEquals(3, pool.getCreateCount());
+		Assert.assertEquals(3, pool.getAcquireCount());
+
+		/* Only as many ciphers as the capacity allows are kept */
+		pool.release(cipher1);
+		pool.release(cipher2);
+		pool.release(cipher3);
+		Assert.assertEquals(2, pool.getIdleCount());
+
+		Assert.assertSame(cipher1, pool.acquire());
+		Assert.assertEquals(3, pool.getCreateCount());
+	}
+
+	@Test
+	public void testInitializedCiphers() throws Exception {
+		final SecretKeySpec key = new SecretKeySpec(new byte[16], "AES");
+		final CipherPool pool = new CipherPool("AES/ECB/NoPadding", 1, Cipher.ENCRYPT_MODE, key);
+
+		final Cipher reference = AirTunesCrytography.getCipher("AES/ECB/NoPadding");
+		reference.init(Cipher.ENCRYPT_MODE, key);
+		final byte[] expected = reference.doFinal(new byte[16]);
+
+		/* Pooled ciphers can be used right away, and again after being released */
+		for(int i=0; i < 2; ++i) {
+			final Cipher cipher = pool.acquire();
+			try {
+				Assert.assertArrayEquals(expected, cipher.doFinal(new byte[16]));
+			}
+			finally {
+				pool.release(cipher);
+			}
+		}
+		Assert.assertEquals(1, pool.getCreateCount());
+	}
+
+	@Test
+	public void testWarmUp() {
+		AirTunesCrytography.warmUp();
+		Assert.assertTrue(AirTunesCrytography.RsaPkcs1SignPool.getIdleCount() > 0);
+		Assert.assertTrue(AirTunesCrytography.RsaOaepDecryptPool.getIdleCount() > 0);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.io.*;
+import java.nio.channels.*;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.*;
+
+public class TestFileChannelAudioOutputSink {
+	private static final AudioFormat Format = new AudioFormat(44100, 16, 2, true, true);
+
+	private static FileChannelAudioOutputSink createSink(final OutputStream output, final int bufferSize) {
+		final FileChannelAudioOutputSink sink = new FileChannelAudioOutputSink(Channels.newChannel(output), Format, bufferSize);
+		sink.start();
+		return sink;
+	}
+
+	@Test
+	public void testWrite() {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final FileChannelAudioOutputSink sink = createSink(output, 4096);
+
+		final byte[] samples = new byte[1024];
+		for(int i=0; i < samples.length; ++i)
+			samples[i] = (byte)i;
+
+		Assert.assertEquals(samples.length, sink.write(samples, 0, samples.length));
+		Assert.assertArrayEquals(samples, output.toByteArray());
+		Assert.assertTrue(sink.available() <= 4096 - samples.length + (int)sink.getFramePosition() * 4);
+
+		sink.close();
+		Assert.assertFalse(sink.isActive());
+	}
+
+	@Test
+	public void testGain() {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final FileChannelAudioOutputSink sink = createSink(output, 4096);
+		Assert.assertTrue(sink.isGainSupported());
+
+		/* Attenuate by about 6 dB, i.e. halve the samples */
+		sink.setGain((float)(20.0 * Math.log10(0.5)));
+		sink.write(new byte[] { 0x10, 0x00, (byte)0xf0, 0x00 }, 0, 4);
+
+		/* Mute */
+		sink.setGain(Float.NEGATIVE_INFINITY);
+		sink.write(new byte[] { 0x10, 0x00, (byte)0xf0, 0x00 }, 0, 4);
+
+		/* The gain is bounded by 0 dB */
+		sink.setGain(6.0f);
+		Assert.assertEquals(0.0f, sink.getGain(), 0.0f);
+
+		Assert.assertArrayEquals(
+			new byte[] { 0x08, 0x00, (byte)0xf8, 0x00, 0, 0, 0, 0 },
+			output.toByteArray()
+		);
+		sink.close();
+	}
+
+	/**
+	 * Clock which only advances while the sink waits
+	 */
+	private static final class ManualClock implements FileChannelAudioOutputSink.Clock {
+		long m_nanos = 0;
+		long m_parkedNanos = 0;
+
+		@Override
+		public long nanoTime() {
+			return m_nanos;
+		}
+
+		@Override
+		public void parkNanos(final long nanos) {
+			m_nanos += nanos;
+			m_parkedNanos += nanos;
+		}
+	}
+
+	@Test
+	public void testRealTime() {
+		/* A buffer of 441 frames holds 10ms of audio. Writing 100ms must therefore
+		 * block for about 90ms
+		 */
+		final ManualClock clock = new ManualClock();
+		final FileChannelAudioOutputSink sink = new FileChannelAudioOutputSink(Channels.newChannel(new ByteArrayOutputStream()), Format, 441 * 4, clock);
+		sink.start();
+		final byte[] samples = new byte[4410 * 4];
+
+		Assert.assertEquals(samples.length, sink.write(samples, 0, samples.length));
+		final long parkedMillis = clock.m_parkedNanos / 1000000;
+
+		Assert.assertTrue("write blocked for " + parkedMillis + " ms", (parkedMillis >= 89) && (parkedMillis <= 91));
+		Assert.assertEquals(4410 - 441, sink.getFramePosition());
+		sink.close();
+	}
+
+	@Test
+	public void testGainUnsupported() {
+		/* The gain can't be applied to 8-bit samples, they're written unchanged */
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final FileChannelAudioOutputSink sink = new FileChannelAudioOutputSink(Channels.newChannel(output), new AudioFormat(44100, 8, 2, true, true), 4096);
+		sink.start();
+		Assert.assertFalse(sink.isGainSupported());
+
+		sink.setGain(-6.0f);
+		Assert.assertEquals(0.0f, sink.getGain(), 0.0f);
+		sink.write(new byte[] { 0x10, (byte)0xf0 }, 0, 2);
+
+		Assert.assertArrayEquals(new byte[] { 0x10, (byte)0xf0 }, output.toByteArray());
+		sink.close();
+	}
+}
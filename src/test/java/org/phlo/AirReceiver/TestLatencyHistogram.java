@@ -0,0 +1,79 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import org.junit.*;
+
+public class TestLatencyHistogram {
+	@Test
+	public void testBuckets() {
+		Assert.assertEquals(0, LatencyHistogram.bucketOf(-1));
+		Assert.assertEquals(0, LatencyHistogram.bucketOf(0));
+		Assert.assertEquals(1, LatencyHistogram.bucketOf(1));
+		Assert.assertEquals(2, LatencyHistogram.bucketOf(2));
+		Assert.assertEquals(2, LatencyHistogram.bucketOf(3));
+		Assert.assertEquals(11, LatencyHistogram.bucketOf(1024));
+		Assert.assertEquals(LatencyHistogram.Buckets - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+
+		/* Every duration is below its bucket's limit, and not below the previous one's */
+		for(long nanos=1; nanos < 100000; nanos = nanos * 3 + 1) {
+			final int bucket = LatencyHistogram.bucketOf(nanos);
+			Assert.assertTrue(nanos < LatencyHistogram.bucketLimit(bucket));
+			Assert.assertTrue(nanos >= LatencyHistogram.bucketLimit(bucket - 1));
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getPercentileNanos(50));
+		Assert.assertEquals(0.0, histogram.getMeanNanos(), 0.0);
+
+		/* 98 fast, 2 slow durations */
+		for(int i=0; i < 98; ++i)
+			histogram.record(1000);
+		histogram.record(1000000);
+		histogram.record(1000000);
+
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(98 * 1000 + 2 * 1000000, histogram.getSumNanos());
+		Assert.assertEquals(20980.0, histogram.getMeanNanos(), 0.0);
+		Assert.assertEquals(1024, histogram.getPercentileNanos(50));
+		Assert.assertEquals(1024, histogram.getPercentileNanos(98));
+		Assert.assertEquals(1 << 20, histogram.getPercentileNanos(99));
+		Assert.assertEquals(1 << 20, histogram.getPercentileNanos(100));
+	}
+
+	@Test
+	public void testAdd() {
+		final LatencyHistogram a = new LatencyHistogram();
+		final LatencyHistogram b = new LatencyHistogram();
+		a.record(10);
+		b.record(10);
+		b.record(5000);
+
+		a.add(b);
+		final long[] counts = a.getCounts();
+		Assert.assertEquals(LatencyHistogram.Buckets, counts.length);
+		Assert.assertEquals(2, counts[LatencyHistogram.bucketOf(10)]);
+		Assert.assertEquals(1, counts[LatencyHistogram.bucketOf(5000)]);
+		Assert.assertEquals(5020, a.getSumNanos());
+		Assert.assertEquals(2, b.getCount());
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.phlo.AirReceiver;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class TestMetricsRenderer {
+	private static List<String> lines(final CharSequence text) {
+		return Arrays.asList(text.toString().split("\n"));
+	}
+
+	@Test
+	public void testCounters() {
+		final ReceiverStatistics statistics = new ReceiverStatistics(null);
+		final RaopSessionStatistics ended = statistics.startSession("ended");
+		ended.recordPacketReceived();
+		ended.recordPacketLost();
+		statistics.endSession(ended);
+		final RaopSessionStatistics session = statistics.startSession("active");
+		session.recordPacketReceived();
+		session.recordPacketRetransmitted();
+		session.recordRetransmitRequest();
+
+		final List<String> lines = lines(new MetricsRenderer(statistics, null).render());
+		Assert.assertTrue(lines.contains("# TYPE airreceiver_sessions_active gauge"));
+		Assert.assertTrue(lines.contains("airreceiver_sessions_active 1"));
+		Assert.assertTrue(lines.contains("airreceiver_sessions_total 2"));
+		Assert.assertTrue(lines.contains("# TYPE airreceiver_packets_received_total counter"));
+		Assert.assertTrue(lines.contains("airreceiver_packets_received_total 2"));
+		Assert.assertTrue(lines.contains("airreceiver_packets_retransmitted_total 1"));
+		Assert.assertTrue(lines.contains("airreceiver_packets_lost_total 1"));
+		Assert.assertTrue(lines.contains("airreceiver_retransmit_requests_total 1"));
+		Assert.assertTrue(lines.contains("airreceiver_queued_packets 0"));
+		Assert.assertFalse(lines.toString().contains("decode_worker"));
+	}
+
+	@Test
+	public void testHistogram() {
+		final ReceiverStatistics statistics = new ReceiverStatistics(null);
+		final RaopSessionStatistics session = statistics.startSession("active");
+		session.recordDecode(1000);
+		session.recordDecode(1500);
+		session.recordDecode(3000000000L);
+
+		final MetricsRenderer renderer = new MetricsRenderer(statistics, null);
+		final List<String> lines = lines(renderer.render());
+		Assert.assertTrue(lines.contains("# TYPE airreceiver_decode_seconds histogram"));
+
+		/* Buckets are cumulative, with exact decimal bounds */
+		Assert.assertTrue(lines.contains("airreceiver_decode_seconds_bucket{le=\"0.000000001\"} 0"));
+		Assert.assertTrue(lines.contains("airreceiver_decode_seconds_bucket{le=\"0.000001024\"} 1"));
+		Assert.assertTrue(lines.contains("airreceiver_decode_seconds_bucket{le=\"0.000002048\"} 2"));
+		Assert.assertTrue(lines.contains("airreceiver_decode_seconds_bucket{le=\"2.147483648\"} 2"));
+		Assert.assertTrue(lines.contains("airreceiver_decode_seconds_bucket{le=\"4.294967296\"} 3"));
+		Assert.assertTrue(lines.contains("airreceiver_decode_seconds_bucket{le=\"+Inf\"} 3"));
+		Assert.assertTrue(lines.contains("airreceiver_decode_seconds_sum 3.000002500"));
+		Assert.assertTrue(lines.contains("airreceiver_decode_seconds_count 3"));
+		Assert.assertTrue(lines.contains("airreceiver_decrypt_seconds_count 0"));
+
+		/* Rendering again reuses the buffer and doesn't accumulate counts */
+		Assert.assertEquals(lines, lines(renderer.render()));
+	}
+
+	@Test
+	public void testDecodeWorkers() {
+		final RaopRtpDecodeScheduler scheduler = new RaopRtpDecodeScheduler(2, 16);
+		try {
+			scheduler.createSession();
+			final List<String> lines = lines(new MetricsRenderer(new ReceiverStatistics(null), scheduler).render());
+			Assert.assertTrue(lines.contains("airreceiver_decode_worker_queue_depth{worker=\"0\"} 0"));
+			Assert.assertTrue(lines.contains("airreceiver_decode_worker_queue_depth{worker=\"1\"} 0"));
+			Assert.assertTrue(lines.contains("airreceiver_decode_worker_sessions{worker=\"0\"} 1"));
+			Assert.assertTrue(lines.contains("airreceiver_decode_worker_sessions{worker=\"1\"} 0"));
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testGetPath() {
+		Assert.assertEquals("/metrics", MetricsHttpHandler.getPath("/metrics"));
+		Assert.assertEquals("/metrics", MetricsHttpHandler.getPath("/metrics?name[]=x"));
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class TestMissingPacketTracker {
+	private static final double Tick = 0.01;
+
+	private static List<Integer> drainDue(final MissingPacketTracker tracker, final double now) {
+		final List<Integer> due = new ArrayList<Integer>();
+		int sequence;
+		while ((sequence = tracker.nextDue(now)) >= 0)
+			due.add(sequence);
+		return due;
+	}
+
+	@Test
+	public void testMarkUnmark() {
+		final MissingPacketTracker tracker = new MissingPacketTracker(128, Tick, 256);
+		Assert.assertTrue(tracker.isEmpty());
+
+		Assert.assertEquals(-1, tracker.mark(10, 2.0, 1.5));
+		Assert.assertEquals(-1, tracker.mark(11, 2.1, 1.6));
+		Assert.assertEquals(2, tracker.size());
+		Assert.assertTrue(tracker.contains(10));
+		Assert.assertFalse(tracker.contains(12));
+		Assert.assertEquals(2.1, tracker.getRequiredUntil(11), 0.0);
+		Assert.assertEquals(1.6, tracker.getExpectedUntil(11), 0.0);
+		Assert.assertEquals(0, tracker.getRequestCount(11));
+
+		Assert.assertTrue(tracker.unmark(10));
+		Assert.assertFalse(tracker.unmark(10));
+		Assert.assertFalse(tracker.contains(10));
+		Assert.assertTrue(Double.isNaN(tracker.getExpectedUntil(10)));
+		Assert.assertEquals(1, tracker.size());
+
+		/* Unmarked packets are never due */
+		Assert.assertEquals(Arrays.asList(11), drainDue(tracker, 10.0));
+	}
+
+	@Test
+	public void testDue() {
+		final MissingPacketTracker tracker = new MissingPacketTracker(128, Tick, 256);
+		Assert.assertTrue(drainDue(tracker, 1.0).isEmpty());
+
+		tracker.mark(3, 2.0, 1.205);
+		tracker.mark(1, 2.0, 1.100);
+		tracker.mark(2, 2.0, 1.204);
+
+		Assert.assertTrue(drainDue(tracker, 1.099).isEmpty());
+		Assert.assertEquals(Arrays.asList(1), drainDue(tracker, 1.1));
+
+		/* Packets within the current tick become due once their time passed */
+		Assert.assertEquals(Arrays.asList(2), drainDue(tracker, 1.2045));
+		Assert.assertEquals(Arrays.asList(3), drainDue(tracker, 1.2050));
+		Assert.assertTrue(drainDue(tracker, 1.3).isEmpty());
+
+		/* Returned packets stay tracked until they're re-scheduled or unmarked */
+		Assert.assertEquals(3, tracker.size());
+		tracker.requested(1, 42L, 1.4);
+		Assert.assertEquals(1, tracker.getRequestCount(1));
+		Assert.assertEquals(42L, tracker.getRequestNanos(1));
+		tracker.postpone(1, 1.5);
+		Assert.assertEquals(1, tracker.getRequestCount(1));
+		tracker.unmark(2);
+		tracker.unmark(3);
+		Assert.assertTrue(drainDue(tracker, 1.49).isEmpty());
+		Assert.assertEquals(Arrays.asList(1), drainDue(tracker, 1.5));
+	}
+
+	@Test
+	public void testDueAfterWrapAround() {
+		final MissingPacketTracker tracker = new MissingPacketTracker(128, Tick, 16);
+		drainDue(tracker, 0.0);
+
+		/* More than one round of the wheel ahead */
+		tracker.mark(1, 10.0, 0.505);
+		tracker.mark(2, 10.0, 0.055);
+		tracker.mark(3, 10.0, 5.0);
+
+		for(int i=1; i < 50; ++i)
+			Assert.assertEquals((i == 6) ? Arrays.asList(2) : Collections.<Integer>emptyList(), drainDue(tracker, i * Tick));
+		Assert.assertEquals(Arrays.asList(1), drainDue(tracker, 0.51));
+
+		/* Skipping many rounds at once visits every tick once */
+		Assert.assertEquals(Arrays.asList(3), drainDue(tracker, 100.0));
+
+		/* Packets due before the current time are returned immediately */
+		tracker.mark(4, 200.0, 50.0);
+		Assert.assertEquals(Arrays.asList(4), drainDue(tracker, 100.0));
+	}
+
+	@Test
+	public void testEviction() {
+		final MissingPacketTracker tracker = new MissingPacketTracker(4, Tick, 16);
+
+		for(int s=0; s < 4; ++s)
+			Assert.assertEquals(-1, tracker.mark((0xfffe + s) & 0xffff, 1.0, 0.5));
+		Assert.assertEquals(4, tracker.size());
+
+		/* Sequence 2 shares a slot with 0xfffe */
+		Assert.assertEquals(0xfffe, tracker.mark(2, 1.0, 0.6));
+		Assert.assertEquals(4, tracker.size());
+		Assert.assertFalse(tracker.contains(0xfffe));
+
+		/* Re-marking a packet resets it without evicting anything */
+		Assert.assertEquals(-1, tracker.mark(2, 1.0, 0.7));
+		Assert.assertEquals(4, tracker.size());
+
+		Assert.assertEquals(new HashSet<Integer>(Arrays.asList(0xffff, 0, 1)), new HashSet<Integer>(drainDue(tracker, 0.5)));
+		Assert.assertEquals(Arrays.asList(2), drainDue(tracker, 0.7));
+
+		tracker.clear();
+		Assert.assertTrue(tracker.isEmpty());
+		Assert.assertTrue(drainDue(tracker, 1.0).isEmpty());
+	}
+}
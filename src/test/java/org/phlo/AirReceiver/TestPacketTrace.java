@@ -0,0 +1,113 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.phlo.AirReceiver;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class TestPacketTrace {
+	private static List<String> dump(final PacketTrace trace) {
+		final StringBuilder out = new StringBuilder();
+		final int count = trace.dump(out);
+		final List<String> lines = (out.length() > 0) ? Arrays.asList(out.toString().split("\n")) : Collections.<String>emptyList();
+		Assert.assertEquals(count, lines.size());
+		return lines;
+	}
+
+	@Test
+	public void testRecord() {
+		final PacketTrace trace = new PacketTrace(8);
+		Assert.assertTrue(trace.isEnabled());
+		Assert.assertTrue(dump(trace).isEmpty());
+
+		trace.record(PacketTrace.Stage.Decrypt, 17, 88200, 1000, 25);
+		trace.record(PacketTrace.Stage.Silence, PacketTrace.None, 90000, 2000, 0);
+		Assert.assertEquals(
+			Arrays.asList(
+				"1000 Decrypt seq=17 frame=88200 duration=25",
+				"2000 Silence seq=-1 frame=90000 duration=0"
+			),
+			dump(trace)
+		);
+	}
+
+	@Test
+	public void testWrapAround() {
+		final PacketTrace trace = new PacketTrace(3);
+		Assert.assertEquals(4, trace.getCapacity());
+
+		/* Only the most recent events are kept, oldest first */
+		for(int s=0; s < 10; ++s)
+			trace.record(PacketTrace.Stage.RtpDecode, s, s * 352, s, 1);
+		Assert.assertEquals(10, trace.getRecordedCount());
+
+		final List<String> lines = dump(trace);
+		Assert.assertEquals(4, lines.size());
+		Assert.assertEquals("6 RtpDecode seq=6 frame=2112 duration=1", lines.get(0));
+		Assert.assertEquals("9 RtpDecode seq=9 frame=3168 duration=1", lines.get(3));
+
+		trace.clear();
+		Assert.assertTrue(dump(trace).isEmpty());
+		trace.record(PacketTrace.Stage.Sync, 1, 2, 3, 4);
+		Assert.assertEquals(Arrays.asList("3 Sync seq=1 frame=2 duration=4"), dump(trace));
+	}
+
+	@Test
+	public void testDisabled() {
+		final PacketTrace trace = new PacketTrace(0);
+		Assert.assertFalse(trace.isEnabled());
+		trace.record(PacketTrace.Stage.Enqueue, 1, 2, 3, 4);
+		Assert.assertEquals(0, trace.getRecordedCount());
+		Assert.assertTrue(dump(trace).isEmpty());
+	}
+
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		final PacketTrace trace = new PacketTrace(1024);
+		final Thread[] threads = new Thread[4];
+		for(int t=0; t < threads.length; ++t) {
+			final int stage = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i=0; i < 10000; ++i)
+						trace.record(PacketTrace.Stage.values()[stage], i, i, i, stage);
+				}
+			});
+			threads[t].start();
+		}
+
+		/* Dumps taken while recording only contain consistent events */
+		for(int d=0; d < 20; ++d) {
+			for(final String line: dump(trace)) {
+				final String[] fields = line.split(" ");
+				final int stage = PacketTrace.Stage.valueOf(fields[1]).ordinal();
+				Assert.assertEquals("seq=" + fields[0], fields[2]);
+				Assert.assertEquals("frame=" + fields[0], fields[3]);
+				Assert.assertEquals("duration=" + stage, fields[4]);
+			}
+		}
+
+		for(final Thread thread: threads)
+			thread.join();
+		Assert.assertEquals(40000, trace.getRecordedCount());
+		Assert.assertEquals(1024, dump(trace).size());
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class TestRaopReceiver {
+	private static final byte[] HardwareAddress = { 0x00, 0x11, 0x22, 0x33, 0x44, (byte)0xff };
+
+	@Test
+	public void testDefaults() {
+		final Properties properties = new Properties();
+		properties.setProperty("receivers", " kitchen , bedroom");
+		properties.setProperty("receiver.bedroom.name", "Bedroom");
+
+		final List<RaopReceiver> receivers = RaopReceiver.fromProperties(properties, "host", HardwareAddress);
+		Assert.assertEquals(2, receivers.size());
+
+		Assert.assertEquals("host kitchen", receivers.get(0).getName());
+		Assert.assertEquals(RaopReceiver.BasePort, receivers.get(0).getPort());
+		Assert.assertEquals("021122334500", receivers.get(0).getHardwareAddressString());
+		Assert.assertTrue(receivers.get(0).getSinkFactory() instanceof JavaSoundAudioOutputSink.Factory);
+		Assert.assertNull(((JavaSoundAudioOutputSink.Factory)receivers.get(0).getSinkFactory()).getMixerInfo());
+
+		Assert.assertEquals("Bedroom", receivers.get(1).getName());
+		Assert.assertEquals(RaopReceiver.BasePort + 1, receivers.get(1).getPort());
+		Assert.assertEquals("021122334501", receivers.get(1).getHardwareAddressString());
+	}
+
+	@Test
+	public void testExplicitSettings() {
+		final Properties properties = new Properties();
+		properties.setProperty("receivers", "kitchen");
+		properties.setProperty("receiver.kitchen.port", "6000");
+		properties.setProperty("receiver.kitchen.hardwareAddress", "02:de:ad:be:ef:01");
+		properties.setProperty("receiver.kitchen.output", "/tmp/kitchen.pcm");
+
+		final RaopReceiver receiver = RaopReceiver.fromProperties(properties, "host", HardwareAddress).get(0);
+		Assert.assertEquals(6000, receiver.getPort());
+		Assert.assertEquals("02DEADBEEF01", receiver.getHardwareAddressString());
+		Assert.assertTrue(receiver.getSinkFactory() instanceof FileChannelAudioOutputSink.Factory);
+		Assert.assertEquals("/tmp/kitchen.pcm", ((FileChannelAudioOutputSink.Factory)receiver.getSinkFactory()).getFile().getPath());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDuplicatePort() {
+		final Properties properties = new Properties();
+		properties.setProperty("receivers", "kitchen, bedroom");
+		properties.setProperty("receiver.bedroom.port", "5000");
+
+		RaopReceiver.fromProperties(properties, "host", HardwareAddress);
+	}
+}
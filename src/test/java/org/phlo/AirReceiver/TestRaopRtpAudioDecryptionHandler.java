@@ -0,0 +1,61 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.*;
+
+import org.junit.*;
+
+public class TestRaopRtpAudioDecryptionHandler {
+	@Test
+	public void testConsecutivePackets() throws Exception {
+		final Random random = new Random(0);
+		final byte[] key = new byte[16];
+		random.nextBytes(key);
+		final byte[] iv = new byte[16];
+		random.nextBytes(iv);
+		final SecretKeySpec aesKey = new SecretKeySpec(key, "AES");
+		final IvParameterSpec aesIv = new IvParameterSpec(iv);
+
+		final Cipher encrypter = AirTunesCrytography.getCipher("AES/CBC/NoPadding");
+		final RaopRtpAudioDecryptionHandler handler = new RaopRtpAudioDecryptionHandler(aesKey, aesIv);
+
+		/* The cipher is initialized only once, so each packet must
+		 * nevertheless be decrypted starting with the initial IV
+		 */
+		for(int i=0; i < 3; ++i) {
+			/* Six full blocks, plus a partial block which stays unencrypted */
+			final byte[] plain = new byte[100];
+			random.nextBytes(plain);
+			final byte[] encrypted = plain.clone();
+			encrypter.init(Cipher.ENCRYPT_MODE, aesKey, aesIv);
+			encrypter.doFinal(encrypted, 0, 96, encrypted, 0);
+
+			final RaopRtpPacket.AudioTransmit packet = new RaopRtpPacket.AudioTransmit(plain.length);
+			packet.getPayload().setBytes(0, encrypted);
+			Assert.assertSame(packet, handler.decode(null, null, packet));
+
+			final byte[] decrypted = new byte[plain.length];
+			packet.getPayload().getBytes(0, decrypted);
+			Assert.assertArrayEquals(plain, decrypted);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jboss.netty.channel.*;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.junit.*;
+
+public class TestRaopRtpDecodeScheduler {
+	@Test
+	public void testSessionsSpreadOverWorkers() {
+		final RaopRtpDecodeScheduler scheduler = new RaopRtpDecodeScheduler(3, 0);
+		try {
+			final List<RaopRtpDecodeScheduler.Session> sessions = new ArrayList<RaopRtpDecodeScheduler.Session>();
+			for(int i=0; i < 6; ++i)
+				sessions.add(scheduler.createSession());
+			for(final RaopRtpDecodeScheduler.Worker worker: scheduler.getWorkers())
+				Assert.assertEquals(2, worker.getSessionCount());
+
+			/* A new session goes to the worker which lost a session */
+			final RaopRtpDecodeScheduler.Worker worker = sessions.get(4).getWorker();
+			sessions.get(4).close();
+			Assert.assertEquals(1, worker.getSessionCount());
+			Assert.assertSame(worker, scheduler.createSession().getWorker());
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testSessionRunsInOrderOnOneThread() throws Exception {
+		final RaopRtpDecodeScheduler scheduler = new RaopRtpDecodeScheduler(4, 0);
+		try {
+			final RaopRtpDecodeScheduler.Session session = scheduler.createSession();
+			final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+			final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+			final CountDownLatch done = new CountDownLatch(100);
+			for(int i=0; i < 100; ++i) {
+				final int value = i;
+				session.execute(new Runnable() {
+					@Override
+					public void run() {
+						order.add(value);
+						threads.add(Thread.currentThread());
+						done.countDown();
+					}
+				});
+			}
+
+			Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(1, threads.size());
+			for(int i=0; i < 100; ++i)
+				Assert.assertEquals(Integer.valueOf(i), order.get(i));
+			Assert.assertEquals(0, session.getDroppedCount());
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testQueueLimit() throws Exception {
+		final RaopRtpDecodeScheduler scheduler = new RaopRtpDecodeScheduler(1, 4);
+		try {
+			final RaopRtpDecodeScheduler.Session session = scheduler.createSession();
+
+			/* Block the worker until all events were submitted */
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			session.execute(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					}
+					catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			/* Only four events may wait while the first one is processed */
+			final CountDownLatch done = new CountDownLatch(4);
+			for(int i=0; i < 10; ++i) {
+				session.execute(new Runnable() {
+					@Override
+					public void run() {
+						done.countDown();
+					}
+				});
+			}
+			Assert.assertEquals(4, session.getQueueDepth());
+			Assert.assertEquals(4, session.getWorker().getQueueDepth());
+			Assert.assertEquals(6, session.getDroppedCount());
+
+			release.countDown();
+			Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(4, session.getPeakQueueDepth());
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatches() throws Exception {
+		final RaopRtpDecodeScheduler scheduler = new RaopRtpDecodeScheduler(1, 0);
+		try {
+			final RaopRtpDecodeScheduler.Session session = scheduler.createSession();
+
+			/* Counts the events of each batch */
+			final int[] eventCount = new int[1];
+			final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+			final CountDownLatch batchesDone = new CountDownLatch(2);
+			session.addBatchListener(new Runnable() {
+				@Override
+				public void run() {
+					batchSizes.add(eventCount[0]);
+					eventCount[0] = 0;
+					batchesDone.countDown();
+				}
+			});
+
+			/* Block the worker until all events were submitted */
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			session.execute(new Runnable() {
+				@Override
+				public void run() {
+					++eventCount[0];
+					started.countDown();
+					try {
+						release.await();
+					}
+					catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			final int[] lastQueueDepth = new int[] { -1 };
+			for(int i=0; i < 100; ++i) {
+				session.execute(new Runnable() {
+					@Override
+					public void run() {
+						++eventCount[0];
+						lastQueueDepth[0] = session.getQueueDepth();
+					}
+				});
+			}
+			release.countDown();
+
+			/* Events queued while the worker was busy are processed in batches of limited size */
+			Assert.assertTrue(batchesDone.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(Arrays.asList(RaopRtpDecodeScheduler.BatchEventsMax, 101 - RaopRtpDecodeScheduler.BatchEventsMax), batchSizes);
+			Assert.assertEquals(0, lastQueueDepth[0]);
+			Assert.assertEquals(0, session.getWorker().getQueueDepth());
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Returns a channel state event which counts down the latch when run
+	 */
+	private static Runnable stateEvent(final CountDownLatch done) {
+		final ChannelStateEvent event = new ChannelStateEvent() {
+			@Override public Channel getChannel() { return null; }
+			@Override public ChannelFuture getFuture() { return null; }
+			@Override public ChannelState getState() { return ChannelState.OPEN; }
+			@Override public Object getValue() { return Boolean.FALSE; }
+		};
+		return new ChannelEventRunnable(null, event) {
+			@Override
+			public ChannelEvent getEvent() {
+				return event;
+			}
+
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		};
+	}
+
+	@Test
+	public void testStateEventsNotDropped() throws Exception {
+		final RaopRtpDecodeScheduler scheduler = new RaopRtpDecodeScheduler(1, 1);
+		try {
+			final RaopRtpDecodeScheduler.Session session = scheduler.createSession();
+
+			/* Block the worker until all events were submitted */
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			session.execute(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					}
+					catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			/* State events pass the queue limit, and are accepted after the session was closed */
+			final CountDownLatch done = new CountDownLatch(2);
+			for(int i=0; i < 3; ++i) {
+				session.execute(new Runnable() {
+					@Override
+					public void run() {
+					}
+				});
+			}
+			session.execute(stateEvent(done));
+			session.close();
+			session.execute(stateEvent(done));
+			Assert.assertEquals(2, session.getDroppedCount());
+
+			release.countDown();
+			Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+}
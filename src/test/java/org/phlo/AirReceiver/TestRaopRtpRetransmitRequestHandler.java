@@ -0,0 +1,63 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import org.junit.*;
+
+public class TestRaopRtpRetransmitRequestHandler {
+	private static String coalesce(final int bridgeBudget, final long... positions) {
+		final long[] rangeFirst = new long[positions.length];
+		final int[] rangeLength = new int[positions.length];
+		final long[] gaps = new long[positions.length];
+		final long[] sortedGaps = new long[positions.length];
+		final int ranges = RaopRtpRetransmitRequestHandler.coalesceRanges(positions, positions.length, bridgeBudget, rangeFirst, rangeLength, gaps, sortedGaps);
+
+		final StringBuilder result = new StringBuilder();
+		for(int r=0; r < ranges; ++r) {
+			if (r > 0)
+				result.append(" ");
+			result.append(rangeFirst[r]).append("+").append(rangeLength[r]);
+		}
+		return result.toString();
+	}
+
+	@Test
+	public void testConsecutive() {
+		Assert.assertEquals("", coalesce(0));
+		Assert.assertEquals("-5+1", coalesce(0, -5));
+		Assert.assertEquals("-5+3", coalesce(0, -5, -4, -3));
+		Assert.assertEquals("-5+3 -1+1", coalesce(0, -5, -4, -4, -3, -1));
+	}
+
+	@Test
+	public void testBridging() {
+		/* Gaps of 3, 1 and 2 positions */
+		final long[] positions = { -20, -16, -15, -13 };
+		Assert.assertEquals("-20+1 -16+2 -13+1", coalesce(0, positions));
+		Assert.assertEquals("-20+1 -16+4", coalesce(1, positions));
+		Assert.assertEquals("-20+1 -16+4", coalesce(2, positions));
+		Assert.assertEquals("-20+8", coalesce(6, positions));
+	}
+
+	@Test
+	public void testBridgingEqualGaps() {
+		/* With budget for only one of two equal gaps, the earlier one is bridged */
+		Assert.assertEquals("-10+4 -4+1", coalesce(3, -10, -7, -4));
+		Assert.assertEquals("-10+7", coalesce(4, -10, -7, -4));
+	}
+}
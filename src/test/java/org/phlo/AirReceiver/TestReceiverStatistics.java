@@ -0,0 +1,75 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import javax.management.*;
+
+import org.junit.*;
+
+public class TestReceiverStatistics {
+	@Test
+	public void testTotals() {
+		final ReceiverStatistics receiver = new ReceiverStatistics(null);
+		final RaopSessionStatistics session1 = receiver.startSession("first");
+		final RaopSessionStatistics session2 = receiver.startSession("second");
+		Assert.assertEquals(2, receiver.getActiveSessions());
+		Assert.assertEquals(2, receiver.getSessions());
+
+		session1.recordPacketReceived();
+		session1.recordPacketLost();
+		session1.recordDecode(1000);
+		session2.recordPacketReceived();
+		session2.recordUnderrun();
+		Assert.assertEquals(2, receiver.getPacketsReceived());
+		Assert.assertEquals(1, receiver.getPacketsLost());
+		Assert.assertEquals(1, receiver.getUnderruns());
+		Assert.assertEquals(1, receiver.getDecodeCount());
+
+		/* Ended sessions still count towards the totals */
+		receiver.endSession(session1);
+		receiver.endSession(session1);
+		Assert.assertEquals(1, receiver.getActiveSessions());
+		Assert.assertEquals(2, receiver.getPacketsReceived());
+		Assert.assertEquals(1, receiver.getPacketsLost());
+		Assert.assertEquals(1, receiver.getDecodeCount());
+		Assert.assertEquals(1.024, receiver.getDecodeMicrosP50(), 1e-9);
+	}
+
+	@Test
+	public void testMBeans() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		final ReceiverStatistics receiver = new ReceiverStatistics(server);
+		receiver.register();
+
+		final ObjectName receiverName = new ObjectName(ReceiverStatistics.Domain + ":type=Receiver");
+		Assert.assertTrue(server.isRegistered(receiverName));
+
+		final RaopSessionStatistics session = receiver.startSession("/192.168.0.2:5000");
+		final ObjectName sessionName = ReceiverStatistics.getObjectName(session);
+		Assert.assertTrue(server.isRegistered(sessionName));
+
+		session.recordRetransmitRequest();
+		Assert.assertEquals(1L, server.getAttribute(sessionName, "RetransmitRequests"));
+		Assert.assertEquals(1L, server.getAttribute(receiverName, "RetransmitRequests"));
+		Assert.assertEquals(0, server.getAttribute(sessionName, "QueueDepth"));
+
+		receiver.endSession(session);
+		Assert.assertFalse(server.isRegistered(sessionName));
+		Assert.assertEquals(1L, server.getAttribute(receiverName, "RetransmitRequests"));
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import org.junit.*;
+
+public class TestRoundTripTimeEstimator {
+	@Test
+	public void testInitialTimeout() {
+		final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(0.1, 0.02, 1.0, 0.01);
+		Assert.assertEquals(0, estimator.getSampleCount());
+		Assert.assertEquals(0.0, estimator.getRoundTripTime(), 0.0);
+		Assert.assertEquals(0.1, estimator.getTimeout(), 0.0);
+	}
+
+	@Test
+	public void testConvergence() {
+		final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(0.1, 0.02, 1.0, 0.01);
+
+		/* The first sample determines the round-trip time and its variation */
+		estimator.addSample(0.04);
+		Assert.assertEquals(0.04, estimator.getRoundTripTime(), 1e-12);
+		Assert.assertEquals(0.02, estimator.getVariation(), 1e-12);
+		Assert.assertEquals(0.12, estimator.getTimeout(), 1e-12);
+
+		/* With constant samples, the variation decays and the timeout
+		 * approaches the round-trip time plus the timer granularity
+		 */
+		for(int i=0; i < 100; ++i)
+			estimator.addSample(0.04);
+		Assert.assertEquals(0.04, estimator.getRoundTripTime(), 1e-12);
+		Assert.assertEquals(0.05, estimator.getTimeout(), 1e-9);
+
+		/* Later samples move the estimate gradually */
+		estimator.addSample(0.12);
+		Assert.assertEquals(0.05, estimator.getRoundTripTime(), 1e-9);
+		Assert.assertEquals(0.02, estimator.getVariation(), 1e-9);
+
+		/* Negative samples are ignored */
+		estimator.addSample(-1.0);
+		Assert.assertEquals(102, estimator.getSampleCount());
+
+		estimator.reset();
+		Assert.assertEquals(0.1, estimator.getTimeout(), 0.0);
+	}
+
+	@Test
+	public void testBounds() {
+		final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(0.1, 0.02, 1.0, 0.001);
+		estimator.addSample(0.001);
+		Assert.assertEquals(0.02, estimator.getTimeout(), 0.0);
+
+		estimator.reset();
+		estimator.addSample(5.0);
+		Assert.assertEquals(1.0, estimator.getTimeout(), 0.0);
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.AirReceiver;
+
+import org.junit.*;
+
+public class TestStripedCounter {
+	@Test
+	public void testStripes() {
+		Assert.assertEquals(1, Integer.bitCount(StripedCounter.Stripes));
+		Assert.assertTrue(StripedCounter.Stripes >= Math.min(64, Runtime.getRuntime().availableProcessors()));
+	}
+
+	@Test
+	public void testConcurrentIncrements() throws Exception {
+		final StripedCounter counter = new StripedCounter();
+		final int threadCount = 8;
+		final int increments = 100000;
+
+		final Thread[] threads = new Thread[threadCount];
+		for(int t=0; t < threadCount; ++t) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i=0; i < increments; ++i)
+						counter.increment();
+				}
+			});
+			threads[t].start();
+		}
+		for(final Thread thread: threads)
+			thread.join();
+
+		Assert.assertEquals(threadCount * increments, counter.get());
+
+		counter.add(-5);
+		Assert.assertEquals(threadCount * increments - 5, counter.get());
+	}
+}
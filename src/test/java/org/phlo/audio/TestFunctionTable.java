@@ -0,0 +1,100 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.util.Random;
+
+import org.junit.*;
+
+public class TestFunctionTable {
+	/**
+	 * Checks the sinc table against {@link Functions#sinc(double)} and, where
+	 * it converges, {@link Taylor#sinc(double)}
+	 */
+	@Test
+	public void testSinc() {
+		final FunctionTable table = FunctionTable.sinc(16.0 * Math.PI, 256);
+		Assert.assertTrue("bound " + table.getErrorBound(), table.getErrorBound() < 1e-6);
+
+		final Random random = new Random(42);
+		for(int i=0; i < 100000; ++i) {
+			final float x = (float)((2.0 * random.nextDouble() - 1.0) * table.getRange());
+			final double expected = (x != 0.0f) ? Functions.sinc((double)x) : 1.0;
+			Assert.assertEquals("x=" + x, expected, table.evaluate(x), table.getErrorBound());
+		}
+
+		/* The series converges slowly close to -1 and 1 */
+		for(int i=0; i < 1000; ++i) {
+			final float x = (float)(random.nextDouble() - 0.5);
+			Assert.assertEquals("x=" + x, Taylor.sinc(x), table.evaluate(x), table.getErrorBound());
+		}
+
+		/* Table entries and special values */
+		Assert.assertEquals(1.0f, table.evaluate(0.0f), 0.0f);
+		Assert.assertEquals(Functions.sinc(1.0), table.evaluate(1.0f), table.getErrorBound());
+		Assert.assertEquals(0.0f, table.evaluate(17.0f * (float)Math.PI), 0.0f);
+		Assert.assertEquals(0.0f, table.evaluate(Float.POSITIVE_INFINITY), 0.0f);
+		Assert.assertEquals(0.0f, table.evaluate(Float.NaN), 0.0f);
+	}
+
+	/**
+	 * Checks the Kaiser window table against {@link Functions#kaiser(double, double)}
+	 */
+	@Test
+	public void testKaiser() {
+		for(final double beta: new double[] { 0.0, 5.0, 8.0, 12.0 }) {
+			final FunctionTable table = FunctionTable.kaiser(beta, 4096);
+			Assert.assertTrue("beta " + beta + " bound " + table.getErrorBound(), table.getErrorBound() < 1e-6);
+
+			final Random random = new Random(42);
+			for(int i=0; i < 100000; ++i) {
+				/* At the edges, the table holds the window's limit from the inside */
+				final float x = (float)(2.0 * random.nextDouble() - 1.0);
+				if (Math.abs(x) >= 1.0f)
+					continue;
+				Assert.assertEquals("beta " + beta + " x=" + x, Functions.kaiser(x, beta), table.evaluate(x), table.getErrorBound());
+			}
+
+			Assert.assertEquals(1.0f, table.evaluate(0.0f), 1e-7f);
+			Assert.assertEquals(0.0f, table.evaluate(1.01f), 0.0f);
+			Assert.assertEquals(0.0f, table.evaluate(-1.01f), 0.0f);
+		}
+	}
+
+	/**
+	 * Checks that the error bound shrinks quadratically with
+	 * the resolution, until the float precision limits it
+	 */
+	@Test
+	public void testResolution() {
+		final double errorBound16 = FunctionTable.sinc(Math.PI, 16).getErrorBound();
+		final double errorBound32 = FunctionTable.sinc(Math.PI, 32).getErrorBound();
+		Assert.assertEquals(0.25, errorBound32 / errorBound16, 0.01);
+
+		/* The bound for sinc is about h^2/24, since max|sinc''| is 1/3 */
+		Assert.assertEquals(1.0 / (24.0 * 16.0 * 16.0), errorBound16, 1e-6);
+
+		/* At high resolutions, the float precision dominates */
+		Assert.assertEquals(Math.ulp(1.0f), FunctionTable.sinc(Math.PI, 1 << 20).getErrorBound(), 1e-9);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidResolution() {
+		FunctionTable.sinc(1.0, 0);
+	}
+}
@@ -26,6 +26,22 @@ public class TestFunctions {
 		}
 	}
 	
+	@Test
+	public void testBesselI0() {
+		Assert.assertEquals(1.0, Functions.besselI0(0.0), 0.0);
+		Assert.assertEquals(1.2660658777520082, Functions.besselI0(1.0), 1e-15);
+		Assert.assertEquals(427.56411572180474, Functions.besselI0(8.0), 1e-10);
+	}
+
+	@Test
+	public void testKaiser() {
+		Assert.assertEquals(1.0, Functions.kaiser(0.0, 8.0), 0.0);
+		Assert.assertEquals(1.0 / Functions.besselI0(8.0), Functions.kaiser(1.0 - 1e-12, 8.0), 1e-9);
+		Assert.assertEquals(0.0, Functions.kaiser(1.0, 8.0), 0.0);
+		Assert.assertEquals(0.0, Functions.kaiser(-1.5, 8.0), 0.0);
+		Assert.assertEquals(Functions.kaiser(0.3, 8.0), Functions.kaiser(-0.3, 8.0), 0.0);
+	}
+	
 	private static final int TestSincPerformanceN = 100000;
 
 	@Test
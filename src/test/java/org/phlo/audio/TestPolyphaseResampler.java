@@ -0,0 +1,176 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.util.Random;
+
+import org.junit.*;
+
+public class TestPolyphaseResampler {
+	private static final double SampleRate = 44100.0;
+
+	/**
+	 * Returns two channels of sines, at 1 kHz and 5 kHz
+	 */
+	private static float[] sines(final int frames) {
+		final float[] samples = new float[2 * frames];
+		for(int i=0; i < frames; ++i) {
+			samples[2 * i] = (float)(0.5 * Math.sin(2.0 * Math.PI * 1000.0 * i / SampleRate));
+			samples[2 * i + 1] = (float)(0.5 * Math.sin(2.0 * Math.PI * 5000.0 * i / SampleRate));
+		}
+		return samples;
+	}
+
+	/**
+	 * Checks that resampled sines match the expected sines at
+	 * the output frame's positions, for different ratios
+	 */
+	@Test
+	public void testSines() {
+		final int frames = 4096;
+		final float[] input = sines(frames);
+
+		for(final double ratio: new double[] { 1.0, 1.001, 0.999, 1.05, 0.95 }) {
+			final PolyphaseResampler resampler = new PolyphaseResampler(2, 16, 128, 0.9, 8.0);
+			resampler.setRatio(ratio);
+
+			final float[] output = new float[2 * resampler.getMaxOutputFrames(frames)];
+			final int outputFrames = resampler.process(input, 0, frames, output, 0, output.length / 2);
+
+			/* The last halfTaps input frames are held back */
+			Assert.assertEquals("ratio " + ratio, (frames - 16) * ratio, outputFrames, 1.0);
+			Assert.assertEquals(frames - outputFrames / ratio, resampler.getPendingFrames(), 1.0);
+
+			/* Skip the transient caused by the initial zeros */
+			for(int i=32; i < outputFrames; ++i) {
+				final double position = i / ratio;
+				Assert.assertEquals("ratio " + ratio + " frame " + i, 0.5 * Math.sin(2.0 * Math.PI * 1000.0 * position / SampleRate), output[2 * i], 1e-3);
+				Assert.assertEquals("ratio " + ratio + " frame " + i, 0.5 * Math.sin(2.0 * Math.PI * 5000.0 * position / SampleRate), output[2 * i + 1], 1e-3);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a constant signal passes unchanged
+	 */
+	@Test
+	public void testConstant() {
+		final PolyphaseResampler resampler = new PolyphaseResampler(1);
+		resampler.setRatio(1.0 + 1.0 / 3.0);
+
+		final float[] input = new float[1000];
+		java.util.Arrays.fill(input, 0.25f);
+		final float[] output = new float[resampler.getMaxOutputFrames(input.length)];
+		final int outputFrames = resampler.process(input, 0, input.length, output, 0, output.length);
+		for(int i=2 * PolyphaseResampler.DefaultHalfTaps; i < outputFrames; ++i)
+			Assert.assertEquals(0.25f, output[i], 1e-6f);
+	}
+
+	/**
+	 * Checks that the output doesn't depend on how the input is split
+	 * into chunks, even if the ratio changes in between
+	 */
+	@Test
+	public void testChunking() {
+		final int frames = 8192;
+		final float[] input = sines(frames);
+		final Random random = new Random(42);
+
+		final PolyphaseResampler resamplerWhole = new PolyphaseResampler(2);
+		final PolyphaseResampler resamplerChunked = new PolyphaseResampler(2);
+		final float[] outputWhole = new float[2 * 2 * frames];
+		final float[] outputChunked = new float[2 * 2 * frames];
+		int outputWholeFrames = 0;
+		int outputChunkedFrames = 0;
+
+		for(int chunk=0; chunk < 4; ++chunk) {
+			final double ratio = 1.0 + 0.002 * (random.nextDouble() - 0.5);
+			resamplerWhole.setRatio(ratio);
+			resamplerChunked.setRatio(ratio);
+
+			final int chunkOff = chunk * frames / 4;
+			final int chunkEnd = chunkOff + frames / 4;
+			outputWholeFrames += resamplerWhole.process(input, chunkOff, chunkEnd - chunkOff, outputWhole, outputWholeFrames, 2 * frames - outputWholeFrames);
+
+			for(int off = chunkOff; off < chunkEnd; ) {
+				final int len = Math.min(1 + random.nextInt(400), chunkEnd - off);
+				outputChunkedFrames += resamplerChunked.process(input, off, len, outputChunked, outputChunkedFrames, 2 * frames - outputChunkedFrames);
+				off += len;
+			}
+		}
+
+		Assert.assertEquals(outputWholeFrames, outputChunkedFrames);
+		for(int i=0; i < 2 * outputWholeFrames; ++i)
+			Assert.assertEquals(outputWhole[i], outputChunked[i], 0.0f);
+	}
+
+	/**
+	 * Checks that the number of output frames follows the ratio over time
+	 */
+	@Test
+	public void testDrift() {
+		final PolyphaseResampler resampler = new PolyphaseResampler(2);
+		resampler.setRatio(1.0001);
+
+		final float[] input = sines(352);
+		final float[] output = new float[2 * 1024];
+		long outputFrames = 0;
+		for(int i=0; i < 1000; ++i)
+			outputFrames += resampler.process(input, 0, 352, output, 0, 1024);
+
+		/* 352000 input frames yield 35.2 extra frames */
+		Assert.assertEquals((352000 - PolyphaseResampler.DefaultHalfTaps) * 1.0001, outputFrames, 1.0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDestinationTooSmall() {
+		final PolyphaseResampler resampler = new PolyphaseResampler(1);
+		resampler.process(new float[100], 0, 100, new float[50], 0, 50);
+	}
+
+	/**
+	 * Checks that resampling continues without a transient from primed
+	 * preceding frames, and that draining returns the pending frames
+	 */
+	@Test
+	public void testPrimeAndDrain() {
+		final int frames = 1024;
+		final int tailFrames = PolyphaseResampler.DefaultHalfTaps - 1;
+		final float[] input = sines(tailFrames + frames);
+
+		final PolyphaseResampler resampler = new PolyphaseResampler(2);
+		resampler.reset(input, 0);
+		resampler.setRatio(1.001);
+
+		final float[] output = new float[2 * resampler.getMaxOutputFrames(frames)];
+		final int outputFrames = resampler.process(input, tailFrames, frames, output, 0, output.length / 2);
+		for(int i=0; i < outputFrames; ++i) {
+			final double position = tailFrames + i / 1.001;
+			Assert.assertEquals("frame " + i, 0.5 * Math.sin(2.0 * Math.PI * 1000.0 * position / SampleRate), output[2 * i], 1e-3);
+		}
+
+		/* The pending frames are returned as they are, and the resampler is reset */
+		final long pendingFrames = Math.round(resampler.getPendingFrames());
+		final float[] drained = new float[2 * (PolyphaseResampler.DefaultHalfTaps + 2)];
+		final int drainedFrames = resampler.drain(drained, 0, drained.length / 2);
+		Assert.assertEquals(pendingFrames, drainedFrames);
+		for(int i=0; i < 2 * drainedFrames; ++i)
+			Assert.assertEquals(input[2 * (tailFrames + frames - drainedFrames) + i], drained[i], 0.0f);
+		Assert.assertEquals(0.0, resampler.getPendingFrames(), 0.0);
+	}
+}
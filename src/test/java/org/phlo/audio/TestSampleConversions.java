@@ -0,0 +1,130 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.util.Random;
+
+import org.junit.*;
+
+public class TestSampleConversions {
+	/**
+	 * Checks every 16-bit value against {@link Signedness#shortToNormalizedFloat(short)}
+	 */
+	@Test
+	public void testShortsToNormalizedFloats() {
+		final short[] shorts = new short[0x10000 + 3];
+		for(int i=0; i < 0x10000; ++i)
+			shorts[3 + i] = (short)i;
+
+		for(final Signedness signedness: Signedness.values()) {
+			final float[] floats = new float[0x10000 + 5];
+			SampleConversions.shortsToNormalizedFloats(shorts, 3, floats, 5, 0x10000, signedness);
+			for(int i=0; i < 0x10000; ++i) {
+				Assert.assertEquals(
+					signedness + " " + i,
+					Float.floatToRawIntBits(signedness.shortToNormalizedFloat((short)i)),
+					Float.floatToRawIntBits(floats[5 + i])
+				);
+			}
+		}
+
+		/* The expectations of TestSignedness */
+		final float[] floats = new float[3];
+		SampleConversions.shortsToNormalizedFloats(new short[] { Short.MIN_VALUE, 0, Short.MAX_VALUE }, 0, floats, 0, 3, Signedness.Signed);
+		Assert.assertEquals(-1.0f, floats[0], 0.0f);
+		Assert.assertEquals(Math.scalb(1.0f, -16), floats[1], 1e-8);
+		Assert.assertEquals(1.0f, floats[2], 0.0f);
+	}
+
+	/**
+	 * Checks boundary, out-of-range and random values against
+	 * {@link Signedness#shortFromNormalizedFloat(float)}
+	 */
+	@Test
+	public void testNormalizedFloatsToShorts() {
+		final Random random = new Random(42);
+		final float[] floats = new float[1024];
+		final float[] special = {
+			-1.0f, -1.0f + Math.scalb(1.0f, -16), -Math.scalb(1.0f, -17), 0.0f, -0.0f, Math.scalb(1.0f, -17),
+			1.0f - Math.scalb(1.0f, -16), 1.0f, 1.5f, -1.5f, 1e10f, -1e10f,
+			Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN
+		};
+		System.arraycopy(special, 0, floats, 0, special.length);
+		for(int i=special.length; i < floats.length; ++i)
+			floats[i] = 2.2f * random.nextFloat() - 1.1f;
+
+		for(final Signedness signedness: Signedness.values()) {
+			final short[] shorts = new short[floats.length];
+			SampleConversions.normalizedFloatsToShorts(floats, 0, shorts, 0, floats.length, signedness);
+			for(int i=0; i < floats.length; ++i)
+				Assert.assertEquals(signedness + " " + floats[i], signedness.shortFromNormalizedFloat(floats[i]), shorts[i]);
+		}
+
+		/* The expectations of TestSignedness */
+		final short[] shorts = new short[7];
+		SampleConversions.normalizedFloatsToShorts(special, 0, shorts, 0, 7, Signedness.Signed);
+		Assert.assertEquals(Short.MIN_VALUE, shorts[0]);
+		Assert.assertEquals(Short.MIN_VALUE + 1, shorts[1]);
+		Assert.assertEquals(0, shorts[2]);
+		Assert.assertEquals(0, shorts[3]);
+		Assert.assertEquals(0, shorts[5]);
+		Assert.assertEquals(Short.MAX_VALUE - 1, shorts[6]);
+	}
+
+	/**
+	 * Checks the flip against {@link Signedness#shortToSignedShort(short)},
+	 * across more than one mask length
+	 */
+	@Test
+	public void testFlipSignBit16() {
+		final Random random = new Random(42);
+		final byte[] bytes = new byte[10002];
+		random.nextBytes(bytes);
+
+		for(final boolean bigEndian: new boolean[] { true, false }) {
+			final byte[] flipped = bytes.clone();
+			SampleConversions.flipSignBit16(flipped, 2, bytes.length - 2, bigEndian);
+
+			Assert.assertEquals(bytes[0], flipped[0]);
+			Assert.assertEquals(bytes[1], flipped[1]);
+			for(int i=2; i < bytes.length; i += 2) {
+				final int hi = bigEndian ? i : i + 1;
+				final int lo = bigEndian ? i + 1 : i;
+				final short unsigned = (short)(((bytes[hi] & 0xff) << 8) | (bytes[lo] & 0xff));
+				final short signed = (short)(((flipped[hi] & 0xff) << 8) | (flipped[lo] & 0xff));
+				Assert.assertEquals(Signedness.Unsigned.shortToSignedShort(unsigned), signed);
+			}
+		}
+	}
+
+	@Test
+	public void testBytesToShortsAndBack() {
+		final byte[] bytes = { 0x12, 0x34, (byte)0x80, 0x00, (byte)0xff, (byte)0xfe };
+		final short[] shorts = new short[4];
+
+		SampleConversions.bytesToShorts(bytes, 0, shorts, 1, 3, true);
+		Assert.assertArrayEquals(new short[] { 0, 0x1234, (short)0x8000, (short)0xfffe }, shorts);
+		SampleConversions.bytesToShorts(bytes, 0, shorts, 0, 3, false);
+		Assert.assertArrayEquals(new short[] { 0x3412, 0x0080, (short)0xfeff, (short)0xfffe }, shorts);
+
+		final byte[] roundTrip = new byte[8];
+		SampleConversions.shortsToBytes(shorts, 0, roundTrip, 2, 3, false);
+		for(int i=0; i < bytes.length; ++i)
+			Assert.assertEquals(bytes[i], roundTrip[2 + i]);
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of AirReceiver.
+ *
+ * AirReceiver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * AirReceiver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with AirReceiver.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.phlo.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.*;
+
+public class TestSampleCopyKernels {
+	private static final SampleDimensions ByteDimensions = new SampleDimensions(3, 64);
+	private static final SampleRange ByteRange = new SampleRange(new SampleOffset(1, 5), new SampleDimensions(2, 50));
+	private static final SampleDimensions SampleDimensions = new SampleDimensions(2, 60);
+
+	/**
+	 * Checks that the specialized loops produce exactly the same
+	 * samples and bytes as the generic path, for all formats
+	 */
+	@Test
+	public void testMatchesGenericPath() {
+		final Random random = new Random(42);
+		for(final SampleBufferLayout layout: SampleBufferLayout.values()) {
+			for(final ByteOrder byteOrder: new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+				for(final SampleByteFormat sampleFormat: SampleByteFormat.values()) {
+					final String name = layout + "/" + byteOrder + "/" + sampleFormat;
+					final SampleByteBufferFormat format = new SampleByteBufferFormat(layout, byteOrder, sampleFormat);
+
+					/* Random bytes. For floats, avoid NaNs whose bits needn't survive a round trip */
+					final ByteBuffer bytes = format.allocateBuffer(ByteDimensions);
+					random.nextBytes(bytes.array());
+					if (sampleFormat == SampleByteFormat.Float32) {
+						for(int i=0; i < ByteDimensions.getTotalSamples(); ++i)
+							bytes.putFloat(4 * i, (float)random.nextGaussian());
+					}
+
+					/* Bytes to samples */
+					final SampleBuffer kernelSamples = new SampleBuffer(SampleDimensions);
+					final SampleBuffer genericSamples = new SampleBuffer(SampleDimensions);
+					kernelSamples.slice(new SampleOffset(0, 7), null).copyFrom(bytes, ByteDimensions, ByteRange, format);
+					genericSamples.slice(new SampleOffset(0, 7), null).copyFromGeneric(bytes, ByteDimensions, ByteRange, format);
+					for(int c=0; c < SampleDimensions.channels; ++c) {
+						for(int s=0; s < SampleDimensions.samples; ++s) {
+							Assert.assertEquals(
+								name + " [" + c + "," + s + "]",
+								Float.floatToRawIntBits(genericSamples.getSample(c, s)),
+								Float.floatToRawIntBits(kernelSamples.getSample(c, s))
+							);
+						}
+					}
+
+					/* Samples to bytes, including samples which must be clipped */
+					kernelSamples.setSample(0, 10, 1.5f);
+					kernelSamples.setSample(1, 11, -1.5f);
+					kernelSamples.setSample(0, 12, 1.0f);
+					kernelSamples.setSample(1, 13, -1.0f);
+					final ByteBuffer kernelBytes = format.allocateBuffer(ByteDimensions);
+					final ByteBuffer genericBytes = format.allocateBuffer(ByteDimensions);
+					final SampleBuffer slice = kernelSamples.slice(new SampleOffset(0, 7), new SampleDimensions(2, 50));
+					slice.copyTo(kernelBytes, ByteDimensions, ByteRange.offset, format);
+					slice.copyToGeneric(genericBytes, ByteDimensions, ByteRange.offset, format);
+					Assert.assertArrayEquals(name, genericBytes.array(), kernelBytes.array());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Buffers without an accessible array use the generic path
+	 */
+	@Test
+	public void testDirectBuffer() {
+		final SampleByteBufferFormat format = new SampleByteBufferFormat(SampleBufferLayout.Interleaved, ByteOrder.BIG_ENDIAN, SampleByteFormat.SignedInteger16);
+		final ByteBuffer bytes = ByteBuffer.allocateDirect(format.sampleFormat.getSizeBytes(ByteDimensions));
+		bytes.putShort(2 * 3, (short)0x4000);
+
+		final SampleBuffer samples = new SampleBuffer(ByteDimensions);
+		samples.copyFrom(bytes, ByteDimensions, format);
+		Assert.assertEquals(Signedness.Signed.shortToNormalizedFloat((short)0x4000), samples.getSample(0, 1), 0.0f);
+	}
+}